@@ -0,0 +1,66 @@
+package untitled.nativemediaplayer;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scroll benchmark for the {@link SongAdapter}, executed on an Android device.
+ * Binds 1,000 rows the way a ListView does while scrolling (rows leaving the screen are handed back
+ * as convertView) and reports the inflations and allocations needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SongAdapterScrollBenchmark {
+
+    private static final int LIBRARY_SIZE = 10000;
+    private static final int ROWS_SCROLLED = 1000;
+    private static final int VISIBLE_ROWS = 12;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void scroll1000Rows() {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        SongTable table = new SongTable(LIBRARY_SIZE);
+        for (int i = 0; i < LIBRARY_SIZE; i++) {
+            table.add(i, "Song title " + i, "Artist " + (i % 500));
+        }
+        SongAdapter adapter = new SongAdapter(appContext, table);
+        FrameLayout parent = new FrameLayout(appContext);
+
+        //Fill the screen, like the ListView does on first layout.
+        ArrayDeque<View> onScreen = new ArrayDeque<>();
+        for (int i = 0; i < VISIBLE_ROWS; i++) {
+            onScreen.addLast(adapter.getView(i, null, parent));
+        }
+        int inflatesBefore = adapter.getInflateCount();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = VISIBLE_ROWS; i < VISIBLE_ROWS + ROWS_SCROLLED; i++) {
+            View recycled = onScreen.removeFirst();
+            onScreen.addLast(adapter.getView(i, recycled, parent));
+        }
+        Debug.stopAllocCounting();
+
+        int inflations = adapter.getInflateCount() - inflatesBefore;
+        int allocations = Debug.getThreadAllocCount();
+        Log.i("SongAdapterScroll", "Per " + ROWS_SCROLLED + " rows scrolled: " + inflations + " inflations, "
+                + allocations + " allocations, " + Debug.getThreadAllocSize() + " bytes");
+
+        assertEquals(0, inflations);
+        assertEquals(ROWS_SCROLLED + VISIBLE_ROWS, adapter.getBindCount());
+        assertEquals(VISIBLE_ROWS + ROWS_SCROLLED - 1, SongAdapter.getPosition(onScreen.getLast()));
+        assertEquals(table.getID(42), adapter.getItemId(42));
+    }
+}
@@ -0,0 +1,92 @@
+#include "aaudio_sink.h"
+
+#include <android/log.h>
+
+#define LOG_TAG "AAudioSink"
+
+AAudioSink::AAudioSink(PcmPipeline *pipeline) : pipeline_(pipeline), stream_(nullptr) {
+}
+
+AAudioSink::~AAudioSink() {
+    close();
+}
+
+bool AAudioSink::open() {
+    AAudioStreamBuilder *builder;
+    aaudio_result_t result = AAudio_createStreamBuilder(&builder);
+    if (result != AAUDIO_OK) {
+        __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "ERROR creating the stream builder: %s",
+                            AAudio_convertResultToText(result));
+        return false;
+    }
+    AAudioStreamBuilder_setDirection(builder, AAUDIO_DIRECTION_OUTPUT);
+    AAudioStreamBuilder_setSharingMode(builder, AAUDIO_SHARING_MODE_SHARED);
+    AAudioStreamBuilder_setPerformanceMode(builder, AAUDIO_PERFORMANCE_MODE_LOW_LATENCY);
+    AAudioStreamBuilder_setFormat(builder, AAUDIO_FORMAT_PCM_I16);
+    AAudioStreamBuilder_setSampleRate(builder, pipeline_->sampleRate());
+    AAudioStreamBuilder_setChannelCount(builder, pipeline_->channels());
+    AAudioStreamBuilder_setDataCallback(builder, onAudioReady, this);
+    AAudioStreamBuilder_setErrorCallback(builder, onError, this);
+    result = AAudioStreamBuilder_openStream(builder, &stream_);
+    AAudioStreamBuilder_delete(builder);
+    if (result != AAUDIO_OK) {
+        __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "ERROR opening the stream: %s",
+                            AAudio_convertResultToText(result));
+        stream_ = nullptr;
+        return false;
+    }
+    // the burst is the smallest buffer the stream works with, two of them absorb a late callback
+    AAudioStream_setBufferSizeInFrames(stream_, 2 * AAudioStream_getFramesPerBurst(stream_));
+    return true;
+}
+
+bool AAudioSink::start() {
+    if (stream_ == nullptr && !open()) {
+        return false;
+    }
+    aaudio_result_t result = AAudioStream_requestStart(stream_);
+    if (result == AAUDIO_ERROR_DISCONNECTED) {
+        close();
+        if (!open()) {
+            return false;
+        }
+        result = AAudioStream_requestStart(stream_);
+    }
+    if (result != AAUDIO_OK) {
+        __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "ERROR starting the stream: %s",
+                            AAudio_convertResultToText(result));
+        return false;
+    }
+    return true;
+}
+
+void AAudioSink::stop() {
+    if (stream_ != nullptr) {
+        AAudioStream_requestStop(stream_);
+    }
+}
+
+void AAudioSink::close() {
+    if (stream_ != nullptr) {
+        AAudioStream_requestStop(stream_);
+        AAudioStream_close(stream_);
+        stream_ = nullptr;
+    }
+}
+
+int32_t AAudioSink::framesPerBurst() const {
+    return stream_ == nullptr ? 0 : AAudioStream_getFramesPerBurst(stream_);
+}
+
+aaudio_data_callback_result_t AAudioSink::onAudioReady(AAudioStream * /* stream */, void *userData,
+                                                       void *audioData, int32_t numFrames) {
+    AAudioSink *sink = static_cast<AAudioSink *>(userData);
+    sink->pipeline_->render(static_cast<int16_t *>(audioData), static_cast<size_t>(numFrames));
+    return AAUDIO_CALLBACK_RESULT_CONTINUE;
+}
+
+void AAudioSink::onError(AAudioStream * /* stream */, void * /* userData */, aaudio_result_t error) {
+    // e.g. the stream is disconnected when the headphones are unplugged, start() then opens a new one.
+    // The stream can't be closed from this callback.
+    __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "Stream error: %s", AAudio_convertResultToText(error));
+}
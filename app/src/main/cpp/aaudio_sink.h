@@ -0,0 +1,48 @@
+#ifndef NATIVEMEDIAPLAYER_AAUDIO_SINK_H
+#define NATIVEMEDIAPLAYER_AAUDIO_SINK_H
+
+#include <aaudio/AAudio.h>
+
+#include "pcm_pipeline.h"
+
+/**
+ * Plays a PcmPipeline through an AAudio output stream, in low latency mode.
+ * The stream's data callback renders straight from the pipeline's ring buffer.
+ */
+class AAudioSink {
+public:
+    explicit AAudioSink(PcmPipeline *pipeline);
+
+    ~AAudioSink();
+
+    AAudioSink(const AAudioSink &) = delete;
+    AAudioSink &operator=(const AAudioSink &) = delete;
+
+    /**
+     * Opens the stream if needed and starts it.
+     * @return false if the stream couldn't be opened or started.
+     */
+    bool start();
+
+    void stop();
+
+    /**
+     * Frames per burst of the stream, the amount rendered by one callback; 0 when not open.
+     */
+    int32_t framesPerBurst() const;
+
+private:
+    static aaudio_data_callback_result_t onAudioReady(AAudioStream *stream, void *userData,
+                                                      void *audioData, int32_t numFrames);
+
+    static void onError(AAudioStream *stream, void *userData, aaudio_result_t error);
+
+    bool open();
+
+    void close();
+
+    PcmPipeline *pipeline_;
+    AAudioStream *stream_;
+};
+
+#endif //NATIVEMEDIAPLAYER_AAUDIO_SINK_H
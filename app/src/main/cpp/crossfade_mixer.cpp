@@ -0,0 +1,92 @@
+#include "crossfade_mixer.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+
+static const double PI = 3.14159265358979323846;
+
+const int CrossfadeMixer::MAX_CHANNELS;
+const int CrossfadeMixer::TABLE_SIZE;
+const size_t CrossfadeMixer::BLOCK_FRAMES;
+
+static double fadeIn(CrossfadeCurve curve, double t) {
+    switch (curve) {
+        case CURVE_EQUAL_POWER:
+            return std::sin(t * PI / 2);
+        case CURVE_S:
+            return 0.5 - 0.5 * std::cos(t * PI);
+        default:
+            return t;
+    }
+}
+
+CrossfadeMixer::CrossfadeMixer(int channels)
+        : channels_(channels), curve_(CURVE_LINEAR), length_(0), position_(0) {
+    fillTable();
+}
+
+void CrossfadeMixer::fillTable() {
+    for (int i = 0; i <= TABLE_SIZE; i++) {
+        table_[i] = static_cast<float>(fadeIn(curve_, static_cast<double>(i) / TABLE_SIZE));
+    }
+}
+
+void CrossfadeMixer::start(CrossfadeCurve curve, size_t lengthFrames) {
+    if (curve != curve_) {
+        curve_ = curve;
+        fillTable();
+    }
+    // more channels than the mixing loops handle: the tracks are switched without a fade
+    length_ = channels_ <= MAX_CHANNELS ? lengthFrames : 0;
+    position_ = 0;
+}
+
+void CrossfadeMixer::finish() {
+    position_ = length_;
+}
+
+// x in [0, TABLE_SIZE]
+float CrossfadeMixer::tableAt(double x) const {
+    int i = std::min(static_cast<int>(x), TABLE_SIZE - 1);
+    float fraction = static_cast<float>(x - i);
+    return table_[i] + (table_[i + 1] - table_[i]) * fraction;
+}
+
+float CrossfadeMixer::fadeInGain(size_t frame) const {
+    return frame >= length_ ? 1.0f : tableAt(frame * (static_cast<double>(TABLE_SIZE) / length_));
+}
+
+float CrossfadeMixer::fadeOutGain(size_t frame) const {
+    return frame >= length_ ? 0.0f : tableAt((length_ - frame) * (static_cast<double>(TABLE_SIZE) / length_));
+}
+
+void CrossfadeMixer::mix(float *outgoing, const float *incoming, size_t frameCount) {
+    size_t done = 0;
+    while (done < frameCount && isFading()) {
+        size_t count = std::min(std::min(BLOCK_FRAMES, frameCount - done), length_ - position_);
+        // the table position of every frame, from the absolute frame so block sizes don't change the gains
+        const double scale = static_cast<double>(TABLE_SIZE) / length_;
+        for (size_t i = 0; i < count; i++) {
+            in_[i] = tableAt((position_ + i) * scale);
+            out_[i] = tableAt((length_ - position_ - i) * scale);
+        }
+        float *o = outgoing + done * channels_;
+        const float *in = incoming + done * channels_;
+        if (channels_ == 2) {
+            for (size_t i = 0; i < count; i++) {
+                o[2 * i] = o[2 * i] * out_[i] + in[2 * i] * in_[i];
+                o[2 * i + 1] = o[2 * i + 1] * out_[i] + in[2 * i + 1] * in_[i];
+            }
+        } else {
+            for (size_t i = 0; i < count; i++) {
+                o[i] = o[i] * out_[i] + in[i] * in_[i];
+            }
+        }
+        position_ += count;
+        done += count;
+    }
+    if (done < frameCount) {
+        memcpy(outgoing + done * channels_, incoming + done * channels_, (frameCount - done) * channels_ * sizeof(float));
+    }
+}
@@ -0,0 +1,79 @@
+#ifndef NATIVEMEDIAPLAYER_CROSSFADE_MIXER_H
+#define NATIVEMEDIAPLAYER_CROSSFADE_MIXER_H
+
+#include <cstddef>
+
+// Same values as CrossfadeCurve.java.
+enum CrossfadeCurve {
+    CURVE_LINEAR = 0,
+    // Constant power: sin/cos, for tracks that are not correlated (the usual case).
+    CURVE_EQUAL_POWER = 1,
+    // Raised cosine: slow at both ends, the outgoing track stays present longer.
+    CURVE_S = 2
+};
+
+/**
+ * Mixes the tail of the outgoing track with the head of the incoming one, frame by frame.
+ * The fade-in gain of every curve is tabulated once per start() and interpolated per frame; the fade-out
+ * gain is the fade-in gain read backwards, so both tracks follow the same curve. A fade of N frames
+ * starts with the outgoing frame untouched and ends after exactly N frames, whatever the block sizes.
+ * Runs on the audio thread on float frames, without allocating; the per-frame gains of a block are
+ * computed into fixed arrays first so the mixing loop is a plain vectorizable loop.
+ */
+class CrossfadeMixer {
+public:
+    static const int MAX_CHANNELS = 2;
+    static const int TABLE_SIZE = 512;
+    static const size_t BLOCK_FRAMES = 256;
+
+    explicit CrossfadeMixer(int channels);
+
+    CrossfadeMixer(const CrossfadeMixer &) = delete;
+    CrossfadeMixer &operator=(const CrossfadeMixer &) = delete;
+
+    /**
+     * Starts a fade of lengthFrames frames. A fade in progress is dropped.
+     */
+    void start(CrossfadeCurve curve, size_t lengthFrames);
+
+    /**
+     * Stops the fade, the next mix() only passes the incoming frames.
+     */
+    void finish();
+
+    bool isFading() const { return position_ < length_; }
+
+    /**
+     * Frames of the fade mixed so far.
+     */
+    size_t position() const { return position_; }
+
+    size_t length() const { return length_; }
+
+    /**
+     * Mixes incoming into outgoing, in place, and moves the fade forward. Past the end of the fade,
+     * outgoing gets the incoming frames as they are.
+     */
+    void mix(float *outgoing, const float *incoming, size_t frameCount);
+
+    // Gains at a frame of the fade.
+    float fadeInGain(size_t frame) const;
+
+    float fadeOutGain(size_t frame) const;
+
+private:
+    void fillTable();
+
+    float tableAt(double x) const;
+
+    const int channels_;
+    CrossfadeCurve curve_;
+    size_t length_;
+    size_t position_;
+    // fade-in gain at t = i / TABLE_SIZE
+    float table_[TABLE_SIZE + 1];
+    float in_[BLOCK_FRAMES];
+    float out_[BLOCK_FRAMES];
+};
+
+#endif //NATIVEMEDIAPLAYER_CROSSFADE_MIXER_H
@@ -0,0 +1,246 @@
+#include "dsp_chain.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+
+static const double PI = 3.14159265358979323846;
+
+const int DspParameters::MAX_BANDS;
+const int DspChain::MAX_CHANNELS;
+const size_t DspChain::BLOCK_FRAMES;
+
+static float dbToGain(float db) {
+    return static_cast<float>(std::pow(10.0, db / 20.0));
+}
+
+BiquadCoefficients BiquadCoefficients::of(const EqBand &band, int sampleRate) {
+    double frequency = std::min(std::max(static_cast<double>(band.frequency), 1.0), sampleRate * 0.49);
+    double q = std::max(static_cast<double>(band.q), 0.01);
+    double a = std::pow(10.0, band.gainDb / 40.0);
+    double w0 = 2 * PI * frequency / sampleRate;
+    double cosW0 = std::cos(w0);
+    double alpha = std::sin(w0) / (2 * q);
+    double twoSqrtAAlpha = 2 * std::sqrt(a) * alpha;
+
+    double b0, b1, b2, a0, a1, a2;
+    switch (band.type) {
+        case EQ_PEAKING:
+            b0 = 1 + alpha * a;
+            b1 = -2 * cosW0;
+            b2 = 1 - alpha * a;
+            a0 = 1 + alpha / a;
+            a1 = -2 * cosW0;
+            a2 = 1 - alpha / a;
+            break;
+        case EQ_LOW_SHELF:
+            b0 = a * ((a + 1) - (a - 1) * cosW0 + twoSqrtAAlpha);
+            b1 = 2 * a * ((a - 1) - (a + 1) * cosW0);
+            b2 = a * ((a + 1) - (a - 1) * cosW0 - twoSqrtAAlpha);
+            a0 = (a + 1) + (a - 1) * cosW0 + twoSqrtAAlpha;
+            a1 = -2 * ((a - 1) + (a + 1) * cosW0);
+            a2 = (a + 1) + (a - 1) * cosW0 - twoSqrtAAlpha;
+            break;
+        case EQ_HIGH_SHELF:
+            b0 = a * ((a + 1) + (a - 1) * cosW0 + twoSqrtAAlpha);
+            b1 = -2 * a * ((a - 1) + (a + 1) * cosW0);
+            b2 = a * ((a + 1) + (a - 1) * cosW0 - twoSqrtAAlpha);
+            a0 = (a + 1) - (a - 1) * cosW0 + twoSqrtAAlpha;
+            a1 = 2 * ((a - 1) - (a + 1) * cosW0);
+            a2 = (a + 1) - (a - 1) * cosW0 - twoSqrtAAlpha;
+            break;
+        default:
+            return BiquadCoefficients{1, 0, 0, 0, 0};
+    }
+    return BiquadCoefficients{static_cast<float>(b0 / a0), static_cast<float>(b1 / a0), static_cast<float>(b2 / a0),
+                              static_cast<float>(a1 / a0), static_cast<float>(a2 / a0)};
+}
+
+DspParameters DspParameters::neutral() {
+    DspParameters parameters;
+    memset(&parameters, 0, sizeof(parameters));
+    parameters.bandCount = 0;
+    parameters.gainDb = 0;
+    parameters.limiterThresholdDb = 0;
+    parameters.limiterReleaseMs = 100;
+    return parameters;
+}
+
+DspChain::DspChain(int sampleRate, int channels)
+        : sampleRate_(sampleRate),
+          channels_(channels),
+          parameters_(DspParameters::neutral()),
+          activeBands_(0),
+          gain_(1),
+          targetGain_(1),
+          threshold_(1),
+          releaseCoefficient_(0),
+          envelope_(1) {
+    memset(state_, 0, sizeof(state_));
+    // the initial parameters are taken like later ones
+    parameters_.publish(DspParameters::neutral());
+    updateParameters();
+}
+
+void DspChain::setParameters(const DspParameters &parameters) {
+    parameters_.publish(parameters);
+}
+
+// Called on the audio thread: computing the coefficients costs a few sin/cos per band, only when they change.
+void DspChain::updateParameters() {
+    if (!parameters_.update()) {
+        return;
+    }
+    const DspParameters &parameters = parameters_.current();
+    int bandCount = std::min(std::max(parameters.bandCount, 0), static_cast<int>(DspParameters::MAX_BANDS));
+    int active = 0;
+    for (int i = 0; i < bandCount; i++) {
+        const EqBand &band = parameters.bands[i];
+        // a band at 0 dB leaves the signal as it is
+        if (band.type == EQ_OFF || band.gainDb == 0) {
+            continue;
+        }
+        coefficients_[active++] = BiquadCoefficients::of(band, sampleRate_);
+    }
+    // bands newly in use start from silence, the others keep their state so the sound doesn't jump
+    for (int i = activeBands_; i < active; i++) {
+        memset(state_[i], 0, sizeof(state_[i]));
+    }
+    activeBands_ = active;
+
+    targetGain_ = dbToGain(parameters.gainDb);
+    threshold_ = std::min(dbToGain(parameters.limiterThresholdDb), 1.0f);
+    float releaseFrames = std::max(parameters.limiterReleaseMs, 1.0f) / 1000 * sampleRate_;
+    releaseCoefficient_ = static_cast<float>(std::exp(-1.0 / releaseFrames));
+}
+
+bool DspChain::isBypassed() {
+    updateParameters();
+    return channels_ > MAX_CHANNELS
+           || (activeBands_ == 0 && gain_ == 1 && targetGain_ == 1 && threshold_ >= 1 && envelope_ == 1);
+}
+
+void DspChain::reset() {
+    memset(state_, 0, sizeof(state_));
+    envelope_ = 1;
+    gain_ = targetGain_;
+}
+
+void DspChain::process(float *frames, size_t frameCount) {
+    if (channels_ > MAX_CHANNELS) {
+        return;
+    }
+    updateParameters();
+    for (size_t done = 0; done < frameCount; done += BLOCK_FRAMES) {
+        size_t count = std::min(BLOCK_FRAMES, frameCount - done);
+        float *block = frames + done * channels_;
+        processEq(block, count);
+        processGain(block, count);
+        processLimiter(block, count);
+    }
+}
+
+// The recursion runs along the frames, the channels are processed side by side so the inner loop has a fixed length.
+template<int CHANNELS>
+static void biquad(const BiquadCoefficients &c, float (*state)[2], float *frames, size_t frameCount) {
+    float s1[CHANNELS];
+    float s2[CHANNELS];
+    for (int ch = 0; ch < CHANNELS; ch++) {
+        s1[ch] = state[ch][0];
+        s2[ch] = state[ch][1];
+    }
+    for (size_t i = 0; i < frameCount; i++) {
+        float *frame = frames + i * CHANNELS;
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            float x = frame[ch];
+            float y = c.b0 * x + s1[ch];
+            s1[ch] = c.b1 * x - c.a1 * y + s2[ch];
+            s2[ch] = c.b2 * x - c.a2 * y;
+            frame[ch] = y;
+        }
+    }
+    for (int ch = 0; ch < CHANNELS; ch++) {
+        // a decaying state ends in denormals, which are slow on most CPUs
+        state[ch][0] = std::fabs(s1[ch]) < 1e-20f ? 0 : s1[ch];
+        state[ch][1] = std::fabs(s2[ch]) < 1e-20f ? 0 : s2[ch];
+    }
+}
+
+void DspChain::processEq(float *frames, size_t frameCount) {
+    for (int band = 0; band < activeBands_; band++) {
+        if (channels_ == 2) {
+            biquad<2>(coefficients_[band], state_[band], frames, frameCount);
+        } else {
+            biquad<1>(coefficients_[band], state_[band], frames, frameCount);
+        }
+    }
+}
+
+void DspChain::processGain(float *frames, size_t frameCount) {
+    size_t samples = frameCount * channels_;
+    if (gain_ == targetGain_) {
+        if (gain_ == 1) {
+            return;
+        }
+        float gain = gain_;
+        for (size_t i = 0; i < samples; i++) {
+            frames[i] *= gain;
+        }
+        return;
+    }
+    // a new gain is reached over the block, without a click
+    float step = (targetGain_ - gain_) / frameCount;
+    for (size_t i = 0; i < frameCount; i++) {
+        float gain = gain_ + step * (i + 1);
+        for (int ch = 0; ch < channels_; ch++) {
+            frames[i * channels_ + ch] *= gain;
+        }
+    }
+    gain_ = targetGain_;
+}
+
+// Peak limiter with instant attack: the gain drops at once to what keeps the frame under the threshold,
+// and recovers exponentially. Three passes so that only the envelope is a recursive loop.
+void DspChain::processLimiter(float *frames, size_t frameCount) {
+    if (envelope_ == 1) {
+        // at rest, the limiter only has work if a sample goes over the threshold
+        float threshold = threshold_;
+        int over = 0;
+        for (size_t i = 0; i < frameCount * channels_; i++) {
+            over |= std::fabs(frames[i]) > threshold;
+        }
+        if (!over) {
+            return;
+        }
+    }
+    if (channels_ == 2) {
+        for (size_t i = 0; i < frameCount; i++) {
+            peaks_[i] = std::max(std::fabs(frames[2 * i]), std::fabs(frames[2 * i + 1]));
+        }
+    } else {
+        for (size_t i = 0; i < frameCount; i++) {
+            peaks_[i] = std::fabs(frames[i]);
+        }
+    }
+
+    float envelope = envelope_;
+    float threshold = threshold_;
+    float release = releaseCoefficient_;
+    for (size_t i = 0; i < frameCount; i++) {
+        float target = peaks_[i] > threshold ? threshold / peaks_[i] : 1.0f;
+        envelope = target < envelope ? target : target + (envelope - target) * release;
+        gains_[i] = envelope;
+    }
+    envelope_ = envelope > 0.99999f ? 1.0f : envelope;
+
+    if (channels_ == 2) {
+        for (size_t i = 0; i < frameCount; i++) {
+            frames[2 * i] *= gains_[i];
+            frames[2 * i + 1] *= gains_[i];
+        }
+    } else {
+        for (size_t i = 0; i < frameCount; i++) {
+            frames[i] *= gains_[i];
+        }
+    }
+}
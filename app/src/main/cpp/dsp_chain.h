@@ -0,0 +1,127 @@
+#ifndef NATIVEMEDIAPLAYER_DSP_CHAIN_H
+#define NATIVEMEDIAPLAYER_DSP_CHAIN_H
+
+#include <cstddef>
+
+#include "parameter_snapshot.h"
+
+enum EqBandType {
+    EQ_OFF = 0,
+    EQ_PEAKING = 1,
+    EQ_LOW_SHELF = 2,
+    EQ_HIGH_SHELF = 3
+};
+
+struct EqBand {
+    int type;
+    float frequency;
+    float q;
+    float gainDb;
+};
+
+/**
+ * Normalized biquad coefficients (a0 = 1), from the RBJ audio EQ cookbook.
+ */
+struct BiquadCoefficients {
+    float b0, b1, b2, a1, a2;
+
+    static BiquadCoefficients of(const EqBand &band, int sampleRate);
+};
+
+/**
+ * Everything the control thread sets, handed to the audio thread as a whole.
+ */
+struct DspParameters {
+    static const int MAX_BANDS = 8;
+
+    EqBand bands[MAX_BANDS];
+    int bandCount;
+    // ReplayGain track or album gain plus the preamp.
+    float gainDb;
+    // Peak level the limiter never lets through, in dBFS.
+    float limiterThresholdDb;
+    float limiterReleaseMs;
+
+    /**
+     * Flat EQ, unity gain and a limiter at full scale: the chain leaves the audio untouched.
+     */
+    static DspParameters neutral();
+};
+
+/**
+ * Processing chain applied to float frames in place: parametric EQ (biquads), gain, then a peak limiter.
+ * Runs on the audio thread without allocating or locking; the parameters come from the control thread
+ * through a ParameterSnapshot, taken once per process() call.
+ * Frames are interleaved, up to MAX_CHANNELS channels; the work is done in blocks of BLOCK_FRAMES so the
+ * limiter's per-frame scratch arrays are fixed members, and every loop but the recursive ones
+ * (biquad state, limiter envelope) is a plain loop over an array the compiler vectorizes.
+ */
+class DspChain {
+public:
+    static const int MAX_CHANNELS = 2;
+    static const size_t BLOCK_FRAMES = 256;
+
+    DspChain(int sampleRate, int channels);
+
+    DspChain(const DspChain &) = delete;
+    DspChain &operator=(const DspChain &) = delete;
+
+    /**
+     * Control thread (a single one): the parameters used from the next process() on.
+     */
+    void setParameters(const DspParameters &parameters);
+
+    /**
+     * Audio thread: runs the whole chain over the frames.
+     */
+    void process(float *frames, size_t frameCount);
+
+    /**
+     * Audio thread: true if process() would leave the frames as they are, so the caller can skip it.
+     * Takes the parameters published since the last call.
+     */
+    bool isBypassed();
+
+    /**
+     * Audio thread: clears the filter state and the limiter envelope, e.g. after a seek.
+     */
+    void reset();
+
+    // The stages on their own, for the benchmark. Audio thread, frameCount up to BLOCK_FRAMES.
+    void processEq(float *frames, size_t frameCount);
+
+    void processGain(float *frames, size_t frameCount);
+
+    void processLimiter(float *frames, size_t frameCount);
+
+    int activeBands() const { return activeBands_; }
+
+    const BiquadCoefficients &coefficients(int band) const { return coefficients_[band]; }
+
+    float gain() const { return gain_; }
+
+    float limiterGain() const { return envelope_; }
+
+private:
+    void updateParameters();
+
+    const int sampleRate_;
+    const int channels_;
+    ParameterSnapshot<DspParameters> parameters_;
+
+    BiquadCoefficients coefficients_[DspParameters::MAX_BANDS];
+    int activeBands_;
+    // Transposed direct form II state of every band and channel.
+    float state_[DspParameters::MAX_BANDS][MAX_CHANNELS][2];
+
+    float gain_;
+    float targetGain_;
+
+    float threshold_;
+    float releaseCoefficient_;
+    float envelope_;
+    float peaks_[BLOCK_FRAMES];
+    float gains_[BLOCK_FRAMES];
+};
+
+#endif //NATIVEMEDIAPLAYER_DSP_CHAIN_H
@@ -0,0 +1,63 @@
+#ifndef NATIVEMEDIAPLAYER_PARAMETER_SNAPSHOT_H
+#define NATIVEMEDIAPLAYER_PARAMETER_SNAPSHOT_H
+
+#include <atomic>
+
+/**
+ * Hands parameters from one control thread to the audio thread without locks (a triple buffer).
+ * The writer fills its own slot and swaps it with the middle one; the reader swaps the middle slot
+ * with its own when it holds newer parameters. Neither side ever waits or sees a half written value,
+ * and the writer can publish as often as it likes: the reader only takes the latest.
+ * T is copied with operator=, it must not allocate (plain structs of numbers).
+ */
+template<typename T>
+class ParameterSnapshot {
+public:
+    explicit ParameterSnapshot(const T &initial) : back_(0), middle_(1), front_(2) {
+        slots_[0] = initial;
+        slots_[1] = initial;
+        slots_[2] = initial;
+    }
+
+    ParameterSnapshot(const ParameterSnapshot &) = delete;
+    ParameterSnapshot &operator=(const ParameterSnapshot &) = delete;
+
+    /**
+     * Writer side: makes the value the next one the reader gets.
+     */
+    void publish(const T &value) {
+        slots_[back_] = value;
+        // release: the slot is written before the reader can take it; acquire: the reader is done with the slot we get
+        back_ = middle_.exchange(back_ | FRESH, std::memory_order_acq_rel) & INDEX;
+    }
+
+    /**
+     * Reader side: takes the latest value published, if there is a new one.
+     * @return true if current() changed.
+     */
+    bool update() {
+        if ((middle_.load(std::memory_order_relaxed) & FRESH) == 0) {
+            return false;
+        }
+        front_ = middle_.exchange(front_, std::memory_order_acq_rel) & INDEX;
+        return true;
+    }
+
+    /**
+     * Reader side: the value taken by the last update().
+     */
+    const T &current() const {
+        return slots_[front_];
+    }
+
+private:
+    static const int INDEX = 3;
+    static const int FRESH = 4;
+
+    T slots_[3];
+    int back_;
+    std::atomic<int> middle_;
+    int front_;
+};
+
+#endif //NATIVEMEDIAPLAYER_PARAMETER_SNAPSHOT_H
@@ -0,0 +1,181 @@
+#include "pcm_pipeline.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstring>
+#include <thread>
+
+const int PcmPipeline::SLOTS;
+const int64_t PcmPipeline::NO_REQUEST;
+
+PcmPipeline::PcmPipeline(int sampleRate, int channels, size_t capacityFrames)
+        : sampleRate_(sampleRate),
+          rings_{{capacityFrames, channels}, {capacityFrames, channels}},
+          dsp_(sampleRate, channels),
+          mixer_(channels),
+          playing_(0),
+          crossfading_(false),
+          flushRequested_(false),
+          crossfadeRequest_(NO_REQUEST),
+          framesWritten_(0),
+          framesRendered_(0),
+          underruns_(0),
+          crossfadeNanos_(0),
+          crossfadeFrames_(0) {
+}
+
+size_t PcmPipeline::write(const int16_t *frames, size_t frameCount, int slot) {
+    size_t written = rings_[slot].write(frames, frameCount);
+    framesWritten_.fetch_add(written, std::memory_order_relaxed);
+    return written;
+}
+
+size_t PcmPipeline::writeBlocking(const int16_t *frames, size_t frameCount, int timeoutMs, int slot) {
+    auto deadline = std::chrono::steady_clock::now() + std::chrono::milliseconds(timeoutMs);
+    // the sink frees about a quarter of the buffer between two checks
+    auto pause = std::chrono::microseconds(
+            static_cast<int64_t>(capacityFrames()) * 1000000 / sampleRate_ / 4);
+    size_t written = 0;
+    while (true) {
+        written += write(frames + written * channels(), frameCount - written, slot);
+        if (written == frameCount || std::chrono::steady_clock::now() >= deadline) {
+            return written;
+        }
+        std::this_thread::sleep_for(pause);
+    }
+}
+
+void PcmPipeline::takeRequests() {
+    if (flushRequested_.exchange(false, std::memory_order_acquire)) {
+        for (PcmRingBuffer &ring : rings_) {
+            ring.clear();
+        }
+        mixer_.finish();
+        crossfading_.store(false, std::memory_order_relaxed);
+        dsp_.reset();
+    }
+    int64_t request = crossfadeRequest_.exchange(NO_REQUEST, std::memory_order_acquire);
+    if (request != NO_REQUEST) {
+        if (mixer_.isFading()) {
+            // a new track change while fading: the fade in progress ends at once
+            switchSlots();
+        }
+        mixer_.start(static_cast<CrossfadeCurve>(request >> 32), static_cast<size_t>(request & 0xffffffff));
+        if (mixer_.isFading()) {
+            crossfading_.store(true, std::memory_order_relaxed);
+        } else {
+            switchSlots();
+        }
+    }
+}
+
+// The incoming slot becomes the one playing, what is left of the outgoing song is dropped.
+void PcmPipeline::switchSlots() {
+    int outgoing = playing_.load(std::memory_order_relaxed);
+    rings_[outgoing].clear();
+    playing_.store(1 - outgoing, std::memory_order_release);
+    mixer_.finish();
+    crossfading_.store(false, std::memory_order_relaxed);
+}
+
+size_t PcmPipeline::render(int16_t *out, size_t frameCount) {
+    takeRequests();
+    if (mixer_.isFading()) {
+        return renderCrossfade(out, frameCount);
+    }
+    size_t read = rings_[playing_.load(std::memory_order_relaxed)].read(out, frameCount);
+    if (read < frameCount) {
+        memset(out + read * channels(), 0, (frameCount - read) * channels() * sizeof(int16_t));
+        // an empty buffer before anything was written is not an underrun
+        if (framesWritten_.load(std::memory_order_relaxed) > 0) {
+            underruns_.fetch_add(1, std::memory_order_relaxed);
+        }
+    }
+    framesRendered_.fetch_add(read, std::memory_order_relaxed);
+    if (!dsp_.isBypassed()) {
+        process(out, frameCount);
+    }
+    return read;
+}
+
+// Block by block: both slots are read and converted to floats, mixed, processed and converted back.
+size_t PcmPipeline::renderCrossfade(int16_t *out, size_t frameCount) {
+    auto start = std::chrono::steady_clock::now();
+    const int channelCount = channels();
+    const int outgoing = playing_.load(std::memory_order_relaxed);
+    size_t audio = 0;
+    size_t mixed = 0;
+    for (size_t done = 0; done < frameCount; done += DspChain::BLOCK_FRAMES) {
+        size_t count = std::min(DspChain::BLOCK_FRAMES, frameCount - done);
+        size_t samples = count * channelCount;
+        int16_t *block = out + done * channelCount;
+        bool fading = mixer_.isFading();
+
+        size_t incomingRead = rings_[1 - outgoing].read(incomingPcm_, count);
+        memset(incomingPcm_ + incomingRead * channelCount, 0, (count - incomingRead) * channelCount * sizeof(int16_t));
+        size_t outgoingRead = 0;
+        if (fading) {
+            outgoingRead = rings_[outgoing].read(block, count);
+            memset(block + outgoingRead * channelCount, 0, (count - outgoingRead) * channelCount * sizeof(int16_t));
+        }
+        audio += std::max(incomingRead, outgoingRead);
+
+        toFloat(block, scratch_, samples);
+        toFloat(incomingPcm_, incoming_, samples);
+        size_t before = mixer_.position();
+        mixer_.mix(scratch_, incoming_, count);
+        mixed += mixer_.position() - before;
+        if (!dsp_.isBypassed()) {
+            dsp_.process(scratch_, count);
+        }
+        toPcm(scratch_, block, samples);
+    }
+    if (!mixer_.isFading()) {
+        switchSlots();
+    }
+    if (audio < frameCount) {
+        underruns_.fetch_add(1, std::memory_order_relaxed);
+    }
+    framesRendered_.fetch_add(audio, std::memory_order_relaxed);
+    crossfadeFrames_.fetch_add(mixed, std::memory_order_relaxed);
+    crossfadeNanos_.fetch_add(static_cast<uint64_t>(std::chrono::duration_cast<std::chrono::nanoseconds>(
+            std::chrono::steady_clock::now() - start).count()), std::memory_order_relaxed);
+    return audio;
+}
+
+// Through the DSP chain in float, a block at a time, and back to 16 bits with saturation.
+void PcmPipeline::process(int16_t *frames, size_t frameCount) {
+    const int channelCount = channels();
+    for (size_t done = 0; done < frameCount; done += DspChain::BLOCK_FRAMES) {
+        size_t count = std::min(DspChain::BLOCK_FRAMES, frameCount - done);
+        int16_t *block = frames + done * channelCount;
+        toFloat(block, scratch_, count * channelCount);
+        dsp_.process(scratch_, count);
+        toPcm(scratch_, block, count * channelCount);
+    }
+}
+
+void PcmPipeline::toFloat(const int16_t *samples, float *floats, size_t count) {
+    for (size_t i = 0; i < count; i++) {
+        floats[i] = samples[i] * (1.0f / 32768);
+    }
+}
+
+void PcmPipeline::toPcm(const float *floats, int16_t *samples, size_t count) {
+    for (size_t i = 0; i < count; i++) {
+        samples[i] = static_cast<int16_t>(std::min(std::max(floats[i] * 32768, -32768.0f), 32767.0f));
+    }
+}
+
+void PcmPipeline::flush() {
+    flushRequested_.store(true, std::memory_order_release);
+}
+
+void PcmPipeline::crossfade(CrossfadeCurve curve, int lengthMs) {
+    int64_t frames = static_cast<int64_t>(std::max(lengthMs, 0)) * sampleRate_ / 1000;
+    crossfadeRequest_.store(static_cast<int64_t>(curve) << 32 | frames, std::memory_order_release);
+}
+
+int64_t PcmPipeline::bufferedMicros() const {
+    return static_cast<int64_t>(bufferedFrames()) * 1000000 / sampleRate_;
+}
@@ -0,0 +1,142 @@
+#ifndef NATIVEMEDIAPLAYER_PCM_PIPELINE_H
+#define NATIVEMEDIAPLAYER_PCM_PIPELINE_H
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+
+#include "crossfade_mixer.h"
+#include "dsp_chain.h"
+#include "pcm_ring_buffer.h"
+
+/**
+ * PCM output pipeline: the decode thread writes frames, the audio sink renders them from its callback.
+ * The two sides only meet in a PcmRingBuffer, the sink callback never waits on the decoder:
+ * when the buffer runs dry it plays silence and counts an underrun.
+ * A flush requested from any thread (seek, song change) is done by the sink side on its next render.
+ * The frames rendered go through a DspChain (EQ, gain, limiter), skipped while its parameters are neutral.
+ *
+ * There are two track slots, each with its own ring buffer and decode thread: the song playing and the one
+ * that follows. crossfade() moves playback to the other slot, mixing the tail of the song playing with the
+ * head of the next one in a CrossfadeMixer (or switching at once for a length of 0).
+ */
+class PcmPipeline {
+public:
+    static const int SLOTS = 2;
+
+    PcmPipeline(int sampleRate, int channels, size_t capacityFrames);
+
+    // Decode thread of the slot.
+
+    /**
+     * Writes as many frames as there is room for, without waiting.
+     * @return the number of frames written.
+     */
+    size_t write(const int16_t *frames, size_t frameCount, int slot = 0);
+
+    /**
+     * Writes all the frames, waiting for room while the buffer is full.
+     * @return the number of frames written, less than frameCount if the timeout expired first.
+     */
+    size_t writeBlocking(const int16_t *frames, size_t frameCount, int timeoutMs, int slot = 0);
+
+    // Sink thread.
+
+    /**
+     * Fills out with frameCount frames: the frames buffered, then silence if there are not enough.
+     * @return the number of frames of audio, the rest is silence.
+     */
+    size_t render(int16_t *out, size_t frameCount);
+
+    // Any thread.
+
+    /**
+     * Drops the frames buffered so far in both slots and stops a crossfade, on the sink's next render.
+     */
+    void flush();
+
+    /**
+     * Moves playback to the other slot on the sink's next render: the song playing fades out while the other
+     * fades in over lengthMs, then the rest of the song that faded out is dropped.
+     */
+    void crossfade(CrossfadeCurve curve, int lengthMs);
+
+    /**
+     * The slot being played. During a crossfade, the one fading out until the fade ends.
+     */
+    int playingSlot() const { return playing_.load(std::memory_order_acquire); }
+
+    bool isCrossfading() const { return crossfading_.load(std::memory_order_relaxed); }
+
+    /**
+     * The processing applied on render. Its parameters are set from any one thread with dsp().setParameters().
+     */
+    DspChain &dsp() { return dsp_; }
+
+    size_t bufferedFrames() const { return rings_[playingSlot()].readable(); }
+
+    /**
+     * Time the frames buffered take to play, the latency the buffer adds.
+     */
+    int64_t bufferedMicros() const;
+
+    uint64_t framesWritten() const { return framesWritten_.load(std::memory_order_relaxed); }
+
+    uint64_t framesRendered() const { return framesRendered_.load(std::memory_order_relaxed); }
+
+    /**
+     * Renders that were cut short with silence because the decoder was behind.
+     */
+    uint64_t underruns() const { return underruns_.load(std::memory_order_relaxed); }
+
+    /**
+     * Nanoseconds the sink spent mixing crossfades, and the frames mixed.
+     */
+    uint64_t crossfadeNanos() const { return crossfadeNanos_.load(std::memory_order_relaxed); }
+
+    uint64_t crossfadeFrames() const { return crossfadeFrames_.load(std::memory_order_relaxed); }
+
+    int sampleRate() const { return sampleRate_; }
+
+    int channels() const { return rings_[0].channels(); }
+
+    size_t capacityFrames() const { return rings_[0].capacity(); }
+
+private:
+    static const int64_t NO_REQUEST = -1;
+
+    void takeRequests();
+
+    size_t renderCrossfade(int16_t *out, size_t frameCount);
+
+    void switchSlots();
+
+    void process(int16_t *frames, size_t frameCount);
+
+    static void toFloat(const int16_t *samples, float *floats, size_t count);
+
+    static void toPcm(const float *floats, int16_t *samples, size_t count);
+
+    const int sampleRate_;
+    PcmRingBuffer rings_[SLOTS];
+    DspChain dsp_;
+    CrossfadeMixer mixer_;
+    std::atomic<int> playing_;
+    std::atomic<bool> crossfading_;
+
+    // Sink thread: the frames being processed, as floats, and the frames of the incoming slot.
+    float scratch_[DspChain::BLOCK_FRAMES * DspChain::MAX_CHANNELS];
+    float incoming_[DspChain::BLOCK_FRAMES * DspChain::MAX_CHANNELS];
+    int16_t incomingPcm_[DspChain::BLOCK_FRAMES * DspChain::MAX_CHANNELS];
+
+    std::atomic<bool> flushRequested_;
+    // curve << 32 | length in frames, or NO_REQUEST
+    std::atomic<int64_t> crossfadeRequest_;
+    std::atomic<uint64_t> framesWritten_;
+    std::atomic<uint64_t> framesRendered_;
+    std::atomic<uint64_t> underruns_;
+    std::atomic<uint64_t> crossfadeNanos_;
+    std::atomic<uint64_t> crossfadeFrames_;
+};
+
+#endif //NATIVEMEDIAPLAYER_PCM_PIPELINE_H
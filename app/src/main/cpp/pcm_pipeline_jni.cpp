@@ -0,0 +1,160 @@
+#include <jni.h>
+#include <algorithm>
+
+#include "aaudio_sink.h"
+#include "pcm_pipeline.h"
+
+// JNI half of NativePcmPipeline, only in native-lib when it is built with -DPCM_PIPELINE=ON (see CMakeLists.txt).
+
+// NativePcmPipeline: the pipeline and the sink playing it, behind the handle held by the Java object.
+struct NativePipeline {
+    PcmPipeline pipeline;
+    AAudioSink sink;
+
+    NativePipeline(int sampleRate, int channels, size_t capacityFrames)
+            : pipeline(sampleRate, channels, capacityFrames), sink(&pipeline) {
+    }
+};
+
+static NativePipeline *fromHandle(jlong handle) {
+    return reinterpret_cast<NativePipeline *>(handle);
+}
+
+/**
+ * Address of the frames in a direct ByteBuffer, from offset to offset + length bytes; nothing is copied.
+ * Throws IllegalArgumentException and returns nullptr if the buffer is not direct or the range doesn't fit.
+ */
+static int16_t *framesOf(JNIEnv *env, jobject buffer, jint offset, jint length, int channels) {
+    void *address = env->GetDirectBufferAddress(buffer);
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    const char *error = nullptr;
+    if (address == nullptr) {
+        error = "Not a direct buffer";
+    } else if (offset < 0 || length < 0 || offset + static_cast<jlong>(length) > capacity) {
+        error = "Range out of the buffer";
+    } else if ((offset | length) % (channels * sizeof(int16_t)) != 0) {
+        error = "Range not aligned on frames";
+    }
+    if (error != nullptr) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), error);
+        return nullptr;
+    }
+    return reinterpret_cast<int16_t *>(static_cast<char *>(address) + offset);
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeCreate(JNIEnv * /* env */, jclass /* type */,
+                                                               jint sampleRate, jint channels,
+                                                               jint capacityFrames) {
+    return reinterpret_cast<jlong>(new NativePipeline(sampleRate, channels, static_cast<size_t>(capacityFrames)));
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeDestroy(JNIEnv * /* env */, jclass /* type */,
+                                                                jlong handle) {
+    delete fromHandle(handle);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeWrite(JNIEnv *env, jclass /* type */, jlong handle,
+                                                              jint slot, jobject buffer, jint offset,
+                                                              jint length, jint timeoutMs) {
+    if (slot < 0 || slot >= PcmPipeline::SLOTS) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "No such slot");
+        return 0;
+    }
+    PcmPipeline &pipeline = fromHandle(handle)->pipeline;
+    int16_t *frames = framesOf(env, buffer, offset, length, pipeline.channels());
+    if (frames == nullptr) {
+        return 0;
+    }
+    size_t frameBytes = pipeline.channels() * sizeof(int16_t);
+    size_t frameCount = length / frameBytes;
+    size_t written = timeoutMs > 0 ? pipeline.writeBlocking(frames, frameCount, timeoutMs, slot)
+                                   : pipeline.write(frames, frameCount, slot);
+    return static_cast<jint>(written * frameBytes);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeRender(JNIEnv *env, jclass /* type */, jlong handle,
+                                                               jobject buffer, jint offset, jint length) {
+    PcmPipeline &pipeline = fromHandle(handle)->pipeline;
+    int16_t *frames = framesOf(env, buffer, offset, length, pipeline.channels());
+    if (frames == nullptr) {
+        return 0;
+    }
+    size_t frameBytes = pipeline.channels() * sizeof(int16_t);
+    return static_cast<jint>(pipeline.render(frames, length / frameBytes) * frameBytes);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeStart(JNIEnv * /* env */, jclass /* type */,
+                                                              jlong handle) {
+    return static_cast<jboolean>(fromHandle(handle)->sink.start());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeStop(JNIEnv * /* env */, jclass /* type */,
+                                                             jlong handle) {
+    fromHandle(handle)->sink.stop();
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeFlush(JNIEnv * /* env */, jclass /* type */,
+                                                              jlong handle) {
+    fromHandle(handle)->pipeline.flush();
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeGetBufferedFrames(JNIEnv * /* env */, jclass /* type */,
+                                                                          jlong handle) {
+    return static_cast<jint>(fromHandle(handle)->pipeline.bufferedFrames());
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeGetUnderruns(JNIEnv * /* env */, jclass /* type */,
+                                                                     jlong handle) {
+    return static_cast<jlong>(fromHandle(handle)->pipeline.underruns());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeCrossfade(JNIEnv * /* env */, jclass /* type */, jlong handle,
+                                                                  jint curve, jint lengthMs) {
+    fromHandle(handle)->pipeline.crossfade(static_cast<CrossfadeCurve>(curve), lengthMs);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeGetPlayingSlot(JNIEnv * /* env */, jclass /* type */,
+                                                                       jlong handle) {
+    return fromHandle(handle)->pipeline.playingSlot();
+}
+
+// Layout of the float[] packed by DspSettings.pack().
+static const int DSP_HEADER = 4;
+static const int DSP_BAND_SIZE = 4;
+
+extern "C" JNIEXPORT void JNICALL
+Java_untitled_nativemediaplayer_NativePcmPipeline_nativeSetDsp(JNIEnv *env, jclass /* type */, jlong handle,
+                                                               jfloatArray packed) {
+    jfloat values[DSP_HEADER + DspParameters::MAX_BANDS * DSP_BAND_SIZE];
+    jsize length = std::min(env->GetArrayLength(packed), static_cast<jsize>(sizeof(values) / sizeof(values[0])));
+    if (length < DSP_HEADER) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "DSP parameters too short");
+        return;
+    }
+    env->GetFloatArrayRegion(packed, 0, length, values);
+
+    DspParameters parameters = DspParameters::neutral();
+    parameters.gainDb = values[0];
+    parameters.limiterThresholdDb = values[1];
+    parameters.limiterReleaseMs = values[2];
+    parameters.bandCount = std::min(static_cast<int>(values[3]), (length - DSP_HEADER) / DSP_BAND_SIZE);
+    for (int i = 0; i < parameters.bandCount; i++) {
+        const jfloat *band = values + DSP_HEADER + i * DSP_BAND_SIZE;
+        parameters.bands[i].type = static_cast<int>(band[0]);
+        parameters.bands[i].frequency = band[1];
+        parameters.bands[i].q = band[2];
+        parameters.bands[i].gainDb = band[3];
+    }
+    fromHandle(handle)->pipeline.dsp().setParameters(parameters);
+}
@@ -0,0 +1,91 @@
+#include "pcm_ring_buffer.h"
+
+#include <algorithm>
+#include <cstring>
+
+PcmRingBuffer::PcmRingBuffer(size_t capacityFrames, int channels)
+        : capacity_(roundUpToPowerOfTwo(capacityFrames)),
+          mask_(capacity_ - 1),
+          channels_(channels),
+          samples_(new int16_t[capacity_ * channels]()),
+          writeIndex_(0),
+          cachedReadIndex_(0),
+          readIndex_(0),
+          cachedWriteIndex_(0) {
+}
+
+size_t PcmRingBuffer::roundUpToPowerOfTwo(size_t value) {
+    size_t power = 1;
+    while (power < value) {
+        power <<= 1;
+    }
+    return power;
+}
+
+size_t PcmRingBuffer::write(const int16_t *frames, size_t frameCount) {
+    size_t write = writeIndex_.load(std::memory_order_relaxed);
+    size_t room = capacity_ - (write - cachedReadIndex_);
+    if (room < frameCount) {
+        // acquire: the consumer is done with the frames before the index
+        cachedReadIndex_ = readIndex_.load(std::memory_order_acquire);
+        room = capacity_ - (write - cachedReadIndex_);
+    }
+    size_t count = std::min(room, frameCount);
+    if (count == 0) {
+        return 0;
+    }
+    copyIn(write, frames, count);
+    // release: the frames are in the buffer before the consumer sees the index
+    writeIndex_.store(write + count, std::memory_order_release);
+    return count;
+}
+
+size_t PcmRingBuffer::read(int16_t *frames, size_t frameCount) {
+    size_t read = readIndex_.load(std::memory_order_relaxed);
+    size_t available = cachedWriteIndex_ - read;
+    if (available < frameCount) {
+        cachedWriteIndex_ = writeIndex_.load(std::memory_order_acquire);
+        available = cachedWriteIndex_ - read;
+    }
+    size_t count = std::min(available, frameCount);
+    if (count == 0) {
+        return 0;
+    }
+    copyOut(read, frames, count);
+    readIndex_.store(read + count, std::memory_order_release);
+    return count;
+}
+
+size_t PcmRingBuffer::clear() {
+    size_t read = readIndex_.load(std::memory_order_relaxed);
+    cachedWriteIndex_ = writeIndex_.load(std::memory_order_acquire);
+    readIndex_.store(cachedWriteIndex_, std::memory_order_release);
+    return cachedWriteIndex_ - read;
+}
+
+size_t PcmRingBuffer::readable() const {
+    return writeIndex_.load(std::memory_order_acquire) - readIndex_.load(std::memory_order_acquire);
+}
+
+size_t PcmRingBuffer::writable() const {
+    return capacity_ - readable();
+}
+
+// The frames may wrap around the end of the buffer: copied in two parts.
+void PcmRingBuffer::copyIn(size_t index, const int16_t *frames, size_t frameCount) {
+    size_t start = index & mask_;
+    size_t first = std::min(frameCount, capacity_ - start);
+    memcpy(&samples_[start * channels_], frames, first * channels_ * sizeof(int16_t));
+    if (first < frameCount) {
+        memcpy(&samples_[0], frames + first * channels_, (frameCount - first) * channels_ * sizeof(int16_t));
+    }
+}
+
+void PcmRingBuffer::copyOut(size_t index, int16_t *frames, size_t frameCount) const {
+    size_t start = index & mask_;
+    size_t first = std::min(frameCount, capacity_ - start);
+    memcpy(frames, &samples_[start * channels_], first * channels_ * sizeof(int16_t));
+    if (first < frameCount) {
+        memcpy(frames + first * channels_, &samples_[0], (frameCount - first) * channels_ * sizeof(int16_t));
+    }
+}
@@ -0,0 +1,88 @@
+#ifndef NATIVEMEDIAPLAYER_PCM_RING_BUFFER_H
+#define NATIVEMEDIAPLAYER_PCM_RING_BUFFER_H
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+
+/**
+ * Lock-free ring buffer of interleaved 16-bit PCM frames, between one producer thread (the decoder)
+ * and one consumer thread (the audio sink). Neither side ever blocks or allocates.
+ *
+ * The read and write indices count frames since the start and only grow; the capacity is a power of two,
+ * so the position in the buffer is the index masked. Each index is written by one side only and lives
+ * on its own cache line; each side keeps a cached copy of the other side's index and only reloads it
+ * when the buffer looks full (producer) or empty (consumer).
+ */
+class PcmRingBuffer {
+public:
+    /**
+     * @param capacityFrames - rounded up to a power of two.
+     * @param channels - samples per frame.
+     */
+    PcmRingBuffer(size_t capacityFrames, int channels);
+
+    PcmRingBuffer(const PcmRingBuffer &) = delete;
+    PcmRingBuffer &operator=(const PcmRingBuffer &) = delete;
+
+    /**
+     * Producer side. Copies as many of the frames as there is room for.
+     * @return the number of frames written.
+     */
+    size_t write(const int16_t *frames, size_t frameCount);
+
+    /**
+     * Consumer side. Copies up to frameCount frames out of the buffer.
+     * @return the number of frames read.
+     */
+    size_t read(int16_t *frames, size_t frameCount);
+
+    /**
+     * Consumer side. Drops every frame written so far.
+     * @return the number of frames dropped.
+     */
+    size_t clear();
+
+    /**
+     * Frames the consumer can read. Exact on the consumer thread, a lower bound elsewhere.
+     */
+    size_t readable() const;
+
+    /**
+     * Frames the producer can write. Exact on the producer thread, a lower bound elsewhere.
+     */
+    size_t writable() const;
+
+    size_t capacity() const { return capacity_; }
+
+    int channels() const { return channels_; }
+
+private:
+    static size_t roundUpToPowerOfTwo(size_t value);
+
+    void copyIn(size_t index, const int16_t *frames, size_t frameCount);
+
+    void copyOut(size_t index, int16_t *frames, size_t frameCount) const;
+
+    const size_t capacity_;
+    const size_t mask_;
+    const int channels_;
+    std::unique_ptr<int16_t[]> samples_;
+
+    // Each side's index on its own cache line, away from the fields both sides read. Padded rather than
+    // aligned with alignas: the buffer is allocated with new, which only honours over-alignment from C++17.
+    char padding0_[64];
+
+    // Written by the producer.
+    std::atomic<size_t> writeIndex_;
+    size_t cachedReadIndex_;
+    char padding1_[64 - sizeof(std::atomic<size_t>) - sizeof(size_t)];
+
+    // Written by the consumer.
+    std::atomic<size_t> readIndex_;
+    size_t cachedWriteIndex_;
+    char padding2_[64 - sizeof(std::atomic<size_t>) - sizeof(size_t)];
+};
+
+#endif //NATIVEMEDIAPLAYER_PCM_RING_BUFFER_H
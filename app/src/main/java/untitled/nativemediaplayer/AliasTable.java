@@ -0,0 +1,78 @@
+package untitled.nativemediaplayer;
+
+import java.util.Random;
+
+/**
+ * Picks indexes at random in proportion to their weights in O(1), with Vose's alias method: every slot holds the
+ * probability of keeping its own index and the index it gives way to otherwise. Built in O(n).
+ */
+public class AliasTable {
+    private final float[] keep;
+    private final int[] alias;
+
+    /**
+     * @param weights - weight of every index, not negative. If they are all 0, every index is as likely.
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("No weights");
+        }
+        keep = new float[n];
+        alias = new int[n];
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0 || Double.isNaN(weight)) {
+                throw new IllegalArgumentException("Bad weight " + weight);
+            }
+            total += weight;
+        }
+
+        //weights scaled so they average 1, then the slots under 1 are filled up by the ones over 1
+        double[] scaled = new double[n];
+        //small indexes from the start of the stack, large ones from its end
+        int[] stack = new int[n];
+        int small = 0;
+        int large = n;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = total > 0 ? weights[i] * n / total : 1;
+            if (scaled[i] < 1) {
+                stack[small++] = i;
+            } else {
+                stack[--large] = i;
+            }
+        }
+        while (small > 0 && large < n) {
+            int under = stack[--small];
+            int over = stack[large++];
+            keep[under] = (float) scaled[under];
+            alias[under] = over;
+            scaled[over] -= 1 - scaled[under];
+            if (scaled[over] < 1) {
+                stack[small++] = over;
+            } else {
+                stack[--large] = over;
+            }
+        }
+        //what is left is 1 up to rounding errors
+        while (large < n) {
+            int index = stack[large++];
+            keep[index] = 1;
+            alias[index] = index;
+        }
+        while (small > 0) {
+            int index = stack[--small];
+            keep[index] = 1;
+            alias[index] = index;
+        }
+    }
+
+    public int size() {
+        return keep.length;
+    }
+
+    public int sample(Random random) {
+        int slot = random.nextInt(keep.length);
+        return random.nextFloat() < keep[slot] ? slot : alias[slot];
+    }
+}
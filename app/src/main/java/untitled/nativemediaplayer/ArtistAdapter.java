@@ -0,0 +1,70 @@
+package untitled.nativemediaplayer;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.SectionIndexer;
+import android.widget.TextView;
+
+/**
+ * Artists of a {@link BrowseIndex}, with the first letters as sections for the fast scroll thumb.
+ * Both section lookups are array reads in the index.
+ */
+public class ArtistAdapter extends BaseAdapter implements SectionIndexer {
+    private final BrowseIndex index;
+    private final LayoutInflater inflater;
+    private final String unknownArtist;
+
+    public ArtistAdapter(Context c, BrowseIndex index){
+        this.index = index;
+        this.inflater = LayoutInflater.from(c);
+        this.unknownArtist = c.getString(R.string.unknown_artist);
+    }
+
+    @Override
+    public int getCount() {
+        return index.getArtistCount();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return getName(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    public String getName(int position){
+        String name = index.getArtist(position);
+        return name == null ? unknownArtist : name;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if(view == null){
+            view = (TextView) inflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        }
+        view.setText(getName(position));
+        return view;
+    }
+
+    @Override
+    public Object[] getSections() {
+        return index.getSections();
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        return index.getPositionForSection(sectionIndex);
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return index.getSectionForPosition(position);
+    }
+}
@@ -0,0 +1,214 @@
+package untitled.nativemediaplayer;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Picks the {@link PlayerBackend} of each song from its format (MIME type): the backend that failed the least
+ * on that format, then the one that prepared it the fastest.
+ * Every backend is tried a few times on a new format before the choice is made, and once in a while afterwards,
+ * so the statistics follow the backends getting slower or faster.
+ * Called from the playback thread, the report is read from the UI thread.
+ */
+public class BackendSelector {
+
+    //Songs of a format played with a backend before the backends are compared.
+    static final int MIN_SAMPLES = 5;
+    //A backend failing this many times while tried is not tried any further.
+    static final int MAX_TRIAL_ERRORS = 2;
+    //One choice in this many goes to another backend than the best one, unless it fails more often than not.
+    static final int EXPLORE_EVERY = 20;
+    //Error rates closer than this are the same, the prepare time decides.
+    static final double ERROR_MARGIN = 0.05;
+
+    /**
+     * What a backend did with the songs of one format.
+     */
+    public static class Stats {
+        final LatencyHistogram prepare = new LatencyHistogram();
+        final LatencyHistogram seek = new LatencyHistogram();
+        int errors;
+
+        public long getAttempts() {
+            return prepare.getCount() + errors;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public double getErrorRate() {
+            long attempts = getAttempts();
+            return attempts == 0 ? 0 : (double) errors / attempts;
+        }
+
+        /**
+         * Median prepare time in microseconds.
+         */
+        public long getPrepareMedian() {
+            return prepare.getPercentile(50);
+        }
+
+        public long getSeekMedian() {
+            return seek.getPercentile(50);
+        }
+
+        @Override
+        public String toString() {
+            return getAttempts() + " plays, " + errors + " errors, prepare p50 " + LatencyHistogram.formatMillis(getPrepareMedian())
+                    + ", seek p50 " + LatencyHistogram.formatMillis(getSeekMedian());
+        }
+    }
+
+    private static class Format {
+        final Stats[] stats = new Stats[PlayerBackend.Kind.values().length];
+        int choices;
+
+        Format() {
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = new Stats();
+            }
+        }
+    }
+
+    private final PlayerBackend.Kind preferred;
+    private final EnumSet<PlayerBackend.Kind> available = EnumSet.allOf(PlayerBackend.Kind.class);
+    private final Map<String, Format> formats = new HashMap<>();
+
+    /**
+     * @param preferred - backend tried first, and picked when the backends do equally well.
+     */
+    public BackendSelector(PlayerBackend.Kind preferred) {
+        this.preferred = preferred;
+    }
+
+    /**
+     * A backend that can't be used at all (e.g. its native library didn't load) is no longer picked.
+     * The preferred backend is always available.
+     */
+    public synchronized void setAvailable(PlayerBackend.Kind kind, boolean isAvailable) {
+        if (isAvailable) {
+            available.add(kind);
+        } else if (kind != preferred) {
+            available.remove(kind);
+        }
+    }
+
+    public synchronized boolean isAvailable(PlayerBackend.Kind kind) {
+        return available.contains(kind);
+    }
+
+    /**
+     * @param format - MIME type of the song, or null if unknown.
+     * @return the backend to play the song with.
+     */
+    public synchronized PlayerBackend.Kind choose(String format) {
+        Format f = format(format);
+        f.choices++;
+        for (PlayerBackend.Kind kind : candidates()) {
+            Stats stats = f.stats[kind.ordinal()];
+            if (stats.getAttempts() < MIN_SAMPLES && stats.errors < MAX_TRIAL_ERRORS) {
+                return kind;
+            }
+        }
+        PlayerBackend.Kind best = best(f);
+        if (f.choices % EXPLORE_EVERY == 0) {
+            for (PlayerBackend.Kind kind : candidates()) {
+                if (kind != best && f.stats[kind.ordinal()].getErrorRate() <= 0.5) {
+                    return kind;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The backend with the lowest error rate on the format, or the fastest to prepare if the error rates are close.
+     */
+    public synchronized PlayerBackend.Kind best(String format) {
+        return best(format(format));
+    }
+
+    private PlayerBackend.Kind best(Format f) {
+        PlayerBackend.Kind best = preferred;
+        for (PlayerBackend.Kind kind : candidates()) {
+            if (kind != best && better(f.stats[kind.ordinal()], f.stats[best.ordinal()])) {
+                best = kind;
+            }
+        }
+        return best;
+    }
+
+    private static boolean better(Stats a, Stats b) {
+        if (a.getAttempts() == 0) {
+            return false;
+        }
+        if (b.getAttempts() == 0) {
+            return true;
+        }
+        double errorDifference = a.getErrorRate() - b.getErrorRate();
+        if (Math.abs(errorDifference) > ERROR_MARGIN) {
+            return errorDifference < 0;
+        }
+        if (a.prepare.getCount() == 0 || b.prepare.getCount() == 0) {
+            return a.prepare.getCount() > b.prepare.getCount();
+        }
+        return a.getPrepareMedian() < b.getPrepareMedian();
+    }
+
+    //The available backends, the preferred one first.
+    private PlayerBackend.Kind[] candidates() {
+        PlayerBackend.Kind[] kinds = new PlayerBackend.Kind[available.size()];
+        int count = 0;
+        kinds[count++] = preferred;
+        for (PlayerBackend.Kind kind : available) {
+            if (kind != preferred) {
+                kinds[count++] = kind;
+            }
+        }
+        return kinds;
+    }
+
+    public synchronized void recordPrepare(String format, PlayerBackend.Kind kind, long nanos) {
+        format(format).stats[kind.ordinal()].prepare.record(nanos);
+    }
+
+    public synchronized void recordSeek(String format, PlayerBackend.Kind kind, long nanos) {
+        format(format).stats[kind.ordinal()].seek.record(nanos);
+    }
+
+    public synchronized void recordError(String format, PlayerBackend.Kind kind) {
+        format(format).stats[kind.ordinal()].errors++;
+    }
+
+    public synchronized Stats getStats(String format, PlayerBackend.Kind kind) {
+        return format(format).stats[kind.ordinal()];
+    }
+
+    private Format format(String format) {
+        String key = format == null ? "unknown" : format;
+        Format f = formats.get(key);
+        if (f == null) {
+            f = new Format();
+            formats.put(key, f);
+        }
+        return f;
+    }
+
+    /**
+     * One line per format and backend, sorted by format, with the backend picked for the format.
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Format> entry : new TreeMap<>(formats).entrySet()) {
+            Format f = entry.getValue();
+            report.append(entry.getKey()).append(" -> ").append(best(f)).append('\n');
+            for (PlayerBackend.Kind kind : PlayerBackend.Kind.values()) {
+                report.append("  ").append(kind).append(": ").append(f.stats[kind.ordinal()]).append('\n');
+            }
+        }
+        return report.toString();
+    }
+}
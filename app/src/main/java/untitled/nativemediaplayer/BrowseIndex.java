@@ -0,0 +1,561 @@
+package untitled.nativemediaplayer;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Artist → album → track browse lists of a {@link SongTable}, in int arrays (offsets into the next level, CSR style):
+ * the albums of artist a are [artistAlbums[a], artistAlbums[a + 1]), the tracks of album b are the rows
+ * trackRows[albumTracks[b] .. albumTracks[b + 1]).
+ * build() groups the rows in one pass over the table (artists by string reference, albums by album ID and name within
+ * the artist), then places them with a counting sort. Artists and albums are in collation order of their names, tracks
+ * in track number order (the MediaStore puts the disc in the thousands), equal numbers keep their row order.
+ * Artists are split into sections by their first letter, found both ways in O(1) for a fast scroll index.
+ * Moved and removed rows are remapped in place, added and edited rows are merged in without building again.
+ */
+public class BrowseIndex {
+
+    //Label of the artists whose name doesn't start with a letter.
+    static final String OTHER_SECTION = "#";
+    private static final int INSERTION_THRESHOLD = 32;
+
+    private final Collator collator;
+
+    private int artistCount;
+    private String[] artistNames;
+    private byte[][] artistKeys;
+    private int[] artistAlbums;
+    private int albumCount;
+    private String[] albumNames;
+    private byte[][] albumKeys;
+    private long[] albumIDs;
+    private int[] albumTracks;
+    private int trackCount;
+    private int[] trackRows;
+
+    private String[] sections;
+    //first artist of every section, and section of every artist
+    private int[] sectionStart;
+    private int[] sectionOfArtist;
+
+    private BrowseIndex(Collator collator) {
+        this.collator = collator;
+    }
+
+    public static BrowseIndex build(SongTable songs) {
+        return build(songs, Collator.getInstance());
+    }
+
+    /**
+     * @param collator - orders the names, kept for update(): the index must only be used from one thread.
+     */
+    public static BrowseIndex build(final SongTable songs, Collator collator) {
+        final int rows = songs.size();
+        StringPool strings = songs.getStrings();
+
+        //Grouping pass: artist of every string reference (+1, so no artist is slot 0), album of every row.
+        //Albums sharing an ID (compilations, renamed albums) are chained, one per artist and name.
+        int[] artistOfRef = new int[strings.size() + 1];
+        Arrays.fill(artistOfRef, -1);
+        int[] artistRefs = new int[rows];
+        int artists = 0;
+        LongIntMap albumOfID = new LongIntMap(rows / 8);
+        int[] nextWithID = new int[rows];
+        final int[] albumArtist = new int[rows];
+        final long[] albumIDsOf = new long[rows];
+        int[] albumRefs = new int[rows];
+        int[] albumSizes = new int[rows];
+        int albums = 0;
+        int[] rowAlbum = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            int artistSlot = songs.getArtistRef(row) + 1;
+            int artist = artistOfRef[artistSlot];
+            if (artist < 0) {
+                artist = artists++;
+                artistOfRef[artistSlot] = artist;
+                artistRefs[artist] = artistSlot - 1;
+            }
+            long albumID = songs.getAlbumID(row);
+            int albumRef = songs.getAlbumRef(row);
+            int first = albumOfID.get(albumID, -1);
+            int album = first;
+            while (album >= 0 && (albumArtist[album] != artist || albumRefs[album] != albumRef)) {
+                album = nextWithID[album];
+            }
+            if (album < 0) {
+                album = albums++;
+                nextWithID[album] = first;
+                albumOfID.put(albumID, album);
+                albumArtist[album] = artist;
+                albumIDsOf[album] = albumID;
+                albumRefs[album] = albumRef;
+            }
+            albumSizes[album]++;
+            rowAlbum[row] = album;
+        }
+
+        final String[] names = new String[artists];
+        final byte[][] keys = new byte[artists][];
+        int[] artistOrder = new int[artists];
+        for (int i = 0; i < artists; i++) {
+            names[i] = strings.get(artistRefs[i]);
+            keys[i] = keyOf(collator, names[i]);
+            artistOrder[i] = i;
+        }
+        SongSorter.sortRows(artistOrder, new SongSorter.RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return compareNames(keys[a], names[a], keys[b], names[b]);
+            }
+        }, false);
+        final int[] artistRank = new int[artists];
+        for (int i = 0; i < artists; i++) {
+            artistRank[artistOrder[i]] = i;
+        }
+
+        final String[] albumNamesOf = new String[albums];
+        final byte[][] albumKeysOf = new byte[albums][];
+        int[] albumOrder = new int[albums];
+        for (int i = 0; i < albums; i++) {
+            albumNamesOf[i] = strings.get(albumRefs[i]);
+            albumKeysOf[i] = keyOf(collator, albumNamesOf[i]);
+            albumOrder[i] = i;
+        }
+        SongSorter.sortRows(albumOrder, new SongSorter.RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int result = Integer.compare(artistRank[albumArtist[a]], artistRank[albumArtist[b]]);
+                if (result == 0) {
+                    result = compareNames(albumKeysOf[a], albumNamesOf[a], albumKeysOf[b], albumNamesOf[b]);
+                }
+                return result != 0 ? result : Long.compare(albumIDsOf[a], albumIDsOf[b]);
+            }
+        }, false);
+
+        //Counting sort: every album gets its range in the order above, then the rows are placed in row order.
+        int[] albumStart = new int[albums];
+        int offset = 0;
+        for (int album : albumOrder) {
+            albumStart[album] = offset;
+            offset += albumSizes[album];
+        }
+        int[] grouped = new int[rows];
+        int[] cursor = albumStart.clone();
+        for (int row = 0; row < rows; row++) {
+            grouped[cursor[rowAlbum[row]]++] = row;
+        }
+
+        Builder builder = new Builder(artists, albums, rows);
+        int lastArtist = -1;
+        for (int album : albumOrder) {
+            int artist = albumArtist[album];
+            if (artist != lastArtist) {
+                builder.artist(names[artist], keys[artist], sectionOf(names[artist]));
+                lastArtist = artist;
+            }
+            builder.album(albumNamesOf[album], albumKeysOf[album], albumIDsOf[album]);
+            int from = albumStart[album];
+            int to = from + albumSizes[album];
+            sortByTrack(grouped, from, to, songs);
+            for (int i = from; i < to; i++) {
+                builder.track(grouped[i]);
+            }
+        }
+        BrowseIndex index = new BrowseIndex(collator);
+        builder.finishInto(index);
+        return index;
+    }
+
+    //Stable sort of rows[from, to) by track number.
+    private static void sortByTrack(int[] rows, int from, int to, final SongTable songs) {
+        if (to - from <= INSERTION_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int track = songs.getTrack(row);
+                int j = i - 1;
+                while (j >= from && songs.getTrack(rows[j]) > track) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int[] range = Arrays.copyOfRange(rows, from, to);
+        SongSorter.sortRows(range, new SongSorter.RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Integer.compare(songs.getTrack(a), songs.getTrack(b));
+            }
+        }, false);
+        System.arraycopy(range, 0, rows, from, range.length);
+    }
+
+    private static byte[] keyOf(Collator collator, String name) {
+        return name == null ? null : collator.getCollationKey(name).toByteArray();
+    }
+
+    //Collation order, names that collate the same by their chars; songs without a name last.
+    private static int compareNames(byte[] keyA, String a, byte[] keyB, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        int result = SongSorter.compareKeys(keyA, keyB);
+        return result != 0 ? result : a.compareTo(b);
+    }
+
+    /**
+     * First letter of the name, folded like the search folds it (É → E), or OTHER_SECTION.
+     */
+    static String sectionOf(String name) {
+        String normalized = SearchIndex.normalize(name);
+        if (normalized.isEmpty() || !Character.isLetter(normalized.charAt(0))) {
+            return OTHER_SECTION;
+        }
+        return String.valueOf(Character.toUpperCase(normalized.charAt(0)));
+    }
+
+    //A section starts at every artist whose label differs from the one of the artist before.
+    private void indexSections(String[] artistSections) {
+        String[] labels = new String[Math.min(artistCount, 64)];
+        int[] starts = new int[labels.length];
+        int count = 0;
+        sectionOfArtist = new int[artistCount];
+        for (int artist = 0; artist < artistCount; artist++) {
+            String label = artistSections[artist];
+            if (count == 0 || !label.equals(labels[count - 1])) {
+                if (count == labels.length) {
+                    labels = Arrays.copyOf(labels, count * 2);
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                labels[count] = label;
+                starts[count] = artist;
+                count++;
+            }
+            sectionOfArtist[artist] = count - 1;
+        }
+        sections = Arrays.copyOf(labels, count);
+        sectionStart = Arrays.copyOf(starts, count);
+    }
+
+    public int getArtistCount() {
+        return artistCount;
+    }
+
+    public int getAlbumCount() {
+        return albumCount;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * @return the name, null for the songs without an artist.
+     */
+    public String getArtist(int artist) {
+        return artistNames[artist];
+    }
+
+    /**
+     * The albums of the artist are [getFirstAlbum(artist), getFirstAlbum(artist + 1)).
+     */
+    public int getFirstAlbum(int artist) {
+        return artistAlbums[artist];
+    }
+
+    public String getAlbum(int album) {
+        return albumNames[album];
+    }
+
+    public long getAlbumID(int album) {
+        return albumIDs[album];
+    }
+
+    /**
+     * The tracks of the album are getRow(getFirstTrack(album)) .. getRow(getFirstTrack(album + 1) - 1).
+     */
+    public int getFirstTrack(int album) {
+        return albumTracks[album];
+    }
+
+    public int getRow(int track) {
+        return trackRows[track];
+    }
+
+    /**
+     * Rows of the tracks of the album, in track order.
+     */
+    public int[] getTracks(int album) {
+        return Arrays.copyOfRange(trackRows, albumTracks[album], albumTracks[album + 1]);
+    }
+
+    public String[] getSections() {
+        return sections;
+    }
+
+    /**
+     * @return the first artist of the section.
+     */
+    public int getPositionForSection(int section) {
+        if (sectionStart.length == 0) {
+            return 0;
+        }
+        return sectionStart[Math.max(0, Math.min(section, sectionStart.length - 1))];
+    }
+
+    /**
+     * @return the section of the artist.
+     */
+    public int getSectionForPosition(int artist) {
+        if (sectionOfArtist.length == 0) {
+            return 0;
+        }
+        return sectionOfArtist[Math.max(0, Math.min(artist, sectionOfArtist.length - 1))];
+    }
+
+    /**
+     * Maps the rows to the rows the songs were moved to (sort, songs removed). Albums and artists left without
+     * songs are dropped.
+     * @param newRowOf - new row of every old row, -1 for songs that were removed.
+     */
+    public void remap(int[] newRowOf) {
+        boolean removed = false;
+        for (int i = 0; i < trackCount; i++) {
+            int row = trackRows[i];
+            int newRow = row < newRowOf.length ? newRowOf[row] : -1;
+            trackRows[i] = newRow;
+            removed |= newRow < 0;
+        }
+        if (removed) {
+            //nothing to merge, the songs are not read
+            update(null, new int[0]);
+        }
+    }
+
+    /**
+     * Moves the edited rows to their (new) artist and album, and adds the new rows. The changed rows are sorted
+     * then merged with the lists, which are not built again.
+     * @param songs - the table, with the rows of the index already remapped to it.
+     * @param changedRows - rows added or edited.
+     */
+    public void update(final SongTable songs, int[] changedRows) {
+        BitSet changed = new BitSet();
+        for (int row : changedRows) {
+            changed.set(row);
+        }
+        int[] rows = new int[changed.cardinality()];
+        for (int i = 0, row = changed.nextSetBit(0); row >= 0; row = changed.nextSetBit(row + 1)) {
+            rows[i++] = row;
+        }
+
+        //keys of the changed rows, one per distinct name
+        final int count = rows.length;
+        final String[] artists = new String[count];
+        final byte[][] keysOfArtist = new byte[count][];
+        final String[] albums = new String[count];
+        final byte[][] keysOfAlbum = new byte[count][];
+        Map<String, byte[]> keys = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            artists[i] = songs.getArtist(rows[i]);
+            keysOfArtist[i] = cachedKey(keys, artists[i]);
+            albums[i] = songs.getAlbum(rows[i]);
+            keysOfAlbum[i] = cachedKey(keys, albums[i]);
+        }
+        final int[] addedRows = rows;
+        int[] added = new int[count];
+        for (int i = 0; i < count; i++) {
+            added[i] = i;
+        }
+        SongSorter.sortRows(added, new SongSorter.RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                int result = compareNames(keysOfArtist[a], artists[a], keysOfArtist[b], artists[b]);
+                if (result == 0) {
+                    result = compareNames(keysOfAlbum[a], albums[a], keysOfAlbum[b], albums[b]);
+                }
+                if (result == 0) {
+                    result = Long.compare(songs.getAlbumID(addedRows[a]), songs.getAlbumID(addedRows[b]));
+                }
+                return result != 0 ? result : Integer.compare(songs.getTrack(addedRows[a]), songs.getTrack(addedRows[b]));
+            }
+        }, false);
+
+        //Merge of the lists (without the changed and removed rows) with the sorted changed rows.
+        Builder builder = new Builder(artistCount + count, albumCount + count, trackCount + count);
+        int artist = 0;
+        int next = 0;
+        while (artist < artistCount || next < count) {
+            int newArtist = next < count ? added[next] : -1;
+            int result = artist == artistCount ? 1 : newArtist < 0 ? -1 : compareNames(artistKeys[artist],
+                    artistNames[artist], keysOfArtist[newArtist], artists[newArtist]);
+            if (result <= 0) {
+                builder.artist(artistNames[artist], artistKeys[artist], sections[sectionOfArtist[artist]]);
+            } else {
+                builder.artist(artists[newArtist], keysOfArtist[newArtist], sectionOf(artists[newArtist]));
+            }
+            int album = result <= 0 ? artistAlbums[artist] : 0;
+            int albumEnd = result <= 0 ? artistAlbums[artist + 1] : 0;
+            int artistEnd = next;
+            while (result >= 0 && artistEnd < count && compareNames(keysOfArtist[added[artistEnd]],
+                    artists[added[artistEnd]], keysOfArtist[newArtist], artists[newArtist]) == 0) {
+                artistEnd++;
+            }
+            while (album < albumEnd || next < artistEnd) {
+                int newAlbum = next < artistEnd ? added[next] : -1;
+                int albumResult = album == albumEnd ? 1 : newAlbum < 0 ? -1 : compareAlbums(album,
+                        keysOfAlbum[newAlbum], albums[newAlbum], songs.getAlbumID(addedRows[newAlbum]));
+                if (albumResult <= 0) {
+                    builder.album(albumNames[album], albumKeys[album], albumIDs[album]);
+                } else {
+                    builder.album(albums[newAlbum], keysOfAlbum[newAlbum], songs.getAlbumID(addedRows[newAlbum]));
+                }
+                int track = albumResult <= 0 ? albumTracks[album] : 0;
+                int trackEnd = albumResult <= 0 ? albumTracks[album + 1] : 0;
+                int albumEndOfNew = next;
+                while (albumResult >= 0 && albumEndOfNew < artistEnd
+                        && sameAlbum(added[albumEndOfNew], newAlbum, keysOfAlbum, albums, songs, addedRows)) {
+                    albumEndOfNew++;
+                }
+                while (track < trackEnd || next < albumEndOfNew) {
+                    int oldRow = track < trackEnd ? trackRows[track] : -1;
+                    if (oldRow >= 0 && changed.get(oldRow)) {
+                        track++;
+                        continue;
+                    }
+                    int newRow = next < albumEndOfNew ? addedRows[added[next]] : -1;
+                    if (newRow < 0 || track < trackEnd && (oldRow < 0 || songs.getTrack(oldRow) <= songs.getTrack(newRow))) {
+                        if (oldRow >= 0) {
+                            builder.track(oldRow);
+                        }
+                        track++;
+                    } else {
+                        builder.track(newRow);
+                        next++;
+                    }
+                }
+                if (albumResult <= 0) {
+                    album++;
+                }
+            }
+            if (result <= 0) {
+                artist++;
+            }
+        }
+        builder.finishInto(this);
+    }
+
+    private byte[] cachedKey(Map<String, byte[]> keys, String name) {
+        if (name == null) {
+            return null;
+        }
+        byte[] key = keys.get(name);
+        if (key == null) {
+            key = keyOf(collator, name);
+            keys.put(name, key);
+        }
+        return key;
+    }
+
+    private int compareAlbums(int album, byte[] key, String name, long albumID) {
+        int result = compareNames(albumKeys[album], albumNames[album], key, name);
+        return result != 0 ? result : Long.compare(albumIDs[album], albumID);
+    }
+
+    private static boolean sameAlbum(int a, int b, byte[][] keys, String[] names, SongTable songs, int[] rows) {
+        return compareNames(keys[a], names[a], keys[b], names[b]) == 0
+                && songs.getAlbumID(rows[a]) == songs.getAlbumID(rows[b]);
+    }
+
+    @Override
+    public String toString() {
+        return artistCount + " artists, " + albumCount + " albums, " + trackCount + " tracks, "
+                + sections.length + " sections";
+    }
+
+    /**
+     * Appends artists, their albums and the albums' tracks in order; artists and albums left empty are dropped.
+     */
+    private static class Builder {
+        private int artists;
+        private final String[] artistNames;
+        private final byte[][] artistKeys;
+        private final int[] artistAlbums;
+        private final String[] artistSections;
+        private int albums;
+        private final String[] albumNames;
+        private final byte[][] albumKeys;
+        private final long[] albumIDs;
+        private final int[] albumTracks;
+        private int tracks;
+        private final int[] trackRows;
+
+        Builder(int maxArtists, int maxAlbums, int maxTracks) {
+            artistNames = new String[maxArtists];
+            artistKeys = new byte[maxArtists][];
+            artistAlbums = new int[maxArtists + 1];
+            artistSections = new String[maxArtists];
+            albumNames = new String[maxAlbums];
+            albumKeys = new byte[maxAlbums][];
+            albumIDs = new long[maxAlbums];
+            albumTracks = new int[maxAlbums + 1];
+            trackRows = new int[maxTracks];
+        }
+
+        void artist(String name, byte[] key, String section) {
+            closeArtist();
+            artistNames[artists] = name;
+            artistKeys[artists] = key;
+            artistSections[artists] = section;
+            artistAlbums[artists] = albums;
+            artists++;
+        }
+
+        void album(String name, byte[] key, long id) {
+            closeAlbum();
+            albumNames[albums] = name;
+            albumKeys[albums] = key;
+            albumIDs[albums] = id;
+            albumTracks[albums] = tracks;
+            albums++;
+        }
+
+        void track(int row) {
+            trackRows[tracks++] = row;
+        }
+
+        private void closeAlbum() {
+            if (albums > 0 && albumTracks[albums - 1] == tracks) {
+                albums--;
+            }
+        }
+
+        private void closeArtist() {
+            closeAlbum();
+            if (artists > 0 && artistAlbums[artists - 1] == albums) {
+                artists--;
+            }
+        }
+
+        void finishInto(BrowseIndex index) {
+            closeArtist();
+            artistAlbums[artists] = albums;
+            albumTracks[albums] = tracks;
+            index.artistCount = artists;
+            index.artistNames = artistNames;
+            index.artistKeys = artistKeys;
+            index.artistAlbums = artistAlbums;
+            index.albumCount = albums;
+            index.albumNames = albumNames;
+            index.albumKeys = albumKeys;
+            index.albumIDs = albumIDs;
+            index.albumTracks = albumTracks;
+            index.trackCount = tracks;
+            index.trackRows = trackRows;
+            index.indexSections(artistSections);
+        }
+    }
+}
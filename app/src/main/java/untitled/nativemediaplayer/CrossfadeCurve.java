@@ -0,0 +1,32 @@
+package untitled.nativemediaplayer;
+
+/**
+ * Shape of a crossfade, the gain of the incoming song over the fade. The outgoing song follows the same curve
+ * backwards. Same values and formulas as CrossfadeCurve in crossfade_mixer.h.
+ */
+public enum CrossfadeCurve {
+    LINEAR,
+    //Constant power (sin/cos): no dip in loudness in the middle of the fade for unrelated songs.
+    EQUAL_POWER,
+    //Raised cosine: slow at both ends.
+    S;
+
+    /**
+     * @param t - progress of the fade, 0 to 1.
+     */
+    public float fadeIn(float t) {
+        t = Math.min(Math.max(t, 0), 1);
+        switch (this) {
+            case EQUAL_POWER:
+                return (float) Math.sin(t * Math.PI / 2);
+            case S:
+                return (float) (0.5 - 0.5 * Math.cos(t * Math.PI));
+            default:
+                return t;
+        }
+    }
+
+    public float fadeOut(float t) {
+        return fadeIn(1 - t);
+    }
+}
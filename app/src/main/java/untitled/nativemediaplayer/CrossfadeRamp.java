@@ -0,0 +1,87 @@
+package untitled.nativemediaplayer;
+
+/**
+ * Progress of a crossfade between the song ending and the next one, on a monotonic clock in milliseconds
+ * (SystemClock.uptimeMillis()). Pausing the playback pauses the fade, so it resumes where it was.
+ * Only used from one thread (the playback thread).
+ */
+public class CrossfadeRamp {
+    private CrossfadeCurve curve = CrossfadeCurve.EQUAL_POWER;
+    private int lengthMs;
+    private long startedAt;
+    //Progress at the last pause, in ms.
+    private long pausedElapsed;
+    private boolean running;
+    private boolean active;
+
+    public void start(CrossfadeCurve curve, int lengthMs, long now) {
+        this.curve = curve;
+        this.lengthMs = Math.max(lengthMs, 0);
+        this.startedAt = now;
+        this.pausedElapsed = 0;
+        this.running = true;
+        this.active = true;
+    }
+
+    public void pause(long now) {
+        if (active && running) {
+            pausedElapsed = elapsed(now);
+            running = false;
+        }
+    }
+
+    public void resume(long now) {
+        if (active && !running) {
+            startedAt = now - pausedElapsed;
+            running = true;
+        }
+    }
+
+    /**
+     * Drops the fade, e.g. the user skipped or seeked during it.
+     */
+    public void cancel() {
+        active = false;
+        running = false;
+    }
+
+    /**
+     * True from start() until cancel(), including once the fade is done.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isDone(long now) {
+        return active && elapsed(now) >= lengthMs;
+    }
+
+    /**
+     * @return the progress of the fade, 0 to 1.
+     */
+    public float progress(long now) {
+        if (lengthMs == 0) {
+            return 1;
+        }
+        return Math.min(1f, (float) elapsed(now) / lengthMs);
+    }
+
+    public float gainIn(long now) {
+        return curve.fadeIn(progress(now));
+    }
+
+    public float gainOut(long now) {
+        return curve.fadeOut(progress(now));
+    }
+
+    /**
+     * Time left before the fade is done.
+     */
+    public long remaining(long now) {
+        return Math.max(0, lengthMs - elapsed(now));
+    }
+
+    private long elapsed(long now) {
+        return running ? Math.max(0, now - startedAt) : pausedElapsed;
+    }
+}
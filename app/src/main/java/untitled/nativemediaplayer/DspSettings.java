@@ -0,0 +1,97 @@
+package untitled.nativemediaplayer;
+
+import java.util.Arrays;
+
+/**
+ * Parameters of the DSP chain of the {@link NativePcmPipeline}: parametric EQ bands, ReplayGain and a peak limiter.
+ * Changed on the UI side and sent whole with NativePcmPipeline.setDsp(), the audio thread picks them up
+ * at its next block without any lock.
+ */
+public class DspSettings {
+
+    public static final int MAX_BANDS = 8;
+
+    //Same values as EqBandType in dsp_chain.h.
+    public enum BandType {
+        OFF,
+        PEAKING,
+        LOW_SHELF,
+        HIGH_SHELF
+    }
+
+    //Layout of pack(), read by nativeSetDsp in native-lib.cpp.
+    static final int HEADER = 4;
+    static final int BAND_SIZE = 4;
+
+    private final float[] bands = new float[MAX_BANDS * BAND_SIZE];
+    private int bandCount = 0;
+    private float replayGainDb = 0;
+    private float preampDb = 0;
+    private float limiterThresholdDb = 0;
+    private float limiterReleaseMs = 100;
+
+    /**
+     * Sets one band of the EQ, bands are applied in order.
+     * @param frequency - center (peaking) or corner (shelves) frequency in Hz.
+     * @param q - width of the band, 0.707 for shelves without overshoot.
+     */
+    public DspSettings setBand(int band, BandType type, float frequency, float q, float gainDb) {
+        if (band < 0 || band >= MAX_BANDS) {
+            throw new IndexOutOfBoundsException("Band " + band + ", max " + MAX_BANDS);
+        }
+        int offset = band * BAND_SIZE;
+        bands[offset] = type.ordinal();
+        bands[offset + 1] = frequency;
+        bands[offset + 2] = q;
+        bands[offset + 3] = gainDb;
+        bandCount = Math.max(bandCount, band + 1);
+        return this;
+    }
+
+    public DspSettings clearBands() {
+        Arrays.fill(bands, 0);
+        bandCount = 0;
+        return this;
+    }
+
+    /**
+     * Gain of the song from its ReplayGain tag (track or album), plus the preamp the user chose.
+     */
+    public DspSettings setReplayGain(float gainDb, float preampDb) {
+        this.replayGainDb = gainDb;
+        this.preampDb = preampDb;
+        return this;
+    }
+
+    /**
+     * @param thresholdDb - highest peak let through, in dBFS (0 or less).
+     * @param releaseMs - time the gain takes to recover after a peak.
+     */
+    public DspSettings setLimiter(float thresholdDb, float releaseMs) {
+        this.limiterThresholdDb = Math.min(thresholdDb, 0);
+        this.limiterReleaseMs = Math.max(releaseMs, 1);
+        return this;
+    }
+
+    public float getGainDb() {
+        return replayGainDb + preampDb;
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * The settings as native-lib reads them: gain, limiter threshold and release, band count,
+     * then type, frequency, q and gain of every band.
+     */
+    float[] pack() {
+        float[] packed = new float[HEADER + bandCount * BAND_SIZE];
+        packed[0] = getGainDb();
+        packed[1] = limiterThresholdDb;
+        packed[2] = limiterReleaseMs;
+        packed[3] = bandCount;
+        System.arraycopy(bands, 0, packed, HEADER, bandCount * BAND_SIZE);
+        return packed;
+    }
+}
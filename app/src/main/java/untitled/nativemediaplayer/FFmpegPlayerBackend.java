@@ -0,0 +1,144 @@
+package untitled.nativemediaplayer;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaDataSource;
+import android.net.Uri;
+import android.os.PowerManager;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+import wseemann.media.FFmpegMediaPlayer;
+
+/**
+ * {@link PlayerBackend} on FFmpegMediaPlayer, a reimplementation of MediaPlayer on FFmpeg and native code.
+ * Plays some containers and codecs the platform player doesn't, but can't chain players: the next song is started by hand.
+ */
+public class FFmpegPlayerBackend implements PlayerBackend, FFmpegMediaPlayer.OnPreparedListener,
+        FFmpegMediaPlayer.OnErrorListener, FFmpegMediaPlayer.OnCompletionListener, FFmpegMediaPlayer.OnSeekCompleteListener {
+
+    private final FFmpegMediaPlayer player = new FFmpegMediaPlayer();
+    private Listener listener;
+
+    public FFmpegPlayerBackend(Context context) {
+        player.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnSeekCompleteListener(this);
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.FFMPEG;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) throws IOException {
+        player.setDataSource(context, uri);
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException {
+        player.setDataSource(fd, offset, length);
+    }
+
+    @Override
+    public boolean supportsMediaDataSource() {
+        return false;
+    }
+
+    @Override
+    public void setDataSource(MediaDataSource source) {
+        throw new UnsupportedOperationException("FFmpegMediaPlayer can't read from a MediaDataSource");
+    }
+
+    @Override
+    public void prepareAsync() {
+        player.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        player.start();
+    }
+
+    @Override
+    public void pause() {
+        player.pause();
+    }
+
+    @Override
+    public void stop() {
+        player.stop();
+    }
+
+    @Override
+    public void seekTo(int position) {
+        player.seekTo(position);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return player.isPlaying();
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        player.setVolume(volume, volume);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return player.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return player.getDuration();
+    }
+
+    @Override
+    public boolean setNext(PlayerBackend next) {
+        return next == null;
+    }
+
+    @Override
+    public void reset() {
+        player.reset();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setVolume(1, 1);
+    }
+
+    @Override
+    public void release() {
+        player.release();
+    }
+
+    @Override
+    public void onPrepared(FFmpegMediaPlayer mp) {
+        listener.onPrepared(this);
+    }
+
+    @Override
+    public void onCompletion(FFmpegMediaPlayer mp) {
+        listener.onCompletion(this);
+    }
+
+    @Override
+    public boolean onError(FFmpegMediaPlayer mp, int what, int extra) {
+        return listener.onError(this, what, extra);
+    }
+
+    @Override
+    public void onSeekComplete(FFmpegMediaPlayer mp) {
+        listener.onSeekComplete(this);
+    }
+}
@@ -0,0 +1,263 @@
+package untitled.nativemediaplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Builds the {@link SeekTable} of an MP3 (MPEG 1/2/2.5 Layer III) or ADTS AAC file in one pass over it.
+ * Only the frame headers are parsed: each header gives the length of its frame, so the next header is right after it.
+ * A leading ID3v2 tag is skipped, and so is a Xing/Info/VBRI frame (it holds no audio). Garbage between frames is
+ * skipped by searching the next header that is followed by another valid one; the audio ends at the first header
+ * that can't be found again (ID3v1 or APE tag, truncated file).
+ * Runs in the background, on a plain InputStream so it can be tested on generated files.
+ */
+public class FrameIndexer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //Bytes searched for the first frame after the ID3v2 tag, and for the next frame after garbage.
+    static final int MAX_SYNC_SEARCH = 64 * 1024;
+    //Enough for an ADTS header and the Xing/VBRI tag of an MP3 frame.
+    private static final int HEADER_BYTES = 4 + 32 + 4 + 4;
+    private static final int MIN_HEADER_BYTES = 7;
+
+    private static final int[] MPEG1_BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] MPEG2_BITRATES = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[] MPEG1_SAMPLE_RATES = {44100, 48000, 32000};
+    private static final int[] ADTS_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000,
+            12000, 11025, 8000, 7350};
+
+    private final InputStream in;
+    private final long fileLength;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    //position in the file of buffer[0], and bytes in the buffer
+    private long bufferStart = 0;
+    private int buffered = 0;
+
+    //the frame parsed last by parseFrame()
+    private SeekTable.Format frameFormat;
+    private int frameLength;
+    private int frameSampleRate;
+    private int frameSamples;
+
+    private FrameIndexer(InputStream in, long fileLength) {
+        this.in = in;
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * Reads the whole stream, which is left open.
+     * @param fileLength - length of the file, frames going past it are cut and not indexed.
+     * @return the seek table, or null if the stream is not MP3 or ADTS.
+     */
+    public static SeekTable index(InputStream in, long fileLength) throws IOException {
+        return new FrameIndexer(in, fileLength).index();
+    }
+
+    private SeekTable index() throws IOException {
+        long offset = find(skipID3v2(), MAX_SYNC_SEARCH);
+        if (offset < 0) {
+            return null;
+        }
+        parseFrame(offset);
+        SeekTable.Format format = frameFormat;
+        int sampleRate = frameSampleRate;
+        int samplesPerFrame = frameSamples;
+        if (isInfoFrame(offset)) {
+            offset += frameLength;
+        }
+
+        long firstOffset = offset;
+        int[] offsets = new int[1024];
+        int entries = 0;
+        int frames = 0;
+        while (ensure(offset, MIN_HEADER_BYTES)) {
+            if (!parseFrame(offset) || frameFormat != format || frameSampleRate != sampleRate || frameSamples != samplesPerFrame) {
+                offset = find(offset + 1, MAX_SYNC_SEARCH);
+                if (offset < 0) {
+                    break;
+                }
+                continue;
+            }
+            if (offset + frameLength > fileLength || offset + frameLength - firstOffset > Integer.MAX_VALUE) {
+                break;
+            }
+            if (frames % SeekTable.FRAMES_PER_ENTRY == 0) {
+                if (entries == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, entries * 2);
+                }
+                offsets[entries++] = (int) (offset - firstOffset);
+            }
+            frames++;
+            offset += frameLength;
+        }
+        if (frames == 0) {
+            return null;
+        }
+        return new SeekTable(format, fileLength, sampleRate, samplesPerFrame, frames, firstOffset, Arrays.copyOf(offsets, entries));
+    }
+
+    /**
+     * @return the offset of the first byte after the ID3v2 tag, 0 if there is none.
+     */
+    private long skipID3v2() throws IOException {
+        if (!ensure(0, 10) || byteAt(0) != 'I' || byteAt(1) != 'D' || byteAt(2) != '3') {
+            return 0;
+        }
+        //synchsafe: 7 bits per byte
+        long size = (byteAt(6) & 0x7F) << 21 | (byteAt(7) & 0x7F) << 14 | (byteAt(8) & 0x7F) << 7 | (byteAt(9) & 0x7F);
+        boolean footer = (byteAt(5) & 0x10) != 0;
+        return 10 + size + (footer ? 10 : 0);
+    }
+
+    /**
+     * Searches a frame header that the header of another frame, of the same kind, follows.
+     * @return its offset, or -1 if there is none in the next maxBytes bytes.
+     */
+    private long find(long from, int maxBytes) throws IOException {
+        for (long offset = from; offset < from + maxBytes; offset++) {
+            if (!ensure(offset, MIN_HEADER_BYTES)) {
+                return -1;
+            }
+            if (!parseFrame(offset)) {
+                continue;
+            }
+            SeekTable.Format format = frameFormat;
+            int sampleRate = frameSampleRate;
+            int samples = frameSamples;
+            long next = offset + frameLength;
+            //ensure() keeps the bytes from offset on, the search can go on from there
+            if (ensure(offset, frameLength + MIN_HEADER_BYTES) && parseFrame(next) && frameFormat == format
+                    && frameSampleRate == sampleRate && frameSamples == samples) {
+                parseFrame(offset);
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the header at the offset into the frame fields, the bytes must be in the buffer.
+     * @return false if there is no valid header there.
+     */
+    private boolean parseFrame(long offset) {
+        int b0 = byteAt(offset);
+        int b1 = byteAt(offset + 1);
+        if (b0 != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return false;
+        }
+        int b2 = byteAt(offset + 2);
+        int layer = (b1 >> 1) & 3;
+        if (layer == 0) {
+            return (b1 & 0xF0) == 0xF0 && parseAdts(offset, b2);
+        }
+        //Layer III only
+        if (layer != 1) {
+            return false;
+        }
+        int version = (b1 >> 3) & 3;
+        int bitrateIndex = b2 >> 4;
+        int sampleRateIndex = (b2 >> 2) & 3;
+        if (version == 1 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return false;
+        }
+        boolean mpeg1 = version == 3;
+        int bitrate = (mpeg1 ? MPEG1_BITRATES : MPEG2_BITRATES)[bitrateIndex] * 1000;
+        //MPEG 2 halves the sample rates of MPEG 1, MPEG 2.5 halves them again
+        int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+        int padding = (b2 >> 1) & 1;
+        frameFormat = SeekTable.Format.MP3;
+        frameSampleRate = sampleRate;
+        frameSamples = mpeg1 ? 1152 : 576;
+        frameLength = (mpeg1 ? 144 : 72) * bitrate / sampleRate + padding;
+        return true;
+    }
+
+    private boolean parseAdts(long offset, int b2) {
+        int sampleRateIndex = (b2 >> 2) & 0xF;
+        if (sampleRateIndex >= ADTS_SAMPLE_RATES.length) {
+            return false;
+        }
+        int length = (byteAt(offset + 3) & 3) << 11 | byteAt(offset + 4) << 3 | byteAt(offset + 5) >> 5;
+        if (length < MIN_HEADER_BYTES) {
+            return false;
+        }
+        frameFormat = SeekTable.Format.ADTS;
+        frameSampleRate = ADTS_SAMPLE_RATES[sampleRateIndex];
+        frameSamples = 1024 * ((byteAt(offset + 6) & 3) + 1);
+        frameLength = length;
+        return true;
+    }
+
+    /**
+     * True if the MP3 frame at the offset is a Xing, Info or VBRI header instead of audio.
+     */
+    private boolean isInfoFrame(long offset) throws IOException {
+        if (frameFormat != SeekTable.Format.MP3 || !ensure(offset, HEADER_BYTES)) {
+            return false;
+        }
+        boolean mpeg1 = ((byteAt(offset + 1) >> 3) & 3) == 3;
+        boolean mono = (byteAt(offset + 3) >> 6) == 3;
+        //the Xing tag follows the side information, whose size depends on the version and the channels
+        long xing = offset + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        return tagAt(xing, "Xing") || tagAt(xing, "Info") || tagAt(offset + 4 + 32, "VBRI");
+    }
+
+    private boolean tagAt(long offset, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            if (byteAt(offset + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int byteAt(long offset) {
+        return buffer[(int) (offset - bufferStart)] & 0xFF;
+    }
+
+    /**
+     * Makes the buffer hold the count bytes from the offset. Offsets only move forward: the bytes before the offset
+     * are dropped, and the frames jumped over are skipped without being read.
+     * @return false if the file ends before.
+     */
+    private boolean ensure(long offset, int count) throws IOException {
+        long end = bufferStart + buffered;
+        if (offset >= bufferStart && offset + count <= end) {
+            return true;
+        }
+        if (offset + count > fileLength) {
+            return false;
+        }
+        if (offset >= end) {
+            skip(offset - end);
+            buffered = 0;
+        } else {
+            int kept = (int) (end - offset);
+            System.arraycopy(buffer, (int) (offset - bufferStart), buffer, 0, kept);
+            buffered = kept;
+        }
+        bufferStart = offset;
+        while (buffered < count) {
+            int read = in.read(buffer, buffered, buffer.length - buffered);
+            if (read < 0) {
+                return false;
+            }
+            buffered += read;
+        }
+        return true;
+    }
+
+    private void skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("File shorter than " + fileLength + " bytes");
+                }
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
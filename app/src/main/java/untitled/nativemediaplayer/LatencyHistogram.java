@@ -0,0 +1,115 @@
+package untitled.nativemediaplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed, log-linear buckets: 8 buckets per power of two, so every value is within 12.5%
+ * of its bucket. Values are recorded in microseconds, from 0 to about 2^36 us (19 hours).
+ * record() doesn't allocate or lock (two atomic increments, plus a compare-and-set on the max when the value is a new
+ * max), so it can stay on in release builds and be called from any thread.
+ */
+public class LatencyHistogram {
+    //Sub-buckets per power of two, as a power of two.
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos - duration measured with System.nanoTime(), negative values count as 0.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos, 0) / 1000;
+        counts.incrementAndGet(bucketOf(micros));
+        total.incrementAndGet();
+        long currentMax = max.get();
+        while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+            currentMax = max.get();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Largest value (in microseconds) that falls into the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * @return the largest value recorded, in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile - between 0 and 100.
+     * @return the value (in microseconds) below which the given percentage of the values fall, 0 if nothing was recorded.
+     * Computed from the buckets, so it is within 12.5% of the exact value.
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " p50=" + formatMillis(getPercentile(50)) + " p95=" + formatMillis(getPercentile(95))
+                + " p99=" + formatMillis(getPercentile(99)) + " max=" + formatMillis(getMax());
+    }
+
+    static String formatMillis(long micros) {
+        return micros / 1000 + "." + (micros % 1000) / 100 + " ms";
+    }
+}
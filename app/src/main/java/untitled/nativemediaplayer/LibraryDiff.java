@@ -0,0 +1,122 @@
+package untitled.nativemediaplayer;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Changes found by a {@link LibrarySync}: songs added or edited since the last sync and the IDs of the songs removed.
+ * Applied to the SongTable in place, no full reload of the library is needed.
+ */
+public class LibraryDiff {
+    private final SongTable changed;
+    private final long[] removedIDs;
+    private final LibraryFingerprint fingerprint;
+
+    private int inserted;
+    private int updated;
+    private int removed;
+    private int[] updatedRows = new int[0];
+
+    /**
+     * @param changed - songs added or edited, as read from the MediaStore.
+     * @param removedIDs - IDs that are no longer in the MediaStore.
+     * @param fingerprint - fingerprint of the MediaStore once the diff is applied.
+     */
+    public LibraryDiff(SongTable changed, long[] removedIDs, LibraryFingerprint fingerprint) {
+        this.changed = changed;
+        this.removedIDs = removedIDs;
+        this.fingerprint = fingerprint;
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty() && removedIDs.length == 0;
+    }
+
+    public LibraryFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Applies the diff: edited rows are updated where they are, new songs are appended and removed songs are dropped.
+     * Rows listed as changed but identical to the ones in the table are left alone.
+     * @return the new row of every old row of the table, or -1 for the songs removed.
+     */
+    public int[] applyTo(SongTable songs) {
+        int oldSize = songs.size();
+
+        //Built before any song is appended, so it only finds the rows that were already there.
+        SongTable.IDIndex index = songs.idIndex();
+
+        int[] updates = new int[changed.size()];
+        for (int i = 0; i < changed.size(); i++) {
+            int row = index.rowOf(changed.getID(i));
+            if (row < 0) {
+                songs.add(changed.getID(i), changed.getTitle(i), changed.getArtist(i), changed.getDateAdded(i),
+                        changed.getAlbum(i), changed.getAlbumID(i), changed.getTrack(i), changed.getDuration(i));
+                inserted++;
+                continue;
+            }
+            if (!same(songs, row, i)) {
+                songs.set(row, changed.getTitle(i), changed.getArtist(i), changed.getDateAdded(i),
+                        changed.getAlbum(i), changed.getAlbumID(i), changed.getTrack(i), changed.getDuration(i));
+                updates[updated++] = row;
+            }
+        }
+
+        BitSet removedRows = new BitSet(oldSize);
+        for (long removedID : removedIDs) {
+            int row = index.rowOf(removedID);
+            if (row >= 0) {
+                removedRows.set(row);
+                removed++;
+            }
+        }
+
+        int[] newRowOf = songs.removeRows(removedRows);
+        updatedRows = new int[updated];
+        for (int i = 0; i < updated; i++) {
+            updatedRows[i] = newRowOf[updates[i]];
+        }
+        return Arrays.copyOf(newRowOf, oldSize);
+    }
+
+    private boolean same(SongTable songs, int row, int changedRow) {
+        return equal(songs.getTitle(row), changed.getTitle(changedRow))
+                && equal(songs.getArtist(row), changed.getArtist(changedRow))
+                && songs.getDateAdded(row) == changed.getDateAdded(changedRow)
+                && equal(songs.getAlbum(row), changed.getAlbum(changedRow))
+                && songs.getAlbumID(row) == changed.getAlbumID(changedRow)
+                && songs.getTrack(row) == changed.getTrack(changedRow)
+                && songs.getDuration(row) == changed.getDuration(changedRow);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Number of songs appended by the last applyTo(), they are the last rows of the table.
+     */
+    public int getInsertedCount() {
+        return inserted;
+    }
+
+    /**
+     * True if the last applyTo() only edited rows, without adding or removing songs.
+     */
+    public boolean isUpdateOnly() {
+        return inserted == 0 && removed == 0;
+    }
+
+    /**
+     * Rows edited by the last applyTo(), after the removed rows were dropped.
+     */
+    public int[] getUpdatedRows() {
+        return updatedRows;
+    }
+
+    @Override
+    public String toString() {
+        return inserted + " added, " + updated + " edited, " + removed + " removed";
+    }
+}
@@ -0,0 +1,91 @@
+package untitled.nativemediaplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+/**
+ * Summary of the MediaStore audio table: number of songs, sum and max of the IDs and the latest DATE_MODIFIED.
+ * Any song added, removed or edited changes at least one of the values, so comparing two fingerprints
+ * tells whether a saved library is still up to date without reading the Title/Artist of every song.
+ */
+public class LibraryFingerprint {
+    private int count;
+    private long idSum;
+    private long maxID;
+    private long maxDateModified;
+
+    public LibraryFingerprint() {
+    }
+
+    public LibraryFingerprint(int count, long idSum, long maxID, long maxDateModified) {
+        this.count = count;
+        this.idSum = idSum;
+        this.maxID = maxID;
+        this.maxDateModified = maxDateModified;
+    }
+
+    public void add(long songID, long dateModified) {
+        count++;
+        idSum += songID;
+        maxID = Math.max(maxID, songID);
+        maxDateModified = Math.max(maxDateModified, dateModified);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getIDSum() {
+        return idSum;
+    }
+
+    public long getMaxID() {
+        return maxID;
+    }
+
+    public long getMaxDateModified() {
+        return maxDateModified;
+    }
+
+    /**
+     * Reads the fingerprint of the current MediaStore content. Only the _ID and DATE_MODIFIED columns are queried.
+     * Must not be called on the UI thread.
+     */
+    public static LibraryFingerprint query(ContentResolver musicResolver) {
+        LibraryFingerprint fingerprint = new LibraryFingerprint();
+        Cursor musicCursor = musicResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[] {MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATE_MODIFIED}, null, null, null);
+        if (musicCursor == null) {
+            return fingerprint;
+        }
+        try {
+            while (musicCursor.moveToNext()) {
+                fingerprint.add(musicCursor.getLong(0), musicCursor.getLong(1));
+            }
+        } finally {
+            musicCursor.close();
+        }
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LibraryFingerprint)) {
+            return false;
+        }
+        LibraryFingerprint other = (LibraryFingerprint) o;
+        return count == other.count && idSum == other.idSum && maxID == other.maxID
+                && maxDateModified == other.maxDateModified;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * (31 * count + idSum) + maxID) + maxDateModified);
+    }
+
+    @Override
+    public String toString() {
+        return count + " songs, id sum " + idSum + ", max id " + maxID + ", modified " + maxDateModified;
+    }
+}
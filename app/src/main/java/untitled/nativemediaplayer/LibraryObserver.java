@@ -0,0 +1,38 @@
+package untitled.nativemediaplayer;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.provider.MediaStore;
+
+/**
+ * Watches the MediaStore audio table and runs a callback once a burst of changes has settled.
+ * Every change notification restarts the delay, so a copy of many files leads to a single sync.
+ */
+public class LibraryObserver extends ContentObserver {
+    static final long DEBOUNCE_MS = 1500;
+
+    private final Handler handler;
+    private final Runnable onLibraryChanged;
+
+    public LibraryObserver(Handler handler, Runnable onLibraryChanged) {
+        super(handler);
+        this.handler = handler;
+        this.onLibraryChanged = onLibraryChanged;
+    }
+
+    public void register(ContentResolver musicResolver) {
+        musicResolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, this);
+    }
+
+    public void unregister(ContentResolver musicResolver) {
+        musicResolver.unregisterContentObserver(this);
+        handler.removeCallbacks(onLibraryChanged);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        handler.removeCallbacks(onLibraryChanged);
+        handler.postDelayed(onLibraryChanged, DEBOUNCE_MS);
+    }
+}
@@ -0,0 +1,155 @@
+package untitled.nativemediaplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * Background task that reads the songs found on the phone without blocking the UI thread.
+ * Rows are streamed back in pages so the list can be filled progressively while the scan runs.
+ */
+public class LibraryScanner extends AsyncTask<Void, SongTable, Integer> {
+
+    /**
+     * Callbacks delivered on the UI thread.
+     */
+    public interface Listener {
+        void onSongsScanned(SongTable page, int scanned, int total);
+        void onScanFinished(int total);
+    }
+
+    // Only the columns the list displays, sorts and browses by (plus DATE_MODIFIED for the fingerprint) are read from the MediaStore.
+    static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.TRACK,
+            MediaStore.Audio.Media.DURATION
+    };
+
+    /**
+     * Indexes of the PROJECTION columns in a cursor, shared with the LibrarySync.
+     */
+    static class Columns {
+        private final int id;
+        private final int title;
+        private final int artist;
+        private final int dateAdded;
+        private final int album;
+        private final int albumID;
+        private final int track;
+        private final int duration;
+
+        Columns(Cursor cursor) {
+            id = cursor.getColumnIndex(MediaStore.Audio.Media._ID);
+            title = cursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
+            artist = cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+            dateAdded = cursor.getColumnIndex(MediaStore.Audio.Media.DATE_ADDED);
+            album = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+            albumID = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
+            track = cursor.getColumnIndex(MediaStore.Audio.Media.TRACK);
+            duration = cursor.getColumnIndex(MediaStore.Audio.Media.DURATION);
+        }
+
+        /**
+         * Appends the song at the current position of the cursor.
+         */
+        long addTo(SongTable songs, Cursor cursor) {
+            long songID = cursor.getLong(id);
+            songs.add(songID, cursor.getString(title), cursor.getString(artist), cursor.getLong(dateAdded),
+                    cursor.getString(album), cursor.getLong(albumID), cursor.getInt(track), cursor.getInt(duration));
+            return songID;
+        }
+    }
+
+    private static final int PAGE_SIZE = 500;
+
+    private final ContentResolver musicResolver;
+    private Listener listener;
+    private volatile int total;
+    private int scanned;
+    private final LibraryFingerprint fingerprint = new LibraryFingerprint();
+
+    public LibraryScanner(ContentResolver musicResolver, Listener listener) {
+        this.musicResolver = musicResolver;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... voids) {
+        Uri musicURI = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+
+        //Rows are requested already ordered by title (locale aware) so pages arrive close to the order they are displayed.
+        Cursor musicCursor = musicResolver.query(musicURI, PROJECTION, null, null,
+                MediaStore.Audio.Media.TITLE + " COLLATE LOCALIZED");
+        if (musicCursor == null) {
+            Log.d("LibraryScanner", "MediaStore query returned no cursor");
+            return 0;
+        }
+
+        int count = 0;
+        try {
+            total = musicCursor.getCount();
+
+            Columns columns = new Columns(musicCursor);
+            int dateModifiedColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+
+            SongTable page = new SongTable(PAGE_SIZE);
+            while (!isCancelled() && musicCursor.moveToNext()) {
+                long id = columns.addTo(page, musicCursor);
+                fingerprint.add(id, musicCursor.getLong(dateModifiedColumn));
+                count++;
+
+                if (page.size() == PAGE_SIZE) {
+                    publishProgress(page);
+                    page = new SongTable(PAGE_SIZE);
+                }
+            }
+            if (!page.isEmpty() && !isCancelled()) {
+                publishProgress(page);
+            }
+        } finally {
+            musicCursor.close();
+        }
+        return count;
+    }
+
+    @Override
+    protected void onProgressUpdate(SongTable... pages) {
+        for (SongTable page : pages) {
+            scanned += page.size();
+            if (listener != null) {
+                listener.onSongsScanned(page, scanned, total);
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Integer count) {
+        if (listener != null) {
+            listener.onScanFinished(count);
+        }
+    }
+
+    /**
+     * Fingerprint of the songs read, complete once onScanFinished() has been delivered.
+     */
+    public LibraryFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Stops the scan and drops the listener so no more pages are delivered to it.
+     */
+    public void cancel() {
+        listener = null;
+        cancel(false);
+    }
+}
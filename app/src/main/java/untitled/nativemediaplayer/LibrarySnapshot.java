@@ -0,0 +1,258 @@
+package untitled.nativemediaplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary copy of the scanned and sorted library, so the list can be shown on start without querying the MediaStore.
+ *
+ * Layout (big endian): magic, format version, row count, string count, sort keys, {@link LibraryFingerprint},
+ * the strings (length + UTF-8 bytes), then the ID, Title, Artist, date added, Album, album ID, track and duration
+ * columns, and a CRC32 of everything before it.
+ * The file is read back through a MappedByteBuffer.
+ */
+public class LibrarySnapshot {
+    static final int MAGIC = 0x4E4D504C; // "NMPL"
+    static final int VERSION = 2;
+
+    private static final int TRAILER_SIZE = 4;
+    //bytes of the columns of one row
+    private static final int ROW_SIZE = 8 + 4 + 4 + 8 + 4 + 8 + 4 + 4;
+
+    private final SongTable songs;
+    private final SongSorter.Key[] sortOrder;
+    private final LibraryFingerprint fingerprint;
+
+    private LibrarySnapshot(SongTable songs, SongSorter.Key[] sortOrder, LibraryFingerprint fingerprint) {
+        this.songs = songs;
+        this.sortOrder = sortOrder;
+        this.fingerprint = fingerprint;
+    }
+
+    public SongTable getSongs() {
+        return songs;
+    }
+
+    public SongSorter.Key[] getSortOrder() {
+        return sortOrder;
+    }
+
+    public LibraryFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Thrown when the file is not a snapshot, was written by another format version or is damaged.
+     */
+    public static class InvalidSnapshotException extends IOException {
+        InvalidSnapshotException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and renames it over the old one, so a crash never leaves half a file behind.
+     */
+    public static void write(File file, SongTable songs, SongSorter.Key[] sortOrder, LibraryFingerprint fingerprint)
+            throws IOException {
+        StringPool strings = songs.getStrings();
+        int stringCount = strings.size();
+        byte[][] encoded = new byte[stringCount][];
+        long length = 4 * 5 + 4L * sortOrder.length + 4 + 8 * 3;
+        for (int i = 0; i < stringCount; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            length += 4 + encoded[i].length;
+        }
+        int rows = songs.size();
+        length += (long) ROW_SIZE * rows + TRAILER_SIZE;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Library too large for a snapshot: " + length + " bytes");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(rows);
+        buffer.putInt(stringCount);
+        buffer.putInt(sortOrder.length);
+        for (SongSorter.Key key : sortOrder) {
+            buffer.putInt(key.ordinal());
+        }
+        buffer.putInt(fingerprint.getCount());
+        buffer.putLong(fingerprint.getIDSum());
+        buffer.putLong(fingerprint.getMaxID());
+        buffer.putLong(fingerprint.getMaxDateModified());
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putLong(songs.getID(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(songs.getTitleRef(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(songs.getArtistRef(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putLong(songs.getDateAdded(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(songs.getAlbumRef(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putLong(songs.getAlbumID(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(songs.getTrack(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(songs.getDuration(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Maps the snapshot file and reads the library back.
+     * @throws InvalidSnapshotException if the format version differs or the content fails the checks.
+     */
+    public static LibrarySnapshot read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length < 8 + TRAILER_SIZE || length > Integer.MAX_VALUE) {
+                throw new InvalidSnapshotException("Bad snapshot length " + length);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return parse(buffer, (int) length);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static LibrarySnapshot parse(ByteBuffer buffer, int length) throws InvalidSnapshotException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new InvalidSnapshotException("Not a library snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new InvalidSnapshotException("Unsupported snapshot version " + version);
+        }
+
+        ByteBuffer content = buffer.duplicate();
+        content.limit(length - TRAILER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(length - TRAILER_SIZE)) {
+            throw new InvalidSnapshotException("Snapshot checksum mismatch");
+        }
+
+        try {
+            buffer.position(8);
+            buffer.limit(length - TRAILER_SIZE);
+            int rows = buffer.getInt();
+            int stringCount = buffer.getInt();
+            int keyCount = buffer.getInt();
+            if (rows < 0 || stringCount < 0 || keyCount < 0 || keyCount > SongSorter.Key.values().length) {
+                throw new InvalidSnapshotException("Bad snapshot header");
+            }
+            SongSorter.Key[] sortOrder = new SongSorter.Key[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                int ordinal = buffer.getInt();
+                if (ordinal < 0 || ordinal >= SongSorter.Key.values().length) {
+                    throw new InvalidSnapshotException("Bad sort key " + ordinal);
+                }
+                sortOrder[i] = SongSorter.Key.values()[ordinal];
+            }
+            LibraryFingerprint fingerprint = new LibraryFingerprint(buffer.getInt(), buffer.getLong(),
+                    buffer.getLong(), buffer.getLong());
+
+            String[] strings = new String[stringCount];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < stringCount; i++) {
+                int size = buffer.getInt();
+                if (size < 0 || size > buffer.remaining()) {
+                    throw new InvalidSnapshotException("Bad string length " + size);
+                }
+                if (size > bytes.length) {
+                    bytes = new byte[Math.max(size, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, size);
+                strings[i] = new String(bytes, 0, size, StandardCharsets.UTF_8);
+            }
+
+            if ((long) rows * ROW_SIZE != buffer.remaining()) {
+                throw new InvalidSnapshotException("Snapshot rows don't match the file length");
+            }
+            long[] ids = new long[rows];
+            int[] titleRefs = new int[rows];
+            int[] artistRefs = new int[rows];
+            long[] datesAdded = new long[rows];
+            buffer.asLongBuffer().get(ids);
+            buffer.position(buffer.position() + rows * 8);
+            buffer.asIntBuffer().get(titleRefs);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asIntBuffer().get(artistRefs);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asLongBuffer().get(datesAdded);
+            buffer.position(buffer.position() + rows * 8);
+            int[] albumRefs = new int[rows];
+            long[] albumIDs = new long[rows];
+            int[] tracks = new int[rows];
+            int[] durations = new int[rows];
+            buffer.asIntBuffer().get(albumRefs);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asLongBuffer().get(albumIDs);
+            buffer.position(buffer.position() + rows * 8);
+            buffer.asIntBuffer().get(tracks);
+            buffer.position(buffer.position() + rows * 4);
+            buffer.asIntBuffer().get(durations);
+            for (int i = 0; i < rows; i++) {
+                checkRef(titleRefs[i], stringCount);
+                checkRef(artistRefs[i], stringCount);
+                checkRef(albumRefs[i], stringCount);
+            }
+
+            SongTable songs = new SongTable(ids, titleRefs, artistRefs, datesAdded, albumRefs, albumIDs, tracks,
+                    durations, new StringPool(strings));
+            return new LibrarySnapshot(songs, sortOrder, fingerprint);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidSnapshotException("Snapshot is truncated");
+        }
+    }
+
+    private static void checkRef(int ref, int stringCount) throws InvalidSnapshotException {
+        if (ref < -1 || ref >= stringCount) {
+            throw new InvalidSnapshotException("Bad string reference " + ref);
+        }
+    }
+}
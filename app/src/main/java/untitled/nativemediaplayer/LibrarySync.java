@@ -0,0 +1,110 @@
+package untitled.nativemediaplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.provider.MediaStore;
+
+import java.util.Arrays;
+
+/**
+ * Background task that finds what changed in the MediaStore since the last sync.
+ * Only songs with a DATE_MODIFIED or _ID past the saved watermarks are read in full; removed songs are found by
+ * comparing the _ID column with the IDs already in the library.
+ */
+public class LibrarySync extends AsyncTask<Void, Void, LibraryDiff> {
+
+    /**
+     * Callback delivered on the UI thread.
+     */
+    public interface Listener {
+        void onLibrarySynced(LibraryDiff diff);
+    }
+
+    private final ContentResolver musicResolver;
+    private final long[] knownIDs;
+    private final LibraryFingerprint lastSync;
+    private Listener listener;
+
+    /**
+     * @param knownIDs - IDs currently in the library, the array is sorted by the task.
+     * @param lastSync - fingerprint at the last sync, its max ID and DATE_MODIFIED are the watermarks.
+     */
+    public LibrarySync(ContentResolver musicResolver, long[] knownIDs, LibraryFingerprint lastSync, Listener listener) {
+        this.musicResolver = musicResolver;
+        this.knownIDs = knownIDs;
+        this.lastSync = lastSync;
+        this.listener = listener;
+    }
+
+    @Override
+    protected LibraryDiff doInBackground(Void... voids) {
+        LibraryFingerprint current = new LibraryFingerprint();
+        long[] currentIDs = new long[Math.max(knownIDs.length, 16)];
+        Cursor idCursor = musicResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[] {MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATE_MODIFIED}, null, null,
+                MediaStore.Audio.Media._ID);
+        if (idCursor == null) {
+            return new LibraryDiff(new SongTable(1), new long[0], lastSync);
+        }
+        int count = 0;
+        try {
+            while (!isCancelled() && idCursor.moveToNext()) {
+                long id = idCursor.getLong(0);
+                current.add(id, idCursor.getLong(1));
+                if (count == currentIDs.length) {
+                    currentIDs = Arrays.copyOf(currentIDs, count * 2);
+                }
+                currentIDs[count++] = id;
+            }
+        } finally {
+            idCursor.close();
+        }
+        if (current.equals(lastSync)) {
+            return new LibraryDiff(new SongTable(1), new long[0], current);
+        }
+
+        //IDs known to the library but no longer in the MediaStore.
+        Arrays.sort(knownIDs);
+        long[] removedIDs = new long[knownIDs.length];
+        int removed = 0;
+        int c = 0;
+        for (long id : knownIDs) {
+            while (c < count && currentIDs[c] < id) {
+                c++;
+            }
+            if (c == count || currentIDs[c] != id) {
+                removedIDs[removed++] = id;
+            }
+        }
+
+        //Songs added or edited since the watermarks. Rows modified in the same second as the last sync are read again.
+        SongTable changed = new SongTable(16);
+        Cursor musicCursor = musicResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, LibraryScanner.PROJECTION,
+                MediaStore.Audio.Media.DATE_MODIFIED + " >= ? OR " + MediaStore.Audio.Media._ID + " > ?",
+                new String[] {Long.toString(lastSync.getMaxDateModified()), Long.toString(lastSync.getMaxID())}, null);
+        if (musicCursor != null) {
+            try {
+                LibraryScanner.Columns columns = new LibraryScanner.Columns(musicCursor);
+                while (!isCancelled() && musicCursor.moveToNext()) {
+                    columns.addTo(changed, musicCursor);
+                }
+            } finally {
+                musicCursor.close();
+            }
+        }
+        return new LibraryDiff(changed, Arrays.copyOf(removedIDs, removed), current);
+    }
+
+    @Override
+    protected void onPostExecute(LibraryDiff diff) {
+        if (listener != null) {
+            listener.onLibrarySynced(diff);
+        }
+    }
+
+    public void cancel() {
+        listener = null;
+        cancel(false);
+    }
+}
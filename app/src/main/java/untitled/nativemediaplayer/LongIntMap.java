@@ -0,0 +1,154 @@
+package untitled.nativemediaplayer;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to int values without boxing: open addressing with linear probing over two arrays.
+ * Slots whose key is 0 are free, the key 0 itself is kept aside. Grows at 2/3 full, entries are never removed.
+ */
+public class LongIntMap {
+    private static final float LOAD_FACTOR = 2f / 3;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int growAt;
+    private boolean hasZero;
+    private int zeroValue;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        growAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the key, or missing if it is not in the map.
+     */
+    public int get(long key, int missing) {
+        if (key == 0) {
+            return hasZero ? zeroValue : missing;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long found = keys[slot];
+            if (found == key) {
+                return values[slot];
+            }
+            if (found == 0) {
+                return missing;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZero;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long found = keys[slot];
+            if (found == key) {
+                return true;
+            }
+            if (found == 0) {
+                return false;
+            }
+        }
+    }
+
+    public void put(long key, int value) {
+        if (key == 0) {
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int slot = slotOf(key);
+        values[slot] = value;
+    }
+
+    /**
+     * Adds delta to the value of the key, a key not in the map counts as 0.
+     * @return the new value.
+     */
+    public int add(long key, int delta) {
+        if (key == 0) {
+            put(0, (hasZero ? zeroValue : 0) + delta);
+            return zeroValue;
+        }
+        int slot = slotOf(key);
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        size = 0;
+        hasZero = false;
+        zeroValue = 0;
+    }
+
+    //Slot of the key, taken (with the value 0) if the key is new.
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) {
+                if (size >= growAt) {
+                    grow();
+                    return slotOf(key);
+                }
+                keys[slot] = key;
+                values[slot] = 0;
+                size++;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        growAt = (int) (keys.length * LOAD_FACTOR);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == 0) {
+                continue;
+            }
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+        }
+    }
+
+    //Mixes the bits of the key (MurmurHash3 finalizer), song IDs are mostly consecutive.
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -1,44 +1,89 @@
 package untitled.nativemediaplayer;
 
 import android.Manifest;
+import android.app.AlertDialog;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.os.Vibrator;
-import android.provider.MediaStore;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.view.menu.ActionMenuItemView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.MediaController;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 
-public class MainActivity extends AppCompatActivity implements MediaController.MediaPlayerControl {
+public class MainActivity extends AppCompatActivity implements MediaController.MediaPlayerControl,
+        LibraryScanner.Listener, LibrarySync.Listener {
 
     // Used to load the 'native-lib' library on application startup.
     static {
         System.loadLibrary("native-lib");
     }
 
-    private ArrayList<Song> songList;
+    private SongTable songList;
     private ListView songView;
+    private SongAdapter songAdapter;
+    private LibraryScanner libraryScanner;
+
+    //Saved copy of the library, read on start so the list shows without waiting for the MediaStore.
+    private static final String SNAPSHOT_FILE = "library.snapshot";
+
+    //Keeps the library up to date with the MediaStore. The fingerprint holds the watermarks of the last sync.
+    private LibraryObserver libraryObserver;
+    private LibrarySync librarySync;
+    private boolean syncPending = false;
+    private LibraryFingerprint libraryFingerprint;
+
+    //Used to measure the time from launch until the first songs are displayed.
+    private long launchTime;
+    private boolean firstRowShown = false;
+
+    //Sort engine, keeps the collation keys between sorts. The order is computed in the background from a copy of the
+    //list, one sort at a time, and applied on the UI thread. When the list changes during a sort (songListVersion moved
+    //on, songs appended) or another sort is asked for, it starts over.
+    private final SongSorter songSorter = new SongSorter();
+    private SongSorter.Key[] sortOrder = {SongSorter.Key.TITLE};
+    private boolean sorting = false;
+    private boolean sortPending = false;
+
+    //As-you-type search. The index is built in the background from a copy of the list; when the list changes during
+    //a build (songListVersion moved on), the build starts over. Moved and removed rows are remapped in place.
+    private SearchIndex searchIndex;
+    private int songListVersion = 0;
+    private boolean searchIndexBuilding = false;
+    private String searchQuery = "";
+
+    //Artist -> album -> track lists, built in the background like the search index. Rows moved or removed are remapped,
+    //songs added or edited are merged in. The dialog showing them is closed when they change.
+    private BrowseIndex browseIndex;
+    private boolean browseIndexBuilding = false;
+    private AlertDialog browseDialog;
+
+    //Songs of the queue shown at most, the queue itself has no limit.
+    private static final int QUEUE_SHOWN = 200;
+    //Songs shown in each list of the play statistics.
+    private static final int STATS_SHOWN = 50;
     private static TextView currentSongView;
 
     //Service & Intennt
@@ -56,12 +101,28 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
     private boolean paused = false;
     private boolean playbackPaused = false;
     private boolean isShuffleActive = false;
+    private boolean weightedShuffle = false;
+
+    //Crossfade picked in the menu, index in crossfade_lengths (same order as CROSSFADE_LENGTHS_MS) and curve.
+    private static final int[] CROSSFADE_LENGTHS_MS = {0, 2000, 5000, 8000, 12000};
+    private int crossfadeChoice = 0;
+    private CrossfadeCurve crossfadeCurve = CrossfadeCurve.EQUAL_POWER;
+
+    //Debug builds only: counts the messages that block the main thread for more than a frame.
+    private StallMonitor stallMonitor;
+    //CPU time of the main thread when the activity started, to log how much it used while visible.
+    private long mainThreadCpuAtStart;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        launchTime = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_main);
+        if(BuildConfig.DEBUG){
+            stallMonitor = new StallMonitor();
+            stallMonitor.install(Looper.getMainLooper());
+        }
 
         // Requests permission
         if (checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
@@ -72,10 +133,6 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
 
         init();
 
-        // Song Adapter class: takes the song list found on the phone and populates the view with Title &  Artist name
-        SongAdapter songAdapter = new SongAdapter(this, songList);
-        songView.setAdapter(songAdapter);
-
         //Set the MusicController widget
         setMusicController();
 
@@ -86,15 +143,49 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
      */
     private void init() {
         songView = (ListView) findViewById(R.id.song_list);
-        songList = new ArrayList<Song>();
         myVib = (Vibrator) this.getSystemService(VIBRATOR_SERVICE);
         currentSongView = findViewById(R.id.currentSongView);
 
-        //Invokes the method that searches the phone for possible songs and populates the arrayList with <Song> objects
-        getSongList();
+        //Show the library saved on the previous run right away, then sync it with the MediaStore in the background.
+        LibrarySnapshot snapshot = loadSnapshot();
+        if(snapshot != null){
+            songList = snapshot.getSongs();
+            sortOrder = snapshot.getSortOrder();
+            libraryFingerprint = snapshot.getFingerprint();
+        }else{
+            songList = new SongTable();
+        }
 
-        //helper method that sorts song list Alphabetically
-        sortListAlphabetically();
+        // Song Adapter class: takes the song list found on the phone and populates the view with Title &  Artist name
+        // Without a snapshot the list starts empty and is filled page by page while the library scan runs.
+        songAdapter = new SongAdapter(this, songList);
+        songView.setAdapter(songAdapter);
+        songAdapter.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                queueSong(SongAdapter.getPosition(view));
+                return true;
+            }
+        });
+
+        //Changes to the MediaStore are applied to the list as they happen, grouped by the observer.
+        libraryObserver = new LibraryObserver(new Handler(), new Runnable() {
+            @Override
+            public void run() {
+                syncLibrary();
+            }
+        });
+        libraryObserver.register(getContentResolver());
+
+        if(snapshot != null){
+            reportFirstRow("snapshot");
+            buildSearchIndex();
+            buildBrowseIndex();
+            syncLibrary();
+        }else{
+            //Invokes the method that searches the phone for possible songs and populates the SongTable
+            getSongList();
+        }
     }
 
     //Shuffle & End button
@@ -102,9 +193,170 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.main, menu);
+        //The latency screen is for debug builds, the histograms are recorded in every build.
+        menu.findItem(R.id.action_latency).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_weighted_shuffle).setChecked(weightedShuffle);
+
+        //Every key typed filters the list right away, the index answers in a few milliseconds.
+        final SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                searchQuery = query;
+                applySearch();
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Filters the list with the search query, or shows every song again when the query is empty.
+     * Until the index is built, the whole list stays visible.
+     */
+    private void applySearch(){
+        if(searchQuery.isEmpty() || searchIndex == null){
+            if(songAdapter.isFiltered()){
+                songAdapter.setFilter(null);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        int[] rows = searchIndex.search(searchQuery);
+        songAdapter.setFilter(rows);
+        if(BuildConfig.DEBUG){
+            Log.d("SearchIndex", rows.length + " songs for \"" + searchQuery + "\" in "
+                    + (System.nanoTime() - start) / 1000 + " us");
+        }
+    }
+
+    /**
+     * Builds the search index of the song list on a background thread.
+     */
+    private void buildSearchIndex(){
+        if(searchIndexBuilding || songList.isEmpty()){
+            return;
+        }
+        searchIndexBuilding = true;
+        final int version = songListVersion;
+        final SongTable songs = songList.copy();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final SearchIndex index = SearchIndex.build(songs);
+                Log.d("SearchIndex", "Built in " + (System.nanoTime() - start) / 1000000 + " ms: " + index);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSearchIndexBuilt(index, version);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onSearchIndexBuilt(SearchIndex index, int version){
+        searchIndexBuilding = false;
+        if(version != songListVersion){
+            //the list changed while it was indexed
+            buildSearchIndex();
+            return;
+        }
+        searchIndex = index;
+        applySearch();
+    }
+
+    /**
+     * Builds the browse index of the song list on a background thread.
+     */
+    private void buildBrowseIndex(){
+        if(browseIndexBuilding || songList.isEmpty()){
+            return;
+        }
+        browseIndexBuilding = true;
+        final int version = songListVersion;
+        final SongTable songs = songList.copy();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final BrowseIndex index = BrowseIndex.build(songs);
+                Log.d("BrowseIndex", "Built in " + (System.nanoTime() - start) / 1000000 + " ms: " + index);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBrowseIndexBuilt(index, version);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onBrowseIndexBuilt(BrowseIndex index, int version){
+        browseIndexBuilding = false;
+        if(version != songListVersion){
+            //the list changed while it was indexed
+            buildBrowseIndex();
+            return;
+        }
+        browseIndex = index;
+    }
+
+    /**
+     * Merges the songs added or edited by a sync into the browse index, the rows must already be remapped.
+     */
+    private void updateBrowseIndex(LibraryDiff diff){
+        if(browseIndex == null){
+            //a build in progress starts over since the list changed
+            buildBrowseIndex();
+            return;
+        }
+        int[] updated = diff.getUpdatedRows();
+        int inserted = diff.getInsertedCount();
+        int[] changed = new int[updated.length + inserted];
+        System.arraycopy(updated, 0, changed, 0, updated.length);
+        for(int i = 0; i < inserted; i++){
+            changed[updated.length + i] = songList.size() - inserted + i;
+        }
+        long start = System.nanoTime();
+        browseIndex.update(songList, changed);
+        Log.d("BrowseIndex", changed.length + " songs merged in " + (System.nanoTime() - start) / 1000 + " us: " + browseIndex);
+        closeBrowseDialog();
+    }
+
+    /**
+     * Keeps the search and browse indexes (and the filtered list) pointing at the same songs after rows moved or were removed.
+     * @param newRowOf - new row of every old row, -1 for songs that were removed.
+     */
+    private void moveIndexedRows(int[] newRowOf){
+        songListVersion++;
+        if(searchIndex != null){
+            searchIndex.remap(newRowOf);
+        }
+        if(browseIndex != null){
+            browseIndex.remap(newRowOf);
+            closeBrowseDialog();
+        }
+        applySearch();
+    }
+
+    //Inverse of a sort order: new row of every old row.
+    private static int[] newRowsOf(int[] order){
+        int[] newRowOf = new int[order.length];
+        for(int i = 0; i < order.length; i++){
+            newRowOf[order[i]] = i;
+        }
+        return newRowOf;
+    }
+
     //Connect to service using the binder (helper class)
     private ServiceConnection musicConnection = new ServiceConnection() {
         @Override
@@ -114,7 +366,20 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
             //get the service & pass the song list - update the bound flag.
             musicService = binder.getService();
             musicService.setSongList(songList);
+            musicService.setWeightedShuffle(weightedShuffle);
             musicBound = true;
+            //the session of the previous run, if the process was killed: shuffle as it was, and its song ready to go on
+            musicService.readSession(new MusicService.SessionListener() {
+                @Override
+                public void onSessionRead(boolean shuffle, int song) {
+                    showShuffle(shuffle);
+                    if(song >= 0){
+                        songView.setPadding(0,0,0,350);
+                        currentSongView.setVisibility(View.VISIBLE);
+                        showController();
+                    }
+                }
+            });
         }
         @Override
         public void onServiceDisconnected(ComponentName name) {
@@ -127,6 +392,7 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
      */
     protected void onStart(){
         super.onStart();
+        mainThreadCpuAtStart = SystemClock.currentThreadTimeMillis();
         if(playIntent == null){
             //Create new Intent using the Service class and bind it.
             if(!musicBound) {
@@ -141,15 +407,17 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
     }
 
     /**
-     * Song position is set as Tag for each item in the listView in the Adapter class
-     * Pass this tag (song position) to the music service before starting the playback.
+     * Song position is kept in the ViewHolder set as Tag for each item in the listView in the Adapter class
+     * Pass this song position to the music service before starting the playback.
      */
     public void songPicked(View view){
+        playRow(SongAdapter.getPosition(view));
+    }
+
+    private void playRow(int indexOfSongPicked){
         myVib.vibrate(25);
         songView.setPadding(0,0,0,350);
 
-        int indexOfSongPicked = Integer.parseInt(view.getTag().toString());
-
         musicService.setSong(indexOfSongPicked);
         musicService.playSong();
 
@@ -160,10 +428,18 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
 
         //Show Controller & currentSong textView.
         showController();
-        SystemClock.sleep(50);
         currentSongView.setVisibility(View.VISIBLE);
     }
 
+    //Shows the shuffle state the service has, e.g. recovered from the previous run.
+    private void showShuffle(boolean on){
+        isShuffleActive = on;
+        ActionMenuItemView shuffle = findViewById(R.id.action_shuffle);
+        if(shuffle != null){
+            shuffle.setCompoundDrawablesWithIntrinsicBounds(on ? R.drawable.rand2 : R.drawable.rand, 0,0,0);
+        }
+    }
+
     public boolean onOptionsItemSelected(MenuItem item){
         ActionMenuItemView shuffle = findViewById(R.id.action_shuffle);
         switch (item.getItemId()){
@@ -180,6 +456,40 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
                 }
                 musicService.setShuffle();
                 break;
+            case R.id.action_browse:
+                showArtists();
+                break;
+            case R.id.action_queue:
+                showQueue();
+                break;
+            case R.id.action_weighted_shuffle:
+                weightedShuffle = !item.isChecked();
+                item.setChecked(weightedShuffle);
+                if(musicService != null){
+                    musicService.setWeightedShuffle(weightedShuffle);
+                }
+                break;
+            case R.id.action_stats:
+                chooseStats();
+                break;
+            case R.id.action_sort_title:
+                sortOrder = new SongSorter.Key[] {SongSorter.Key.TITLE};
+                sortSongList();
+                break;
+            case R.id.action_sort_artist:
+                sortOrder = new SongSorter.Key[] {SongSorter.Key.ARTIST, SongSorter.Key.TITLE};
+                sortSongList();
+                break;
+            case R.id.action_sort_date:
+                sortOrder = new SongSorter.Key[] {SongSorter.Key.DATE_ADDED, SongSorter.Key.TITLE};
+                sortSongList();
+                break;
+            case R.id.action_crossfade:
+                chooseCrossfade();
+                break;
+            case R.id.action_latency:
+                showLatencyReport();
+                break;
             case R.id.action_end:
                 myVib.vibrate(25);
                 stopService(playIntent);
@@ -191,38 +501,354 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
     }
 
     /**
-     * Method that checks the phone and populates an arrayList with <song> Objects
+     * Browse screens: artists (with a fast scroll index), then the albums of the artist, then the tracks of the album.
+     * Picking a track plays it.
      */
-    public void getSongList(){
-        //Create Content Resolver instance & retrieve URI for external music files
-        ContentResolver musicResolver = getContentResolver();
-        Uri musicURI = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+    private void showArtists(){
+        if(browseIndex == null){
+            Toast.makeText(this, R.string.browse_not_ready, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final ArtistAdapter adapter = new ArtistAdapter(this, browseIndex);
+        ListView artistView = new ListView(this);
+        artistView.setFastScrollEnabled(true);
+        artistView.setAdapter(adapter);
+        artistView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                closeBrowseDialog();
+                showAlbums(position, adapter.getName(position));
+            }
+        });
+        browseDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.action_browse)
+                .setView(artistView)
+                .show();
+    }
+
+    private void showAlbums(int artist, String artistName){
+        final int firstAlbum = browseIndex.getFirstAlbum(artist);
+        String[] albums = new String[browseIndex.getFirstAlbum(artist + 1) - firstAlbum];
+        for(int i = 0; i < albums.length; i++){
+            int album = firstAlbum + i;
+            int tracks = browseIndex.getFirstTrack(album + 1) - browseIndex.getFirstTrack(album);
+            long duration = 0;
+            for(int track = browseIndex.getFirstTrack(album); track < browseIndex.getFirstTrack(album + 1); track++){
+                duration += songList.getDuration(browseIndex.getRow(track));
+            }
+            String name = browseIndex.getAlbum(album);
+            albums[i] = getString(R.string.album_summary, name == null ? getString(R.string.unknown_album) : name,
+                    tracks, formatDuration(duration));
+        }
+        browseDialog = new AlertDialog.Builder(this)
+                .setTitle(artistName)
+                .setItems(albums, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showTracks(firstAlbum + which);
+                    }
+                })
+                .show();
+    }
+
+    private void showTracks(int album){
+        final int[] rows = browseIndex.getTracks(album);
+        String[] tracks = new String[rows.length];
+        for(int i = 0; i < rows.length; i++){
+            //the MediaStore keeps the disc number in the thousands
+            int number = songList.getTrack(rows[i]) % 1000;
+            tracks[i] = (number > 0 ? number + ". " : "") + songList.getTitle(rows[i])
+                    + "  " + formatDuration(songList.getDuration(rows[i]));
+        }
+        String name = browseIndex.getAlbum(album);
+        browseDialog = new AlertDialog.Builder(this)
+                .setTitle(name == null ? getString(R.string.unknown_album) : name)
+                .setItems(tracks, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        browseDialog = null;
+                        playRow(rows[which]);
+                    }
+                })
+                .setPositiveButton(R.string.queue_album, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        browseDialog = null;
+                        if(musicService != null){
+                            musicService.addToQueue(rows);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Long press on a song: play it next, or add it at the end of the queue.
+     */
+    private void queueSong(final int row){
+        if(musicService == null){
+            return;
+        }
+        myVib.vibrate(25);
+        new AlertDialog.Builder(this)
+                .setTitle(songList.getTitle(row))
+                .setItems(R.array.queue_actions, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if(which == 0){
+                            musicService.playNextInQueue(new int[] {row});
+                        }else{
+                            musicService.addToQueue(new int[] {row});
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * The songs queued to play next. Picking one offers to move it to the top of the queue or to remove it.
+     */
+    private void showQueue(){
+        if(musicService == null){
+            return;
+        }
+        musicService.readQueue(QUEUE_SHOWN, new MusicService.QueueListener() {
+            @Override
+            public void onQueueRead(int[] rows, int size) {
+                if(isFinishing()){
+                    return;
+                }
+                if(size == 0){
+                    Toast.makeText(MainActivity.this, R.string.queue_empty, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                String[] songs = new String[rows.length];
+                for(int i = 0; i < rows.length; i++){
+                    songs[i] = rows[i] < songList.size()
+                            ? (i + 1) + ". " + songList.getTitle(rows[i]) + " - " + songList.getArtist(rows[i])
+                            : (i + 1) + ".";
+                }
+                closeBrowseDialog();
+                browseDialog = new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(getString(R.string.queue_title, size))
+                        .setItems(songs, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                browseDialog = null;
+                                editQueuedSong(which);
+                            }
+                        })
+                        .setNeutralButton(R.string.queue_clear, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                browseDialog = null;
+                                musicService.clearQueue();
+                            }
+                        })
+                        .show();
+            }
+        });
+    }
 
-        //Create cursor instance using the Content Resolver to /query/ the music files
-        Cursor musicCursor = musicResolver.query(musicURI, null, null, null, null);
+    private void editQueuedSong(final int position){
+        new AlertDialog.Builder(this)
+                .setItems(R.array.queued_song_actions, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if(musicService == null){
+                            return;
+                        }
+                        if(which == 0){
+                            musicService.moveInQueue(position, 0);
+                        }else{
+                            musicService.removeFromQueue(position);
+                        }
+                    }
+                })
+                .show();
+    }
 
-        //iterate through the results IF results available.
-        if(musicCursor != null && musicCursor.moveToFirst()){
-            //get columns
-            int idColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media._ID);
-            int titleColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
-            int artistColumn = musicCursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+    /**
+     * Play statistics: the most played, recently played or never played songs. Picking a song plays it.
+     */
+    private void chooseStats(){
+        if(musicService == null){
+            return;
+        }
+        final String[] lists = getResources().getStringArray(R.array.stats_lists);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_stats)
+                .setItems(lists, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showStats(which, lists[which]);
+                    }
+                })
+                .show();
+    }
 
-            //Use the column indexes to create a new song object & add it to the songList.
-            do{
-                long id = musicCursor.getLong(idColumn);
-                String title = musicCursor.getString(titleColumn);
-                String artist = musicCursor.getString(artistColumn);
+    private void showStats(int list, final String title){
+        musicService.readStats(list, STATS_SHOWN, new MusicService.StatsListener() {
+            @Override
+            public void onStatsRead(final int[] rows) {
+                if(isFinishing()){
+                    return;
+                }
+                if(rows.length == 0){
+                    Toast.makeText(MainActivity.this, R.string.stats_empty, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                String[] songs = new String[rows.length];
+                for(int i = 0; i < rows.length; i++){
+                    songs[i] = rows[i] < songList.size()
+                            ? (i + 1) + ". " + songList.getTitle(rows[i]) + " - " + songList.getArtist(rows[i])
+                            : (i + 1) + ".";
+                }
+                closeBrowseDialog();
+                browseDialog = new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(title)
+                        .setItems(songs, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                browseDialog = null;
+                                if(rows[which] < songList.size()){
+                                    playRow(rows[which]);
+                                }
+                            }
+                        })
+                        .show();
+            }
+        });
+    }
 
-                this.songList.add(new Song(id, title, artist));
-            }while(musicCursor.moveToNext());
+    //Rows shown by the browse dialog are no longer valid once the index changed.
+    private void closeBrowseDialog(){
+        if(browseDialog != null){
+            browseDialog.dismiss();
+            browseDialog = null;
         }
+    }
 
-        try {
-            musicCursor.close();
-        }catch (NullPointerException e){
-            Log.d("getSongList()","ERROR releasing the cursor. Cursor already released");
+    private static String formatDuration(long millis){
+        long seconds = millis / 1000;
+        return seconds >= 3600
+                ? String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60)
+                : String.format(Locale.US, "%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Length of the crossfade between songs, then its curve unless it was turned off.
+     */
+    private void chooseCrossfade(){
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_crossfade)
+                .setSingleChoiceItems(R.array.crossfade_lengths, crossfadeChoice, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        crossfadeChoice = which;
+                        if(which == 0){
+                            applyCrossfade();
+                            return;
+                        }
+                        new AlertDialog.Builder(MainActivity.this)
+                                .setTitle(R.string.crossfade_curve)
+                                .setSingleChoiceItems(R.array.crossfade_curves, crossfadeCurve.ordinal(), new DialogInterface.OnClickListener() {
+                                    @Override
+                                    public void onClick(DialogInterface dialog, int which) {
+                                        dialog.dismiss();
+                                        crossfadeCurve = CrossfadeCurve.values()[which];
+                                        applyCrossfade();
+                                    }
+                                })
+                                .show();
+                    }
+                })
+                .show();
+    }
+
+    private void applyCrossfade(){
+        if(musicService != null){
+            musicService.setCrossfade(CROSSFADE_LENGTHS_MS[crossfadeChoice], crossfadeCurve);
+        }
+    }
+
+    /**
+     * Debug screen: p50/p95/p99 of every stage of starting playback, which can be saved to a file or reset,
+     * followed by the player backend picked for each format.
+     */
+    private void showLatencyReport(){
+        if(musicService == null){
+            return;
+        }
+        final PlaybackLatency latency = musicService.getLatency();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_latency)
+                .setMessage(latency.report() + "\n" + musicService.getBackendSelector().report()
+                        + "\nRead ahead: " + musicService.getReadAhead())
+                .setPositiveButton(R.string.latency_save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        File file = new File(getExternalFilesDir(null), "playback_latency.txt");
+                        try {
+                            latency.dumpTo(file);
+                            Toast.makeText(MainActivity.this, getString(R.string.latency_saved, file.getPath()), Toast.LENGTH_LONG).show();
+                        }catch (IOException e){
+                            Log.e("PlaybackLatency", "ERROR saving the latency report", e);
+                        }
+                    }
+                })
+                .setNeutralButton(R.string.latency_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        latency.reset();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Method that checks the phone and populates the SongTable with the songs found
+     * The MediaStore query runs on a background thread (LibraryScanner) and the songs are delivered in pages.
+     */
+    public void getSongList(){
+        if(libraryScanner != null){
+            libraryScanner.cancel();
         }
+        libraryScanner = new LibraryScanner(getContentResolver(), this);
+        libraryScanner.execute();
+    }
+
+    /**
+     * LibraryScanner callbacks, both run on the UI thread.
+     * Each page is appended to the list and the adapter is refreshed so rows show up as soon as they are read.
+     */
+    @Override
+    public void onSongsScanned(SongTable page, int scanned, int total) {
+        songList.addAll(page);
+        if(musicService != null){
+            musicService.onSongsAdded();
+        }
+        songAdapter.notifyDataSetChanged();
+        reportFirstRow("MediaStore");
+        setTitle(getString(R.string.scan_progress, scanned, total));
+    }
+
+    @Override
+    public void onScanFinished(int total) {
+        libraryFingerprint = libraryScanner.getFingerprint();
+        libraryScanner = null;
+
+        //Pages already arrive ordered by title, so this pass rarely moves anything.
+        songList.trimToSize();
+        sortSongList();
+        buildSearchIndex();
+        buildBrowseIndex();
+        setTitle(R.string.app_name);
+        Log.d("getSongList()", "Library scan finished: " + total + " songs");
+
+        //Picks up the changes made to the MediaStore while the scan was running.
+        syncLibrary();
     }
 
     /**
@@ -230,6 +856,10 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
      * standard widget with play/pause, rewind, fast-forward, and skip (previous/next) buttons & seek bar.
      */
     public void setMusicController() {
+        //the old widget would keep polling the position while showing
+        if(musicController != null){
+            musicController.dismiss();
+        }
         musicController = new MusicController(this);
         musicController.setPrevNextListeners(new View.OnClickListener() {
             @Override
@@ -377,14 +1007,177 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
         return 0;
     }
 
-    protected void sortListAlphabetically(){
-        Collections.sort(songList, new Comparator<Song>() {
-            public int compare(Song a, Song b){
-                return a.getTitle().compareTo(b.getTitle());
+    /**
+     * Sorts the song list using the current sort order, on a background thread.
+     */
+    protected void sortSongList(){
+        if(sorting){
+            sortPending = true;
+            return;
+        }
+        sorting = true;
+        final int version = songListVersion;
+        final SongTable songs = songList.copy();
+        final SongSorter.Key[] order = sortOrder;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final int[] sorted = songSorter.sortedOrder(songs, order);
+                Log.d("SongSorter", songs.size() + " songs sorted in " + (System.nanoTime() - start) / 1000000 + " ms");
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSongListSorted(sorted, version);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Applies the order to the song list. The service is told how the rows moved so the song being played
+     * (and the played songs stack) keep pointing to the same songs.
+     */
+    private void onSongListSorted(int[] order, int version){
+        sorting = false;
+        if(sortPending || version != songListVersion || order.length != songList.size()){
+            sortPending = false;
+            sortSongList();
+            return;
+        }
+        if(!isIdentity(order)){
+            songList.permute(order);
+            if(musicService != null){
+                musicService.onSongsReordered(order);
+            }
+            moveIndexedRows(newRowsOf(order));
+            songAdapter.notifyDataSetChanged();
+        }
+        saveSnapshot();
+    }
+
+    /**
+     * Looks for songs added, edited or removed since the last sync. Only one sync runs at a time,
+     * a request made while one is running is handled once it finishes.
+     */
+    private void syncLibrary(){
+        if(libraryScanner != null || libraryFingerprint == null){
+            return;
+        }
+        if(librarySync != null){
+            syncPending = true;
+            return;
+        }
+        long[] knownIDs = new long[songList.size()];
+        for(int i = 0; i < knownIDs.length; i++){
+            knownIDs[i] = songList.getID(i);
+        }
+        librarySync = new LibrarySync(getContentResolver(), knownIDs, libraryFingerprint, this);
+        librarySync.execute();
+    }
+
+    /**
+     * LibrarySync callback: applies the changes to the song list in place and keeps the service pointing at the same songs.
+     * When songs were only edited, just the visible rows that changed are rebound; the list is then sorted again in the background.
+     */
+    @Override
+    public void onLibrarySynced(LibraryDiff diff) {
+        librarySync = null;
+        boolean fingerprintChanged = !diff.getFingerprint().equals(libraryFingerprint);
+        libraryFingerprint = diff.getFingerprint();
+
+        if(!diff.isEmpty()){
+            int[] newRowOf = diff.applyTo(songList);
+            if(musicService != null){
+                musicService.onSongsMoved(newRowOf);
+            }
+            moveIndexedRows(newRowOf);
+            updateBrowseIndex(diff);
+            //songs added or edited are only found once the search index is built again
+            buildSearchIndex();
+
+            if(diff.isUpdateOnly() && !songAdapter.isFiltered()){
+                for(int row : diff.getUpdatedRows()){
+                    songAdapter.rebindRow(songView, row);
+                }
+            }else{
+                songAdapter.notifyDataSetChanged();
+            }
+            Log.d("LibrarySync", "Library synced: " + diff);
+            //songs added or edited are put in place in the background, the snapshot is saved once sorted
+            sortSongList();
+        }else if(fingerprintChanged){
+            saveSnapshot();
+        }
+
+        if(syncPending){
+            syncPending = false;
+            syncLibrary();
+        }
+    }
+
+    private static boolean isIdentity(int[] order){
+        for(int i = 0; i < order.length; i++){
+            if(order[i] != i){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the library snapshot, or returns null if there is none or it can't be used (other version, damaged file).
+     */
+    private LibrarySnapshot loadSnapshot(){
+        File file = new File(getFilesDir(), SNAPSHOT_FILE);
+        if(!file.exists()){
+            return null;
+        }
+        try {
+            return LibrarySnapshot.read(file);
+        }catch (IOException e){
+            Log.w("LibrarySnapshot", "Discarding snapshot: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes a copy of the current song list to the snapshot file on a background thread.
+     */
+    private void saveSnapshot(){
+        if(libraryFingerprint == null || libraryScanner != null){
+            return;
+        }
+        final File file = new File(getFilesDir(), SNAPSHOT_FILE);
+        final SongTable songs = songList.copy();
+        final SongSorter.Key[] order = sortOrder;
+        final LibraryFingerprint fingerprint = libraryFingerprint;
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LibrarySnapshot.write(file, songs, order, fingerprint);
+                }catch (IOException e){
+                    Log.e("LibrarySnapshot", "ERROR writing the library snapshot", e);
+                }
             }
         });
     }
 
+    /**
+     * Logs the time from launch until the first songs are displayed, once per launch.
+     * @param source - where the songs came from (snapshot or MediaStore).
+     */
+    private void reportFirstRow(String source){
+        if(!firstRowShown && !songList.isEmpty()){
+            firstRowShown = true;
+            Log.i("LibrarySnapshot", "Time to first row: " + (SystemClock.elapsedRealtime() - launchTime)
+                    + " ms from " + source);
+        }
+    }
+
     @Override
     protected void onPause(){
         super.onPause();
@@ -400,24 +1193,49 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
         if(paused){
             setMusicController();
             paused = false;
+            if(musicService != null && musicBound && (musicService.isPlaying() || playbackPaused)){
+                showController();
+            }
         }
     }
 
     /**
-     * Hides the MusicController when user leaves the app
+     * Hides the MusicController when user leaves the app, its progress updates stop until it is shown again.
      */
     @Override
     protected void onStop(){
-        musicController.hide();
+        musicController.dismiss();
+        if(stallMonitor != null){
+            Log.d("StallMonitor", "Main thread: " + stallMonitor);
+            stallMonitor.reset();
+        }
+        if(BuildConfig.DEBUG && musicService != null){
+            Log.d("PlaybackClock", musicService.getPlaybackClock().rates(SystemClock.elapsedRealtime())
+                    + ", main thread CPU while visible: " + (SystemClock.currentThreadTimeMillis() - mainThreadCpuAtStart) + " ms");
+        }
         super.onStop();
     }
 
     protected void onDestroy() {
+        if(libraryScanner != null){
+            libraryScanner.cancel();
+            libraryScanner = null;
+        }
+        if(libraryObserver != null){
+            libraryObserver.unregister(getContentResolver());
+        }
+        if(librarySync != null){
+            librarySync.cancel();
+            librarySync = null;
+        }
         if(musicBound){
             unbindService(musicConnection);
         }
         stopService(playIntent);
         musicService = null;
+        if(stallMonitor != null){
+            stallMonitor.uninstall(Looper.getMainLooper());
+        }
         super.onDestroy();
     }
 
@@ -433,9 +1251,6 @@ public class MainActivity extends AppCompatActivity implements MediaController.M
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                 init();
 
-                SongAdapter songAdapter = new SongAdapter(this, songList);
-                songView.setAdapter(songAdapter);
-
                 // Manually passes the song list since the ServiceConnection instance was bind before the song list was formed.
                 musicService.setSongList(songList);
 
@@ -0,0 +1,161 @@
+package untitled.nativemediaplayer;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.PowerManager;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * {@link PlayerBackend} on the platform MediaPlayer. Supports chaining (setNextMediaPlayer) with other MediaPlayer backends.
+ */
+public class MediaPlayerBackend implements PlayerBackend, MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener,
+        MediaPlayer.OnCompletionListener, MediaPlayer.OnInfoListener, MediaPlayer.OnSeekCompleteListener {
+
+    private final MediaPlayer player = new MediaPlayer();
+    private Listener listener;
+
+    public MediaPlayerBackend(Context context) {
+        //wake lock allows music to continue playing when the device is idle.
+        player.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnInfoListener(this);
+        player.setOnSeekCompleteListener(this);
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.MEDIA_PLAYER;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) throws IOException {
+        player.setDataSource(context, uri);
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException {
+        player.setDataSource(fd, offset, length);
+    }
+
+    @Override
+    public boolean supportsMediaDataSource() {
+        return true;
+    }
+
+    @Override
+    public void setDataSource(MediaDataSource source) {
+        player.setDataSource(source);
+    }
+
+    @Override
+    public void prepareAsync() {
+        player.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        player.start();
+    }
+
+    @Override
+    public void pause() {
+        player.pause();
+    }
+
+    @Override
+    public void stop() {
+        player.stop();
+    }
+
+    @Override
+    public void seekTo(int position) {
+        player.seekTo(position);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return player.isPlaying();
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        player.setVolume(volume, volume);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return player.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return player.getDuration();
+    }
+
+    @Override
+    public boolean setNext(PlayerBackend next) {
+        if (next == null) {
+            player.setNextMediaPlayer(null);
+            return true;
+        }
+        if (!(next instanceof MediaPlayerBackend)) {
+            return false;
+        }
+        player.setNextMediaPlayer(((MediaPlayerBackend) next).player);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        player.reset();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setVolume(1, 1);
+    }
+
+    @Override
+    public void release() {
+        player.release();
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        listener.onPrepared(this);
+    }
+
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        listener.onCompletion(this);
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        return listener.onError(this, what, extra);
+    }
+
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        listener.onSeekComplete(this);
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (what == MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT) {
+            listener.onStartedAsNext(this);
+            return true;
+        }
+        return false;
+    }
+}
@@ -19,10 +19,19 @@ public class MusicController extends MediaController {
         this.context = context;
     }
 
+    //The widget stays on screen while the app is in use, see dismiss().
     public void hide(){
 
     }
 
+    /**
+     * Really hides the widget, which also stops its progress updates (they poll the position while it is showing).
+     * Used when the activity stops or the widget is replaced.
+     */
+    public void dismiss(){
+        super.hide();
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
         int keyCode = event.getKeyCode();
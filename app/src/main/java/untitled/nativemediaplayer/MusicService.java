@@ -3,64 +3,362 @@ package untitled.nativemediaplayer;
 import android.app.Service;
 import android.content.ContentUris;
 import android.content.Intent;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.PowerManager;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Service class that handles Media playback with the help of MediaPlayer instance
+ * Service class that handles Media playback with the help of player backends (MediaPlayer or FFmpegMediaPlayer).
+ * The players are owned by a playback thread: the public methods called by the activity only post commands to it
+ * and read the state it publishes, so the UI thread never waits on a player call.
+ * Each song is played with the backend that did best on its format so far, see {@link BackendSelector}.
  */
-public class MusicService extends Service implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener,
-        MediaPlayer.OnCompletionListener {
+public class MusicService extends Service implements PlayerBackend.Listener {
 
-//FFmpegMediaPlayer is a reimplementation of Android's MediaPlayer class.
-//FFmpegMediaPlayer relies on FFmpeg and native code.
-//  private FFmpegMediaPlayer ffmpegMusicPlayer;
+    //Playback thread, runs the commands in the order they are posted. The players are created on it so their callbacks run there too.
+    //Everything below is only used on that thread, unless noted otherwise.
+    private HandlerThread playbackThread;
+    private Handler playbackHandler;
+    private Handler mainHandler;
+    private boolean playbackStopped = false;
 
-    private MediaPlayer musicPlayer;
-    private ArrayList<Song> songList;
+    //State published by the playback thread for the UI, the position is read without calling the player.
+    private volatile boolean statePlaying = false;
+    private final PlaybackClock playbackClock = new PlaybackClock(SystemClock.elapsedRealtime());
+
+    private PlayerBackend musicPlayer;
+    private boolean musicPlayerPrepared = false;
+    //MIME type of the song the current player plays
+    private String currentFormat;
+
+    //Second player, prepared with the song that follows while the current one plays, then chained with setNext()
+    //so the next song starts without a gap. The two players swap roles when a song completes.
+    //Players of different backends can't be chained: the prepared next player is then started on completion.
+    private PlayerBackend nextPlayer;
+    private int nextSongPosition = -1;
+    private String nextFormat;
+    private long nextPrepareStartedAt;
+    private boolean nextPlayerPrepared = false;
+    private boolean nextPlayerChained = false;
+    private final TrackGapMeter gapMeter = new TrackGapMeter();
+
+    //Crossfade between consecutive songs, off when crossfadeMs is 0. The next player is then not chained: it is started
+    //silent crossfadeMs before the end of the current song and the volumes of both players follow the curve.
+    //The fade is scheduled from the position of the current player, again after every start, seek and resume.
+    private static final long CROSSFADE_STEP_MS = 25;
+    private int crossfadeMs = 0;
+    private CrossfadeCurve crossfadeCurve = CrossfadeCurve.EQUAL_POWER;
+    private final CrossfadeRamp crossfadeRamp = new CrossfadeRamp();
+    private final Runnable crossfadeStart = new Runnable() {
+        @Override
+        public void run() {
+            startCrossfade();
+        }
+    };
+    private final Runnable crossfadeStep = new Runnable() {
+        @Override
+        public void run() {
+            stepCrossfade();
+        }
+    };
+
+    //Initialized players ready to take over, one pool per backend: playSong and error recovery switch to one
+    //instead of waiting on reset() or a new player. FFmpeg players are only created once a format is played with them.
+    private static final int WARM_PLAYERS = 2;
+    private static final int WARM_FFMPEG_PLAYERS = 1;
+    private ExecutorService playerCleaner;
+    private final Map<PlayerBackend.Kind, PlayerPool<PlayerBackend>> playerPools = new EnumMap<>(PlayerBackend.Kind.class);
+
+    //Prepare and seek times and errors of the backends per format. A song failing to prepare is tried once with the other backend.
+    private final BackendSelector backendSelector = new BackendSelector(PlayerBackend.Kind.MEDIA_PLAYER);
+    private long seekStartedAt = 0;
+    private boolean triedOtherBackend = false;
+
+    //Seek tables of the MP3 and ADTS songs, built in the background the first time a song plays (SeekTableCache).
+    //With a table, a seek opens the song at the frame of the position instead of asking the player to find it:
+    //the player then plays from positionBase, and the duration is the one of the table.
+    private static final String SEEK_TABLE_DIR = "seek_tables";
+    private ExecutorService seekIndexer;
+    private SeekTableCache seekTables;
+    private SeekTable currentSeekTable;
+    private long positionBase = 0;
+    private boolean preparingSeek = false;
+    private boolean playAfterSeek = false;
+
+    //The start of the songs that follow is read ahead, so preparing one of them doesn't wait for the storage.
+    private static final int READ_AHEAD_SONGS = 3;
+    private static final int READ_AHEAD_BYTES = 2 * 1024 * 1024;
+    private static final long READ_AHEAD_CAPACITY = 16 * 1024 * 1024;
+    private ExecutorService readAheadReader;
+    private ReadAheadCache readAhead;
+    private boolean preparingReadAhead = false;
+
+    //Time of each stage from a command to audio. requestedAt (System.nanoTime()) is the command being served, 0 when none.
+    private final PlaybackLatency latency = new PlaybackLatency();
+    private long requestedAt = 0;
+    private PlaybackLatency.Stage requestStage;
+    private long prepareStartedAt;
+    private int gapsRecorded = 0;
+
+    //Bursts of next/prev taps only prepare the song they end on.
+    private static final long SKIP_WINDOW_MS = 150;
+    private SkipCoalescer skipCoalescer;
+    //Generation of the skip the current player is being prepared for, -1 for other prepares.
+    private int preparingSkip = -1;
+
+    //The activity's song list (UI thread only) and the copy the playback thread plays from, refreshed when the list changes.
+    private SongTable uiSongList;
+    private SongTable songList;
     private int songPosition;
-    private Deque<Integer> songStack;
+
+    //Songs played so far (rows of the song list), used by playPrev and playNext. Kept across runs by the session journal.
+    private static final int HISTORY_CAPACITY = 1000;
+    private PlayHistory history;
+
+    //Songs the user queued to play next (rows of the song list), played before the list or shuffled order goes on.
+    private final PlayQueue queue = new PlayQueue();
+
+    //Every change to the session (history, queue, shuffle, position checkpoints) is appended to a journal, so the session
+    //is recovered after the process was killed. The journal is read when the service starts and applied once the song
+    //list arrives; it is compacted then, when it grew, and when the service stops.
+    private static final String SESSION_FILE = "session.journal";
+    private static final long CHECKPOINT_MS = 5000;
+    private ExecutorService sessionWriter;
+    private SessionJournal journal;
+    private SessionJournal.State recoveredSession;
+    private boolean sessionRestored = false;
+    private int checkpointedPosition = -1;
+    //Song of the recovered session and the position it goes on from once prepared, -1 when none.
+    private int resumeSong = -1;
+    private int resumeAt = 0;
+    private final Runnable checkpoint = new Runnable() {
+        @Override
+        public void run() {
+            checkpointPosition();
+            if(sessionRestored && journal.needsCompaction()){
+                compactSession();
+            }
+            playStats.flushIfDue(System.currentTimeMillis());
+            playbackHandler.postDelayed(this, CHECKPOINT_MS);
+        }
+    };
+
+    //Plays and skips of every song, written behind on statsWriter. A song counts as played once it completed, or was left
+    //after half of it or PLAYED_MS; left earlier, it counts as skipped.
+    private static final String STATS_FILE = "play_stats.bin";
+    private static final String STATS_LOG = "play_stats.log";
+    private static final int PLAYED_MS = 4 * 60 * 1000;
+    private ExecutorService statsWriter;
+    private PlayStats playStats;
+
+    //Weighted shuffle draws the songs in proportion to their plays against their skips, instead of the shuffled order.
+    //The song drawn to follow is kept, so the second player prepares the song moveToNext() plays. The weights are
+    //computed again once WEIGHTS_STALE_EVENTS plays or skips were recorded.
+    private static final int WEIGHTS_STALE_EVENTS = 25;
+    private static final int REDRAWS = 4;
+    private boolean weightedShuffle = false;
+    private AliasTable shuffleWeights;
+    private int weightsVersion;
+    private final Random weightedRandom = new Random();
+    private int weightedNext = -1;
 
     //Binder class
     private final IBinder musicBind = new MusicBinder();
 
     //used for shuffle;
     private boolean shuffle = false;
-    private Random random = new Random();
+    private ShuffleOrder shuffleOrder = new ShuffleOrder(0);
 
     public void onCreate(){
         super.onCreate();
         this.songPosition = 0;
-        songStack = new ArrayDeque<>();
-        musicPlayer = new MediaPlayer();
-        this.initMusicPlayer();
+        history = new PlayHistory(HISTORY_CAPACITY);
+
+        mainHandler = new Handler(Looper.getMainLooper());
+        playbackThread = new HandlerThread("Playback", Process.THREAD_PRIORITY_AUDIO);
+        playbackThread.start();
+        playbackHandler = new Handler(playbackThread.getLooper());
+        skipCoalescer = new SkipCoalescer(new SkipCoalescer.Target() {
+            @Override
+            public void prepare(int generation) {
+                playCurrentSong();
+                preparingSkip = generation;
+            }
+
+            @Override
+            public void cancel(int generation) {
+                abandonPrepare();
+            }
+        }, new SkipCoalescer.Scheduler() {
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                playbackHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                playbackHandler.removeCallbacks(task);
+            }
+
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+        }, SKIP_WINDOW_MS);
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                recoverSession();
+                loadStats();
+                initPlayers();
+            }
+        });
+    }
+
+    private final SongOpener songOpener = new SongOpener() {
+        @Override
+        public FileInputStream open(long id) throws IOException {
+            Uri uri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id);
+            return new ParcelFileDescriptor.AutoCloseInputStream(getContentResolver().openFileDescriptor(uri, "r"));
+        }
+    };
+
+    private void initPlayers(){
+        playerCleaner = Executors.newSingleThreadExecutor();
+        playerPools.put(PlayerBackend.Kind.MEDIA_PLAYER, new PlayerPool<>(WARM_PLAYERS, new PlayerFactory(PlayerBackend.Kind.MEDIA_PLAYER), playerCleaner));
+        playerPools.put(PlayerBackend.Kind.FFMPEG, new PlayerPool<>(WARM_FFMPEG_PLAYERS, new PlayerFactory(PlayerBackend.Kind.FFMPEG), playerCleaner));
+        musicPlayer = acquirePlayer(PlayerBackend.Kind.MEDIA_PLAYER);
+        nextPlayer = acquirePlayer(PlayerBackend.Kind.MEDIA_PLAYER);
+        seekIndexer = Executors.newSingleThreadExecutor();
+        seekTables = new SeekTableCache(new File(getCacheDir(), SEEK_TABLE_DIR), songOpener, seekIndexer);
+        readAheadReader = Executors.newSingleThreadExecutor();
+        readAhead = new ReadAheadCache(songOpener, readAheadReader, READ_AHEAD_BYTES, READ_AHEAD_CAPACITY);
+
+        //the spare players are created after the commands already waiting
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                playerPools.get(PlayerBackend.Kind.MEDIA_PLAYER).fill();
+            }
+        });
     }
 
-    public void initMusicPlayer(){
-        //wake lock allows music to continue playing when the device is idle.
-        musicPlayer.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
-        musicPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+    /**
+     * Creates the players of one backend, with this service as their listener.
+     */
+    private class PlayerFactory implements PlayerPool.Factory<PlayerBackend> {
+        private final PlayerBackend.Kind kind;
+
+        PlayerFactory(PlayerBackend.Kind kind){
+            this.kind = kind;
+        }
+
+        @Override
+        public PlayerBackend create() {
+            PlayerBackend player = kind == PlayerBackend.Kind.FFMPEG
+                    ? new FFmpegPlayerBackend(getApplicationContext())
+                    : new MediaPlayerBackend(getApplicationContext());
+            player.setListener(MusicService.this);
+            return player;
+        }
+
+        @Override
+        public void recycle(PlayerBackend player) {
+            player.reset();
+        }
+
+        @Override
+        public void destroy(PlayerBackend player) {
+            player.release();
+        }
+    }
 
-        //Set the methods in this class as listener for when the MediaPlayer instance is created/song is completed/error thrown
-        musicPlayer.setOnPreparedListener(this);
-        musicPlayer.setOnCompletionListener(this);
-        musicPlayer.setOnErrorListener(this);
+    /**
+     * A clean player of the given backend. If the backend can't be created (its native library is missing),
+     * it is no longer used and a MediaPlayer is returned instead.
+     */
+    private PlayerBackend acquirePlayer(PlayerBackend.Kind kind){
+        try{
+            return playerPools.get(kind).acquire();
+        }catch (LinkageError e){
+            if(kind == PlayerBackend.Kind.MEDIA_PLAYER){
+                throw e;
+            }
+            Log.e("MUSIC SERVICE: ", "ERROR creating a " + kind + " player, using MediaPlayer only.", e);
+            backendSelector.setAvailable(kind, false);
+            return playerPools.get(PlayerBackend.Kind.MEDIA_PLAYER).acquire();
+        }
     }
 
-    public void setSongList(ArrayList<Song> songs){
-        this.songList = songs;
+    private void releasePlayer(PlayerBackend player){
+        playerPools.get(player.getKind()).release(player);
+    }
+
+    /**
+     * Format of the song used to pick its backend: the MIME type the MediaStore has for it.
+     */
+    private String getSongFormat(int position){
+        try{
+            return getContentResolver().getType(getSongUri(position));
+        }catch (RuntimeException e){
+            Log.d("MUSIC SERVICE: ", "Unknown format of song " + position + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Called on the UI thread. The playback thread gets its own copy of the list, the activity keeps changing its list
+     * and tells the service about it (onSongsAdded, onSongsMoved, onSongsReordered).
+     * The list is null when the service is bound before the storage permission was granted, it is set again once granted.
+     */
+    public void setSongList(SongTable songs){
+        this.uiSongList = songs;
+        if(songs == null){
+            return;
+        }
+        final SongTable copy = songs.copy();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                songList = copy;
+                if(!sessionRestored){
+                    sessionRestored = true;
+                    restoreSession();
+                }
+            }
+        });
+    }
+
+    /**
+     * Called on the UI thread after songs were appended to the list (library scan), the rows already known didn't move.
+     */
+    public void onSongsAdded(){
+        final SongTable copy = uiSongList.copy();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                songList = copy;
+            }
+        });
     }
 
     /**
@@ -71,129 +369,1193 @@ public class MusicService extends Service implements MediaPlayer.OnPreparedListe
      * Prepare Data Source for play in the service class.
      */
     public void playSong(){
-        musicPlayer.reset();
+        final long pickedAt = System.nanoTime();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                //a picked song replaces whatever the skips were heading to
+                skipCoalescer.reset();
+                beginRequest(PlaybackLatency.Stage.TAP_TO_AUDIO, pickedAt);
+                playCurrentSong();
+            }
+        });
+    }
 
-        Song songToBePlayed = songList.get(songPosition);
-        String songTitle = songToBePlayed.getTitle();
-        String songArtist = songToBePlayed.getArtist();
-        long currentSongID = songToBePlayed.getID();
-        Uri trackUri = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, currentSongID);
+    private void playCurrentSong(){
+        triedOtherBackend = false;
+        currentFormat = getSongFormat(songPosition);
+        playCurrentSong(backendSelector.choose(currentFormat));
+    }
+
+    /**
+     * Plays the current song with the given backend.
+     */
+    private void playCurrentSong(PlayerBackend.Kind kind){
+        cancelCrossfade();
+        invalidateNextPlayer();
+        forgetSeekTable();
+        switchToCleanPlayer(kind);
+        long setupAt = System.nanoTime();
+        if(requestedAt != 0){
+            latency.record(PlaybackLatency.Stage.COMMAND_TO_DATA_SOURCE, setupAt - requestedAt);
+        }
 
         //Set data source
         try{
-            musicPlayer.setDataSource(MusicService.this, trackUri);
+            preparingReadAhead = setSongDataSource(musicPlayer, songPosition);
         }catch (Exception e){
+            preparingReadAhead = false;
             Log.e("MUSIC SERVICE: ", "ERROR setting data source.", e);
         }
+        latency.record(PlaybackLatency.Stage.SET_DATA_SOURCE, System.nanoTime() - setupAt);
 
-        //Update the TextView that displays information about the current song being played
-        MainActivity.updateCurrentSongInfo(this.songPosition+1 + ". " + songTitle + " - " +songArtist);
+        showSongInfo();
 
-        //Call async method of the MediaPlayer to prepare the song
+        //Call async method of the player to prepare the song
+        prepareStartedAt = System.nanoTime();
         musicPlayer.prepareAsync();
+        publishState();
+    }
+
+    /**
+     * The command being served, its time to audio is recorded once the song starts.
+     * @param stage - TAP_TO_AUDIO or SKIP_TO_AUDIO.
+     * @param commandAt - System.nanoTime() when the command was given.
+     */
+    private void beginRequest(PlaybackLatency.Stage stage, long commandAt){
+        requestStage = stage;
+        requestedAt = commandAt;
+    }
+
+    //Records the gap measured by the gap meter, if a transition just completed.
+    private void recordGap(){
+        if(gapMeter.getCount() != gapsRecorded){
+            gapsRecorded = gapMeter.getCount();
+            latency.record(PlaybackLatency.Stage.COMPLETION_TO_AUDIO, gapMeter.getLastGap() * 1000000);
+        }
+    }
+
+    /**
+     * Latency histograms of starting playback, for the debug screen.
+     */
+    public PlaybackLatency getLatency(){
+        return latency;
+    }
+
+    /**
+     * Publishes the state of the current player for the UI, called on every state change (prepare, start, pause, seek).
+     * In between, the position is interpolated by the playback clock.
+     */
+    private void publishState(){
+        if(!musicPlayerPrepared){
+            statePlaying = false;
+            playbackClock.stop();
+            return;
+        }
+        statePlaying = musicPlayer.isPlaying();
+        playbackClock.set(currentPosition(), currentDuration(), statePlaying, SystemClock.elapsedRealtime());
+    }
+
+    //Position and duration of the current song, the player plays from positionBase after a seek through the seek table.
+    private int currentPosition(){
+        return (int) (positionBase + musicPlayer.getCurrentPosition());
+    }
+
+    private int currentDuration(){
+        return currentSeekTable != null ? (int) currentSeekTable.getDurationMs() : musicPlayer.getDuration();
+    }
+
+    //Switches to a clean player of the given backend, the used one is reset in the background (which also cancels a prepare in progress).
+    private void switchToCleanPlayer(PlayerBackend.Kind kind){
+        musicPlayerPrepared = false;
+        preparingSkip = -1;
+        PlayerBackend used = musicPlayer;
+        musicPlayer = acquirePlayer(kind);
+        silence(used);
+        releasePlayer(used);
+    }
+
+    //MIME types of the songs FrameIndexer can build a seek table for.
+    private static boolean isIndexable(String format){
+        return "audio/mpeg".equals(format) || "audio/aac".equals(format) || "audio/aac-adts".equals(format);
+    }
+
+    /**
+     * Gets the seek table of the current song ready, it is built the first time the song plays.
+     */
+    private void prefetchSeekTable(){
+        if(isIndexable(currentFormat)){
+            seekTables.prefetch(songList.getID(songPosition));
+        }
+    }
+
+    //Back to playing the current song from its start, before another song is played.
+    private void forgetSeekTable(){
+        currentSeekTable = null;
+        positionBase = 0;
+        preparingSeek = false;
+    }
+
+    /**
+     * Seeks by opening the song at the frame of the position found in its seek table, on a clean player:
+     * no scan of the file by the player, and the position is exact even in VBR files without a Xing/TOC header.
+     * The next song stays prepared and is chained again once the seek is done.
+     * @return false if the song has no table (yet), the player seeks by itself then.
+     */
+    private boolean seekWithTable(int position){
+        SeekTable table = currentSeekTable != null ? currentSeekTable : seekTables.get(songList.getID(songPosition));
+        if(table == null){
+            return false;
+        }
+        ParcelFileDescriptor fd;
+        try{
+            fd = getContentResolver().openFileDescriptor(getSongUri(songPosition), "r");
+        }catch (IOException e){
+            Log.e("MUSIC SERVICE: ", "ERROR opening the song to seek.", e);
+            return false;
+        }
+        try{
+            if(fd.getStatSize() != table.getFileLength()){
+                //the file changed since the table was built
+                return false;
+            }
+            int entry = table.entryAt(position);
+            long offset = table.offsetOf(entry);
+            boolean playing = musicPlayer.isPlaying();
+            boolean nextReady = nextPlayerPrepared;
+            unchainNextPlayer();
+            nextPlayerPrepared = nextReady;
+            PlayerBackend.Kind kind = musicPlayer.getKind();
+            switchToCleanPlayer(kind);
+            try{
+                musicPlayer.setDataSource(fd.getFileDescriptor(), offset, table.getFileLength() - offset);
+            }catch (IOException e){
+                Log.e("MUSIC SERVICE: ", "ERROR opening the song at " + offset + ", playing it from the start.", e);
+                playCurrentSong(kind);
+                return true;
+            }
+            currentSeekTable = table;
+            positionBase = table.timeOf(entry);
+            preparingSeek = true;
+            playAfterSeek = playing;
+            musicPlayer.prepareAsync();
+            return true;
+        }finally{
+            try{
+                fd.close();
+            }catch (IOException e){
+                Log.d("MUSIC SERVICE: ", "Could not close the song: " + e.getMessage());
+            }
+        }
+    }
+
+    //The player opened at a frame of the seek table is ready: the seek is done.
+    private void onSeekPrepared(){
+        preparingSeek = false;
+        musicPlayerPrepared = true;
+        if(seekStartedAt != 0){
+            long elapsed = System.nanoTime() - seekStartedAt;
+            latency.record(PlaybackLatency.Stage.TABLE_SEEK, elapsed);
+            Log.d("MUSIC SERVICE: ", "Seek to " + positionBase + " ms through the seek table in " + elapsed / 1000000
+                    + " ms, seek tables: " + seekTables);
+            seekStartedAt = 0;
+        }
+        if(playAfterSeek){
+            musicPlayer.start();
+        }
+        publishState();
+        if(nextPlayerPrepared){
+            chainNextPlayer();
+        }else if(nextSongPosition < 0){
+            prepareNextPlayer();
+        }
+        scheduleCrossfade();
+    }
+
+    /**
+     * Moved to the next/previous song: the old one stops right away, the new one is prepared by the skipCoalescer
+     * (right away, or once a burst of skips is over).
+     */
+    private void skipToCurrentSong(){
+        cancelCrossfade();
+        if(preparingSeek){
+            //the player opened for a seek in the song skipped must not start once prepared
+            forgetSeekTable();
+            switchToCleanPlayer(musicPlayer.getKind());
+        }
+        silence(musicPlayer);
+        showSongInfo();
+        publishState();
+        skipCoalescer.skip();
+    }
+
+    /**
+     * A later skip superseded the song being prepared.
+     */
+    private void abandonPrepare(){
+        invalidateNextPlayer();
+        switchToCleanPlayer(musicPlayer.getKind());
+        publishState();
+    }
+
+    //Stops the sound of a player given back to the pool before it is reset.
+    private static void silence(PlayerBackend player){
+        try{
+            if(player.isPlaying()){
+                player.pause();
+            }
+        }catch (IllegalStateException e){
+            //error state, nothing is playing
+        }
+    }
+
+    /**
+     * Sets the song as the data source of the player: from its head read ahead if there is one and the player can
+     * read from it, else from its Uri.
+     * @return true if the head read ahead is used.
+     */
+    private boolean setSongDataSource(PlayerBackend player, int position) throws IOException {
+        if(player.supportsMediaDataSource()){
+            ReadAheadCache.Source source = readAhead.open(songList.getID(position));
+            if(source != null){
+                player.setDataSource(new ReadAheadDataSource(source));
+                return true;
+            }
+        }
+        player.setDataSource(MusicService.this, getSongUri(position));
+        return false;
+    }
+
+    /**
+     * Reads ahead the start of the songs that follow, in the order they will play.
+     */
+    private void prefetchUpcoming(){
+        for(int song : upcomingSongs(READ_AHEAD_SONGS)){
+            readAhead.prefetch(songList.getID(song));
+        }
+    }
+
+    /**
+     * The songs playNext() would play one after the other, see peekNextSong().
+     * In shuffle mode, stops at the end of the shuffled round; in weighted shuffle mode, after the song drawn to follow.
+     */
+    private int[] upcomingSongs(int count){
+        if(songList == null || songList.isEmpty()){
+            return new int[0];
+        }
+        int[] songs = new int[count];
+        int found = 0;
+        for(int i = history.getCursor() + 1; i < history.size() && found < count; i++){
+            songs[found++] = history.get(i);
+        }
+        for(int song : queue.toArray(0, count - found)){
+            songs[found++] = song;
+        }
+        if(shuffle && weightedShuffle){
+            //only the song drawn to follow is known
+            if(found < count){
+                songs[found++] = weightedNextSong();
+            }
+        }else if(shuffle){
+            syncShuffleOrder();
+            for(int ahead = 0; found < count; ahead++){
+                int song = shuffleOrder.peek(ahead);
+                if(song < 0){
+                    break;
+                }
+                songs[found++] = song;
+            }
+        }else{
+            int song = found > 0 ? songs[found - 1] : songPosition;
+            while(found < count){
+                song = (song + 1) % songList.size();
+                songs[found++] = song;
+            }
+        }
+        return Arrays.copyOf(songs, found);
+    }
+
+    private Uri getSongUri(int position){
+        return ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, songList.getID(position));
+    }
+
+    //Update the TextView that displays information about the current song being played
+    private void showSongInfo(){
+        String songTitle = songList.getTitle(songPosition);
+        String songArtist = songList.getArtist(songPosition);
+        final String songInfo = this.songPosition+1 + ". " + songTitle + " - " +songArtist;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.updateCurrentSongInfo(songInfo);
+            }
+        });
+    }
+
+    /**
+     * The song playNext() would play, without moving to it.
+     * @return the row of the song, or -1 if there are no songs.
+     */
+    private int peekNextSong(){
+        if(songList == null || songList.isEmpty()){
+            return -1;
+        }
+        if(history.canGoForward()){
+            return history.get(history.getCursor() + 1);
+        }
+        if(!queue.isEmpty()){
+            return queue.get(0);
+        }
+        if(shuffle && weightedShuffle){
+            return weightedNextSong();
+        }
+        if(shuffle){
+            syncShuffleOrder();
+            return shuffleOrder.peek();
+        }
+        return (songPosition + 1) % songList.size();
+    }
+
+    /**
+     * Prepares the song that follows on the second player, with the backend picked for its format.
+     * Once prepared, it is chained to the current player.
+     */
+    private void prepareNextPlayer(){
+        prefetchUpcoming();
+        int next = peekNextSong();
+        if(next < 0){
+            return;
+        }
+        if(nextSongPosition >= 0){
+            invalidateNextPlayer();
+        }
+        nextSongPosition = next;
+        nextFormat = getSongFormat(next);
+        PlayerBackend.Kind kind = backendSelector.choose(nextFormat);
+        if(nextPlayer.getKind() != kind){
+            PlayerBackend used = nextPlayer;
+            nextPlayer = acquirePlayer(kind);
+            releasePlayer(used);
+        }
+        try{
+            setSongDataSource(nextPlayer, next);
+            nextPrepareStartedAt = System.nanoTime();
+            nextPlayer.prepareAsync();
+        }catch (Exception e){
+            Log.e("MUSIC SERVICE: ", "ERROR preparing the next song.", e);
+            nextSongPosition = -1;
+        }
+    }
+
+    /**
+     * Drops the song prepared on the second player, it is no longer the one that follows (skip, shuffle toggled, list changed).
+     */
+    private void invalidateNextPlayer(){
+        unchainNextPlayer();
+        if(nextSongPosition >= 0){
+            PlayerBackend used = nextPlayer;
+            nextPlayer = acquirePlayer(used.getKind());
+            releasePlayer(used);
+        }
+        nextSongPosition = -1;
+    }
+
+    private void unchainNextPlayer(){
+        if(nextPlayerChained){
+            try{
+                musicPlayer.setNext(null);
+            }catch (IllegalStateException e){
+                Log.d("MUSIC SERVICE: ", "Could not unchain the next player: " + e.getMessage());
+            }
+        }
+        nextPlayerChained = false;
+        nextPlayerPrepared = false;
+    }
+
+    /**
+     * Prepares the second player again after the song that follows changed. A fade to the old next song is stopped.
+     */
+    private void refreshNextPlayer(){
+        cancelCrossfade();
+        invalidateNextPlayer();
+        if(musicPlayerPrepared){
+            prepareNextPlayer();
+            scheduleCrossfade();
+        }
+    }
+
+    /**
+     * The current song completed and the next one is prepared: swap the players.
+     * @param start - true if the next player wasn't chained and has to be started, false if it already started by itself.
+     */
+    private void swapToNextPlayer(boolean start){
+        recordSongEnd(true);
+        int expected = nextSongPosition;
+        PlayerBackend finished = musicPlayer;
+        musicPlayer = nextPlayer;
+        currentFormat = nextFormat;
+        nextPlayer = acquirePlayer(finished.getKind());
+        releasePlayer(finished);
+        nextPlayerChained = false;
+        nextPlayerPrepared = false;
+        nextSongPosition = -1;
+        forgetSeekTable();
+
+        moveToNext();
+        if(songPosition != expected){
+            //should not happen, the prepared song is always the one moveToNext() picks
+            Log.d("MUSIC SERVICE: ", "Prepared song " + expected + " but next is " + songPosition);
+            playCurrentSong();
+            return;
+        }
+        musicPlayerPrepared = true;
+        if(start){
+            musicPlayer.start();
+            gapMeter.trackStarted(SystemClock.elapsedRealtime());
+            recordGap();
+        }
+        showSongInfo();
+        publishState();
+        prefetchSeekTable();
+        prepareNextPlayer();
+        scheduleCrossfade();
+    }
+
+    /**
+     * Sets the crossfade between consecutive songs.
+     * @param lengthMs - length of the fade, 0 for gapless playback without fade.
+     */
+    public void setCrossfade(final int lengthMs, final CrossfadeCurve curve){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                crossfadeMs = Math.max(lengthMs, 0);
+                crossfadeCurve = curve;
+                //chained or not depending on the fade
+                refreshNextPlayer();
+            }
+        });
+    }
+
+    /**
+     * Plans the start of the fade from the position of the playing song. Songs shorter than twice the fade
+     * fade over half of their length.
+     */
+    private void scheduleCrossfade(){
+        playbackHandler.removeCallbacks(crossfadeStart);
+        if(crossfadeMs == 0 || crossfadeRamp.isActive() || !musicPlayerPrepared || !musicPlayer.isPlaying()){
+            return;
+        }
+        int duration = currentDuration();
+        if(duration <= 0){
+            return;
+        }
+        int length = Math.min(crossfadeMs, duration / 2);
+        playbackHandler.postDelayed(crossfadeStart, Math.max(0, duration - currentPosition() - length));
+    }
+
+    /**
+     * Starts the next song silent and the ramp of the volumes. If the next song isn't prepared yet the fade
+     * starts once it is, shorter; if the current song completes first it just follows without fade.
+     */
+    private void startCrossfade(){
+        if(!musicPlayerPrepared || !musicPlayer.isPlaying()){
+            return;
+        }
+        if(!nextPlayerPrepared){
+            playbackHandler.postDelayed(crossfadeStart, CROSSFADE_STEP_MS);
+            return;
+        }
+        int left = currentDuration() - currentPosition();
+        crossfadeRamp.start(crossfadeCurve, Math.max(0, Math.min(crossfadeMs, left)), SystemClock.uptimeMillis());
+        //no gap to measure, the songs overlap
+        gapMeter.cancel();
+        nextPlayer.setVolume(0);
+        nextPlayer.start();
+        stepCrossfade();
+    }
+
+    private void stepCrossfade(){
+        long now = SystemClock.uptimeMillis();
+        if(crossfadeRamp.isDone(now)){
+            finishCrossfade();
+            return;
+        }
+        musicPlayer.setVolume(crossfadeRamp.gainOut(now));
+        nextPlayer.setVolume(crossfadeRamp.gainIn(now));
+        playbackHandler.postDelayed(crossfadeStep, Math.min(CROSSFADE_STEP_MS, crossfadeRamp.remaining(now)));
+    }
+
+    /**
+     * The fade is over, or the current song completed during it: the next song becomes the current one.
+     */
+    private void finishCrossfade(){
+        playbackHandler.removeCallbacks(crossfadeStep);
+        crossfadeRamp.cancel();
+        nextPlayer.setVolume(1);
+        silence(musicPlayer);
+        swapToNextPlayer(false);
+        Log.d("MUSIC SERVICE: ", "Crossfaded to song " + songPosition);
+    }
+
+    /**
+     * Stops a fade in progress (or planned): the current song is back to full volume and the next one is stopped.
+     * The next player played part of its song, the callers prepare it again or drop it.
+     */
+    private void cancelCrossfade(){
+        playbackHandler.removeCallbacks(crossfadeStart);
+        playbackHandler.removeCallbacks(crossfadeStep);
+        if(crossfadeRamp.isActive()){
+            crossfadeRamp.cancel();
+            musicPlayer.setVolume(1);
+            silence(nextPlayer);
+        }
+    }
+
+    /**
+     * Called after the song list has been sorted.
+     * @param order - row i of the list now holds the song previously at order[i].
+     */
+    public void onSongsReordered(int[] order){
+        int[] newRowOf = new int[order.length];
+        for(int i = 0; i < order.length; i++){
+            newRowOf[order[i]] = i;
+        }
+        onSongsMoved(newRowOf);
+    }
+
+    /**
+     * Called on the UI thread after songs moved in the list (sort, songs added or removed by a library sync).
+     * @param newRowOf - new row of every old row, -1 for songs that were removed.
+     */
+    public void onSongsMoved(final int[] newRowOf){
+        final SongTable copy = uiSongList.copy();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                songList = copy;
+                moveSongs(newRowOf);
+            }
+        });
+    }
+
+    /**
+     * Maps the current position and the songs in the history to the rows the songs were moved to.
+     * If the current song was removed, the position moves to the song that followed it.
+     * Rows changed, so the shuffled order starts a new round from the current song, and the weights are computed again.
+     */
+    private void moveSongs(int[] newRowOf){
+        if(songPosition < newRowOf.length){
+            int old = songPosition;
+            while(old < newRowOf.length && newRowOf[old] < 0){
+                old++;
+            }
+            songPosition = old < newRowOf.length ? newRowOf[old] : Math.max(songList.size() - 1, 0);
+        }
+        history.remap(newRowOf);
+        queue.remap(newRowOf);
+        if(resumeSong >= 0){
+            resumeSong = resumeSong < newRowOf.length ? newRowOf[resumeSong] : -1;
+        }
+        for(int row : newRowOf){
+            if(row < 0){
+                //positions in the history and queue moved with the songs removed, the journal starts over from here
+                compactSession();
+                break;
+            }
+        }
+
+        shuffleOrder.reset(songList.size());
+        shuffleOrder.reshuffle(songPosition);
+        shuffleWeights = null;
+        weightedNext = -1;
+        refreshNextPlayer();
     }
 
     /**
-     * Implementation for 3 Listeners of the MediaPlayer instance
+     * Implementation of the listener of the players
      */
     @Override
-    public void onPrepared(MediaPlayer mediaPlayer) {
+    public void onPrepared(PlayerBackend mediaPlayer) {
+        if(mediaPlayer == nextPlayer){
+            if(nextSongPosition < 0){
+                return;
+            }
+            nextPlayerPrepared = true;
+            backendSelector.recordPrepare(nextFormat, nextPlayer.getKind(), System.nanoTime() - nextPrepareStartedAt);
+            if(musicPlayerPrepared){
+                chainNextPlayer();
+            }
+            return;
+        }
+        if(mediaPlayer != musicPlayer){
+            //a player given back to the pool before it finished preparing
+            return;
+        }
+        if(preparingSeek){
+            onSeekPrepared();
+            return;
+        }
+        musicPlayerPrepared = true;
+        skipCoalescer.onPrepared(preparingSkip);
+        preparingSkip = -1;
+        long preparedAt = System.nanoTime();
+        latency.record(PlaybackLatency.Stage.PREPARE, preparedAt - prepareStartedAt);
+        latency.record(preparingReadAhead ? PlaybackLatency.Stage.PREPARE_READ_AHEAD : PlaybackLatency.Stage.PREPARE_COLD,
+                preparedAt - prepareStartedAt);
+        backendSelector.recordPrepare(currentFormat, mediaPlayer.getKind(), preparedAt - prepareStartedAt);
+        if(songPosition == resumeSong && resumeAt > 0){
+            //the song of the recovered session goes on where it was
+            mediaPlayer.seekTo(resumeAt);
+        }
+        resumeSong = -1;
         mediaPlayer.start();
-        MainActivity.showController();
+        long startedAt = System.nanoTime();
+        latency.record(PlaybackLatency.Stage.START, startedAt - preparedAt);
+        if(requestedAt != 0){
+            latency.record(requestStage, startedAt - requestedAt);
+            Log.d("MUSIC SERVICE: ", "Time to first audio: " + (startedAt - requestedAt) / 1000000 + " ms with "
+                    + mediaPlayer.getKind() + " (" + currentFormat + "), player pools: " + playerPools + ", skips: " + skipCoalescer);
+            requestedAt = 0;
+        }
+        gapMeter.trackStarted(SystemClock.elapsedRealtime());
+        recordGap();
+        publishState();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                MainActivity.showController();
+            }
+        });
+        prefetchSeekTable();
+        prepareNextPlayer();
+        scheduleCrossfade();
+    }
+
+    //Chains the prepared next player, it starts by itself when the current song completes; with a crossfade it is started by startCrossfade().
+    private void chainNextPlayer(){
+        if(crossfadeMs != 0){
+            return;
+        }
+        try{
+            nextPlayerChained = musicPlayer.setNext(nextPlayer);
+        }catch (IllegalStateException e){
+            Log.d("MUSIC SERVICE: ", "Could not chain the next player: " + e.getMessage());
+        }
     }
 
     @Override
-    public void onCompletion(MediaPlayer mp) {
-        if(musicPlayer.getCurrentPosition() > 0){
-            mp.reset();
-            playNext();
+    public void onCompletion(PlayerBackend mp) {
+        if(mp != musicPlayer){
+            return;
+        }
+        if(crossfadeRamp.isActive()){
+            finishCrossfade();
+            return;
+        }
+        playbackHandler.removeCallbacks(crossfadeStart);
+        gapMeter.trackEnded(SystemClock.elapsedRealtime());
+        recordGap();
+        if(nextPlayerChained || nextPlayerPrepared){
+            swapToNextPlayer(!nextPlayerChained);
+            Log.d("MUSIC SERVICE: ", "Inter-track gap: " + gapMeter);
+        }else if(musicPlayer.getCurrentPosition() > 0){
+            recordSongEnd(true);
+            moveToNext();
+            playCurrentSong();
         }
     }
 
     @Override
-    public boolean onError(MediaPlayer mp, int what, int extra) {
+    public void onSeekComplete(PlayerBackend mp) {
+        if(mp == musicPlayer){
+            if(seekStartedAt != 0){
+                long elapsed = System.nanoTime() - seekStartedAt;
+                backendSelector.recordSeek(currentFormat, mp.getKind(), elapsed);
+                latency.record(PlaybackLatency.Stage.SEEK, elapsed);
+                seekStartedAt = 0;
+            }
+            publishState();
+            scheduleCrossfade();
+        }
+    }
+
+    @Override
+    public void onStartedAsNext(PlayerBackend mp) {
+        gapMeter.nextStarted(SystemClock.elapsedRealtime());
+        recordGap();
+    }
+
+    @Override
+    public boolean onError(PlayerBackend mp, int what, int extra) {
         Log.d("LOG_TAG:", "onError()");
+        if(mp != musicPlayer && mp != nextPlayer){
+            //already given back to the pool
+            return true;
+        }
+        long start = System.nanoTime();
+        cancelCrossfade();
+        if(mp == nextPlayer){
+            //only the song prepared ahead is lost, it is prepared again when the current song starts
+            Log.d("MultiPlayer", "Next player error: " + what + "," + extra);
+            if(nextSongPosition >= 0){
+                backendSelector.recordError(nextFormat, mp.getKind());
+            }
+            unchainNextPlayer();
+            nextSongPosition = -1;
+            nextPlayer = replaceFailedPlayer(mp, what);
+            return true;
+        }
+        boolean wasPreparing = !musicPlayerPrepared && songList != null;
+        int skip = preparingSkip;
+        backendSelector.recordError(currentFormat, mp.getKind());
+        musicPlayerPrepared = false;
+        seekStartedAt = 0;
+        if(what == PlayerBackend.ERROR_SERVER_DIED){
+            //the second player died with the server too, it is replaced by a new one instead of going back to the pool
+            unchainNextPlayer();
+            nextSongPosition = -1;
+            PlayerBackend deadNext = nextPlayer;
+            musicPlayer = replaceFailedPlayer(mp, what);
+            playerPools.get(deadNext.getKind()).discard(deadNext);
+            nextPlayer = acquirePlayer(deadNext.getKind());
+        }else{
+            invalidateNextPlayer();
+            musicPlayer = replaceFailedPlayer(mp, what);
+        }
+        publishState();
+        Log.d("MUSIC SERVICE: ", "Recovered from error in " + (System.nanoTime() - start) / 1000 + " us, player pools: " + playerPools);
+
+        //the song couldn't be opened by this backend, the other one may play it
+        PlayerBackend.Kind other = mp.getKind() == PlayerBackend.Kind.MEDIA_PLAYER ? PlayerBackend.Kind.FFMPEG : PlayerBackend.Kind.MEDIA_PLAYER;
+        if(wasPreparing && !triedOtherBackend && what != PlayerBackend.ERROR_SERVER_DIED && backendSelector.isAvailable(other)){
+            triedOtherBackend = true;
+            Log.d("MUSIC SERVICE: ", "Retrying song " + songPosition + " (" + currentFormat + ") with " + other);
+            playCurrentSong(other);
+            preparingSkip = skip;
+            return true;
+        }
         switch (what) {
-            case MediaPlayer.MEDIA_ERROR_SERVER_DIED:
-                musicPlayer.release();
-                musicPlayer = new MediaPlayer();
-                initMusicPlayer();
+            case PlayerBackend.ERROR_SERVER_DIED:
                 return true;
             default:
                 Log.d("MultiPlayer", "Error: " + what + "," + extra);
-                musicPlayer.release();
-                musicPlayer = new MediaPlayer();
-                initMusicPlayer();
                 break;
         }
         return false;
     }
 
+    /**
+     * Takes a warm player from the pool in place of one that failed. The failed player is released in the background,
+     * or reset and reused if it didn't fail too often. A dead media server takes all of its players with it: the idle
+     * players of every pool are replaced by new ones first.
+     */
+    private PlayerBackend replaceFailedPlayer(PlayerBackend failed, int what){
+        PlayerPool<PlayerBackend> pool = playerPools.get(failed.getKind());
+        if(what == PlayerBackend.ERROR_SERVER_DIED){
+            pool.discard(failed);
+            for(PlayerPool<PlayerBackend> each : playerPools.values()){
+                each.replaceIdle();
+            }
+        }else{
+            pool.reportError(failed);
+            pool.release(failed);
+        }
+        return acquirePlayer(failed.getKind());
+    }
+
+    /**
+     * Prepare and seek times and errors of the backends per format, and the backend picked for each format.
+     */
+    public BackendSelector getBackendSelector(){
+        return backendSelector;
+    }
+
+    /**
+     * Hit rate and bytes of the songs read ahead.
+     */
+    public ReadAheadCache getReadAhead(){
+        return readAhead;
+    }
+
+    /**
+     * Statistics of the silence between songs that played to their end.
+     */
+    public TrackGapMeter getGapMeter(){
+        return gapMeter;
+    }
+
     /**
      * Method that sets the song selected by the user using the songIndex
-     * The index of the song selected by the user is also added to the stack of songs (this helps with keeping a sort of order of songs played - used for playPrevious).
-     * @param songIndex - index of the song to be played in arrayList of songs.
+     * The index of the song selected by the user is also added to the history of songs (this helps with keeping a sort of order of songs played - used for playPrevious).
+     * @param songIndex - row of the song to be played in the SongTable.
+     */
+    public void setSong(final int songIndex){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                gapMeter.cancel();
+                recordSongEnd(false);
+                songPosition = songIndex;
+                resumeSong = -1;
+                enqueueSong(songIndex);
+                if(shuffle){
+                    syncShuffleOrder();
+                    shuffleOrder.markPlayed(songIndex);
+                }
+            }
+        });
+    }
+
+    /**
+     * The songs of the queue, read on the playback thread.
+     */
+    public interface QueueListener {
+        /**
+         * Called on the UI thread.
+         * @param rows - rows of the first queued songs, in the order they will play.
+         * @param size - number of songs in the queue.
+         */
+        void onQueueRead(int[] rows, int size);
+    }
+
+    /**
+     * Queues songs to play right after the current one, before the songs queued so far.
+     * @param rows - rows of the songs in the song list, in the order they should play.
+     */
+    public void playNextInQueue(final int[] rows){
+        editQueue(new Runnable() {
+            @Override
+            public void run() {
+                queue.insertAll(0, rows);
+                journal.queueInsert(0, idsOf(rows));
+            }
+        });
+    }
+
+    /**
+     * Queues songs after the songs queued so far, e.g. a whole album.
+     */
+    public void addToQueue(final int[] rows){
+        editQueue(new Runnable() {
+            @Override
+            public void run() {
+                journal.queueInsert(queue.size(), idsOf(rows));
+                queue.addAll(rows);
+            }
+        });
+    }
+
+    /**
+     * Moves a queued song, see PlayQueue.move(). Positions past the end (the queue moved on meanwhile) are ignored.
+     */
+    public void moveInQueue(final int from, final int to){
+        editQueue(new Runnable() {
+            @Override
+            public void run() {
+                if(from < queue.size() && to < queue.size()){
+                    queue.move(from, to);
+                    journal.queueMove(from, to);
+                }
+            }
+        });
+    }
+
+    public void removeFromQueue(final int position){
+        editQueue(new Runnable() {
+            @Override
+            public void run() {
+                if(position < queue.size()){
+                    queue.remove(position);
+                    journal.queueRemove(position);
+                }
+            }
+        });
+    }
+
+    public void clearQueue(){
+        editQueue(new Runnable() {
+            @Override
+            public void run() {
+                queue.clear();
+                journal.queueClear();
+            }
+        });
+    }
+
+    /**
+     * Reads the first songs of the queue.
+     * @param max - number of songs to read at most.
+     */
+    public void readQueue(final int max, final QueueListener listener){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int[] rows = queue.toArray(0, max);
+                final int size = queue.size();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onQueueRead(rows, size);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The session, once the service got the song list (and recovered the session of the previous run).
+     */
+    public interface SessionListener {
+        /**
+         * Called on the UI thread.
+         * @param song - row of the current song if it was recovered and doesn't play yet, otherwise -1.
+         */
+        void onSessionRead(boolean shuffle, int song);
+    }
+
+    public void readSession(final SessionListener listener){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final boolean shuffleOn = shuffle;
+                final int song = songPosition == resumeSong ? resumeSong : -1;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSessionRead(shuffleOn, song);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Songs picked from the play statistics, read on the playback thread.
+     */
+    public interface StatsListener {
+        /**
+         * Called on the UI thread.
+         * @param rows - rows of the songs, first the one the list is about most.
+         */
+        void onStatsRead(int[] rows);
+    }
+
+    public static final int MOST_PLAYED = 0;
+    public static final int RECENTLY_PLAYED = 1;
+    public static final int NEVER_PLAYED = 2;
+
+    /**
+     * Reads the top songs of one of the lists: MOST_PLAYED, RECENTLY_PLAYED or NEVER_PLAYED.
+     * @param max - number of songs to read at most.
      */
-    public void setSong(int songIndex){
-        this.songPosition = songIndex;
-        enqueueSong(songIndex);
+    public void readStats(final int list, final int max, final StatsListener listener){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int[] rows;
+                if(songList == null){
+                    rows = new int[0];
+                }else if(list == MOST_PLAYED){
+                    rows = playStats.mostPlayed(songList, max);
+                }else if(list == RECENTLY_PLAYED){
+                    rows = playStats.recentlyPlayed(songList, max);
+                }else{
+                    rows = playStats.neverPlayed(songList, max);
+                }
+                Log.d("MUSIC SERVICE: ", "Play stats: " + playStats);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onStatsRead(rows);
+                    }
+                });
+            }
+        });
+    }
+
+    //Runs an edit of the queue on the playback thread, the second player is prepared again if the song that follows changed.
+    private void editQueue(final Runnable edit){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int next = peekNextSong();
+                edit.run();
+                if(peekNextSong() != next){
+                    refreshNextPlayer();
+                }
+                prefetchUpcoming();
+            }
+        });
     }
 
     /**
      * Methods that apply standard playback control functions that the activity interfaces with.
+     * The getters read the published state; the commands update it right away so the controller shows
+     * the new state before the playback thread gets to them.
      */
     public int getPosition(){
-        return musicPlayer.getCurrentPosition();
+        return playbackClock.getPosition(SystemClock.elapsedRealtime());
     }
 
     public int getDuration(){
-        return musicPlayer.getDuration();
+        return playbackClock.getDuration();
     }
 
     public boolean isPlaying(){
-        return musicPlayer.isPlaying();
+        return statePlaying;
+    }
+
+    /**
+     * Reads of the position by the UI against reads of the player.
+     */
+    public PlaybackClock getPlaybackClock(){
+        return playbackClock;
     }
 
     public void pausePlayer(){
-        musicPlayer.pause();
+        statePlaying = false;
+        playbackClock.pause(SystemClock.elapsedRealtime());
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(musicPlayerPrepared){
+                    musicPlayer.pause();
+                }
+                playAfterSeek = false;
+                playbackHandler.removeCallbacks(crossfadeStart);
+                if(crossfadeRamp.isActive()){
+                    playbackHandler.removeCallbacks(crossfadeStep);
+                    crossfadeRamp.pause(SystemClock.uptimeMillis());
+                    nextPlayer.pause();
+                }
+                publishState();
+                checkpointPosition();
+            }
+        });
     }
 
-    public void seek(int position){
-        musicPlayer.seekTo(position);
+    //The position is read from the player again once the seek completes (onSeekComplete).
+    public void seek(final int position){
+        playbackClock.seek(position, SystemClock.elapsedRealtime());
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(musicPlayerPrepared){
+                    //the next song started fading in: it is prepared again, the fade is planned again once the seek completes
+                    if(crossfadeRamp.isActive()){
+                        refreshNextPlayer();
+                    }
+                    seekStartedAt = System.nanoTime();
+                    if(!seekWithTable(position)){
+                        musicPlayer.seekTo((int) Math.max(0, position - positionBase));
+                    }
+                    checkpointedPosition = position;
+                    journal.position(position);
+                }
+            }
+        });
     }
     public void go(){
-        musicPlayer.start();
+        statePlaying = true;
+        playbackClock.resume(SystemClock.elapsedRealtime());
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(musicPlayerPrepared){
+                    musicPlayer.start();
+                }else if(songPosition == resumeSong){
+                    //nothing played yet since the session was recovered: its song starts where it was
+                    playCurrentSong();
+                }
+                playAfterSeek = true;
+                if(crossfadeRamp.isActive()){
+                    nextPlayer.start();
+                    crossfadeRamp.resume(SystemClock.uptimeMillis());
+                    stepCrossfade();
+                }else{
+                    scheduleCrossfade();
+                }
+                publishState();
+            }
+        });
     }
 
     /**
-     * Remove the top index from the stack and play the song at that index.
-     * If the stack is empty, just play the previous song in the list.
+     * Go back to the previous song of the history and play it.
+     * If there is no older song in the history, just play the previous song in the list.
      */
     public void playPrev(){
-        if(!songStack.isEmpty()){
-            songPosition = songStack.pop();
+        final long tappedAt = System.nanoTime();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                gapMeter.cancel();
+                beginRequest(PlaybackLatency.Stage.SKIP_TO_AUDIO, tappedAt);
+                recordSongEnd(false);
+                moveToPrevious();
+                skipToCurrentSong();
+            }
+        });
+    }
+
+    private void moveToPrevious(){
+        if(history.canGoBack()){
+            songPosition = history.back();
+            journal.back();
         }else {
             songPosition--;
             if (songPosition < 0) {
                 songPosition = songList.size() - 1;
             }
+            enqueueSong(songPosition);
         }
-        playSong();
     }
 
     /**
-     * If shuffle is active pick a new random song from the list, otherwise play the next song
-     * Before playing the song, add the song index to the stack so that there's a reference to previously played songs.
+     * After going back, move forward through the history again (redo).
+     * Otherwise play the first song of the queue, or if shuffle is active pick a new random song from the list, or else play the next song.
+     * Before playing the song, add the song index to the history so that there's a reference to previously played songs.
+     * Every skip is recorded in the history, but a burst of skips only prepares the song it ends on.
      */
     public void playNext(){
-        //pick a new song at random from the list (except the current song)
-        //Could enhance functionality by using a queue of songs and preventing songs from being repeated until all songs have been played
-        if(shuffle){
-            int newSongIndex = songPosition;
-            while(newSongIndex == songPosition){
-                newSongIndex = random.nextInt(songList.size()-1);
+        final long tappedAt = System.nanoTime();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                gapMeter.cancel();
+                beginRequest(PlaybackLatency.Stage.SKIP_TO_AUDIO, tappedAt);
+                recordSongEnd(false);
+                moveToNext();
+                skipToCurrentSong();
+            }
+        });
+    }
+
+    /**
+     * Moves songPosition to the song that follows, see playNext().
+     */
+    private void moveToNext(){
+        if(history.canGoForward()){
+            songPosition = history.forward();
+            journal.forward();
+            return;
+        }
+
+        if(!queue.isEmpty()){
+            songPosition = queue.remove(0);
+            journal.queueRemove(0);
+            if(shuffle){
+                syncShuffleOrder();
+                shuffleOrder.markPlayed(songPosition);
             }
-            songPosition = newSongIndex;
+        }else if(shuffle && weightedShuffle){
+            songPosition = weightedNextSong();
+            weightedNext = -1;
+        }else if(shuffle){
+            //pick the next song of the shuffled order, songs aren't repeated until all songs have been played
+            syncShuffleOrder();
+            songPosition = shuffleOrder.next();
         }else{
             songPosition++;
             if(songPosition == songList.size()){
@@ -202,36 +1564,249 @@ public class MusicService extends Service implements MediaPlayer.OnPreparedListe
         }
 
         enqueueSong(songPosition);
-        playSong();
     }
 
     /**
-     *  Simple method that adds the next songPosition to the stack of songs that have been already played.
-     *  The stack is used to keep track of songs that have been played so far, which helps with playing previously played songs.
+     *  Simple method that adds the next songPosition to the history of songs that have been already played.
+     *  The history is used to keep track of songs that have been played so far, which helps with playing previously played songs.
+     *  The same song twice in a row is only recorded once; the oldest songs are dropped once the history is full.
      * @param songPosition = index of the song that is about to be played
      */
     public void enqueueSong(int songPosition){
-        if(!songStack.isEmpty()){
-            if (songStack.peek() != songPosition) {
-                songStack.push(songPosition);
-            }
+        history.push(songPosition);
+        journal.push(songList.getID(songPosition));
+    }
+
+    /**
+     * Reads the play statistics in the background, on start of the playback thread. Songs played meanwhile are added.
+     */
+    private void loadStats(){
+        statsWriter = Executors.newSingleThreadExecutor();
+        playStats = new PlayStats(new File(getFilesDir(), STATS_FILE), new File(getFilesDir(), STATS_LOG), statsWriter);
+        playStats.load();
+    }
+
+    /**
+     * The current song is left: it counts as played if it completed or most of it played, otherwise as skipped.
+     * Nothing is recorded for a song that wasn't prepared yet (a burst of skips, a song that failed to play).
+     */
+    private void recordSongEnd(boolean completed){
+        if(!musicPlayerPrepared){
+            return;
+        }
+        long id = songList.getID(songPosition);
+        int position = currentPosition();
+        int duration = currentDuration();
+        if(completed || position >= PLAYED_MS || (duration > 0 && position >= duration / 2)){
+            playStats.recordPlay(id, System.currentTimeMillis());
         }else{
-            songStack.push(songPosition);
+            playStats.recordSkip(id, System.currentTimeMillis());
         }
     }
 
+    /**
+     * The song weighted shuffle plays next, drawn once and kept until moveToNext() plays it.
+     * The current song is drawn again, a few times at most, so it doesn't play twice in a row.
+     */
+    private int weightedNextSong(){
+        if(weightedNext < 0){
+            if(shuffleWeights == null || shuffleWeights.size() != songList.size()
+                    || playStats.getVersion() - weightsVersion >= WEIGHTS_STALE_EVENTS){
+                weightsVersion = playStats.getVersion();
+                shuffleWeights = new AliasTable(playStats.shuffleWeights(songList));
+            }
+            weightedNext = shuffleWeights.sample(weightedRandom);
+            for(int i = 0; i < REDRAWS && weightedNext == songPosition && songList.size() > 1; i++){
+                weightedNext = shuffleWeights.sample(weightedRandom);
+            }
+        }
+        return weightedNext;
+    }
+
+    /**
+     * Reads the session journal, on start of the playback thread. The position checkpoints start here.
+     */
+    private void recoverSession(){
+        sessionWriter = Executors.newSingleThreadExecutor();
+        journal = new SessionJournal(new File(getFilesDir(), SESSION_FILE), sessionWriter);
+        long start = System.nanoTime();
+        try{
+            recoveredSession = journal.recover(HISTORY_CAPACITY);
+        }catch (IOException e){
+            //the journal is written again from the session once the song list arrives
+            Log.w("MUSIC SERVICE: ", "Discarding the session journal: " + e.getMessage());
+        }
+        Log.d("MUSIC SERVICE: ", "Session recovered in " + (System.nanoTime() - start) / 1000 + " us, journal: " + journal);
+        playbackHandler.postDelayed(checkpoint, CHECKPOINT_MS);
+    }
+
+    /**
+     * Applies the recovered session to the song list: history, queue, shuffle, and the position the current song goes on
+     * from. Songs no longer in the list are left out, then the journal starts over from the session as it is now.
+     */
+    private void restoreSession(){
+        SessionJournal.State session = recoveredSession;
+        recoveredSession = null;
+        if(session != null && !session.isEmpty()){
+            SongTable.IDIndex index = songList.idIndex();
+            long[] played = session.getHistory();
+            int[] rows = new int[played.length];
+            for(int i = 0; i < played.length; i++){
+                rows[i] = index.rowOf(played[i]);
+            }
+            int cursor = session.getCursor();
+            //the position checkpointed is in the song at the cursor; if it was deleted, the cursor falls back to the
+            //song before it, which starts from its beginning
+            boolean currentKept = cursor >= 0 && cursor < rows.length && rows[cursor] >= 0;
+            history.restore(rows, cursor);
+            long[] queued = session.getQueue();
+            rows = new int[queued.length];
+            int kept = 0;
+            for(long id : queued){
+                int row = index.rowOf(id);
+                if(row >= 0){
+                    rows[kept++] = row;
+                }
+            }
+            queue.clear();
+            queue.addAll(Arrays.copyOf(rows, kept));
+            if(session.isShuffle() != shuffle){
+                toggleShuffle();
+            }
+            if(history.current() >= 0){
+                songPosition = history.current();
+                resumeSong = songPosition;
+                resumeAt = currentKept ? session.getPositionMs() : 0;
+                showSongInfo();
+            }
+        }
+        compactSession();
+    }
+
+    /**
+     * Replaces the records of the journal with the whole session as it is now.
+     */
+    private void compactSession(){
+        long[] played = new long[history.size()];
+        for(int i = 0; i < played.length; i++){
+            played[i] = songList.getID(history.get(i));
+        }
+        long[] queued = idsOf(queue.toArray());
+        int position = musicPlayerPrepared ? currentPosition() : songPosition == resumeSong ? resumeAt : 0;
+        journal.compact(new SessionJournal.State(played, history.getCursor(), queued, position, shuffle));
+    }
+
+    //Records the position in the current song, if it moved since the last checkpoint.
+    private void checkpointPosition(){
+        if(!musicPlayerPrepared){
+            return;
+        }
+        int position = currentPosition();
+        if(position != checkpointedPosition){
+            checkpointedPosition = position;
+            journal.position(position);
+        }
+    }
+
+    private long[] idsOf(int[] rows){
+        long[] ids = new long[rows.length];
+        for(int i = 0; i < rows.length; i++){
+            ids[i] = songList.getID(rows[i]);
+        }
+        return ids;
+    }
+
     //Update instance variable responsible with shuffle state.
+    //Turning shuffle on starts a new shuffled round from the current song.
     public void setShuffle(){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                toggleShuffle();
+            }
+        });
+    }
+
+    private void toggleShuffle(){
         if(shuffle) {
             shuffle = false;
         }else {
             shuffle = true;
+            if(songList != null){
+                shuffleOrder.reset(songList.size());
+                shuffleOrder.reshuffle(songPosition);
+            }
+        }
+        journal.shuffle(shuffle);
+        //the song that follows is no longer the one prepared
+        refreshNextPlayer();
+    }
+
+    /**
+     * Shuffle draws the songs by their plays and skips (see PlayStats.shuffleWeights()), or in a shuffled order.
+     */
+    public void setWeightedShuffle(final boolean weighted){
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                weightedShuffle = weighted;
+                weightedNext = -1;
+                if(shuffle){
+                    refreshNextPlayer();
+                }
+            }
+        });
+    }
+
+    /**
+     * The shuffled order covers the rows of the song list, it starts over when the number of songs changes.
+     */
+    private void syncShuffleOrder(){
+        if(shuffleOrder.size() != songList.size()){
+            shuffleOrder.reset(songList.size());
+            shuffleOrder.reshuffle(songPosition);
         }
     }
 
     @Override
     public void onDestroy(){
-        musicPlayer.release();
+        stopPlayback();
+    }
+
+    /**
+     * Releases the players on the playback thread once the commands already posted ran, then ends the thread.
+     */
+    private void stopPlayback(){
+        if(playbackStopped){
+            return;
+        }
+        playbackStopped = true;
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                playbackHandler.removeCallbacks(checkpoint);
+                if(sessionRestored){
+                    compactSession();
+                }
+                journal.close();
+                sessionWriter.shutdown();
+                playStats.flush();
+                statsWriter.shutdown();
+                cancelCrossfade();
+                musicPlayer.stop();
+                musicPlayer.release();
+                nextPlayer.release();
+                for(PlayerPool<PlayerBackend> pool : playerPools.values()){
+                    pool.close();
+                }
+                playerCleaner.shutdown();
+                seekIndexer.shutdownNow();
+                readAheadReader.shutdownNow();
+                statePlaying = false;
+                playbackClock.stop();
+            }
+        });
+        playbackThread.quitSafely();
     }
 
     @Nullable
@@ -242,8 +1817,7 @@ public class MusicService extends Service implements MediaPlayer.OnPreparedListe
 
     //executed when the user quits the app.
     public boolean onUnbind(Intent intent){
-        musicPlayer.stop();
-        musicPlayer.release();
+        stopPlayback();
         return false;
     }
 
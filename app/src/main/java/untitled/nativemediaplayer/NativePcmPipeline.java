@@ -0,0 +1,179 @@
+package untitled.nativemediaplayer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * PCM output pipeline of native-lib: a decode thread writes 16-bit interleaved frames into a lock-free ring buffer,
+ * and an AAudio stream plays them from its callback. The frames are passed in direct ByteBuffers, in native byte order,
+ * which native-lib reads and fills in place: nothing is copied on the way through JNI.
+ * The frames played go through an EQ, a gain and a limiter, see {@link DspSettings}.
+ * There are two track slots: the song playing is written to one, the next song to the other, and crossfade()
+ * mixes from one to the other sample by sample, on the audio thread.
+ * write() is called from one decode thread only; render() (when not played through start()) from one sink thread only.
+ *
+ * Standalone for now: the app still plays through the PlayerBackends, and MusicService crossfades with volume ramps.
+ * The native half is only in native-lib when it is built with -DPCM_PIPELINE=ON (see CMakeLists.txt), until a
+ * playback path uses it.
+ */
+public class NativePcmPipeline implements Closeable {
+
+    static {
+        System.loadLibrary("native-lib");
+    }
+
+    private final int frameBytes;
+    private long handle;
+
+    /**
+     * @param capacityFrames - size of the ring buffer, rounded up to a power of two.
+     */
+    public NativePcmPipeline(int sampleRate, int channels, int capacityFrames) {
+        this.frameBytes = 2 * channels;
+        this.handle = nativeCreate(sampleRate, channels, capacityFrames);
+    }
+
+    /**
+     * Writes the frames between the position and the limit of the buffer, as many as there is room for.
+     * The position is moved past the frames written.
+     * @return the number of bytes written.
+     */
+    public int write(ByteBuffer pcm) {
+        return write(getPlayingSlot(), pcm, 0);
+    }
+
+    /**
+     * Same as write(), but waits for room in the ring buffer up to timeoutMs.
+     */
+    public int write(ByteBuffer pcm, int timeoutMs) {
+        return write(getPlayingSlot(), pcm, timeoutMs);
+    }
+
+    /**
+     * Writes into one of the two track slots, e.g. the next song into the slot not playing, ahead of a crossfade.
+     */
+    public int write(int slot, ByteBuffer pcm, int timeoutMs) {
+        int length = pcm.remaining() - pcm.remaining() % frameBytes;
+        int written = nativeWrite(checkHandle(), slot, checkDirect(pcm), pcm.position(), length, timeoutMs);
+        pcm.position(pcm.position() + written);
+        return written;
+    }
+
+    /**
+     * Reads frames into the buffer, from its position to its limit, padded with silence if too few are buffered.
+     * For a sink driven from Java (e.g. an AudioTrack) instead of start(). The position is moved to the limit.
+     * @return the number of bytes of audio, the rest is silence.
+     */
+    public int render(ByteBuffer out) {
+        int length = out.remaining() - out.remaining() % frameBytes;
+        int rendered = nativeRender(checkHandle(), checkDirect(out), out.position(), length);
+        out.position(out.position() + length);
+        return rendered;
+    }
+
+    /**
+     * Starts playing the pipeline through an AAudio stream.
+     * @return false if the stream couldn't be opened.
+     */
+    public boolean start() {
+        return nativeStart(checkHandle());
+    }
+
+    public void stop() {
+        nativeStop(checkHandle());
+    }
+
+    /**
+     * Drops the frames buffered, e.g. after a seek.
+     */
+    public void flush() {
+        nativeFlush(checkHandle());
+    }
+
+    /**
+     * Sets the EQ, gain and limiter applied to the frames played, from the next block on.
+     * Called from one thread at a time.
+     */
+    public void setDsp(DspSettings settings) {
+        nativeSetDsp(checkHandle(), settings.pack());
+    }
+
+    /**
+     * Fades from the slot playing to the other one over lengthMs, starting at the next frame rendered.
+     * Once the fade is done the other slot is the one playing, and what is left of the song faded out is dropped.
+     * A length of 0 switches slots at once, for gapless playback.
+     */
+    public void crossfade(CrossfadeCurve curve, int lengthMs) {
+        nativeCrossfade(checkHandle(), curve.ordinal(), lengthMs);
+    }
+
+    /**
+     * Slot of the song playing, 0 or 1. Changes when a crossfade ends.
+     */
+    public int getPlayingSlot() {
+        return nativeGetPlayingSlot(checkHandle());
+    }
+
+    /**
+     * Frames buffered for the song playing.
+     */
+    public int getBufferedFrames() {
+        return nativeGetBufferedFrames(checkHandle());
+    }
+
+    /**
+     * Renders padded with silence because the decoder was behind.
+     */
+    public long getUnderruns() {
+        return nativeGetUnderruns(checkHandle());
+    }
+
+    /**
+     * Stops the stream and frees the native pipeline.
+     */
+    @Override
+    public void close() {
+        if (handle != 0) {
+            nativeDestroy(handle);
+            handle = 0;
+        }
+    }
+
+    private long checkHandle() {
+        if (handle == 0) {
+            throw new IllegalStateException("Pipeline closed");
+        }
+        return handle;
+    }
+
+    private static ByteBuffer checkDirect(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Not a direct buffer");
+        }
+        return buffer;
+    }
+
+    private static native long nativeCreate(int sampleRate, int channels, int capacityFrames);
+
+    private static native void nativeDestroy(long handle);
+
+    private static native int nativeWrite(long handle, int slot, ByteBuffer buffer, int offset, int length, int timeoutMs);
+
+    private static native int nativeRender(long handle, ByteBuffer buffer, int offset, int length);
+
+    private static native boolean nativeStart(long handle);
+
+    private static native void nativeStop(long handle);
+
+    private static native void nativeFlush(long handle);
+
+    private static native void nativeSetDsp(long handle, float[] packed);
+
+    private static native void nativeCrossfade(long handle, int curve, int lengthMs);
+
+    private static native int nativeGetPlayingSlot(long handle);
+
+    private static native int nativeGetBufferedFrames(long handle);
+
+    private static native long nativeGetUnderruns(long handle);
+}
@@ -0,0 +1,156 @@
+package untitled.nativemediaplayer;
+
+/**
+ * Fixed size history of the songs played, stored as song rows in an int ring buffer.
+ * Supports going back and forward (redo) like a browser history; once full, the oldest song is dropped in O(1).
+ * Nothing is allocated after construction.
+ */
+public class PlayHistory {
+    private final int[] entries;
+    //Ring index of the oldest entry.
+    private int start;
+    //Entries stored, including the ones ahead of the cursor.
+    private int count;
+    //Position of the current song from the oldest entry, -1 when empty.
+    private int cursor = -1;
+
+    public PlayHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.entries = new int[capacity];
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Song at the given position, 0 being the oldest one kept.
+     */
+    public int get(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + count);
+        }
+        return entries[(start + position) % entries.length];
+    }
+
+    /**
+     * The song the history currently points to, or -1 when empty.
+     */
+    public int current() {
+        return cursor < 0 ? -1 : get(cursor);
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Records a song being played. The songs ahead of the cursor (after going back) are dropped,
+     * and the oldest song is evicted when the history is full. Playing the current song again is not recorded.
+     */
+    public void push(int song) {
+        if (cursor >= 0 && get(cursor) == song) {
+            count = cursor + 1;
+            return;
+        }
+        count = cursor + 1;
+        if (count == entries.length) {
+            start = (start + 1) % entries.length;
+            count--;
+            cursor--;
+        }
+        entries[(start + count) % entries.length] = song;
+        count++;
+        cursor = count - 1;
+    }
+
+    public boolean canGoBack() {
+        return cursor > 0;
+    }
+
+    public boolean canGoForward() {
+        return cursor >= 0 && cursor < count - 1;
+    }
+
+    /**
+     * Moves to the previous song.
+     * @return the previous song, or -1 if there is none.
+     */
+    public int back() {
+        if (!canGoBack()) {
+            return -1;
+        }
+        cursor--;
+        return get(cursor);
+    }
+
+    /**
+     * Moves forward again after back().
+     * @return the next song, or -1 if there is none.
+     */
+    public int forward() {
+        if (!canGoForward()) {
+            return -1;
+        }
+        cursor++;
+        return get(cursor);
+    }
+
+    public void clear() {
+        start = 0;
+        count = 0;
+        cursor = -1;
+    }
+
+    /**
+     * Moves the rows after the song list changed. Songs that were removed are dropped from the history.
+     * @param newRowOf - new row of every old row, -1 for songs that were removed.
+     */
+    public void remap(int[] newRowOf) {
+        int kept = 0;
+        int newCursor = -1;
+        for (int i = 0; i < count; i++) {
+            int song = get(i);
+            int row = song < newRowOf.length ? newRowOf[song] : -1;
+            if (row >= 0) {
+                entries[(start + kept) % entries.length] = row;
+                kept++;
+            }
+            if (i == cursor) {
+                newCursor = kept - 1;
+            }
+        }
+        count = kept;
+        cursor = kept == 0 ? -1 : Math.max(newCursor, 0);
+    }
+
+    /**
+     * Replaces the history with the given songs, oldest first. Songs that are -1 (no longer in the song list) are skipped,
+     * and the oldest songs are dropped if there are more than fit.
+     * @param cursor - position of the current song in songs, -1 for none.
+     */
+    public void restore(int[] songs, int cursor) {
+        clear();
+        int newCursor = -1;
+        int skip = Math.max(0, songs.length - entries.length);
+        for (int i = skip; i < songs.length; i++) {
+            if (songs[i] >= 0) {
+                entries[count++] = songs[i];
+            }
+            if (i == cursor) {
+                newCursor = count - 1;
+            }
+        }
+        this.cursor = count == 0 ? -1 : Math.max(newCursor, 0);
+    }
+}
@@ -0,0 +1,366 @@
+package untitled.nativemediaplayer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Songs queued to play next (rows of the song list), in order. Kept in an implicit treap: a binary tree ordered by
+ * position where every node knows the size of its subtree, balanced by random priorities. get, insert, remove, move
+ * and positionOf are O(log n); insertAll builds the tree of the new songs in O(k) and links it in O(log n).
+ * The nodes are indexes into int arrays, node 0 standing for "none", so edits don't allocate.
+ * Every song added gets an entry (its node) which keeps its identity when it moves, see positionOf().
+ */
+public class PlayQueue {
+    private static final int NONE = 0;
+
+    //xorshift state for the priorities, seeded by the Random
+    private int seed;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private int[] size;
+    private int[] priority;
+    private int[] rows;
+    private int root = NONE;
+    //nodes used so far, and the removed ones waiting to be reused (chained through left)
+    private int used = 1;
+    private int free = NONE;
+
+    //results of split()
+    private int splitLeft;
+    private int splitRight;
+    //build() stack
+    private int[] stack = new int[16];
+
+    public PlayQueue() {
+        this(new Random());
+    }
+
+    public PlayQueue(Random random) {
+        this.seed = random.nextInt() | 1;
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        size = new int[capacity];
+        priority = new int[capacity];
+        rows = new int[capacity];
+    }
+
+    public int size() {
+        return size[root];
+    }
+
+    public boolean isEmpty() {
+        return root == NONE;
+    }
+
+    /**
+     * @return the row of the song at the position.
+     */
+    public int get(int position) {
+        return rows[entryAt(position)];
+    }
+
+    /**
+     * @return the entry at the position, see positionOf().
+     */
+    public int entryAt(int position) {
+        checkPosition(position, size());
+        int node = root;
+        while (true) {
+            int before = size[left[node]];
+            if (position < before) {
+                node = left[node];
+            } else if (position == before) {
+                return node;
+            } else {
+                position -= before + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * Current position of an entry returned by insert() or entryAt(), found by walking up to the root.
+     */
+    public int positionOf(int entry) {
+        int position = size[left[entry]];
+        for (int node = entry; parent[node] != NONE; node = parent[node]) {
+            int up = parent[node];
+            if (right[up] == node) {
+                position += size[left[up]] + 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Inserts the song at the position, the songs from there on move one place back.
+     * @return its entry.
+     */
+    public int insert(int position, int row) {
+        checkPosition(position, size() + 1);
+        int node = newNode(row);
+        size[node] = 1;
+        split(root, position);
+        setRoot(merge(merge(splitLeft, node), splitRight));
+        return node;
+    }
+
+    public int add(int row) {
+        return insert(size(), row);
+    }
+
+    /**
+     * Inserts the songs at the position, in their order.
+     */
+    public void insertAll(int position, int[] songs) {
+        checkPosition(position, size() + 1);
+        if (songs.length == 0) {
+            return;
+        }
+        ensureCapacity(used + songs.length);
+        int built = build(songs, 0, songs.length);
+        split(root, position);
+        setRoot(merge(merge(splitLeft, built), splitRight));
+    }
+
+    public void addAll(int[] songs) {
+        insertAll(size(), songs);
+    }
+
+    /**
+     * Removes the song at the position.
+     * @return its row.
+     */
+    public int remove(int position) {
+        checkPosition(position, size());
+        split(root, position);
+        int before = splitLeft;
+        split(splitRight, 1);
+        int node = splitLeft;
+        setRoot(merge(before, splitRight));
+        int row = rows[node];
+        left[node] = free;
+        free = node;
+        return row;
+    }
+
+    /**
+     * Moves the song at from to the position to (counted once it is removed), e.g. at the end of a drag.
+     * The song keeps its entry.
+     */
+    public void move(int from, int to) {
+        checkPosition(from, size());
+        checkPosition(to, size());
+        if (from == to) {
+            return;
+        }
+        split(root, from);
+        int before = splitLeft;
+        split(splitRight, 1);
+        int node = splitLeft;
+        int rest = merge(before, splitRight);
+        split(rest, to);
+        setRoot(merge(merge(splitLeft, node), splitRight));
+    }
+
+    public void clear() {
+        root = NONE;
+        used = 1;
+        free = NONE;
+        if (rows.length > 1024) {
+            allocate(16);
+        }
+    }
+
+    /**
+     * Rows of the songs at [from, from + count), fewer at the end of the queue.
+     */
+    public int[] toArray(int from, int count) {
+        int end = Math.min(size(), from + Math.max(count, 0));
+        int[] out = new int[Math.max(end - from, 0)];
+        if (out.length == 0) {
+            return out;
+        }
+        //in order walk, starting from the path to the first entry
+        int depth = 0;
+        int node = root;
+        int skip = from;
+        while (node != NONE) {
+            int before = size[left[node]];
+            if (skip < before) {
+                stack = push(stack, depth++, node);
+                node = left[node];
+            } else if (skip == before) {
+                stack = push(stack, depth++, node);
+                break;
+            } else {
+                skip -= before + 1;
+                node = right[node];
+            }
+        }
+        for (int i = 0; i < out.length; i++) {
+            node = stack[--depth];
+            out[i] = rows[node];
+            for (node = right[node]; node != NONE; node = left[node]) {
+                stack = push(stack, depth++, node);
+            }
+        }
+        return out;
+    }
+
+    public int[] toArray() {
+        return toArray(0, size());
+    }
+
+    /**
+     * Maps the songs to the rows they were moved to (sort, songs removed), removed songs leave the queue.
+     * @param newRowOf - new row of every old row, -1 for songs that were removed.
+     */
+    public void remap(int[] newRowOf) {
+        int[] songs = toArray();
+        int kept = 0;
+        for (int row : songs) {
+            int newRow = row < newRowOf.length ? newRowOf[row] : -1;
+            if (newRow >= 0) {
+                songs[kept++] = newRow;
+            }
+        }
+        clear();
+        addAll(Arrays.copyOf(songs, kept));
+    }
+
+    private static int[] push(int[] stack, int depth, int node) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth] = node;
+        return stack;
+    }
+
+    private static void checkPosition(int position, int limit) {
+        if (position < 0 || position >= limit) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + limit);
+        }
+    }
+
+    private int newNode(int row) {
+        int node;
+        if (free != NONE) {
+            node = free;
+            free = left[node];
+        } else {
+            ensureCapacity(used + 1);
+            node = used++;
+        }
+        left[node] = NONE;
+        right[node] = NONE;
+        parent[node] = NONE;
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        priority[node] = seed;
+        rows[node] = row;
+        return node;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes <= rows.length) {
+            return;
+        }
+        int capacity = Math.max(nodes, rows.length * 2);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        size = Arrays.copyOf(size, capacity);
+        priority = Arrays.copyOf(priority, capacity);
+        rows = Arrays.copyOf(rows, capacity);
+    }
+
+    /**
+     * Tree of songs[from, to) in O(k): the nodes are added left to right, the stack holds the right edge of the tree,
+     * its priorities decreasing. A node leaves the stack once its subtree is complete, that is when its size is known.
+     */
+    private int build(int[] songs, int from, int to) {
+        int depth = 0;
+        for (int i = from; i < to; i++) {
+            int node = newNode(songs[i]);
+            int last = NONE;
+            while (depth > 0 && priority[stack[depth - 1]] < priority[node]) {
+                last = stack[--depth];
+                pull(last);
+            }
+            left[node] = last;
+            if (depth > 0) {
+                right[stack[depth - 1]] = node;
+            }
+            stack = push(stack, depth++, node);
+        }
+        while (depth > 1) {
+            pull(stack[--depth]);
+        }
+        pull(stack[0]);
+        return stack[0];
+    }
+
+    //Size of the node from its children, which it becomes the parent of.
+    private void pull(int node) {
+        int l = left[node];
+        int r = right[node];
+        size[node] = 1 + size[l] + size[r];
+        if (l != NONE) {
+            parent[l] = node;
+        }
+        if (r != NONE) {
+            parent[r] = node;
+        }
+    }
+
+    private void setRoot(int node) {
+        root = node;
+        parent[node] = NONE;
+    }
+
+    //Splits the tree into its first count songs (splitLeft) and the others (splitRight).
+    private void split(int node, int count) {
+        if (node == NONE) {
+            splitLeft = NONE;
+            splitRight = NONE;
+            return;
+        }
+        if (size[left[node]] >= count) {
+            split(left[node], count);
+            left[node] = splitRight;
+            pull(node);
+            splitRight = node;
+        } else {
+            split(right[node], count - size[left[node]] - 1);
+            right[node] = splitLeft;
+            pull(node);
+            splitLeft = node;
+        }
+    }
+
+    //Tree of the songs of a followed by the songs of b.
+    private int merge(int a, int b) {
+        if (a == NONE) {
+            return b;
+        }
+        if (b == NONE) {
+            return a;
+        }
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            pull(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        pull(b);
+        return b;
+    }
+}
@@ -0,0 +1,582 @@
+package untitled.nativemediaplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Play count, skip count and last played time of every song, by song ID. The counters are columns indexed through a
+ * {@link LongIntMap}, so recording an event and reading a song are a lookup without boxing.
+ *
+ * Events are applied in memory right away and written behind, on the writer executor: appended in batches to an event
+ * log, which is folded into the table file (temporary file renamed over it) once it grew past LOG_BYTES.
+ * Layouts (big endian):
+ * table: magic, format version, log generation, song count, the ID, plays, skips and last played columns, CRC32;
+ * log: magic, format version, generation, then batches of events (count, type, ID and time of each, CRC32).
+ * The log is replayed on load only if its generation is the table's, a batch cut short by a crash is dropped.
+ * Losing the last events is fine, so the writes are not synced.
+ *
+ * The queries pick the top N songs of the song list with a heap of N entries in O(n log N), instead of sorting them.
+ */
+public class PlayStats {
+    static final int TABLE_MAGIC = 0x4E4D5053; // "NMPS"
+    static final int LOG_MAGIC = 0x4E4D5045; // "NMPE"
+    static final int VERSION = 1;
+
+    static final byte PLAY = 1;
+    static final byte SKIP = 2;
+    private static final int EVENT_SIZE = 1 + 8 + 8;
+    //events written together at most once per FLUSH_DELAY_MS, unless BATCH_EVENTS are waiting
+    static final int BATCH_EVENTS = 64;
+    static final long FLUSH_DELAY_MS = 30000;
+    static final long LOG_BYTES = 64 * 1024;
+
+    private final File tableFile;
+    private final File logFile;
+    private final Executor writer;
+
+    //guarded by "this"
+    private final LongIntMap slots = new LongIntMap();
+    private long[] ids = new long[64];
+    private int[] plays = new int[64];
+    private int[] skips = new int[64];
+    private long[] lastPlayed = new long[64];
+    private int count = 0;
+    //events since the start, for callers caching something computed from the counters
+    private int version = 0;
+    private ByteBuffer pending = ByteBuffer.allocate(BATCH_EVENTS * EVENT_SIZE);
+    private int pendingEvents = 0;
+    private long firstPendingAt;
+    private boolean loaded = false;
+    private int flushes;
+    private int failed;
+    private String lastError;
+
+    //only used on the writer
+    private int generation = 0;
+    private long logLength = 0;
+    //version of the counters written to the table last, the batches up to it are in there
+    private int tableVersion = 0;
+
+    public PlayStats(File tableFile, File logFile, Executor writer) {
+        this.tableFile = tableFile;
+        this.logFile = logFile;
+        this.writer = writer;
+    }
+
+    /**
+     * Reads the table and the log on the writer. Events recorded meanwhile are added to what is read.
+     */
+    public void load() {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * The song played through, or most of it: it counts as played.
+     */
+    public void recordPlay(long id, long timeMs) {
+        record(PLAY, id, timeMs);
+    }
+
+    /**
+     * The song was left early.
+     */
+    public void recordSkip(long id, long timeMs) {
+        record(SKIP, id, timeMs);
+    }
+
+    private synchronized void record(byte type, long id, long timeMs) {
+        apply(type, id, timeMs);
+        version++;
+        if (pendingEvents == 0) {
+            firstPendingAt = timeMs;
+        }
+        if (pending.remaining() < EVENT_SIZE) {
+            pending = ByteBuffer.allocate(pending.capacity() * 2).put((ByteBuffer) pending.flip());
+        }
+        pending.put(type);
+        pending.putLong(id);
+        pending.putLong(timeMs);
+        pendingEvents++;
+        if (pendingEvents >= BATCH_EVENTS) {
+            flush();
+        }
+    }
+
+    //Adds the event to the counters.
+    private void apply(byte type, long id, long timeMs) {
+        int slot = slotOf(id);
+        if (type == PLAY) {
+            plays[slot]++;
+            lastPlayed[slot] = Math.max(lastPlayed[slot], timeMs);
+        } else {
+            skips[slot]++;
+        }
+    }
+
+    private int slotOf(long id) {
+        int slot = slots.get(id, -1);
+        if (slot >= 0) {
+            return slot;
+        }
+        slot = count++;
+        if (slot == ids.length) {
+            int capacity = slot * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            plays = Arrays.copyOf(plays, capacity);
+            skips = Arrays.copyOf(skips, capacity);
+            lastPlayed = Arrays.copyOf(lastPlayed, capacity);
+        }
+        ids[slot] = id;
+        slots.put(id, slot);
+        return slot;
+    }
+
+    /**
+     * Writes the events waiting if there are BATCH_EVENTS of them, or the first one waited FLUSH_DELAY_MS.
+     */
+    public synchronized void flushIfDue(long nowMs) {
+        if (pendingEvents > 0 && nowMs - firstPendingAt >= FLUSH_DELAY_MS) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the events waiting, on the writer.
+     */
+    public synchronized void flush() {
+        if (pendingEvents == 0) {
+            return;
+        }
+        pending.flip();
+        final byte[] events = new byte[pending.remaining()];
+        pending.get(events);
+        pending.clear();
+        final int eventCount = pendingEvents;
+        final int batchVersion = version;
+        pendingEvents = 0;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(events, eventCount, batchVersion);
+            }
+        });
+    }
+
+    public synchronized int getPlays(long id) {
+        int slot = slots.get(id, -1);
+        return slot < 0 ? 0 : plays[slot];
+    }
+
+    public synchronized int getSkips(long id) {
+        int slot = slots.get(id, -1);
+        return slot < 0 ? 0 : skips[slot];
+    }
+
+    /**
+     * @return when the song was last played (System.currentTimeMillis()), 0 if never.
+     */
+    public synchronized long getLastPlayed(long id) {
+        int slot = slots.get(id, -1);
+        return slot < 0 ? 0 : lastPlayed[slot];
+    }
+
+    /**
+     * Changes with every event recorded, and when the stats were loaded.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Rows of the songs played most, most first; among as many plays, the one played last first.
+     */
+    public synchronized int[] mostPlayed(SongTable songs, int n) {
+        TopN top = new TopN(n);
+        for (int row = 0; row < songs.size(); row++) {
+            int slot = slots.get(songs.getID(row), -1);
+            if (slot >= 0 && plays[slot] > 0) {
+                //plays in the high bits, seconds of the last play in the low ones
+                top.offer(row, (long) plays[slot] << 32 | (lastPlayed[slot] / 1000 & 0xFFFFFFFFL));
+            }
+        }
+        return top.toRows();
+    }
+
+    /**
+     * Rows of the songs played last, last first.
+     */
+    public synchronized int[] recentlyPlayed(SongTable songs, int n) {
+        TopN top = new TopN(n);
+        for (int row = 0; row < songs.size(); row++) {
+            int slot = slots.get(songs.getID(row), -1);
+            if (slot >= 0 && lastPlayed[slot] > 0) {
+                top.offer(row, lastPlayed[slot]);
+            }
+        }
+        return top.toRows();
+    }
+
+    /**
+     * Rows of the songs never played, the ones added last first.
+     */
+    public synchronized int[] neverPlayed(SongTable songs, int n) {
+        TopN top = new TopN(n);
+        for (int row = 0; row < songs.size(); row++) {
+            int slot = slots.get(songs.getID(row), -1);
+            if (slot < 0 || plays[slot] == 0) {
+                top.offer(row, songs.getDateAdded(row));
+            }
+        }
+        return top.toRows();
+    }
+
+    /**
+     * Weights of the songs for the weighted shuffle: songs played through often come up more, songs skipped less.
+     * A song never played or skipped weighs 1, see {@link AliasTable}.
+     */
+    public synchronized double[] shuffleWeights(SongTable songs) {
+        double[] weights = new double[songs.size()];
+        for (int row = 0; row < weights.length; row++) {
+            int slot = slots.get(songs.getID(row), -1);
+            weights[row] = slot < 0 ? 1 : (1.0 + plays[slot]) / (1.0 + skips[slot]);
+        }
+        return weights;
+    }
+
+    /**
+     * The N largest keys seen, in a min heap: a key enters only if it is larger than the smallest kept.
+     */
+    static class TopN {
+        private final int[] rows;
+        private final long[] keys;
+        private int size = 0;
+
+        TopN(int n) {
+            rows = new int[Math.max(n, 0)];
+            keys = new long[rows.length];
+        }
+
+        void offer(int row, long key) {
+            if (size < rows.length) {
+                int i = size++;
+                //sift up
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (keys[parent] <= key) {
+                        break;
+                    }
+                    rows[i] = rows[parent];
+                    keys[i] = keys[parent];
+                    i = parent;
+                }
+                rows[i] = row;
+                keys[i] = key;
+            } else if (size > 0 && key > keys[0]) {
+                siftDown(row, key, size);
+            }
+        }
+
+        //Puts the entry at the root and moves it down to its place among the first end entries.
+        private void siftDown(int row, long key, int end) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= end) {
+                    break;
+                }
+                if (child + 1 < end && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                rows[i] = rows[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            rows[i] = row;
+            keys[i] = key;
+        }
+
+        /**
+         * The rows kept, largest key first. Empties the heap.
+         */
+        int[] toRows() {
+            int[] out = new int[size];
+            //the smallest is taken off the root and goes to the end of the result
+            for (int end = size; end > 0; end--) {
+                out[end - 1] = rows[0];
+                if (end > 1) {
+                    siftDown(rows[end - 1], keys[end - 1], end - 1);
+                }
+            }
+            size = 0;
+            return out;
+        }
+    }
+
+    /**
+     * Reads the table, then replays the log of the same generation. Runs on the writer.
+     */
+    private void read() {
+        PlayStats read = new PlayStats(tableFile, logFile, writer);
+        try {
+            generation = read.readTable(tableFile);
+            logLength = read.replayLog(logFile, generation);
+        } catch (IOException e) {
+            //counted again from scratch
+            read = new PlayStats(tableFile, logFile, writer);
+            generation++;
+            logLength = 0;
+            synchronized (this) {
+                failed++;
+                lastError = e.getMessage();
+            }
+        }
+        synchronized (this) {
+            //what was recorded before the load, on top of what was read
+            for (int slot = 0; slot < count; slot++) {
+                int to = read.slotOf(ids[slot]);
+                read.plays[to] += plays[slot];
+                read.skips[to] += skips[slot];
+                read.lastPlayed[to] = Math.max(read.lastPlayed[to], lastPlayed[slot]);
+            }
+            slots.clear();
+            for (int slot = 0; slot < read.count; slot++) {
+                slots.put(read.ids[slot], slot);
+            }
+            ids = read.ids;
+            plays = read.plays;
+            skips = read.skips;
+            lastPlayed = read.lastPlayed;
+            count = read.count;
+            version++;
+            loaded = true;
+        }
+    }
+
+    /**
+     * @return the generation of the log folded in, 0 if there is no table.
+     */
+    private int readTable(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length < 16 + 4 || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad play stats length " + length);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            CRC32 crc = new CRC32();
+            byte[] bytes = new byte[(int) length - 4];
+            buffer.get(bytes);
+            crc.update(bytes, 0, bytes.length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                throw new IOException("Play stats checksum mismatch");
+            }
+            ByteBuffer table = ByteBuffer.wrap(bytes);
+            if (table.getInt() != TABLE_MAGIC || table.getInt() != VERSION) {
+                throw new IOException("Not play stats, or another version");
+            }
+            int tableGeneration = table.getInt();
+            int songs = table.getInt();
+            if (songs < 0 || (long) songs * (8 + 4 + 4 + 8) != table.remaining()) {
+                throw new IOException("Play stats songs don't match the file length");
+            }
+            //slots taken first, the columns grow with them
+            int[] songSlots = new int[songs];
+            for (int i = 0; i < songs; i++) {
+                songSlots[i] = slotOf(table.getLong());
+            }
+            for (int i = 0; i < songs; i++) {
+                plays[songSlots[i]] = table.getInt();
+            }
+            for (int i = 0; i < songs; i++) {
+                skips[songSlots[i]] = table.getInt();
+            }
+            for (int i = 0; i < songs; i++) {
+                lastPlayed[songSlots[i]] = table.getLong();
+            }
+            return tableGeneration;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return length of the log up to the last whole batch, 0 if it is of another generation (or missing).
+     */
+    private long replayLog(File file, int tableGeneration) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length < 12 || length > Integer.MAX_VALUE) {
+                return 0;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt() != LOG_MAGIC || buffer.getInt() != VERSION || buffer.getInt() != tableGeneration) {
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            long end = buffer.position();
+            try {
+                while (buffer.remaining() >= 4) {
+                    int events = buffer.getInt();
+                    if (events <= 0 || (long) events * EVENT_SIZE + 4 > buffer.remaining()) {
+                        break;
+                    }
+                    byte[] batch = new byte[events * EVENT_SIZE];
+                    buffer.get(batch);
+                    crc.reset();
+                    crc.update(batch, 0, batch.length);
+                    if (buffer.getInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                    ByteBuffer event = ByteBuffer.wrap(batch);
+                    for (int i = 0; i < events; i++) {
+                        byte type = event.get();
+                        long id = event.getLong();
+                        long time = event.getLong();
+                        if (type == PLAY || type == SKIP) {
+                            apply(type, id, time);
+                        }
+                    }
+                    end = buffer.position();
+                }
+            } catch (BufferUnderflowException e) {
+                //cut short, the batch is dropped
+            }
+            return end;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Appends a batch to the log, or folds the log into the table once it is long enough. Runs on the writer.
+     */
+    private void write(byte[] events, int eventCount, int batchVersion) {
+        if (batchVersion <= tableVersion) {
+            //flushed before the last table was written, which counted it
+            return;
+        }
+        try {
+            if (logLength + events.length > LOG_BYTES) {
+                writeTable();
+            } else {
+                appendLog(events, eventCount);
+            }
+            synchronized (this) {
+                flushes++;
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failed++;
+                lastError = e.getMessage();
+            }
+        }
+    }
+
+    private void appendLog(byte[] events, int eventCount) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((logLength == 0 ? 12 : 0) + 4 + events.length + 4);
+        if (logLength == 0) {
+            buffer.putInt(LOG_MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(generation);
+        }
+        buffer.putInt(eventCount);
+        buffer.put(events);
+        CRC32 crc = new CRC32();
+        crc.update(events, 0, events.length);
+        buffer.putInt((int) crc.getValue());
+        //a new log replaces one of an older generation, or the end of a batch cut short
+        RandomAccessFile out = new RandomAccessFile(logFile, "rw");
+        try {
+            out.setLength(logLength);
+            out.seek(logLength);
+            out.write(buffer.array(), 0, buffer.position());
+        } finally {
+            out.close();
+        }
+        logLength += buffer.position();
+    }
+
+    /**
+     * Writes every counter to the table with the next generation, which leaves the current log out.
+     * The events given to write() are already counted, so they are not in the new log either.
+     */
+    private void writeTable() throws IOException {
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = ByteBuffer.allocate(16 + count * (8 + 4 + 4 + 8) + 4);
+            buffer.putInt(TABLE_MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(generation + 1);
+            buffer.putInt(count);
+            for (int slot = 0; slot < count; slot++) {
+                buffer.putLong(ids[slot]);
+            }
+            for (int slot = 0; slot < count; slot++) {
+                buffer.putInt(plays[slot]);
+            }
+            for (int slot = 0; slot < count; slot++) {
+                buffer.putInt(skips[slot]);
+            }
+            for (int slot = 0; slot < count; slot++) {
+                buffer.putLong(lastPlayed[slot]);
+            }
+            //the events waiting are counted in the table
+            pending.clear();
+            pendingEvents = 0;
+            tableVersion = version;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        File temp = new File(tableFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array(), 0, buffer.position());
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(tableFile)) {
+            temp.delete();
+            throw new IOException("Could not replace " + tableFile);
+        }
+        generation++;
+        logLength = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return count + " songs, " + version + " events, " + flushes + " writes, " + failed + " failed"
+                + (lastError == null ? "" : " (" + lastError + ")");
+    }
+}
@@ -0,0 +1,104 @@
+package untitled.nativemediaplayer;
+
+/**
+ * Position of the song being played, computed from the last position read from the player and a monotonic clock.
+ * The playback thread sets it on every state change (prepare, start, pause, seek), the UI reads it as often as it
+ * likes without calling the player. Times are in milliseconds (SystemClock.elapsedRealtime()).
+ */
+public class PlaybackClock {
+    private int anchorPosition;
+    private long anchorTime;
+    private boolean running;
+    private int duration;
+
+    private final long createdAt;
+    private long positionReads;
+    private long updates;
+
+    public PlaybackClock(long now) {
+        this.createdAt = now;
+    }
+
+    /**
+     * Sets the state read from the player.
+     */
+    public synchronized void set(int position, int duration, boolean running, long now) {
+        this.anchorPosition = position;
+        this.anchorTime = now;
+        this.duration = duration;
+        this.running = running;
+        updates++;
+    }
+
+    /**
+     * No song is loaded.
+     */
+    public synchronized void stop() {
+        anchorPosition = 0;
+        duration = 0;
+        running = false;
+        updates++;
+    }
+
+    public synchronized void pause(long now) {
+        anchorPosition = positionAt(now);
+        anchorTime = now;
+        running = false;
+    }
+
+    public synchronized void resume(long now) {
+        anchorPosition = positionAt(now);
+        anchorTime = now;
+        running = true;
+    }
+
+    public synchronized void seek(int position, long now) {
+        anchorPosition = duration > 0 ? Math.min(Math.max(position, 0), duration) : Math.max(position, 0);
+        anchorTime = now;
+    }
+
+    public synchronized int getPosition(long now) {
+        positionReads++;
+        return positionAt(now);
+    }
+
+    private int positionAt(long now) {
+        if (!running) {
+            return anchorPosition;
+        }
+        long position = anchorPosition + Math.max(0, now - anchorTime);
+        return (int) (duration > 0 ? Math.min(position, duration) : position);
+    }
+
+    public synchronized int getDuration() {
+        return duration;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public synchronized long getPositionReads() {
+        return positionReads;
+    }
+
+    /**
+     * Times the state was read from the player.
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "position reads " + positionReads + ", player reads " + updates;
+    }
+
+    /**
+     * Position reads and player reads per minute since the clock was created.
+     */
+    public synchronized String rates(long now) {
+        long elapsed = Math.max(now - createdAt, 1);
+        return positionReads * 60000 / elapsed + " position reads/min, " + updates * 60000 / elapsed + " player reads/min";
+    }
+}
@@ -0,0 +1,92 @@
+package untitled.nativemediaplayer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+
+/**
+ * Latency histograms of the stages of starting playback, from a tap (or skip, or the end of a song) to audio.
+ * Durations are measured with System.nanoTime().
+ */
+public class PlaybackLatency {
+
+    public enum Stage {
+        //From the command (tap on a song, next/prev) until the playback thread sets the data source. Includes the skip window.
+        COMMAND_TO_DATA_SOURCE("command -> setDataSource"),
+        SET_DATA_SOURCE("setDataSource"),
+        PREPARE("prepareAsync -> onPrepared"),
+        //PREPARE split by whether the start of the song was read ahead by the ReadAheadCache.
+        PREPARE_READ_AHEAD("prepare, read ahead"),
+        PREPARE_COLD("prepare, not read ahead"),
+        START("onPrepared -> audio start"),
+        TAP_TO_AUDIO("song picked -> audio"),
+        SKIP_TO_AUDIO("next/prev -> audio"),
+        //Silence between a song that ended and the next one, gapless or not.
+        COMPLETION_TO_AUDIO("completion -> next audio"),
+        //Seek done by the player, or by opening the song at the frame found in its seek table.
+        SEEK("seekTo -> onSeekComplete"),
+        TABLE_SEEK("seek table -> onPrepared");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    public PlaybackLatency() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per stage: count, p50, p95, p99 and max.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            report.append(stage.getLabel()).append('\n')
+                    .append("  ").append(get(stage)).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report to a file, replacing it.
+     */
+    public void dumpTo(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("Playback latency, " + new Date());
+            writer.print(report());
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package untitled.nativemediaplayer;
+
+import android.content.Context;
+import android.media.MediaDataSource;
+import android.net.Uri;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * A playback engine as used by the {@link MusicService}: the platform MediaPlayer or FFmpegMediaPlayer.
+ * Same states and calls as MediaPlayer; the callbacks go to a single {@link Listener}.
+ */
+public interface PlayerBackend {
+
+    enum Kind {
+        MEDIA_PLAYER,
+        FFMPEG
+    }
+
+    //Error code of a media server that died, same value for both engines (MediaPlayer.MEDIA_ERROR_SERVER_DIED).
+    int ERROR_SERVER_DIED = 100;
+
+    interface Listener {
+        void onPrepared(PlayerBackend player);
+
+        void onCompletion(PlayerBackend player);
+
+        /**
+         * @return false to also get onCompletion(), like MediaPlayer.OnErrorListener.
+         */
+        boolean onError(PlayerBackend player, int what, int extra);
+
+        void onSeekComplete(PlayerBackend player);
+
+        /**
+         * The player was chained with setNext() and started by itself when the previous one completed.
+         */
+        void onStartedAsNext(PlayerBackend player);
+    }
+
+    Kind getKind();
+
+    void setListener(Listener listener);
+
+    void setDataSource(Context context, Uri uri) throws IOException;
+
+    /**
+     * Plays the length bytes of the file from the offset, e.g. from a frame found in a {@link SeekTable}.
+     * The descriptor can be closed once this returns.
+     */
+    void setDataSource(FileDescriptor fd, long offset, long length) throws IOException;
+
+    /**
+     * False if the engine can't read from a MediaDataSource (FFmpegMediaPlayer).
+     */
+    boolean supportsMediaDataSource();
+
+    /**
+     * Plays from the source, e.g. a song read ahead by the {@link ReadAheadCache}. The player closes it.
+     */
+    void setDataSource(MediaDataSource source);
+
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    void stop();
+
+    void seekTo(int position);
+
+    boolean isPlaying();
+
+    /**
+     * Volume of the player, 0 to 1, used for crossfades. Back to 1 on reset().
+     */
+    void setVolume(float volume);
+
+    int getCurrentPosition();
+
+    int getDuration();
+
+    /**
+     * Chains the player to start when this one completes, or removes the chained player if next is null.
+     * @return false if the engine can't chain to that player, it has to be started by hand.
+     */
+    boolean setNext(PlayerBackend next);
+
+    /**
+     * Back to the idle state, ready for a new data source.
+     */
+    void reset();
+
+    void release();
+}
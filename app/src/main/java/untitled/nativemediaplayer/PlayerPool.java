@@ -0,0 +1,259 @@
+package untitled.nativemediaplayer;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Small pool of initialized players, so switching to a clean player never waits for one to be created or reset.
+ * Players given back are cleaned up on the executor and only then become available again;
+ * players that failed too many times are destroyed instead of being reused.
+ * fill(), acquire() and replaceIdle() are called on the thread that owns the players (the playback thread of the service),
+ * release() from any thread; the cleanup runs on the executor.
+ */
+public class PlayerPool<P> {
+
+    /**
+     * Creates, cleans up and destroys the players of the pool.
+     */
+    public interface Factory<P> {
+        P create();
+
+        /**
+         * Brings a used player back to its initial state, e.g. MediaPlayer.reset().
+         */
+        void recycle(P player) throws Exception;
+
+        void destroy(P player);
+    }
+
+    //A player that failed this many times is destroyed instead of going back to the pool.
+    static final int MAX_ERRORS = 2;
+
+    private final int capacity;
+    private final Factory<P> factory;
+    private final Executor cleaner;
+
+    //guarded by "this"
+    private final ArrayDeque<P> idle = new ArrayDeque<>();
+    private final Map<P, Integer> errors = new IdentityHashMap<>();
+    private boolean closed = false;
+    //incremented by replaceIdle(), players given back before are destroyed instead of being reused
+    private int generation = 0;
+
+    private int warmAcquires;
+    private int coldAcquires;
+    private int destroyed;
+    private long createNanos;
+    private int created;
+    private long recycleNanos;
+    private int recycled;
+
+    /**
+     * @param capacity - players kept ready.
+     * @param cleaner - executor running the cleanup of the players given back.
+     */
+    public PlayerPool(int capacity, Factory<P> factory, Executor cleaner) {
+        this.capacity = capacity;
+        this.factory = factory;
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Creates players until the pool is full. Called on the thread that should own the players.
+     */
+    public void fill() {
+        while (true) {
+            synchronized (this) {
+                if (closed || idle.size() >= capacity) {
+                    return;
+                }
+            }
+            P player = create();
+            synchronized (this) {
+                idle.addLast(player);
+            }
+        }
+    }
+
+    /**
+     * @return a clean player, ready to be given a data source. Only creates one if the pool is empty.
+     */
+    public P acquire() {
+        synchronized (this) {
+            P player = idle.pollFirst();
+            if (player != null) {
+                warmAcquires++;
+                return player;
+            }
+            coldAcquires++;
+        }
+        return create();
+    }
+
+    /**
+     * Gives a player back. It is cleaned up on the executor, the caller doesn't wait for it.
+     */
+    public void release(final P player) {
+        final int releasedIn;
+        synchronized (this) {
+            releasedIn = generation;
+        }
+        cleaner.execute(new Runnable() {
+            @Override
+            public void run() {
+                recycle(player, releasedIn);
+            }
+        });
+    }
+
+    /**
+     * Records a failure of the player (playback error). Players failing too often are not reused.
+     */
+    public synchronized void reportError(P player) {
+        Integer count = errors.get(player);
+        errors.put(player, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Gives back a player that can't be reused (e.g. the media server died): it is destroyed on the executor.
+     */
+    public void discard(final P player) {
+        cleaner.execute(new Runnable() {
+            @Override
+            public void run() {
+                destroy(player);
+            }
+        });
+    }
+
+    /**
+     * Replaces the players waiting in the pool, which died with the media server: they are destroyed on the executor
+     * and as many new ones are created. Players given back before (still being cleaned up) are destroyed too.
+     * Called on the thread that owns the players.
+     */
+    public void replaceIdle() {
+        final ArrayDeque<P> players;
+        synchronized (this) {
+            generation++;
+            players = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        cleaner.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (P player : players) {
+                    destroy(player);
+                }
+            }
+        });
+        for (int i = 0; i < players.size(); i++) {
+            synchronized (this) {
+                if (closed || idle.size() >= capacity) {
+                    return;
+                }
+            }
+            P player = create();
+            synchronized (this) {
+                idle.addLast(player);
+            }
+        }
+    }
+
+    /**
+     * Destroys the players waiting in the pool, players given back afterwards are destroyed too.
+     */
+    public void close() {
+        ArrayDeque<P> players;
+        synchronized (this) {
+            closed = true;
+            players = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        for (P player : players) {
+            destroy(player);
+        }
+    }
+
+    private P create() {
+        long start = System.nanoTime();
+        P player = factory.create();
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            createNanos += elapsed;
+            created++;
+        }
+        return player;
+    }
+
+    private void recycle(P player, int releasedIn) {
+        boolean unhealthy;
+        synchronized (this) {
+            Integer count = errors.get(player);
+            unhealthy = closed || releasedIn != generation || (count != null && count >= MAX_ERRORS);
+        }
+        if (unhealthy) {
+            destroy(player);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            factory.recycle(player);
+        } catch (Exception e) {
+            destroy(player);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        boolean keep;
+        synchronized (this) {
+            recycleNanos += elapsed;
+            recycled++;
+            keep = !closed && releasedIn == generation && idle.size() < capacity;
+            if (keep) {
+                idle.addLast(player);
+            }
+        }
+        if (!keep) {
+            destroy(player);
+        }
+    }
+
+    private void destroy(P player) {
+        synchronized (this) {
+            errors.remove(player);
+            destroyed++;
+        }
+        factory.destroy(player);
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getWarmAcquires() {
+        return warmAcquires;
+    }
+
+    public synchronized int getColdAcquires() {
+        return coldAcquires;
+    }
+
+    public synchronized int getDestroyedCount() {
+        return destroyed;
+    }
+
+    /**
+     * Time the callers didn't spend waiting: a player created for every warm acquire, plus the cleanups done on the executor.
+     */
+    public synchronized long getSavedNanos() {
+        long averageCreate = created == 0 ? 0 : createNanos / created;
+        return warmAcquires * averageCreate + recycleNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return warmAcquires + " warm / " + coldAcquires + " cold acquires, " + recycled + " recycled, "
+                + destroyed + " destroyed, saved " + getSavedNanos() / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,254 @@
+package untitled.nativemediaplayer;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The first bytes of the songs about to play, read in the background so preparing them doesn't wait for the storage
+ * (slow on SD cards and adopted storage). prefetch() reads the head of a song on the executor; open() gives a
+ * {@link Source} serving the head from memory and the rest of the file from the file itself.
+ * Heads are kept up to a total of capacityBytes, the ones used least recently are dropped first.
+ */
+public class ReadAheadCache {
+
+    private final SongOpener opener;
+    private final Executor executor;
+    private final int headBytes;
+    private final long capacityBytes;
+
+    //guarded by "this"
+    private final LinkedHashMap<Long, Head> heads = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> pending = new HashSet<>();
+    private long cachedBytes;
+
+    private int hits;
+    private int misses;
+    private int failed;
+    private String lastError;
+    private long prefetchedBytes;
+    //bytes of the heads read by a player, at most once per head
+    private long usedBytes;
+    //bytes read from the files past the heads
+    private long readThroughBytes;
+
+    private static class Head {
+        final byte[] bytes;
+        final long fileLength;
+        //end of the bytes read by a player
+        int used;
+
+        Head(byte[] bytes, long fileLength) {
+            this.bytes = bytes;
+            this.fileLength = fileLength;
+        }
+    }
+
+    /**
+     * @param headBytes - bytes read from the start of every song.
+     * @param capacityBytes - total bytes of the heads kept.
+     */
+    public ReadAheadCache(SongOpener opener, Executor executor, int headBytes, long capacityBytes) {
+        this.opener = opener;
+        this.executor = executor;
+        this.headBytes = headBytes;
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Reads the head of the song in the background, if it isn't already.
+     */
+    public void prefetch(final long id) {
+        synchronized (this) {
+            if (heads.containsKey(id) || !pending.add(id)) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Head head;
+                try {
+                    head = load(id);
+                } catch (IOException e) {
+                    synchronized (ReadAheadCache.this) {
+                        pending.remove(id);
+                        failed++;
+                        lastError = e.getMessage();
+                    }
+                    return;
+                }
+                synchronized (ReadAheadCache.this) {
+                    //cleared while it was read
+                    if (!pending.remove(id)) {
+                        return;
+                    }
+                    heads.put(id, head);
+                    cachedBytes += head.bytes.length;
+                    prefetchedBytes += head.bytes.length;
+                    trim();
+                }
+            }
+        });
+    }
+
+    private Head load(long id) throws IOException {
+        FileInputStream in = opener.open(id);
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(headBytes, length));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("File shorter than " + length + " bytes");
+                }
+            }
+            return new Head(buffer.array(), length);
+        } finally {
+            in.close();
+        }
+    }
+
+    //Drops the heads used least recently until they fit in capacityBytes.
+    private void trim() {
+        Iterator<Head> iterator = heads.values().iterator();
+        while (cachedBytes > capacityBytes && iterator.hasNext()) {
+            cachedBytes -= iterator.next().bytes.length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return a source reading the song through its head, or null if the head isn't read (yet).
+     */
+    public synchronized Source open(long id) {
+        Head head = heads.get(id);
+        if (head == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new Source(id, head);
+    }
+
+    /**
+     * Drops the heads, e.g. after the files changed. Prefetches in progress are dropped once done.
+     */
+    public synchronized void clear() {
+        heads.clear();
+        pending.clear();
+        cachedBytes = 0;
+    }
+
+    public synchronized boolean contains(long id) {
+        return heads.containsKey(id);
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized long getPrefetchedBytes() {
+        return prefetchedBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getReadThroughBytes() {
+        return readThroughBytes;
+    }
+
+    private synchronized void markUsed(Head head, int end) {
+        if (end > head.used) {
+            usedBytes += end - head.used;
+            head.used = end;
+        }
+    }
+
+    private synchronized void addReadThrough(int bytes) {
+        readThroughBytes += bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int lookups = hits + misses;
+        return hits + "/" + lookups + " hits (" + (lookups == 0 ? 0 : hits * 100 / lookups) + "%), "
+                + prefetchedBytes / 1024 + " KB prefetched, " + usedBytes / 1024 + " KB used, "
+                + readThroughBytes / 1024 + " KB read past the heads, " + heads.size() + " heads ("
+                + cachedBytes / 1024 + " KB), " + failed + " failed" + (lastError == null ? "" : " (" + lastError + ")");
+    }
+
+    /**
+     * A song read through its head, the file is only opened when reading past it.
+     * Reads may come from any thread.
+     */
+    public class Source {
+        private final long id;
+        private final Head head;
+        private FileInputStream file;
+
+        private Source(long id, Head head) {
+            this.id = id;
+            this.head = head;
+        }
+
+        public long getSize() {
+            return head.fileLength;
+        }
+
+        /**
+         * Reads up to size bytes at the position.
+         * @return the bytes read, or -1 at the end of the file.
+         */
+        public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (position >= head.fileLength) {
+                return -1;
+            }
+            if (size == 0) {
+                return 0;
+            }
+            if (position < head.bytes.length) {
+                int count = (int) Math.min(size, head.bytes.length - position);
+                System.arraycopy(head.bytes, (int) position, buffer, offset, count);
+                markUsed(head, (int) position + count);
+                return count;
+            }
+            if (file == null) {
+                file = opener.open(id);
+                //the head would not match the rest of the file
+                if (file.getChannel().size() != head.fileLength) {
+                    close();
+                    throw new IOException("Song " + id + " changed since it was read ahead");
+                }
+            }
+            int count = file.getChannel().read(ByteBuffer.wrap(buffer, offset, size), position);
+            if (count > 0) {
+                addReadThrough(count);
+            }
+            return count;
+        }
+
+        public synchronized void close() throws IOException {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package untitled.nativemediaplayer;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * Feeds a MediaPlayer from a {@link ReadAheadCache.Source}. The player closes it on reset() or release().
+ */
+public class ReadAheadDataSource extends MediaDataSource {
+    private final ReadAheadCache.Source source;
+
+    public ReadAheadDataSource(ReadAheadCache.Source source) {
+        this.source = source;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return source.readAt(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() {
+        return source.getSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
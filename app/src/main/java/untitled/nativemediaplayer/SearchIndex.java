@@ -0,0 +1,530 @@
+package untitled.nativemediaplayer;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * As-you-type search over the titles and artists of a {@link SongTable}, built in the background.
+ * Titles and artists are normalized (lower case, accents and punctuation removed) and split into tokens. The distinct
+ * tokens are sorted, so the tokens starting with a query term are one range found by binary search; the tokens
+ * containing it elsewhere are found through the trigrams of the tokens. Every token has the rows it appears in,
+ * for titles and for artists, all in int arrays (offsets into one array per field, CSR style).
+ * A row matches when every term of the query matches one of its tokens; rows are ranked by how well their terms match
+ * (whole token, then start of a token, then inside one; in the title, then in the artist), then by row.
+ * search() reuses its buffers: it must only be called from one thread.
+ */
+public class SearchIndex {
+
+    //Scores of a term matched by a token, the best match of each term counts.
+    private static final int EXACT = 3;
+    private static final int PREFIX = 2;
+    private static final int INFIX = 1;
+    private static final int TITLE = 2;
+    private static final int ARTIST = 1;
+    //Matches tried in order of their score: the first match of a term in a row is its best one.
+    private static final int[][] PASSES = {
+            {EXACT, TITLE}, {PREFIX, TITLE}, {EXACT, ARTIST}, {INFIX, TITLE}, {PREFIX, ARTIST}, {INFIX, ARTIST}};
+    private static final int MIN_TRIGRAM_TERM = 3;
+    //Results over rowCount / LARGE_RESULT rows are ranked by counting instead of sorting.
+    private static final int LARGE_RESULT = 32;
+
+    private final int rowCount;
+    //distinct tokens, sorted
+    private final String[] tokens;
+    //rows of token t: titleRows[titleOffsets[t] .. titleOffsets[t + 1]), -1 for rows removed by remap()
+    private final int[] titleOffsets;
+    private final int[] titleRows;
+    private final int[] artistOffsets;
+    private final int[] artistRows;
+    //tokens containing trigram k: trigramTokens[trigramOffsets[k] .. trigramOffsets[k + 1]), sorted
+    private final long[] trigramKeys;
+    private final int[] trigramOffsets;
+    private final int[] trigramTokens;
+
+    //search() buffers: stamps and scores of the rows, see match(). They grow when remap() moves rows past the end.
+    private int[] stamps;
+    private int[] scores;
+    private int generation = 0;
+    //rows matching the whole query, "found" of them
+    private int[] matches = new int[64];
+    private int found;
+    private long[] ranked = new long[64];
+
+    private SearchIndex(int rowCount, String[] tokens, int[] titleOffsets, int[] titleRows, int[] artistOffsets,
+                        int[] artistRows, long[] trigramKeys, int[] trigramOffsets, int[] trigramTokens) {
+        this.rowCount = rowCount;
+        this.tokens = tokens;
+        this.titleOffsets = titleOffsets;
+        this.titleRows = titleRows;
+        this.artistOffsets = artistOffsets;
+        this.artistRows = artistRows;
+        this.trigramKeys = trigramKeys;
+        this.trigramOffsets = trigramOffsets;
+        this.trigramTokens = trigramTokens;
+        this.stamps = new int[rowCount];
+        this.scores = new int[rowCount];
+    }
+
+    /**
+     * Builds the index of the rows of the table. Meant for a background thread, on a copy of the table.
+     */
+    public static SearchIndex build(SongTable songs) {
+        int rows = songs.size();
+        StringPool strings = songs.getStrings();
+
+        //every distinct string is tokenized once, artists repeat a lot
+        HashMap<String, Integer> tokenIDs = new HashMap<>();
+        int[][] tokensOfString = new int[strings.size()][];
+        int[] titleCounts = new int[16];
+        int[] artistCounts = new int[16];
+        for (int row = 0; row < rows; row++) {
+            for (int field = 0; field < 2; field++) {
+                int ref = field == 0 ? songs.getTitleRef(row) : songs.getArtistRef(row);
+                if (ref < 0) {
+                    continue;
+                }
+                int[] ids = tokensOfString[ref];
+                if (ids == null) {
+                    ids = tokenize(strings.get(ref), tokenIDs);
+                    tokensOfString[ref] = ids;
+                }
+                if (tokenIDs.size() > titleCounts.length) {
+                    titleCounts = Arrays.copyOf(titleCounts, tokenIDs.size() * 2);
+                    artistCounts = Arrays.copyOf(artistCounts, tokenIDs.size() * 2);
+                }
+                for (int id : ids) {
+                    (field == 0 ? titleCounts : artistCounts)[id]++;
+                }
+            }
+        }
+
+        //sorted tokens, and the new ID of every token
+        int tokenCount = tokenIDs.size();
+        String[] sorted = new String[tokenCount];
+        for (Map.Entry<String, Integer> entry : tokenIDs.entrySet()) {
+            sorted[entry.getValue()] = entry.getKey();
+        }
+        final String[] byID = sorted.clone();
+        Integer[] order = new Integer[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return byID[a].compareTo(byID[b]);
+            }
+        });
+        int[] newID = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            sorted[i] = byID[order[i]];
+            newID[order[i]] = i;
+        }
+
+        int[] titleOffsets = new int[tokenCount + 1];
+        int[] artistOffsets = new int[tokenCount + 1];
+        for (int id = 0; id < tokenCount; id++) {
+            titleOffsets[newID[id] + 1] = titleCounts[id];
+            artistOffsets[newID[id] + 1] = artistCounts[id];
+        }
+        for (int t = 0; t < tokenCount; t++) {
+            titleOffsets[t + 1] += titleOffsets[t];
+            artistOffsets[t + 1] += artistOffsets[t];
+        }
+        int[] titleRows = new int[titleOffsets[tokenCount]];
+        int[] artistRows = new int[artistOffsets[tokenCount]];
+        int[] titleFill = Arrays.copyOf(titleOffsets, tokenCount);
+        int[] artistFill = Arrays.copyOf(artistOffsets, tokenCount);
+        for (int row = 0; row < rows; row++) {
+            int titleRef = songs.getTitleRef(row);
+            if (titleRef >= 0) {
+                for (int id : tokensOfString[titleRef]) {
+                    titleRows[titleFill[newID[id]]++] = row;
+                }
+            }
+            int artistRef = songs.getArtistRef(row);
+            if (artistRef >= 0) {
+                for (int id : tokensOfString[artistRef]) {
+                    artistRows[artistFill[newID[id]]++] = row;
+                }
+            }
+        }
+
+        //trigrams: the distinct keys first, then the tokens of every key
+        long[] keys = new long[64];
+        int keyCount = 0;
+        for (int t = 0; t < tokenCount; t++) {
+            String token = sorted[t];
+            for (int i = 0; i + 3 <= token.length(); i++) {
+                if (keyCount == keys.length) {
+                    keys = Arrays.copyOf(keys, keyCount * 2);
+                }
+                keys[keyCount++] = trigram(token, i);
+            }
+        }
+        Arrays.sort(keys, 0, keyCount);
+        int distinct = 0;
+        for (int i = 0; i < keyCount; i++) {
+            if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        long[] trigramKeys = Arrays.copyOf(keys, distinct);
+        int[] trigramOffsets = new int[distinct + 1];
+        int[] last = new int[distinct];
+        Arrays.fill(last, -1);
+        for (int t = 0; t < tokenCount; t++) {
+            for (int k : trigramsOf(sorted[t], trigramKeys, last, t)) {
+                trigramOffsets[k + 1]++;
+            }
+        }
+        for (int k = 0; k < distinct; k++) {
+            trigramOffsets[k + 1] += trigramOffsets[k];
+        }
+        int[] trigramTokens = new int[trigramOffsets[distinct]];
+        int[] fill = Arrays.copyOf(trigramOffsets, distinct);
+        Arrays.fill(last, -1);
+        for (int t = 0; t < tokenCount; t++) {
+            for (int k : trigramsOf(sorted[t], trigramKeys, last, t)) {
+                trigramTokens[fill[k]++] = t;
+            }
+        }
+        return new SearchIndex(rows, sorted, titleOffsets, titleRows, artistOffsets, artistRows, trigramKeys,
+                trigramOffsets, trigramTokens);
+    }
+
+    /**
+     * Indexes in trigramKeys of the distinct trigrams of the token.
+     * @param last - token that last used every trigram, updated.
+     */
+    private static int[] trigramsOf(String token, long[] trigramKeys, int[] last, int tokenID) {
+        int[] found = new int[Math.max(token.length() - 2, 0)];
+        int count = 0;
+        for (int i = 0; i + 3 <= token.length(); i++) {
+            int k = Arrays.binarySearch(trigramKeys, trigram(token, i));
+            if (last[k] != tokenID) {
+                last[k] = tokenID;
+                found[count++] = k;
+            }
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+    //IDs of the distinct tokens of the text, new tokens are added to the map.
+    private static int[] tokenize(String text, HashMap<String, Integer> tokenIDs) {
+        String[] words = split(normalize(text));
+        int[] ids = new int[words.length];
+        int count = 0;
+        for (String word : words) {
+            Integer id = tokenIDs.get(word);
+            if (id == null) {
+                id = tokenIDs.size();
+                tokenIDs.put(word, id);
+            }
+            boolean repeated = false;
+            for (int i = 0; i < count; i++) {
+                repeated |= ids[i] == id;
+            }
+            if (!repeated) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static long trigram(String token, int at) {
+        return (long) token.charAt(at) << 32 | (long) token.charAt(at + 1) << 16 | token.charAt(at + 2);
+    }
+
+    /**
+     * Lower case letters and digits, accents removed, words separated by single spaces.
+     * Apostrophes are dropped so "dont" finds "Don't".
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= LATIN_FOLDS.length) {
+                //splits the accents from their letters, Latin letters are folded by the table below
+                text = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        StringBuilder out = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String folded = c < LATIN_FOLDS.length ? LATIN_FOLDS[c] : null;
+            if (folded != null) {
+                out.append(folded);
+                space = false;
+                continue;
+            }
+            c = Character.toLowerCase(c);
+            if (Character.isLetterOrDigit(c)) {
+                out.append(c);
+                space = false;
+            } else if (c == '\'' || c == '’' || Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            } else if (!space) {
+                out.append(' ');
+                space = true;
+            }
+        }
+        int length = out.length();
+        if (length > 0 && out.charAt(length - 1) == ' ') {
+            out.setLength(length - 1);
+        }
+        return out.toString();
+    }
+
+    //Folded form of the Latin letters with accents or in upper case (up to Latin Extended-B), null for the others.
+    private static final String[] LATIN_FOLDS = new String[0x250];
+
+    static {
+        for (char c = 'A'; c < LATIN_FOLDS.length; c++) {
+            if (!Character.isLetter(c) || c <= 'z' && Character.isLowerCase(c)) {
+                continue;
+            }
+            String folded = fold(Character.toLowerCase(c));
+            if (folded == null) {
+                StringBuilder base = new StringBuilder();
+                for (char d : Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).toCharArray()) {
+                    if (Character.getType(d) != Character.NON_SPACING_MARK) {
+                        base.append(Character.toLowerCase(d));
+                    }
+                }
+                folded = base.toString();
+            }
+            LATIN_FOLDS[c] = folded;
+        }
+    }
+
+    //Letters NFD doesn't split into a base letter and an accent.
+    private static String fold(char c) {
+        switch (c) {
+            case 'ß': return "ss";
+            case 'æ': return "ae";
+            case 'œ': return "oe";
+            case 'ø': return "o";
+            case 'ł': return "l";
+            case 'đ': return "d";
+            case 'þ': return "th";
+            default: return null;
+        }
+    }
+
+    private static String[] split(String normalized) {
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getTokenCount() {
+        return tokens.length;
+    }
+
+    /**
+     * Rows matching every term of the query, the last term may be a word still being typed.
+     * @return the rows, best match first; none for a query without letters or digits.
+     */
+    public int[] search(String query) {
+        String[] terms = split(normalize(query));
+        if (terms.length == 0 || rowCount == 0) {
+            return new int[0];
+        }
+        if (generation > Integer.MAX_VALUE - terms.length - 2) {
+            Arrays.fill(stamps, 0);
+            generation = 0;
+        }
+        int base = generation + 1;
+        generation = base + terms.length;
+
+        found = 0;
+        for (int i = 0; i < terms.length; i++) {
+            String term = terms[i];
+            int from = lowerBound(term);
+            int to = lowerBound(term + Character.MAX_VALUE);
+            int exact = from < to && tokens[from].equals(term) ? from : -1;
+            int[] infix = term.length() >= MIN_TRIGRAM_TERM ? infixTokens(term) : null;
+            boolean last = i == terms.length - 1;
+            int matched = 0;
+            for (int[] pass : PASSES) {
+                int kind = pass[0];
+                boolean title = pass[1] == TITLE;
+                int score = kind * pass[1];
+                if (kind == EXACT) {
+                    if (exact >= 0) {
+                        matched += match(exact, title, base, i, score, last);
+                    }
+                } else if (kind == PREFIX) {
+                    for (int t = exact >= 0 ? from + 1 : from; t < to; t++) {
+                        matched += match(t, title, base, i, score, last);
+                    }
+                } else if (infix != null) {
+                    for (int t : infix) {
+                        if (t >= 0) {
+                            matched += match(t, title, base, i, score, last);
+                        }
+                    }
+                }
+            }
+            if (matched == 0) {
+                return new int[0];
+            }
+        }
+
+        return rank(base + terms.length, terms.length * EXACT * TITLE);
+    }
+
+    /**
+     * The matches, best score first, then in list order. A few matches are sorted; many matches (short queries)
+     * are placed by counting their scores, then going through the stamps in row order, which doesn't depend on how
+     * many rows matched.
+     * @param stamp - stamp of the rows matching the whole query.
+     */
+    private int[] rank(int stamp, int maxScore) {
+        int[] result = new int[found];
+        if (found < rowCount / LARGE_RESULT) {
+            if (ranked.length < found) {
+                ranked = new long[Math.max(found, ranked.length * 2)];
+            }
+            for (int i = 0; i < found; i++) {
+                int row = matches[i];
+                ranked[i] = (long) (maxScore - scores[row]) << 32 | row;
+            }
+            Arrays.sort(ranked, 0, found);
+            for (int i = 0; i < found; i++) {
+                result[i] = (int) ranked[i];
+            }
+            return result;
+        }
+        //start of every score in the result, best first
+        int[] start = new int[maxScore + 2];
+        for (int i = 0; i < found; i++) {
+            start[maxScore - scores[matches[i]] + 1]++;
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        for (int row = 0; row < stamps.length; row++) {
+            if (stamps[row] == stamp) {
+                result[start[maxScore - scores[row]]++] = row;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the score to the rows of the token that matched the terms before this one. A row already matched by this
+     * term keeps its first (best) match. On the last term, the rows are added to the matches.
+     * @param base - stamp of the query: a row matched the first "term" terms when its stamp is base + term.
+     * @return the rows matched.
+     */
+    private int match(int token, boolean title, int base, int term, int score, boolean last) {
+        int[] offsets = title ? titleOffsets : artistOffsets;
+        int[] rows = title ? titleRows : artistRows;
+        int matched = 0;
+        for (int p = offsets[token]; p < offsets[token + 1]; p++) {
+            int row = rows[p];
+            if (row < 0) {
+                continue;
+            }
+            int stamp = stamps[row];
+            //first term: any row the query didn't stamp yet
+            if (term == 0 ? stamp >= base : stamp != base + term) {
+                continue;
+            }
+            stamps[row] = base + term + 1;
+            scores[row] = (term == 0 ? 0 : scores[row]) + score;
+            matched++;
+            if (last) {
+                if (found == matches.length) {
+                    matches = Arrays.copyOf(matches, found * 2);
+                }
+                matches[found++] = row;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Tokens containing the term past their start, from the tokens of its rarest trigram.
+     * @return the tokens, with -1 for the ones that don't contain the term.
+     */
+    private int[] infixTokens(String term) {
+        int rarest = -1;
+        int rarestCount = Integer.MAX_VALUE;
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            int k = Arrays.binarySearch(trigramKeys, trigram(term, i));
+            if (k < 0) {
+                return null;
+            }
+            int count = trigramOffsets[k + 1] - trigramOffsets[k];
+            if (count < rarestCount) {
+                rarest = k;
+                rarestCount = count;
+            }
+        }
+        int[] found = Arrays.copyOfRange(trigramTokens, trigramOffsets[rarest], trigramOffsets[rarest + 1]);
+        for (int i = 0; i < found.length; i++) {
+            String token = tokens[found[i]];
+            if (token.startsWith(term) || token.indexOf(term, 1) < 0) {
+                found[i] = -1;
+            }
+        }
+        return found;
+    }
+
+    //First token not smaller than the key.
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = tokens.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Maps the rows to the rows the songs were moved to (sort, songs removed), so the index stays usable until it is
+     * built again. Songs added since are not found, but the rows can move past the rows indexed.
+     * @param newRowOf - new row of every old row, -1 for songs that were removed.
+     */
+    public void remap(int[] newRowOf) {
+        remapRows(titleRows, newRowOf);
+        remapRows(artistRows, newRowOf);
+        int rows = newRowOf.length;
+        for (int row : newRowOf) {
+            rows = Math.max(rows, row + 1);
+        }
+        if (rows > stamps.length) {
+            stamps = Arrays.copyOf(stamps, rows);
+            scores = Arrays.copyOf(scores, rows);
+        }
+    }
+
+    private static void remapRows(int[] rows, int[] newRowOf) {
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            rows[i] = row < 0 || row >= newRowOf.length ? -1 : newRowOf[row];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return rowCount + " rows, " + tokens.length + " tokens, " + (titleRows.length + artistRows.length)
+                + " postings, " + trigramKeys.length + " trigrams";
+    }
+}
@@ -0,0 +1,192 @@
+package untitled.nativemediaplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Seek tables of the songs, one file per song ID in a cache directory. prefetch() loads the table of a song from
+ * its file, or builds it with the {@link FrameIndexer} and writes it, on the executor; get() only returns the tables
+ * already loaded, so the playback thread never waits for one. A table is rebuilt when the length of the song changed.
+ * The directory is kept under MAX_DISK_BYTES by dropping the tables used least recently.
+ */
+public class SeekTableCache {
+
+    static final int MEMORY_TABLES = 4;
+    static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+    private static final String SUFFIX = ".seek";
+
+    private final File dir;
+    private final SongOpener opener;
+    private final Executor executor;
+
+    //guarded by "this"
+    private final Map<Long, SeekTable> loaded = new LinkedHashMap<Long, SeekTable>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, SeekTable> eldest) {
+            return size() > MEMORY_TABLES;
+        }
+    };
+    private final Set<Long> pending = new HashSet<>();
+    //songs that are not MP3 or ADTS, not scanned again
+    private final Set<Long> unsupported = new HashSet<>();
+
+    private int built;
+    private long buildNanos;
+    private int readFromDisk;
+    private long readNanos;
+    private int failed;
+    private String lastError;
+
+    public SeekTableCache(File dir, SongOpener opener, Executor executor) {
+        this.dir = dir;
+        this.opener = opener;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the table of the song ready in the background, if it isn't already.
+     */
+    public void prefetch(final long id) {
+        synchronized (this) {
+            if (loaded.containsKey(id) || unsupported.contains(id) || !pending.add(id)) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SeekTable table;
+                try {
+                    table = load(id);
+                } catch (IOException e) {
+                    //e.g. the song was deleted, tried again on the next prefetch
+                    synchronized (SeekTableCache.this) {
+                        pending.remove(id);
+                        failed++;
+                        lastError = e.getMessage();
+                    }
+                    return;
+                }
+                synchronized (SeekTableCache.this) {
+                    pending.remove(id);
+                    if (table != null) {
+                        loaded.put(id, table);
+                    } else {
+                        unsupported.add(id);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the table of the song, or null if it isn't loaded (yet).
+     */
+    public synchronized SeekTable get(long id) {
+        return loaded.get(id);
+    }
+
+    /**
+     * Reads the table of the song from its file, or builds and writes it. Runs on the executor.
+     * @return null if the song is not MP3 or ADTS.
+     */
+    SeekTable load(long id) throws IOException {
+        FileInputStream in = opener.open(id);
+        try {
+            long length = in.getChannel().size();
+            File file = new File(dir, id + SUFFIX);
+            if (file.exists()) {
+                long start = System.nanoTime();
+                try {
+                    SeekTable table = SeekTable.read(file);
+                    if (table.getFileLength() == length) {
+                        //most recently used, for trim()
+                        file.setLastModified(System.currentTimeMillis());
+                        synchronized (this) {
+                            readFromDisk++;
+                            readNanos += System.nanoTime() - start;
+                        }
+                        return table;
+                    }
+                } catch (SeekTable.InvalidSeekTableException e) {
+                    //damaged or older format: rebuilt below
+                }
+            }
+
+            long start = System.nanoTime();
+            SeekTable table = FrameIndexer.index(in, length);
+            synchronized (this) {
+                built++;
+                buildNanos += System.nanoTime() - start;
+            }
+            if (table == null) {
+                file.delete();
+                return null;
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            table.write(file);
+            trim();
+            return table;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Deletes the tables used least recently until the directory is under MAX_DISK_BYTES.
+     */
+    private void trim() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_DISK_BYTES; i++) {
+            long size = files[i].length();
+            if (files[i].delete()) {
+                total -= size;
+            }
+        }
+    }
+
+    public synchronized int getBuiltCount() {
+        return built;
+    }
+
+    public synchronized int getReadCount() {
+        return readFromDisk;
+    }
+
+    public synchronized int getFailedCount() {
+        return failed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return built + " built (" + (built == 0 ? 0 : buildNanos / built / 1000000) + " ms avg), " + readFromDisk
+                + " read (" + (readFromDisk == 0 ? 0 : readNanos / readFromDisk / 1000) + " us avg), " + failed + " failed"
+                + (lastError == null ? "" : " (" + lastError + ")");
+    }
+}
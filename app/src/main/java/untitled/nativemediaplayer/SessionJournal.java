@@ -0,0 +1,612 @@
+package untitled.nativemediaplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Crash safe record of the playback session: the play history, the queue, the shuffle flag and the position in the
+ * current song. Every change is appended to a journal file as a small record, recover() replays them on the next start,
+ * so the session survives the process being killed. Songs are stored by ID, rows change between runs.
+ *
+ * Layout (big endian): magic, format version, then the records: payload length, type, payload, and a CRC32 of the type
+ * and payload. A record cut short by a crash (torn write) or failing its checksum ends the journal, recover() cuts the
+ * file there. compact() replaces the journal with a single SNAPSHOT record of the whole session.
+ *
+ * The records are encoded on the calling thread and written on the writer executor. Records added while a write is in
+ * progress are written and synced together by the next write, so there is at most one fsync in flight.
+ */
+public class SessionJournal {
+    static final int MAGIC = 0x4E4D534A; // "NMSJ"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 8;
+    //bytes of a record besides its payload: length, type and CRC32
+    static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    static final byte SNAPSHOT = 1;
+    static final byte PUSH = 2;
+    static final byte BACK = 3;
+    static final byte FORWARD = 4;
+    static final byte POSITION = 5;
+    static final byte SHUFFLE = 6;
+    static final byte QUEUE_INSERT = 7;
+    static final byte QUEUE_MOVE = 8;
+    static final byte QUEUE_REMOVE = 9;
+    static final byte QUEUE_CLEAR = 10;
+
+    //The journal is due for compaction past COMPACT_BYTES and COMPACT_RATIO times its last snapshot, so replaying the
+    //records never takes much longer than reading the snapshot.
+    static final long COMPACT_BYTES = 256 * 1024;
+    private static final int COMPACT_RATIO = 2;
+
+    private final File file;
+    private final Executor writer;
+
+    //guarded by "this"
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private ByteBuffer writing = ByteBuffer.allocate(4096);
+    private int recordStart;
+    //whole new journal written by compact(), replaces the file on the next write
+    private byte[] pendingSnapshot;
+    private boolean writeScheduled = false;
+    private boolean closed = false;
+    private long journalBytes;
+    private long snapshotBytes;
+    private int records;
+    private int syncs;
+    private long syncNanos;
+    private int failed;
+    private String lastError;
+
+    //only used on the writer
+    private RandomAccessFile out;
+
+    /**
+     * The session as recovered from the journal, or as written by compact().
+     */
+    public static class State {
+        private final long[] history;
+        private final int cursor;
+        private final long[] queue;
+        private final int positionMs;
+        private final boolean shuffle;
+
+        /**
+         * @param history - IDs of the songs played, oldest first.
+         * @param cursor - position of the current song in the history, -1 for none.
+         * @param queue - IDs of the songs queued, in the order they will play.
+         * @param positionMs - position in the current song.
+         */
+        public State(long[] history, int cursor, long[] queue, int positionMs, boolean shuffle) {
+            this.history = history;
+            this.cursor = cursor;
+            this.queue = queue;
+            this.positionMs = positionMs;
+            this.shuffle = shuffle;
+        }
+
+        public long[] getHistory() {
+            return history;
+        }
+
+        public int getCursor() {
+            return cursor;
+        }
+
+        public long[] getQueue() {
+            return queue;
+        }
+
+        public int getPositionMs() {
+            return positionMs;
+        }
+
+        public boolean isShuffle() {
+            return shuffle;
+        }
+
+        public boolean isEmpty() {
+            return history.length == 0 && queue.length == 0;
+        }
+    }
+
+    /**
+     * Call recover() before recording anything, the records are appended to what it kept of the file.
+     * @param writer - runs the writes, one at a time.
+     */
+    public SessionJournal(File file, Executor writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    /**
+     * Reads the session back by replaying the journal. Replay stops at the first damaged record (the end of a write cut
+     * short by a crash): the file is cut there, so new records follow the last good one.
+     * @param historyCapacity - capacity of the {@link PlayHistory} the records were made from.
+     * @return the session, empty if there is no journal or it can't be read.
+     */
+    public State recover(int historyCapacity) throws IOException {
+        Replay replay = new Replay(historyCapacity);
+        if (!file.exists()) {
+            return replay.toState();
+        }
+        long valid;
+        RandomAccessFile in = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Bad journal length " + length);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            valid = replay.run(buffer);
+            if (valid < length) {
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        } finally {
+            in.close();
+        }
+        synchronized (this) {
+            journalBytes = valid;
+            snapshotBytes = replay.snapshotBytes;
+        }
+        return replay.toState();
+    }
+
+    /**
+     * A song was played, see PlayHistory.push(). Its position starts at 0.
+     */
+    public synchronized void push(long id) {
+        begin(PUSH, 8).putLong(id);
+        end();
+    }
+
+    public synchronized void back() {
+        begin(BACK, 0);
+        end();
+    }
+
+    public synchronized void forward() {
+        begin(FORWARD, 0);
+        end();
+    }
+
+    /**
+     * Checkpoint of the position in the current song.
+     */
+    public synchronized void position(int positionMs) {
+        begin(POSITION, 4).putInt(positionMs);
+        end();
+    }
+
+    public synchronized void shuffle(boolean on) {
+        begin(SHUFFLE, 1).put((byte) (on ? 1 : 0));
+        end();
+    }
+
+    /**
+     * Songs inserted in the queue at the position, see PlayQueue.insertAll().
+     */
+    public synchronized void queueInsert(int position, long[] ids) {
+        ByteBuffer buffer = begin(QUEUE_INSERT, 8 + 8 * ids.length);
+        buffer.putInt(position);
+        buffer.putInt(ids.length);
+        for (long id : ids) {
+            buffer.putLong(id);
+        }
+        end();
+    }
+
+    public synchronized void queueMove(int from, int to) {
+        begin(QUEUE_MOVE, 8).putInt(from).putInt(to);
+        end();
+    }
+
+    public synchronized void queueRemove(int position) {
+        begin(QUEUE_REMOVE, 4).putInt(position);
+        end();
+    }
+
+    public synchronized void queueClear() {
+        begin(QUEUE_CLEAR, 0);
+        end();
+    }
+
+    /**
+     * True once the journal grew enough that compact() is worth it.
+     */
+    public synchronized boolean needsCompaction() {
+        return journalBytes > COMPACT_BYTES && journalBytes > COMPACT_RATIO * snapshotBytes;
+    }
+
+    /**
+     * Replaces the journal with the given session, which already includes every change recorded so far.
+     * The new file is written next to the journal and renamed over it, the journal stays whole if that fails.
+     */
+    public void compact(State state) {
+        long[] history = state.getHistory();
+        long[] queue = state.getQueue();
+        int payload = 4 + 4 + 8 * history.length + 4 + 8 * queue.length + 4 + 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + RECORD_OVERHEAD + payload);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(payload);
+        buffer.put(SNAPSHOT);
+        buffer.putInt(history.length);
+        buffer.putInt(state.getCursor());
+        for (long id : history) {
+            buffer.putLong(id);
+        }
+        buffer.putInt(queue.length);
+        for (long id : queue) {
+            buffer.putLong(id);
+        }
+        buffer.putInt(state.getPositionMs());
+        buffer.put((byte) (state.isShuffle() ? 1 : 0));
+        CRC32 snapshotCrc = new CRC32();
+        snapshotCrc.update(buffer.array(), HEADER_SIZE + 4, 1 + payload);
+        buffer.putInt((int) snapshotCrc.getValue());
+
+        synchronized (this) {
+            //the records waiting are part of the snapshot
+            pending.clear();
+            pendingSnapshot = buffer.array();
+            journalBytes = pendingSnapshot.length;
+            snapshotBytes = pendingSnapshot.length;
+            schedule();
+        }
+    }
+
+    /**
+     * Writes what is left and closes the file, on the writer. Nothing is recorded afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+                closeFile();
+            }
+        });
+    }
+
+    //Starts a record in the pending buffer, end() adds its checksum.
+    private ByteBuffer begin(byte type, int payload) {
+        int needed = RECORD_OVERHEAD + payload;
+        if (pending.remaining() < needed) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        recordStart = pending.position();
+        pending.putInt(payload);
+        pending.put(type);
+        return pending;
+    }
+
+    private void end() {
+        if (closed) {
+            pending.position(recordStart);
+            return;
+        }
+        crc.reset();
+        crc.update(pending.array(), recordStart + 4, pending.position() - recordStart - 4);
+        pending.putInt((int) crc.getValue());
+        journalBytes += pending.position() - recordStart;
+        records++;
+        schedule();
+    }
+
+    private void schedule() {
+        if (writeScheduled || closed) {
+            return;
+        }
+        writeScheduled = true;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    /**
+     * Writes the records waiting (after the snapshot, if compact() was called) and syncs them. Runs on the writer.
+     */
+    private void write() {
+        byte[] snapshot;
+        ByteBuffer records;
+        synchronized (this) {
+            writeScheduled = false;
+            snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            records = pending;
+            pending = writing;
+            writing = records;
+        }
+        records.flip();
+        if (snapshot == null && !records.hasRemaining()) {
+            records.clear();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            if (snapshot != null) {
+                replaceFile(snapshot, records);
+            } else {
+                append(records);
+            }
+            synchronized (this) {
+                syncs++;
+                syncNanos += System.nanoTime() - start;
+            }
+        } catch (IOException e) {
+            closeFile();
+            synchronized (this) {
+                failed++;
+                lastError = e.getMessage();
+                //the next compaction writes the whole session again
+                snapshotBytes = 0;
+            }
+        }
+        records.clear();
+    }
+
+    private void append(ByteBuffer records) throws IOException {
+        if (out == null) {
+            out = new RandomAccessFile(file, "rw");
+            if (out.length() < HEADER_SIZE) {
+                out.setLength(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.flip();
+                writeFully(out.getChannel(), header);
+            }
+            out.seek(out.length());
+        }
+        FileChannel channel = out.getChannel();
+        writeFully(channel, records);
+        channel.force(false);
+    }
+
+    private void replaceFile(byte[] snapshot, ByteBuffer records) throws IOException {
+        closeFile();
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile tempOut = new RandomAccessFile(temp, "rw");
+        try {
+            tempOut.setLength(0);
+            FileChannel channel = tempOut.getChannel();
+            writeFully(channel, ByteBuffer.wrap(snapshot));
+            writeFully(channel, records);
+            channel.force(true);
+        } finally {
+            tempOut.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            //nothing left to write
+        }
+        out = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return journalBytes / 1024 + " KB, " + records + " records, " + syncs + " syncs ("
+                + (syncs == 0 ? 0 : syncNanos / syncs / 1000) + " us avg), " + failed + " failed"
+                + (lastError == null ? "" : " (" + lastError + ")");
+    }
+
+    /**
+     * Session rebuilt from the records. Songs are numbered in the order they first appear, the history and queue hold
+     * these numbers, so they replay with the same classes the service uses.
+     */
+    private static class Replay {
+        LongIntMap numbers = new LongIntMap();
+        long[] ids = new long[16];
+        int songs = 0;
+        final PlayHistory history;
+        final PlayQueue queue = new PlayQueue();
+        int positionMs = 0;
+        boolean shuffle = false;
+        long snapshotBytes = 0;
+        //end of the last record replayed
+        long end = HEADER_SIZE;
+
+        Replay(int historyCapacity) {
+            history = new PlayHistory(historyCapacity);
+        }
+
+        /**
+         * Replays the journal.
+         * @return length of the journal up to the end of the last good record, 0 if the header isn't valid.
+         */
+        long run(ByteBuffer buffer) {
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            byte[] bytes = new byte[256];
+            while (buffer.remaining() >= RECORD_OVERHEAD) {
+                int start = buffer.position();
+                int payload = buffer.getInt();
+                if (payload < 0 || payload > buffer.remaining() - 1 - 4) {
+                    break;
+                }
+                if (bytes.length < 1 + payload) {
+                    bytes = new byte[Math.max(1 + payload, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, 1 + payload);
+                crc.reset();
+                crc.update(bytes, 0, 1 + payload);
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                try {
+                    if (!apply(bytes[0], ByteBuffer.wrap(bytes, 1, payload))) {
+                        break;
+                    }
+                } catch (BufferUnderflowException e) {
+                    break;
+                }
+                if (bytes[0] == SNAPSHOT) {
+                    snapshotBytes = buffer.position() - start;
+                }
+                end = buffer.position();
+            }
+            return end;
+        }
+
+        //Applies one record, false if it doesn't fit the session so far.
+        private boolean apply(byte type, ByteBuffer record) {
+            switch (type) {
+                case SNAPSHOT: {
+                    int count = record.getInt();
+                    int cursor = record.getInt();
+                    if (count < 0 || count > record.remaining() / 8 || cursor < -1 || cursor >= Math.max(count, 1)) {
+                        return false;
+                    }
+                    if (songs == 0) {
+                        //sized for the snapshot, the songs of a large queue are numbered without growing the map
+                        numbers = new LongIntMap(count + record.remaining() / 8);
+                    }
+                    int[] played = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        played[i] = number(record.getLong());
+                    }
+                    int queued = record.getInt();
+                    if (queued < 0 || queued > record.remaining() / 8) {
+                        return false;
+                    }
+                    int[] songs = new int[queued];
+                    for (int i = 0; i < queued; i++) {
+                        songs[i] = number(record.getLong());
+                    }
+                    int position = record.getInt();
+                    boolean on = record.get() != 0;
+                    history.restore(played, cursor);
+                    queue.clear();
+                    queue.addAll(songs);
+                    positionMs = position;
+                    shuffle = on;
+                    break;
+                }
+                case PUSH:
+                    history.push(number(record.getLong()));
+                    positionMs = 0;
+                    break;
+                case BACK:
+                    if (history.back() < 0) {
+                        return false;
+                    }
+                    positionMs = 0;
+                    break;
+                case FORWARD:
+                    if (history.forward() < 0) {
+                        return false;
+                    }
+                    positionMs = 0;
+                    break;
+                case POSITION:
+                    positionMs = record.getInt();
+                    break;
+                case SHUFFLE:
+                    shuffle = record.get() != 0;
+                    break;
+                case QUEUE_INSERT: {
+                    int position = record.getInt();
+                    int count = record.getInt();
+                    if (position < 0 || position > queue.size() || count < 0 || count > record.remaining() / 8) {
+                        return false;
+                    }
+                    int[] songs = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        songs[i] = number(record.getLong());
+                    }
+                    queue.insertAll(position, songs);
+                    break;
+                }
+                case QUEUE_MOVE: {
+                    int from = record.getInt();
+                    int to = record.getInt();
+                    if (from < 0 || from >= queue.size() || to < 0 || to >= queue.size()) {
+                        return false;
+                    }
+                    queue.move(from, to);
+                    break;
+                }
+                case QUEUE_REMOVE: {
+                    int position = record.getInt();
+                    if (position < 0 || position >= queue.size()) {
+                        return false;
+                    }
+                    queue.remove(position);
+                    break;
+                }
+                case QUEUE_CLEAR:
+                    queue.clear();
+                    break;
+                default:
+                    return false;
+            }
+            return true;
+        }
+
+        private int number(long id) {
+            int number = numbers.get(id, -1);
+            if (number < 0) {
+                number = songs++;
+                numbers.put(id, number);
+                if (number == ids.length) {
+                    ids = Arrays.copyOf(ids, number * 2);
+                }
+                ids[number] = id;
+            }
+            return number;
+        }
+
+        State toState() {
+            long[] played = new long[history.size()];
+            for (int i = 0; i < played.length; i++) {
+                played[i] = ids[history.get(i)];
+            }
+            int[] queued = queue.toArray();
+            long[] songs = new long[queued.length];
+            for (int i = 0; i < queued.length; i++) {
+                songs[i] = ids[queued[i]];
+            }
+            return new State(played, history.getCursor(), songs, positionMs, shuffle);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package untitled.nativemediaplayer;
+
+import java.util.Random;
+
+/**
+ * Shuffled play order over the rows of the song list.
+ * The permutation is built lazily, one Fisher-Yates step per song played, so every call is O(1) and
+ * no song repeats until the whole list has been played. Memory is two ints per song (the order and its inverse);
+ * both arrays start zeroed, a zero meaning the song is still in its original slot.
+ */
+public class ShuffleOrder {
+    private final Random random;
+    private int size;
+    private int[] order;
+    private int[] slotOf;
+
+    //Slots [0, played) hold the songs already played in the current round.
+    private int played;
+    //Slots [played, played + picked) hold songs already picked by peek(), next() returns them in that order.
+    private int picked;
+    private int lastPlayed = -1;
+
+    public ShuffleOrder(int size) {
+        this(size, new Random());
+    }
+
+    public ShuffleOrder(int size, Random random) {
+        this.random = random;
+        reset(size);
+    }
+
+    /**
+     * Starts over with a new number of songs, nothing counts as played.
+     */
+    public void reset(int size) {
+        this.size = size;
+        this.order = new int[size];
+        this.slotOf = new int[size];
+        this.played = 0;
+        this.picked = 0;
+        this.lastPlayed = -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Songs left before the current round is complete.
+     */
+    public int remaining() {
+        return size - played;
+    }
+
+    /**
+     * Returns the song to play next and marks it as played.
+     * @return the row of the song, or -1 if there are no songs.
+     */
+    public int next() {
+        int song = peek();
+        if (song >= 0) {
+            played++;
+            picked--;
+            lastPlayed = song;
+        }
+        return song;
+    }
+
+    /**
+     * Returns the song next() will return, without marking it as played.
+     */
+    public int peek() {
+        return peek(0);
+    }
+
+    /**
+     * Returns the song next() will return after the given number of other songs, without marking any as played.
+     * Only looks within the current round.
+     * @return the row of the song, or -1 if there are no songs or the round ends before.
+     */
+    public int peek(int ahead) {
+        if (size == 0) {
+            return -1;
+        }
+        if (played == size) {
+            startRound();
+        }
+        if (played + ahead >= size) {
+            return -1;
+        }
+        while (picked <= ahead) {
+            int from = played + picked;
+            int to = size;
+            //The first song of a new round is never the last song of the previous one.
+            if (from == 0 && lastPlayed >= 0 && size > 1) {
+                swap(slotOf(lastPlayed), size - 1);
+                to = size - 1;
+            }
+            swap(from, from + random.nextInt(to - from));
+            picked++;
+        }
+        return songAt(played + ahead);
+    }
+
+    /**
+     * Marks a song as played in the current round, e.g. when the user picks it from the list,
+     * so the shuffle won't play it again before the round is over.
+     */
+    public void markPlayed(int song) {
+        if (song < 0 || song >= size) {
+            return;
+        }
+        if (played == size) {
+            startRound();
+        }
+        int slot = slotOf(song);
+        if (slot >= played) {
+            swap(slot, played);
+            played++;
+            picked = 0;
+        }
+        lastPlayed = song;
+    }
+
+    /**
+     * Starts a new round from the given song: it counts as played and every other song is available again.
+     */
+    public void reshuffle(int currentSong) {
+        played = 0;
+        picked = 0;
+        lastPlayed = -1;
+        markPlayed(currentSong);
+    }
+
+    private void startRound() {
+        played = 0;
+        picked = 0;
+    }
+
+    private int songAt(int slot) {
+        int value = order[slot];
+        return value == 0 ? slot : value - 1;
+    }
+
+    private int slotOf(int song) {
+        int value = slotOf[song];
+        return value == 0 ? song : value - 1;
+    }
+
+    private void swap(int slotA, int slotB) {
+        if (slotA == slotB) {
+            return;
+        }
+        int songA = songAt(slotA);
+        int songB = songAt(slotB);
+        order[slotA] = songB + 1;
+        order[slotB] = songA + 1;
+        slotOf[songA] = slotB + 1;
+        slotOf[songB] = slotA + 1;
+    }
+}
@@ -0,0 +1,152 @@
+package untitled.nativemediaplayer;
+
+/**
+ * Groups bursts of next/prev skips so only the song the burst ends on is prepared.
+ * The first skip after a quiet period prepares right away; skips following it within the window only move the target,
+ * and the target is prepared once no skip came for a whole window. A prepare still running when another skip comes
+ * is stale: it is cancelled and counted as wasted.
+ * Every skip gets a new generation, prepares are identified by the generation they were started for.
+ * Only used from one thread (the playback thread).
+ */
+public class SkipCoalescer {
+
+    /**
+     * What the skips lead to.
+     */
+    public interface Target {
+        /**
+         * Starts preparing the song the skips ended on.
+         */
+        void prepare(int generation);
+
+        /**
+         * Abandons the prepare started for the given generation, a later skip superseded it.
+         */
+        void cancel(int generation);
+    }
+
+    /**
+     * Delayed execution and the clock, a Handler and SystemClock.uptimeMillis() on Android.
+     */
+    public interface Scheduler {
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+
+        long now();
+    }
+
+    private final Target target;
+    private final Scheduler scheduler;
+    private final long windowMs;
+
+    private int generation;
+    //Generation of the prepare in flight, -1 when none is.
+    private int preparing = -1;
+    private long lastSkipAt;
+    private boolean hasSkipped = false;
+
+    private int skips;
+    private int prepares;
+    private int completed;
+    private int wasted;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
+
+    public SkipCoalescer(Target target, Scheduler scheduler, long windowMs) {
+        this.target = target;
+        this.scheduler = scheduler;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Called after the current song moved to the next/previous one.
+     * @return the generation of the skip.
+     */
+    public int skip() {
+        generation++;
+        skips++;
+        long now = scheduler.now();
+        boolean burst = hasSkipped && now - lastSkipAt < windowMs;
+        lastSkipAt = now;
+        hasSkipped = true;
+
+        abandon();
+        scheduler.removeCallbacks(flush);
+        if (burst) {
+            scheduler.postDelayed(flush, windowMs);
+        } else {
+            start();
+        }
+        return generation;
+    }
+
+    /**
+     * A prepare finished.
+     * @return false if it was started for a skip that was superseded since.
+     */
+    public boolean onPrepared(int preparedGeneration) {
+        if (preparing < 0 || preparedGeneration != preparing) {
+            return false;
+        }
+        preparing = -1;
+        completed++;
+        return true;
+    }
+
+    /**
+     * Drops the skips waiting to be prepared, e.g. the user picked a song from the list.
+     */
+    public void reset() {
+        scheduler.removeCallbacks(flush);
+        abandon();
+        hasSkipped = false;
+    }
+
+    private void start() {
+        preparing = generation;
+        prepares++;
+        target.prepare(generation);
+    }
+
+    private void abandon() {
+        if (preparing >= 0) {
+            wasted++;
+            target.cancel(preparing);
+            preparing = -1;
+        }
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getSkipCount() {
+        return skips;
+    }
+
+    public int getPrepareCount() {
+        return prepares;
+    }
+
+    public int getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * Prepares started and cancelled before they finished.
+     */
+    public int getWastedCount() {
+        return wasted;
+    }
+
+    @Override
+    public String toString() {
+        return skips + " skips, " + prepares + " prepares (" + completed + " completed, " + wasted + " wasted)";
+    }
+}
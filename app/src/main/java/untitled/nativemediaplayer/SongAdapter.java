@@ -5,33 +5,85 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
-import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-
 public class SongAdapter extends BaseAdapter {
-    private ArrayList<Song> songs;
+    private SongTable songs;
     private LayoutInflater songInflater;
+    //Rows of the songs shown while searching, best match first; null shows every song in list order.
+    private int[] filter;
+    //Long press on a row, set on every row inflated.
+    private View.OnLongClickListener longClickListener;
+
+    //Counters used by the scroll benchmark.
+    private int inflateCount;
+    private int bindCount;
 
-    public SongAdapter(Context c, ArrayList<Song> songList){
+    public SongAdapter(Context c, SongTable songList){
         this.songs = songList;
         this.songInflater = LayoutInflater.from(c);
     }
 
+    /**
+     * Holds the views of a row so recycled rows don't need findViewById again.
+     * The row currently bound is kept here as well, it is used as the song position when a row is picked.
+     */
+    static class ViewHolder {
+        final TextView titleView;
+        final TextView artistView;
+        int position;
+
+        ViewHolder(View songLayout) {
+            this.titleView = songLayout.findViewById(R.id.song_title);
+            this.artistView = songLayout.findViewById(R.id.song_artist);
+        }
+    }
+
+    /**
+     * Shows only the given rows of the song list, in that order, without copying the list.
+     * @param rows - rows of the songs to show, or null to show every song again.
+     */
+    public void setFilter(int[] rows){
+        this.filter = rows;
+        notifyDataSetChanged();
+    }
+
+    public void setOnLongClickListener(View.OnLongClickListener listener){
+        this.longClickListener = listener;
+    }
+
+    public boolean isFiltered(){
+        return filter != null;
+    }
+
+    //Row in the song list of the item at the position.
+    private int rowAt(int position){
+        return filter == null ? position : filter[position];
+    }
+
     @Override
     public int getCount() {
-        return songs.size();
+        return filter == null ? songs.size() : filter.length;
     }
 
+    /**
+     * Creates a Song for the row, prefer the index based accessors of the SongTable where possible.
+     */
     @Override
     public Object getItem(int position) {
-        return null;
+        return songs.getSong(rowAt(position));
     }
 
     @Override
     public long getItemId(int position) {
-        return 0;
+        return songs.getID(rowAt(position));
+    }
+
+    //MediaStore IDs don't change when rows are added or sorted so the ListView can keep track of its rows.
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     /**
@@ -43,23 +95,64 @@ public class SongAdapter extends BaseAdapter {
      */
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        View songLayout = convertView;
+        ViewHolder holder;
 
-        //Inflate song layout
-        LinearLayout songLayout = (LinearLayout)songInflater.inflate(R.layout.song, parent, false);
+        //Inflate song layout only when there is no row to recycle
+        if(songLayout == null){
+            songLayout = songInflater.inflate(R.layout.song, parent, false);
+            holder = new ViewHolder(songLayout);
+            songLayout.setTag(holder);
+            songLayout.setOnLongClickListener(longClickListener);
+            inflateCount++;
+        }else{
+            holder = (ViewHolder) songLayout.getTag();
+        }
 
-        //Get the Title/Artist text views
-        TextView songView = songLayout.findViewById(R.id.song_title);
-        TextView artistView = songLayout.findViewById(R.id.song_artist);
+        bind(holder, rowAt(position));
+        return songLayout;
+    }
 
-        //get the song using the position
-        Song currentSong = songs.get(position);
+    /**
+     * Rebinds a single row if it is currently on screen, without notifying the whole list.
+     * @return true if the row was visible and got updated; always false while filtered.
+     */
+    public boolean rebindRow(ListView listView, int position){
+        if(filter != null){
+            return false;
+        }
+        int child = position - listView.getFirstVisiblePosition();
+        if(child < 0 || child >= listView.getChildCount()){
+            return false;
+        }
+        Object tag = listView.getChildAt(child).getTag();
+        if(!(tag instanceof ViewHolder)){
+            return false;
+        }
+        bind((ViewHolder) tag, position);
+        return true;
+    }
 
-        //Display song & artist information in their appropriate fields
-        songView.setText(currentSong.getTitle());
-        artistView.setText(currentSong.getArtist());
+    private void bind(ViewHolder holder, int row){
+        //Display song & artist information of the row in their appropriate fields
+        holder.titleView.setText(songs.getTitle(row));
+        holder.artistView.setText(songs.getArtist(row));
+        holder.position = row;
+        bindCount++;
+    }
 
-        //set Position as tag
-        songLayout.setTag(position);
-        return songLayout;
+    /**
+     * Returns the song position (row in the song list) of a row view created by this adapter.
+     */
+    public static int getPosition(View songLayout){
+        return ((ViewHolder) songLayout.getTag()).position;
+    }
+
+    int getInflateCount(){
+        return inflateCount;
+    }
+
+    int getBindCount(){
+        return bindCount;
     }
 }
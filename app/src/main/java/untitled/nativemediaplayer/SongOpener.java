@@ -0,0 +1,12 @@
+package untitled.nativemediaplayer;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Opens the file of a song by its MediaStore ID, for the caches reading songs in the background.
+ * The caller closes the stream.
+ */
+public interface SongOpener {
+    FileInputStream open(long id) throws IOException;
+}
@@ -0,0 +1,310 @@
+package untitled.nativemediaplayer;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sort engine for the {@link SongTable}.
+ * A locale aware collation key is computed once for every distinct Title/Artist string and turned into an int rank,
+ * so sorting the rows only compares ints. Keys are cached per StringPool reference and reused between sorts;
+ * only strings added since the last sort get new keys. A copy of the pool (a table copied to be sorted in the
+ * background) reuses the keys of the strings it shares with the pool keyed before.
+ * Not thread safe: the sorts run one at a time, on any thread.
+ */
+public class SongSorter {
+
+    /**
+     * Sort keys, applied in the order they are given. Date added puts the newest songs first.
+     */
+    public enum Key {
+        TITLE, ARTIST, DATE_ADDED
+    }
+
+    // Below this many rows a single thread is faster than splitting the work.
+    static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final int INSERTION_THRESHOLD = 32;
+
+    private final Collator collator;
+
+    //Cache of collation keys (as bytes) indexed by StringPool reference, and the strings they were computed for.
+    private StringPool keyedPool;
+    private String[] keyedStrings = new String[0];
+    private byte[][] keys = new byte[0][];
+    private int keyedCount;
+    private int[] ranks = new int[0];
+    private int rankedCount;
+    private int keysComputed;
+
+    public SongSorter() {
+        this(Collator.getInstance());
+    }
+
+    public SongSorter(Collator collator) {
+        this.collator = collator;
+    }
+
+    /**
+     * Sorts the rows of the table in place.
+     * @return the order that was applied: row i now holds the row previously stored at order[i].
+     */
+    public int[] sort(SongTable table, Key... order) {
+        int[] sorted = sortedOrder(table, order);
+        table.permute(sorted);
+        return sorted;
+    }
+
+    /**
+     * Returns the rows of the table in sorted order without modifying the table.
+     */
+    public int[] sortedOrder(SongTable table, Key... order) {
+        final int[] rank = rankStrings(table.getStrings());
+        final int size = table.size();
+        final int[] titles = new int[size];
+        final int[] artists = new int[size];
+        final long[] dates = new long[size];
+        for (int i = 0; i < size; i++) {
+            titles[i] = rankOf(rank, table.getTitleRef(i));
+            artists[i] = rankOf(rank, table.getArtistRef(i));
+            dates[i] = table.getDateAdded(i);
+        }
+
+        final Key[] keysInOrder = order.length == 0 ? new Key[] {Key.TITLE} : order.clone();
+        RowComparator comparator = new RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                for (Key key : keysInOrder) {
+                    int result;
+                    switch (key) {
+                        case TITLE:
+                            result = Integer.compare(titles[a], titles[b]);
+                            break;
+                        case ARTIST:
+                            result = Integer.compare(artists[a], artists[b]);
+                            break;
+                        default:
+                            result = Long.compare(dates[b], dates[a]);
+                            break;
+                    }
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+            }
+        };
+
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        sortRows(rows, comparator, size >= PARALLEL_THRESHOLD);
+        return rows;
+    }
+
+    /**
+     * Number of collation keys computed so far, keys reused from the cache are not counted.
+     */
+    public int getKeysComputed() {
+        return keysComputed;
+    }
+
+    // Songs without a Title/Artist are kept in front, like an empty string would be.
+    private static int rankOf(int[] rank, int ref) {
+        return ref < 0 ? -1 : rank[ref];
+    }
+
+    /**
+     * Computes the missing collation keys of the pool and ranks every string by its key.
+     */
+    private int[] rankStrings(final StringPool pool) {
+        if (pool != keyedPool) {
+            //pools only grow, so the strings a copy shares with the pool keyed before come first
+            int shared = 0;
+            int limit = Math.min(keyedCount, pool.size());
+            while (shared < limit && pool.get(shared) == keyedStrings[shared]) {
+                shared++;
+            }
+            keyedPool = pool;
+            if (shared < keyedCount || pool.size() != rankedCount) {
+                rankedCount = -1;
+            }
+            keyedCount = shared;
+        }
+        int count = pool.size();
+        if (count == rankedCount) {
+            return ranks;
+        }
+
+        if (keys.length < count) {
+            keys = Arrays.copyOf(keys, Math.max(count, keys.length * 2));
+            keyedStrings = Arrays.copyOf(keyedStrings, keys.length);
+        }
+        for (int ref = keyedCount; ref < count; ref++) {
+            keyedStrings[ref] = pool.get(ref);
+        }
+        if (count - keyedCount >= PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new CollationKeyTask(pool, keys, keyedCount, count));
+        } else {
+            computeKeys(collator, pool, keys, keyedCount, count);
+        }
+        keysComputed += count - keyedCount;
+        keyedCount = count;
+
+        //Rank the distinct strings, equal keys get the same rank.
+        int[] refs = new int[count];
+        for (int i = 0; i < count; i++) {
+            refs[i] = i;
+        }
+        final byte[][] sortKeys = keys;
+        RowComparator byKey = new RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return compareKeys(sortKeys[a], sortKeys[b]);
+            }
+        };
+        sortRows(refs, byKey, count >= PARALLEL_THRESHOLD);
+
+        ranks = new int[count];
+        int rank = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && compareKeys(keys[refs[i - 1]], keys[refs[i]]) != 0) {
+                rank = i;
+            }
+            ranks[refs[i]] = rank;
+        }
+        rankedCount = count;
+        return ranks;
+    }
+
+    private static void computeKeys(Collator collator, StringPool pool, byte[][] keys, int from, int to) {
+        for (int ref = from; ref < to; ref++) {
+            keys[ref] = collator.getCollationKey(pool.get(ref)).toByteArray();
+        }
+    }
+
+    /**
+     * Computes the collation keys of a range of strings, split across threads.
+     * A Collator is not thread safe so every chunk works with its own copy.
+     */
+    private class CollationKeyTask extends RecursiveAction {
+        private final StringPool pool;
+        private final byte[][] keys;
+        private final int from;
+        private final int to;
+
+        CollationKeyTask(StringPool pool, byte[][] keys, int from, int to) {
+            this.pool = pool;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                computeKeys((Collator) collator.clone(), pool, keys, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CollationKeyTask(pool, keys, from, middle), new CollationKeyTask(pool, keys, middle, to));
+        }
+    }
+
+    // Collation keys compare as unsigned bytes.
+    static int compareKeys(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int result = (a[i] & 0xff) - (b[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Stable merge sort of an int array, split across the common ForkJoinPool when parallel is set.
+     */
+    static void sortRows(int[] rows, RowComparator comparator, boolean parallel) {
+        int[] buffer = new int[rows.length];
+        MergeSortTask task = new MergeSortTask(rows, buffer, 0, rows.length, comparator,
+                parallel ? PARALLEL_THRESHOLD : Integer.MAX_VALUE);
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    private static class MergeSortTask extends RecursiveAction {
+        private final int[] rows;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final RowComparator comparator;
+        private final int splitThreshold;
+
+        MergeSortTask(int[] rows, int[] buffer, int from, int to, RowComparator comparator, int splitThreshold) {
+            this.rows = rows;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+            this.splitThreshold = splitThreshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= splitThreshold) {
+                sequentialSort(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MergeSortTask(rows, buffer, from, middle, comparator, splitThreshold),
+                    new MergeSortTask(rows, buffer, middle, to, comparator, splitThreshold));
+            merge(from, middle, to);
+        }
+
+        private void sequentialSort(int lo, int hi) {
+            if (hi - lo <= INSERTION_THRESHOLD) {
+                for (int i = lo + 1; i < hi; i++) {
+                    int row = rows[i];
+                    int j = i - 1;
+                    while (j >= lo && comparator.compare(rows[j], row) > 0) {
+                        rows[j + 1] = rows[j];
+                        j--;
+                    }
+                    rows[j + 1] = row;
+                }
+                return;
+            }
+            int middle = (lo + hi) >>> 1;
+            sequentialSort(lo, middle);
+            sequentialSort(middle, hi);
+            merge(lo, middle, hi);
+        }
+
+        private void merge(int lo, int middle, int hi) {
+            //Already in order, nothing to merge.
+            if (comparator.compare(rows[middle - 1], rows[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(rows, lo, buffer, lo, hi - lo);
+            int left = lo;
+            int right = middle;
+            for (int i = lo; i < hi; i++) {
+                if (right >= hi || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                    rows[i] = buffer[left++];
+                } else {
+                    rows[i] = buffer[right++];
+                }
+            }
+        }
+    }
+}
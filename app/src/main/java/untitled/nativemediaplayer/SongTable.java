@@ -0,0 +1,370 @@
+package untitled.nativemediaplayer;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column-oriented song library.
+ * Every song is a row index: the ID and date added live in long[]s and Title/Artist/Album are int references into a
+ * shared {@link StringPool}, so a library of any size costs a few arrays instead of one object per song.
+ * Album ID, track number and duration are used by the {@link BrowseIndex}; 0 when unknown.
+ */
+public class SongTable {
+    private long[] ids;
+    private int[] titleRefs;
+    private int[] artistRefs;
+    private long[] datesAdded;
+    private int[] albumRefs;
+    private long[] albumIDs;
+    private int[] tracks;
+    private int[] durations;
+    private int size;
+    private final StringPool strings;
+
+    public SongTable() {
+        this(64);
+    }
+
+    public SongTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.ids = new long[capacity];
+        this.titleRefs = new int[capacity];
+        this.artistRefs = new int[capacity];
+        this.datesAdded = new long[capacity];
+        this.albumRefs = new int[capacity];
+        this.albumIDs = new long[capacity];
+        this.tracks = new int[capacity];
+        this.durations = new int[capacity];
+        this.strings = new StringPool(capacity);
+    }
+
+    /**
+     * Builds a table directly from its columns, used when reading a LibrarySnapshot.
+     */
+    SongTable(long[] ids, int[] titleRefs, int[] artistRefs, long[] datesAdded, int[] albumRefs, long[] albumIDs,
+              int[] tracks, int[] durations, StringPool strings) {
+        this.ids = ids;
+        this.titleRefs = titleRefs;
+        this.artistRefs = artistRefs;
+        this.datesAdded = datesAdded;
+        this.albumRefs = albumRefs;
+        this.albumIDs = albumIDs;
+        this.tracks = tracks;
+        this.durations = durations;
+        this.strings = strings;
+        this.size = ids.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Appends a song at the end of the table.
+     */
+    public void add(long songID, String songTitle, String songArtist) {
+        add(songID, songTitle, songArtist, 0);
+    }
+
+    public void add(long songID, String songTitle, String songArtist, long dateAdded) {
+        add(songID, songTitle, songArtist, dateAdded, null, 0, 0, 0);
+    }
+
+    /**
+     * @param track - MediaStore TRACK: the disc number times 1000 plus the track number.
+     * @param duration - in milliseconds.
+     */
+    public void add(long songID, String songTitle, String songArtist, long dateAdded, String album, long albumID,
+                    int track, int duration) {
+        ensureCapacity(size + 1);
+        ids[size] = songID;
+        titleRefs[size] = strings.intern(songTitle);
+        artistRefs[size] = strings.intern(songArtist);
+        datesAdded[size] = dateAdded;
+        albumRefs[size] = strings.intern(album);
+        albumIDs[size] = albumID;
+        tracks[size] = track;
+        durations[size] = duration;
+        size++;
+    }
+
+    /**
+     * Appends every row of another table (e.g. a page delivered by the LibraryScanner).
+     */
+    public void addAll(SongTable other) {
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            ids[size] = other.ids[i];
+            titleRefs[size] = strings.intern(other.getTitle(i));
+            artistRefs[size] = strings.intern(other.getArtist(i));
+            datesAdded[size] = other.datesAdded[i];
+            albumRefs[size] = strings.intern(other.getAlbum(i));
+            albumIDs[size] = other.albumIDs[i];
+            tracks[size] = other.tracks[i];
+            durations[size] = other.durations[i];
+            size++;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Replaces the Title/Artist/date added of a row, the ID stays the same.
+     */
+    public void set(int row, String songTitle, String songArtist, long dateAdded) {
+        set(row, songTitle, songArtist, dateAdded, getAlbum(row), albumIDs[row], tracks[row], durations[row]);
+    }
+
+    /**
+     * Replaces every column of a row but the ID.
+     */
+    public void set(int row, String songTitle, String songArtist, long dateAdded, String album, long albumID,
+                    int track, int duration) {
+        checkRow(row);
+        titleRefs[row] = strings.intern(songTitle);
+        artistRefs[row] = strings.intern(songArtist);
+        datesAdded[row] = dateAdded;
+        albumRefs[row] = strings.intern(album);
+        albumIDs[row] = albumID;
+        tracks[row] = track;
+        durations[row] = duration;
+    }
+
+    /**
+     * Removes the flagged rows, the remaining rows keep their order.
+     * @return the new row of every old row, or -1 for the rows removed.
+     */
+    public int[] removeRows(BitSet removed) {
+        int[] newRowOf = new int[size];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (removed.get(i)) {
+                newRowOf[i] = -1;
+                continue;
+            }
+            ids[kept] = ids[i];
+            titleRefs[kept] = titleRefs[i];
+            artistRefs[kept] = artistRefs[i];
+            datesAdded[kept] = datesAdded[i];
+            albumRefs[kept] = albumRefs[i];
+            albumIDs[kept] = albumIDs[i];
+            tracks[kept] = tracks[i];
+            durations[kept] = durations[i];
+            newRowOf[i] = kept++;
+        }
+        size = kept;
+        return newRowOf;
+    }
+
+    /**
+     * Copies the table, so it can be handed to another thread while this one keeps changing.
+     */
+    public SongTable copy() {
+        return new SongTable(Arrays.copyOf(ids, size), Arrays.copyOf(titleRefs, size), Arrays.copyOf(artistRefs, size),
+                Arrays.copyOf(datesAdded, size), Arrays.copyOf(albumRefs, size), Arrays.copyOf(albumIDs, size),
+                Arrays.copyOf(tracks, size), Arrays.copyOf(durations, size), strings.copy());
+    }
+
+    /**
+     * Index based accessors, no object is created per row.
+     */
+    public long getID(int row) {
+        return ids[checkRow(row)];
+    }
+
+    public String getTitle(int row) {
+        return strings.get(titleRefs[checkRow(row)]);
+    }
+
+    public String getArtist(int row) {
+        return strings.get(artistRefs[checkRow(row)]);
+    }
+
+    /**
+     * MediaStore DATE_ADDED of the row, in seconds since the epoch.
+     */
+    public long getDateAdded(int row) {
+        return datesAdded[checkRow(row)];
+    }
+
+    public String getAlbum(int row) {
+        return strings.get(albumRefs[checkRow(row)]);
+    }
+
+    public long getAlbumID(int row) {
+        return albumIDs[checkRow(row)];
+    }
+
+    /**
+     * MediaStore TRACK of the row: disc number * 1000 + track number, 0 if unknown.
+     */
+    public int getTrack(int row) {
+        return tracks[checkRow(row)];
+    }
+
+    /**
+     * Duration of the row in milliseconds, 0 if unknown.
+     */
+    public int getDuration(int row) {
+        return durations[checkRow(row)];
+    }
+
+    public int getTitleRef(int row) {
+        return titleRefs[checkRow(row)];
+    }
+
+    public int getArtistRef(int row) {
+        return artistRefs[checkRow(row)];
+    }
+
+    public int getAlbumRef(int row) {
+        return albumRefs[checkRow(row)];
+    }
+
+    public String getSongInfo(int row) {
+        return getTitle(row) + " - " + getArtist(row);
+    }
+
+    public StringPool getStrings() {
+        return strings;
+    }
+
+    /**
+     * Creates a {@link Song} for a single row. Only meant for callers that need an object (e.g. Adapter.getItem()).
+     */
+    public Song getSong(int row) {
+        return new Song(getID(row), getTitle(row), getArtist(row));
+    }
+
+    /**
+     * Returns the row of the song with the given ID or -1 if it is not in the table.
+     */
+    public int indexOfID(long songID) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == songID) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds a lookup from song ID to row, valid until the rows change.
+     */
+    public IDIndex idIndex() {
+        return new IDIndex(this);
+    }
+
+    /**
+     * Rows sorted by song ID, found with a binary search.
+     */
+    public static class IDIndex {
+        private final long[] sortedIDs;
+        private final int[] rows;
+
+        IDIndex(SongTable songs) {
+            final long[] ids = Arrays.copyOf(songs.ids, songs.size);
+            rows = new int[songs.size];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = i;
+            }
+            SongSorter.sortRows(rows, new SongSorter.RowComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    return Long.compare(ids[a], ids[b]);
+                }
+            }, false);
+            sortedIDs = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                sortedIDs[i] = ids[rows[i]];
+            }
+        }
+
+        /**
+         * Returns the row of the song, or -1 if it is not in the table.
+         */
+        public int rowOf(long songID) {
+            int found = Arrays.binarySearch(sortedIDs, songID);
+            return found < 0 ? -1 : rows[found];
+        }
+    }
+
+    /**
+     * Reorders the rows so that row i becomes the row previously stored at order[i].
+     * @param order - permutation of [0, size).
+     */
+    public void permute(int[] order) {
+        if (order.length != size) {
+            throw new IllegalArgumentException("Order has " + order.length + " rows, table has " + size);
+        }
+        long[] newIds = new long[ids.length];
+        int[] newTitles = new int[titleRefs.length];
+        int[] newArtists = new int[artistRefs.length];
+        long[] newDates = new long[datesAdded.length];
+        int[] newAlbums = new int[albumRefs.length];
+        long[] newAlbumIDs = new long[albumIDs.length];
+        int[] newTracks = new int[tracks.length];
+        int[] newDurations = new int[durations.length];
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            newIds[i] = ids[from];
+            newTitles[i] = titleRefs[from];
+            newArtists[i] = artistRefs[from];
+            newDates[i] = datesAdded[from];
+            newAlbums[i] = albumRefs[from];
+            newAlbumIDs[i] = albumIDs[from];
+            newTracks[i] = tracks[from];
+            newDurations[i] = durations[from];
+        }
+        ids = newIds;
+        titleRefs = newTitles;
+        artistRefs = newArtists;
+        datesAdded = newDates;
+        albumRefs = newAlbums;
+        albumIDs = newAlbumIDs;
+        tracks = newTracks;
+        durations = newDurations;
+    }
+
+    /**
+     * Releases spare capacity once the library has been fully read.
+     */
+    public void trimToSize() {
+        ids = Arrays.copyOf(ids, Math.max(size, 1));
+        titleRefs = Arrays.copyOf(titleRefs, Math.max(size, 1));
+        artistRefs = Arrays.copyOf(artistRefs, Math.max(size, 1));
+        datesAdded = Arrays.copyOf(datesAdded, Math.max(size, 1));
+        albumRefs = Arrays.copyOf(albumRefs, Math.max(size, 1));
+        albumIDs = Arrays.copyOf(albumIDs, Math.max(size, 1));
+        tracks = Arrays.copyOf(tracks, Math.max(size, 1));
+        durations = Arrays.copyOf(durations, Math.max(size, 1));
+        strings.trimToSize();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            titleRefs = Arrays.copyOf(titleRefs, newCapacity);
+            artistRefs = Arrays.copyOf(artistRefs, newCapacity);
+            datesAdded = Arrays.copyOf(datesAdded, newCapacity);
+            albumRefs = Arrays.copyOf(albumRefs, newCapacity);
+            albumIDs = Arrays.copyOf(albumIDs, newCapacity);
+            tracks = Arrays.copyOf(tracks, newCapacity);
+            durations = Arrays.copyOf(durations, newCapacity);
+        }
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,76 @@
+package untitled.nativemediaplayer;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Printer;
+
+/**
+ * Measures how long each message takes on a Looper (the main thread), using the Looper's message logging.
+ * A message running longer than a frame is a stall: the UI can't draw or respond to taps meanwhile.
+ * Message logging builds a string per message, so it is only installed in debug builds.
+ */
+public class StallMonitor implements Printer {
+    //One frame at 60 Hz.
+    static final long STALL_MS = 16;
+
+    private long dispatchStart = -1;
+    private int messages;
+    private int stalls;
+    private long stalledMs;
+    private long maxMs;
+
+    public void install(Looper looper) {
+        looper.setMessageLogging(this);
+    }
+
+    public void uninstall(Looper looper) {
+        looper.setMessageLogging(null);
+    }
+
+    /**
+     * Called by the Looper with ">>>>> Dispatching..." before each message and "<<<<< Finished..." after it.
+     */
+    @Override
+    public void println(String x) {
+        if (x.startsWith(">>>>>")) {
+            dispatchStart = SystemClock.uptimeMillis();
+        } else if (x.startsWith("<<<<<") && dispatchStart >= 0) {
+            record(SystemClock.uptimeMillis() - dispatchStart);
+            dispatchStart = -1;
+        }
+    }
+
+    void record(long durationMs) {
+        messages++;
+        maxMs = Math.max(maxMs, durationMs);
+        if (durationMs > STALL_MS) {
+            stalls++;
+            stalledMs += durationMs;
+        }
+    }
+
+    public void reset() {
+        messages = 0;
+        stalls = 0;
+        stalledMs = 0;
+        maxMs = 0;
+    }
+
+    public int getStallCount() {
+        return stalls;
+    }
+
+    public long getStalledMs() {
+        return stalledMs;
+    }
+
+    public long getMaxMs() {
+        return maxMs;
+    }
+
+    @Override
+    public String toString() {
+        return messages + " messages, " + stalls + " stalls over " + STALL_MS + " ms (" + stalledMs + " ms in total), longest "
+                + maxMs + " ms";
+    }
+}
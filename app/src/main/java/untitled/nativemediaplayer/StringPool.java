@@ -0,0 +1,82 @@
+package untitled.nativemediaplayer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Deduplicated store of the strings used by the {@link SongTable}.
+ * Each distinct string is kept once and referenced by its int index; null is referenced as -1.
+ */
+public class StringPool {
+    private String[] values;
+    private int size;
+
+    // Lookup used while strings are being added. Dropped by trimToSize() and rebuilt when needed.
+    private HashMap<String, Integer> lookup;
+
+    public StringPool() {
+        this(16);
+    }
+
+    public StringPool(int capacity) {
+        this.values = new String[Math.max(capacity, 1)];
+        this.lookup = new HashMap<>();
+    }
+
+    /**
+     * Wraps strings that are already distinct (e.g. read back from a LibrarySnapshot).
+     */
+    StringPool(String[] values) {
+        this.values = values.length == 0 ? new String[1] : values;
+        this.size = values.length;
+    }
+
+    /**
+     * Returns the reference of the given string, adding it to the pool if it is not there yet.
+     */
+    public int intern(String value) {
+        if (value == null) {
+            return -1;
+        }
+        if (lookup == null) {
+            rebuildLookup();
+        }
+        Integer ref = lookup.get(value);
+        if (ref != null) {
+            return ref;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        lookup.put(value, size);
+        return size++;
+    }
+
+    public String get(int ref) {
+        return ref < 0 ? null : values[ref];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public StringPool copy() {
+        return new StringPool(Arrays.copyOf(values, size));
+    }
+
+    /**
+     * Releases the spare capacity and the lookup map once no more strings are expected.
+     */
+    public void trimToSize() {
+        values = Arrays.copyOf(values, Math.max(size, 1));
+        lookup = null;
+    }
+
+    private void rebuildLookup() {
+        lookup = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            lookup.put(values[i], i);
+        }
+    }
+}
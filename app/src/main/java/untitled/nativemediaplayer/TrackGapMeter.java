@@ -0,0 +1,87 @@
+package untitled.nativemediaplayer;
+
+/**
+ * Measures the silence between two tracks: from the end of a track to the start of the next one.
+ * A player chained with setNextMediaPlayer may report its start before the previous one reports its end,
+ * in which case the gap is 0. Times are in milliseconds from a monotonic clock.
+ */
+public class TrackGapMeter {
+    private long endedAt = -1;
+    private long startedAt = -1;
+
+    private int count;
+    private long lastGap = -1;
+    private long totalGap;
+    private long maxGap;
+
+    /**
+     * A track played to its end.
+     */
+    public void trackEnded(long now) {
+        if (startedAt >= 0) {
+            record(0);
+            return;
+        }
+        endedAt = now;
+    }
+
+    /**
+     * The next track started playing after being prepared. Ignored if no track just ended (the user picked a song).
+     */
+    public void trackStarted(long now) {
+        if (endedAt >= 0) {
+            record(Math.max(0, now - endedAt));
+        }
+    }
+
+    /**
+     * A player chained to the current one started playing, before or after the current one reported its end.
+     */
+    public void nextStarted(long now) {
+        if (endedAt >= 0) {
+            record(Math.max(0, now - endedAt));
+            return;
+        }
+        startedAt = now;
+    }
+
+    /**
+     * Forgets the pending event, e.g. when the user skips: that is not a transition between tracks.
+     */
+    public void cancel() {
+        endedAt = -1;
+        startedAt = -1;
+    }
+
+    private void record(long gap) {
+        cancel();
+        count++;
+        lastGap = gap;
+        totalGap += gap;
+        maxGap = Math.max(maxGap, gap);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the last gap measured, or -1 if none was.
+     */
+    public long getLastGap() {
+        return lastGap;
+    }
+
+    public long getMaxGap() {
+        return maxGap;
+    }
+
+    public long getAverageGap() {
+        return count == 0 ? 0 : totalGap / count;
+    }
+
+    @Override
+    public String toString() {
+        return "last " + lastGap + " ms, avg " + getAverageGap() + " ms, max " + maxGap + " ms over " + count + " transitions";
+    }
+}
@@ -0,0 +1,34 @@
+#ifndef NATIVEMEDIAPLAYER_CHECK_H
+#define NATIVEMEDIAPLAYER_CHECK_H
+
+#include <cstdio>
+#include <cstdlib>
+
+// Minimal assertions for the host tests of native-lib, no test framework needed.
+// CHECK stops the test binary with a non-zero exit code, which ctest reports as a failure.
+#define CHECK(condition) \
+    do { \
+        if (!(condition)) { \
+            fprintf(stderr, "%s:%d: CHECK failed: %s\n", __FILE__, __LINE__, #condition); \
+            exit(1); \
+        } \
+    } while (0)
+
+#define CHECK_EQ(expected, actual) \
+    do { \
+        long long expected_ = static_cast<long long>(expected); \
+        long long actual_ = static_cast<long long>(actual); \
+        if (expected_ != actual_) { \
+            fprintf(stderr, "%s:%d: CHECK_EQ failed: %s == %s, expected %lld but was %lld\n", \
+                    __FILE__, __LINE__, #expected, #actual, expected_, actual_); \
+            exit(1); \
+        } \
+    } while (0)
+
+#define RUN(test) \
+    do { \
+        test(); \
+        printf("%s OK\n", #test); \
+    } while (0)
+
+#endif //NATIVEMEDIAPLAYER_CHECK_H
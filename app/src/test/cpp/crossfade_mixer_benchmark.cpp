@@ -0,0 +1,86 @@
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "crossfade_mixer.h"
+#include "pcm_pipeline.h"
+
+// Benchmark of the crossfade on the host: CPU time per second of mixed stereo audio, for the mixer
+// alone on float blocks and for the whole render path of PcmPipeline (both slots, conversions, mixer).
+// Not run by ctest, run the crossfade_mixer_benchmark binary.
+
+using Clock = std::chrono::steady_clock;
+
+static const int RATE = 48000;
+static const size_t FRAMES = 20000000;
+
+static void report(const char *name, double nanos, size_t frames) {
+    double perSecond = nanos / frames * RATE / 1000;
+    printf("%-32s %7.2f ns/frame  %8.1f us per second of audio  (%.3f %% of a core)\n",
+           name, nanos / frames, perSecond, perSecond / 1e4);
+}
+
+static void mixer(CrossfadeCurve curve, const char *name) {
+    const size_t block = CrossfadeMixer::BLOCK_FRAMES;
+    std::vector<float> source(2 * block);
+    std::vector<float> incoming(2 * block);
+    for (size_t i = 0; i < block; i++) {
+        source[2 * i] = static_cast<float>(0.9 * std::sin(i * 0.05));
+        source[2 * i + 1] = static_cast<float>(0.9 * std::cos(i * 0.07));
+        incoming[2 * i] = static_cast<float>(0.5 * std::sin(i * 0.11));
+        incoming[2 * i + 1] = static_cast<float>(0.5 * std::cos(i * 0.13));
+    }
+    std::vector<float> frames(source);
+    CrossfadeMixer mixer(2);
+    // one fade over the whole run, so every frame measured is mixed
+    mixer.start(curve, FRAMES);
+    float sink = 0;
+
+    Clock::time_point start = Clock::now();
+    for (size_t done = 0; done < FRAMES; done += block) {
+        mixer.mix(frames.data(), incoming.data(), block);
+        sink += frames[done % (2 * block)];
+        std::copy(source.begin(), source.end(), frames.begin());
+    }
+    double nanos = std::chrono::duration_cast<std::chrono::nanoseconds>(Clock::now() - start).count();
+    start = Clock::now();
+    for (size_t done = 0; done < FRAMES; done += block) {
+        sink += frames[done % (2 * block)];
+        std::copy(source.begin(), source.end(), frames.begin());
+    }
+    nanos -= std::chrono::duration_cast<std::chrono::nanoseconds>(Clock::now() - start).count();
+    report(name, nanos, FRAMES);
+    if (sink == 12345) {
+        printf(" ");
+    }
+}
+
+static void pipeline() {
+    const size_t burst = 192;
+    const size_t frames = FRAMES / 10;
+    PcmPipeline pipeline(RATE, 2, 4096);
+    std::vector<int16_t> pcm(2 * burst);
+    for (size_t i = 0; i < pcm.size(); i++) {
+        pcm[i] = static_cast<int16_t>(20000 * std::sin(i * 0.03));
+    }
+    std::vector<int16_t> out(2 * burst);
+    // a fade longer than the run, fed the way a sink callback would be
+    pipeline.crossfade(CURVE_EQUAL_POWER, static_cast<int>(frames * 2 * 1000 / RATE));
+    for (size_t done = 0; done < frames; done += burst) {
+        pipeline.write(pcm.data(), burst, 0);
+        pipeline.write(pcm.data(), burst, 1);
+        pipeline.render(out.data(), burst);
+    }
+    // measured by the pipeline itself: only the mixing part of the render
+    report("pipeline render, equal power", pipeline.crossfadeNanos(), pipeline.crossfadeFrames());
+}
+
+int main() {
+    printf("Crossfade, stereo frames at %d Hz\n", RATE);
+    mixer(CURVE_LINEAR, "mixer, linear");
+    mixer(CURVE_EQUAL_POWER, "mixer, equal power");
+    mixer(CURVE_S, "mixer, S curve");
+    pipeline();
+    return 0;
+}
@@ -0,0 +1,178 @@
+#include <algorithm>
+#include <atomic>
+#include <cmath>
+#include <cstdlib>
+#include <cstring>
+#include <new>
+#include <vector>
+
+#include "check.h"
+#include "crossfade_mixer.h"
+
+// Host tests of CrossfadeMixer, on PCM fixtures generated here: a sine for the outgoing track and
+// a constant (DC) signal for the incoming one, so every output frame can be checked against its gains.
+
+#define CHECK_NEAR(expected, actual, tolerance) \
+    do { \
+        double expected_ = (expected); \
+        double actual_ = (actual); \
+        if (std::fabs(expected_ - actual_) > (tolerance)) { \
+            fprintf(stderr, "%s:%d: CHECK_NEAR failed: %s, expected %.9f but was %.9f\n", \
+                    __FILE__, __LINE__, #actual, expected_, actual_); \
+            exit(1); \
+        } \
+    } while (0)
+
+// Counts the heap allocations of the test binary, to check the mixer doesn't allocate while mixing.
+static std::atomic<long> allocations(0);
+
+void *operator new(size_t size) {
+    allocations++;
+    void *p = malloc(size);
+    if (p == nullptr) {
+        throw std::bad_alloc();
+    }
+    return p;
+}
+
+void operator delete(void *p) noexcept {
+    free(p);
+}
+
+static std::vector<float> sine(size_t frames, int channels, double step) {
+    std::vector<float> samples(frames * channels);
+    for (size_t i = 0; i < frames; i++) {
+        for (int c = 0; c < channels; c++) {
+            samples[i * channels + c] = static_cast<float>(0.8 * std::sin(i * step + c));
+        }
+    }
+    return samples;
+}
+
+static std::vector<float> dc(size_t frames, int channels, float value) {
+    return std::vector<float>(frames * channels, value);
+}
+
+static void linearGainsSumToOne() {
+    CrossfadeMixer mixer(2);
+    mixer.start(CURVE_LINEAR, 1000);
+    for (size_t frame = 0; frame <= 1000; frame += 37) {
+        CHECK_NEAR(1.0, mixer.fadeInGain(frame) + mixer.fadeOutGain(frame), 1e-6);
+    }
+    CHECK_NEAR(0.25, mixer.fadeInGain(250), 1e-6);
+}
+
+static void equalPowerKeepsThePower() {
+    CrossfadeMixer mixer(2);
+    mixer.start(CURVE_EQUAL_POWER, 4800);
+    for (size_t frame = 0; frame <= 4800; frame += 101) {
+        double in = mixer.fadeInGain(frame);
+        double out = mixer.fadeOutGain(frame);
+        // the table is interpolated linearly, within 1e-5 of sin/cos
+        CHECK_NEAR(1.0, in * in + out * out, 2e-5);
+    }
+    CHECK_NEAR(std::sqrt(0.5), mixer.fadeInGain(2400), 1e-5);
+}
+
+static void sCurveIsSymmetric() {
+    CrossfadeMixer mixer(1);
+    mixer.start(CURVE_S, 1000);
+    CHECK_NEAR(0.5, mixer.fadeInGain(500), 1e-6);
+    for (size_t frame = 0; frame <= 1000; frame += 50) {
+        CHECK_NEAR(mixer.fadeInGain(frame), mixer.fadeOutGain(1000 - frame), 1e-6);
+    }
+    // slower than linear at the start
+    CHECK(mixer.fadeInGain(100) < 0.1f);
+}
+
+static void fadeStartsOnTheOutgoingAndEndsOnTheIncoming() {
+    const size_t length = 480;
+    std::vector<float> outgoing = sine(1000, 2, 0.03);
+    std::vector<float> incoming = dc(1000, 2, 0.5f);
+    std::vector<float> expectedOut(outgoing);
+
+    CrossfadeMixer mixer(2);
+    mixer.start(CURVE_EQUAL_POWER, length);
+    mixer.mix(outgoing.data(), incoming.data(), 1000);
+    CHECK(!mixer.isFading());
+    CHECK_EQ(length, mixer.position());
+
+    // first frame: the outgoing track as it was
+    CHECK(outgoing[0] == expectedOut[0]);
+    CHECK(outgoing[1] == expectedOut[1]);
+    // every frame of the fade follows the gains
+    for (size_t i = 0; i < length; i++) {
+        for (int c = 0; c < 2; c++) {
+            double expected = expectedOut[2 * i + c] * mixer.fadeOutGain(i) + 0.5 * mixer.fadeInGain(i);
+            CHECK_NEAR(expected, outgoing[2 * i + c], 1e-6);
+        }
+    }
+    // from the end of the fade on: the incoming track exactly
+    for (size_t i = length; i < 1000; i++) {
+        CHECK(outgoing[2 * i] == 0.5f && outgoing[2 * i + 1] == 0.5f);
+    }
+}
+
+static std::vector<float> mixInBlocks(size_t blockFrames) {
+    const size_t frames = 3000;
+    std::vector<float> outgoing = sine(frames, 2, 0.01);
+    std::vector<float> incoming = sine(frames, 2, 0.02);
+    CrossfadeMixer mixer(2);
+    mixer.start(CURVE_S, 2000);
+    for (size_t done = 0; done < frames; done += blockFrames) {
+        size_t count = std::min(blockFrames, frames - done);
+        mixer.mix(outgoing.data() + 2 * done, incoming.data() + 2 * done, count);
+    }
+    return outgoing;
+}
+
+static void sameOutputWhateverTheBlockSizes() {
+    std::vector<float> reference = mixInBlocks(3000);
+    const size_t sizes[] = {1, 7, 256, 1000};
+    for (size_t size : sizes) {
+        std::vector<float> mixed = mixInBlocks(size);
+        CHECK(memcmp(reference.data(), mixed.data(), reference.size() * sizeof(float)) == 0);
+    }
+}
+
+static void emptyFadeSwitchesAtOnce() {
+    CrossfadeMixer mixer(1);
+    mixer.start(CURVE_LINEAR, 0);
+    CHECK(!mixer.isFading());
+    float outgoing[] = {0.1f, 0.2f};
+    float incoming[] = {0.3f, 0.4f};
+    mixer.mix(outgoing, incoming, 2);
+    CHECK(outgoing[0] == 0.3f && outgoing[1] == 0.4f);
+}
+
+static void tooManyChannelsSwitchesWithoutFade() {
+    CrossfadeMixer mixer(6);
+    mixer.start(CURVE_LINEAR, 1000);
+    CHECK(!mixer.isFading());
+}
+
+static void mixingDoesNotAllocate() {
+    std::vector<float> outgoing = sine(4096, 2, 0.01);
+    std::vector<float> incoming = dc(4096, 2, 0.25f);
+    CrossfadeMixer mixer(2);
+    long before = allocations;
+    mixer.start(CURVE_EQUAL_POWER, 3000);
+    for (size_t done = 0; done < 4096; done += 192) {
+        mixer.mix(outgoing.data() + 2 * done, incoming.data() + 2 * done, std::min<size_t>(192, 4096 - done));
+    }
+    mixer.start(CURVE_S, 100);
+    mixer.mix(outgoing.data(), incoming.data(), 256);
+    CHECK_EQ(0, allocations - before);
+}
+
+int main() {
+    RUN(linearGainsSumToOne);
+    RUN(equalPowerKeepsThePower);
+    RUN(sCurveIsSymmetric);
+    RUN(fadeStartsOnTheOutgoingAndEndsOnTheIncoming);
+    RUN(sameOutputWhateverTheBlockSizes);
+    RUN(emptyFadeSwitchesAtOnce);
+    RUN(tooManyChannelsSwitchesWithoutFade);
+    RUN(mixingDoesNotAllocate);
+    return 0;
+}
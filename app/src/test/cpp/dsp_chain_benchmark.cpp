@@ -0,0 +1,98 @@
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "dsp_chain.h"
+
+// Benchmark of the DSP chain on the host: ns per stereo frame of every stage, on blocks of BLOCK_FRAMES.
+// Not run by ctest, run the dsp_chain_benchmark binary.
+
+using Clock = std::chrono::steady_clock;
+
+static const int RATE = 48000;
+static const size_t FRAMES = 20000000;
+
+enum Stage {
+    EQ,
+    GAIN,
+    LIMITER,
+    CHAIN
+};
+
+static DspParameters parametersWith(int bands, float gainDb, float thresholdDb) {
+    DspParameters parameters = DspParameters::neutral();
+    for (int i = 0; i < bands; i++) {
+        EqBand band = {i == 0 ? EQ_LOW_SHELF : EQ_PEAKING, 60.0f * (i + 1) * (i + 1), 1.0f, i % 2 == 0 ? 3.0f : -3.0f};
+        parameters.bands[parameters.bandCount++] = band;
+    }
+    parameters.gainDb = gainDb;
+    parameters.limiterThresholdDb = thresholdDb;
+    return parameters;
+}
+
+static double measure(const char *name, const DspParameters &parameters, Stage stage, int perBands) {
+    DspChain chain(RATE, 2);
+    chain.setParameters(parameters);
+    // takes the parameters
+    chain.isBypassed();
+
+    const size_t block = DspChain::BLOCK_FRAMES;
+    std::vector<float> source(2 * block);
+    for (size_t i = 0; i < block; i++) {
+        source[2 * i] = static_cast<float>(0.9 * std::sin(i * 0.05));
+        source[2 * i + 1] = static_cast<float>(0.9 * std::cos(i * 0.07));
+    }
+    std::vector<float> frames(source);
+    float sink = 0;
+
+    Clock::time_point start = Clock::now();
+    for (size_t done = 0; done < FRAMES; done += block) {
+        switch (stage) {
+            case EQ:
+                chain.processEq(frames.data(), block);
+                break;
+            case GAIN:
+                chain.processGain(frames.data(), block);
+                break;
+            case LIMITER:
+                chain.processLimiter(frames.data(), block);
+                break;
+            case CHAIN:
+                chain.process(frames.data(), block);
+                break;
+        }
+        // the gain and the limiter would otherwise drive the same block to silence or to the threshold
+        sink += frames[done % (2 * block)];
+        std::copy(source.begin(), source.end(), frames.begin());
+    }
+    double nanos = std::chrono::duration_cast<std::chrono::nanoseconds>(Clock::now() - start).count();
+
+    // the copy back of the source, measured alone, is not part of the stage
+    start = Clock::now();
+    for (size_t done = 0; done < FRAMES; done += block) {
+        sink += frames[done % (2 * block)];
+        std::copy(source.begin(), source.end(), frames.begin());
+    }
+    nanos -= std::chrono::duration_cast<std::chrono::nanoseconds>(Clock::now() - start).count();
+
+    double perFrame = nanos / FRAMES;
+    printf("%-28s %7.2f ns/frame", name, perFrame);
+    if (perBands > 1) {
+        printf("  (%.2f ns per band)", perFrame / perBands);
+    }
+    printf("  %.0f x real time%s\n", 1e9 / perFrame / RATE, sink == 12345 ? " " : "");
+    return perFrame;
+}
+
+int main() {
+    printf("DSP chain, stereo float frames, blocks of %zu frames\n", DspChain::BLOCK_FRAMES);
+    measure("EQ, 1 band", parametersWith(1, 0, 0), EQ, 1);
+    measure("EQ, 4 bands", parametersWith(4, 0, 0), EQ, 4);
+    measure("EQ, 8 bands", parametersWith(8, 0, 0), EQ, 8);
+    measure("gain", parametersWith(0, -6, 0), GAIN, 0);
+    measure("limiter, under threshold", parametersWith(0, 0, 0), LIMITER, 0);
+    measure("limiter, limiting", parametersWith(0, 0, -6), LIMITER, 0);
+    measure("chain, 4 bands + gain + lim", parametersWith(4, 6, -1), CHAIN, 0);
+    return 0;
+}
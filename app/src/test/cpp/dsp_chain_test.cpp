@@ -0,0 +1,230 @@
+#include <atomic>
+#include <cmath>
+#include <cstdlib>
+#include <new>
+#include <thread>
+#include <vector>
+
+#include "check.h"
+#include "dsp_chain.h"
+
+// Host tests of DspChain. The golden values come from a double precision reference implementation
+// of the RBJ cookbook filters; the chain runs in float, hence the tolerance.
+
+#define CHECK_NEAR(expected, actual, tolerance) \
+    do { \
+        double expected_ = (expected); \
+        double actual_ = (actual); \
+        if (std::fabs(expected_ - actual_) > (tolerance)) { \
+            fprintf(stderr, "%s:%d: CHECK_NEAR failed: %s, expected %.9f but was %.9f\n", \
+                    __FILE__, __LINE__, #actual, expected_, actual_); \
+            exit(1); \
+        } \
+    } while (0)
+
+// Counts the heap allocations of the test binary, to check the chain doesn't allocate while processing.
+static std::atomic<long> allocations(0);
+
+void *operator new(size_t size) {
+    allocations++;
+    void *p = malloc(size);
+    if (p == nullptr) {
+        throw std::bad_alloc();
+    }
+    return p;
+}
+
+void operator delete(void *p) noexcept {
+    free(p);
+}
+
+static const int RATE = 48000;
+
+static DspParameters withBand(DspParameters parameters, int type, float frequency, float q, float gainDb) {
+    EqBand band = {type, frequency, q, gainDb};
+    parameters.bands[parameters.bandCount++] = band;
+    return parameters;
+}
+
+static void checkCoefficients(const BiquadCoefficients &c, float b0, float b1, float b2, float a1, float a2) {
+    CHECK_NEAR(b0, c.b0, 1e-6);
+    CHECK_NEAR(b1, c.b1, 1e-6);
+    CHECK_NEAR(b2, c.b2, 1e-6);
+    CHECK_NEAR(a1, c.a1, 1e-6);
+    CHECK_NEAR(a2, c.a2, 1e-6);
+}
+
+static void goldenCoefficients() {
+    EqBand peaking = {EQ_PEAKING, 1000, 1.0f, 6};
+    checkCoefficients(BiquadCoefficients::of(peaking, RATE),
+                      1.043953087f, -1.895320724f, 0.867722285f, -1.895320724f, 0.911675372f);
+    EqBand lowShelf = {EQ_LOW_SHELF, 100, 0.707f, 4};
+    checkCoefficients(BiquadCoefficients::of(lowShelf, RATE),
+                      1.002138524f, -1.983459544f, 0.981534967f, -1.983499022f, 0.983634013f);
+    EqBand highShelf = {EQ_HIGH_SHELF, 8000, 0.707f, -3};
+    checkCoefficients(BiquadCoefficients::of(highShelf, RATE),
+                      0.797559277f, -0.421260649f, 0.176469614f, -0.709065309f, 0.261833551f);
+}
+
+static void goldenImpulseResponse() {
+    DspChain chain(RATE, 1);
+    DspParameters parameters = DspParameters::neutral();
+    parameters = withBand(parameters, EQ_PEAKING, 1000, 1.0f, 6);
+    parameters = withBand(parameters, EQ_LOW_SHELF, 100, 0.707f, 4);
+    chain.setParameters(parameters);
+
+    // at half scale, the EQ's boost stays under the limiter's threshold
+    float frames[12] = {0.5f};
+    chain.process(frames, 12);
+    const float golden[12] = {1.046185606f, 0.087952758f, 0.078858432f, 0.069348478f, 0.059615144f, 0.049837342f,
+                              0.040178898f, 0.030787207f, 0.021792273f, 0.013306122f, 0.005422554f, -0.001782782f};
+    for (int i = 0; i < 12; i++) {
+        CHECK_NEAR(0.5 * golden[i], frames[i], 1e-6);
+    }
+}
+
+static void neutralChainIsBypassedAndExact() {
+    DspChain chain(RATE, 2);
+    CHECK(chain.isBypassed());
+    std::vector<float> frames(2 * 1000);
+    for (size_t i = 0; i < frames.size(); i++) {
+        frames[i] = static_cast<float>(std::sin(i * 0.01));
+    }
+    std::vector<float> original = frames;
+    chain.process(frames.data(), 1000);
+    CHECK(frames == original);
+
+    // a band at 0 dB does nothing either
+    chain.setParameters(withBand(DspParameters::neutral(), EQ_PEAKING, 1000, 1, 0));
+    CHECK(chain.isBypassed());
+    CHECK_EQ(0, chain.activeBands());
+}
+
+static void gainRampsToTarget() {
+    DspChain chain(RATE, 2);
+    DspParameters parameters = DspParameters::neutral();
+    parameters.gainDb = -6;
+    chain.setParameters(parameters);
+    CHECK(!chain.isBypassed());
+
+    std::vector<float> frames(2 * DspChain::BLOCK_FRAMES, 0.5f);
+    chain.process(frames.data(), DspChain::BLOCK_FRAMES);
+    // ramped over the first block, no jump from unity gain
+    CHECK(frames[0] > 0.49f);
+    CHECK_NEAR(0.5 * 0.501187234, frames[frames.size() - 1], 1e-6);
+    CHECK(frames[100] < frames[0] && frames[100] > frames[frames.size() - 1]);
+
+    std::fill(frames.begin(), frames.end(), 0.5f);
+    chain.process(frames.data(), DspChain::BLOCK_FRAMES);
+    for (float sample : frames) {
+        CHECK_NEAR(0.5 * 0.501187234, sample, 1e-6);
+    }
+}
+
+static void limiterKeepsPeaksUnderThreshold() {
+    DspChain chain(RATE, 2);
+    DspParameters parameters = DspParameters::neutral();
+    parameters.gainDb = 12;
+    parameters.limiterThresholdDb = -1;
+    parameters.limiterReleaseMs = 50;
+    chain.setParameters(parameters);
+
+    const float threshold = 0.891250938f;
+    std::vector<float> frames(2 * RATE);
+    for (int i = 0; i < RATE; i++) {
+        frames[2 * i] = static_cast<float>(0.8 * std::sin(2 * 3.14159265358979 * 440 * i / RATE));
+        frames[2 * i + 1] = -frames[2 * i];
+    }
+    chain.process(frames.data(), RATE);
+    float peak = 0;
+    for (float sample : frames) {
+        peak = std::max(peak, std::fabs(sample));
+    }
+    CHECK(peak <= threshold * 1.00001f);
+    // loud but limited, not silenced
+    CHECK(peak > 0.85f);
+
+    // back to quiet: the gain recovers within a few release times
+    parameters.gainDb = 0;
+    chain.setParameters(parameters);
+    std::vector<float> quiet(2 * RATE / 2, 0.1f);
+    chain.process(quiet.data(), RATE / 2);
+    CHECK_NEAR(0.1, quiet[quiet.size() - 1], 1e-4);
+    CHECK_NEAR(1.0, chain.limiterGain(), 1e-4);
+}
+
+static void resetClearsState() {
+    DspChain chain(RATE, 1);
+    chain.setParameters(withBand(DspParameters::neutral(), EQ_PEAKING, 1000, 1, 6));
+    float frames[64] = {1};
+    chain.process(frames, 64);
+    chain.reset();
+    float silence[64] = {0};
+    chain.process(silence, 64);
+    for (float sample : silence) {
+        CHECK_EQ(0, sample);
+    }
+}
+
+static void processDoesNotAllocate() {
+    DspChain chain(RATE, 2);
+    DspParameters parameters = DspParameters::neutral();
+    parameters = withBand(parameters, EQ_LOW_SHELF, 100, 0.7f, 3);
+    parameters = withBand(parameters, EQ_PEAKING, 2500, 1.4f, -2);
+    parameters.gainDb = 4;
+    parameters.limiterThresholdDb = -1;
+    std::vector<float> frames(2 * 4096, 0.7f);
+
+    long before = allocations;
+    for (int i = 0; i < 100; i++) {
+        parameters.gainDb = static_cast<float>(i % 7);
+        chain.setParameters(parameters);
+        chain.process(frames.data(), 4096);
+    }
+    CHECK_EQ(0, allocations - before);
+}
+
+// The control thread publishes while the audio thread processes: every snapshot taken is one that was published whole.
+static void parametersArriveWhole() {
+    DspParameters initial = DspParameters::neutral();
+    initial.limiterReleaseMs = 0;
+    ParameterSnapshot<DspParameters> snapshot(initial);
+    std::atomic<bool> done(false);
+    std::thread control([&snapshot, &done, initial]() {
+        DspParameters parameters = initial;
+        for (int i = 1; i <= 200000; i++) {
+            parameters.bandCount = i;
+            parameters.gainDb = static_cast<float>(i);
+            parameters.limiterReleaseMs = static_cast<float>(i);
+            snapshot.publish(parameters);
+        }
+        done = true;
+    });
+    int last = 0;
+    bool whole = true;
+    bool ordered = true;
+    while (!done || snapshot.update()) {
+        snapshot.update();
+        const DspParameters &current = snapshot.current();
+        whole &= current.gainDb == current.bandCount && current.limiterReleaseMs == current.bandCount;
+        ordered &= current.bandCount >= last;
+        last = current.bandCount;
+        std::this_thread::yield();
+    }
+    control.join();
+    CHECK(whole);
+    CHECK(ordered);
+    CHECK_EQ(200000, snapshot.current().bandCount);
+}
+
+int main() {
+    RUN(goldenCoefficients);
+    RUN(goldenImpulseResponse);
+    RUN(neutralChainIsBypassedAndExact);
+    RUN(gainRampsToTarget);
+    RUN(limiterKeepsPeaksUnderThreshold);
+    RUN(resetClearsState);
+    RUN(processDoesNotAllocate);
+    RUN(parametersArriveWhole);
+    return 0;
+}
@@ -0,0 +1,156 @@
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cstdio>
+#include <thread>
+#include <vector>
+
+#include "check.h"
+#include "pcm_pipeline.h"
+
+// Benchmarks of the PCM pipeline on the host: throughput of the ring buffer in frames per second,
+// and the time a frame takes from write() to render().
+// Not run by ctest, run the pcm_pipeline_benchmark binary. The spinning sides yield, so it also runs on a single core.
+
+using Clock = std::chrono::steady_clock;
+
+static int64_t nanosSince(Clock::time_point start) {
+    return std::chrono::duration_cast<std::chrono::nanoseconds>(Clock::now() - start).count();
+}
+
+static int64_t percentile(std::vector<int64_t> &values, double percent) {
+    std::sort(values.begin(), values.end());
+    size_t rank = static_cast<size_t>(percent / 100 * (values.size() - 1));
+    return values[rank];
+}
+
+// Decoder and sink both as fast as they can: bulk blocks in, audio bursts out.
+static void throughput() {
+    const int channels = 2;
+    const int64_t total = 50000000;
+    const size_t block = 1152;  // an MP3 frame
+    const size_t burst = 192;   // a typical low latency burst
+    PcmPipeline pipeline(48000, channels, 8192);
+
+    Clock::time_point start = Clock::now();
+    std::thread decoder([&pipeline, total, block]() {
+        std::vector<int16_t> frames(block * channels, 1);
+        int64_t sent = 0;
+        while (sent < total) {
+            size_t count = static_cast<size_t>(std::min<int64_t>(block, total - sent));
+            size_t written = pipeline.write(frames.data(), count);
+            if (written == 0) {
+                std::this_thread::yield();
+            }
+            sent += written;
+        }
+    });
+    std::vector<int16_t> out(burst * channels);
+    int64_t received = 0;
+    while (received < total) {
+        size_t rendered = pipeline.render(out.data(), burst);
+        if (rendered == 0) {
+            std::this_thread::yield();
+        }
+        received += rendered;
+    }
+    decoder.join();
+    int64_t nanos = nanosSince(start);
+    CHECK_EQ(total, received);
+
+    double framesPerSecond = total * 1e9 / nanos;
+    printf("throughput: %lld stereo frames in %lld ms, %.0f M frames/s (%.0f x real time at 48 kHz), %llu empty renders\n",
+           static_cast<long long>(total), static_cast<long long>(nanos / 1000000), framesPerSecond / 1e6,
+           framesPerSecond / 48000, static_cast<unsigned long long>(pipeline.underruns()));
+}
+
+// Hand-off time of the ring buffer: the sink spins on an empty buffer, each burst is timed from write() to render().
+static void handOffLatency() {
+    const int channels = 2;
+    const int bursts = 20000;
+    const size_t burst = 64;
+    PcmPipeline pipeline(48000, channels, 1024);
+    std::vector<Clock::time_point> writtenAt(bursts);
+
+    std::thread decoder([&pipeline, &writtenAt, bursts, burst]() {
+        std::vector<int16_t> frames(burst * channels);
+        for (int i = 0; i < bursts; i++) {
+            // the first sample of the burst carries its number, the ring buffer publishes writtenAt with the frames
+            frames[0] = static_cast<int16_t>(i);
+            while (pipeline.bufferedFrames() != 0) {
+                std::this_thread::yield();
+            }
+            writtenAt[i] = Clock::now();
+            pipeline.write(frames.data(), burst);
+        }
+    });
+    std::vector<int16_t> out(burst * channels);
+    std::vector<int64_t> latencies;
+    latencies.reserve(bursts);
+    for (int i = 0; i < bursts; i++) {
+        while (pipeline.render(out.data(), burst) == 0) {
+            std::this_thread::yield();
+        }
+        Clock::time_point now = Clock::now();
+        CHECK_EQ(static_cast<int16_t>(i), out[0]);
+        latencies.push_back(std::chrono::duration_cast<std::chrono::nanoseconds>(now - writtenAt[i]).count());
+    }
+    decoder.join();
+    printf("hand-off latency: p50 %lld ns, p99 %lld ns, p99.9 %lld ns\n",
+           static_cast<long long>(percentile(latencies, 50)), static_cast<long long>(percentile(latencies, 99)),
+           static_cast<long long>(percentile(latencies, 99.9)));
+}
+
+// Playback in real time: a sink renders a burst every 4 ms at 48 kHz while the decoder keeps the buffer full
+// with writeBlocking(). The latency of a frame is then the time the buffer takes to play.
+static void playbackLatency() {
+    const int channels = 2;
+    const int sampleRate = 48000;
+    const size_t burst = 192;
+    const size_t capacity = 2048;
+    const int seconds = 1;
+    PcmPipeline pipeline(sampleRate, channels, capacity);
+    std::vector<Clock::time_point> writtenAt(sampleRate * seconds / burst + 64);
+    std::atomic<bool> decoderDone(false);
+
+    std::thread decoder([&]() {
+        std::vector<int16_t> frames(burst * channels);
+        for (size_t i = 0; i < writtenAt.size(); i++) {
+            frames[0] = static_cast<int16_t>(i);
+            writtenAt[i] = Clock::now();
+            if (pipeline.writeBlocking(frames.data(), burst, 1000) < burst) {
+                break;
+            }
+        }
+        decoderDone = true;
+    });
+    std::vector<int16_t> out(burst * channels);
+    std::vector<int64_t> latencies;
+    Clock::time_point next = Clock::now();
+    size_t played = 0;
+    while (played < writtenAt.size() - 64) {
+        std::this_thread::sleep_until(next);
+        next += std::chrono::microseconds(burst * 1000000 / sampleRate);
+        if (pipeline.render(out.data(), burst) == burst) {
+            latencies.push_back(nanosSince(writtenAt[static_cast<uint16_t>(out[0])]));
+            played++;
+        }
+    }
+    uint64_t underruns = pipeline.underruns();
+    std::vector<int16_t> drain(capacity * channels);
+    while (!decoderDone) {
+        pipeline.render(drain.data(), capacity);
+        std::this_thread::sleep_for(std::chrono::milliseconds(1));
+    }
+    decoder.join();
+    printf("playback latency (%zu frame buffer, %.1f ms): p50 %.1f ms, p99 %.1f ms, %llu underruns\n",
+           capacity, capacity * 1000.0 / sampleRate, percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+           static_cast<unsigned long long>(underruns));
+}
+
+int main() {
+    throughput();
+    handOffLatency();
+    playbackLatency();
+    return 0;
+}
@@ -0,0 +1,198 @@
+#include <algorithm>
+#include <chrono>
+#include <thread>
+#include <vector>
+
+#include "check.h"
+#include "pcm_pipeline.h"
+
+// Host tests of PcmPipeline.
+
+static void renderPadsWithSilence() {
+    PcmPipeline pipeline(48000, 2, 16);
+    int16_t in[] = {100, 200, 300, 400};
+    int16_t out[8] = {1, 1, 1, 1, 1, 1, 1, 1};
+
+    // nothing written yet: silence, but not an underrun
+    CHECK_EQ(0, pipeline.render(out, 4));
+    CHECK_EQ(0, out[7]);
+    CHECK_EQ(0, pipeline.underruns());
+
+    CHECK_EQ(2, pipeline.write(in, 2));
+    CHECK_EQ(2, pipeline.render(out, 4));
+    CHECK_EQ(100, out[0]);
+    CHECK_EQ(400, out[3]);
+    CHECK_EQ(0, out[4]);
+    CHECK_EQ(0, out[7]);
+    CHECK_EQ(1, pipeline.underruns());
+    CHECK_EQ(2, pipeline.framesWritten());
+    CHECK_EQ(2, pipeline.framesRendered());
+}
+
+static void flushDropsBufferedFramesOnNextRender() {
+    PcmPipeline pipeline(48000, 1, 16);
+    int16_t in[10] = {7, 7, 7, 7, 7, 7, 7, 7, 7, 7};
+    int16_t out[4];
+    pipeline.write(in, 10);
+    pipeline.flush();
+    CHECK_EQ(10, pipeline.bufferedFrames());
+    CHECK_EQ(0, pipeline.render(out, 4));
+    CHECK_EQ(0, pipeline.bufferedFrames());
+
+    in[0] = 9;
+    pipeline.write(in, 1);
+    CHECK_EQ(1, pipeline.render(out, 1));
+    CHECK_EQ(9, out[0]);
+}
+
+static void bufferedTime() {
+    PcmPipeline pipeline(48000, 2, 4096);
+    int16_t in[2 * 480] = {0};
+    pipeline.write(in, 480);
+    CHECK_EQ(10000, pipeline.bufferedMicros());
+}
+
+static void writeBlockingWaitsForTheSink() {
+    PcmPipeline pipeline(48000, 1, 256);
+    int16_t in[1024] = {0};
+    std::thread sink([&pipeline]() {
+        int16_t out[64];
+        size_t rendered = 0;
+        while (rendered < 1024) {
+            rendered += pipeline.render(out, 64);
+            std::this_thread::sleep_for(std::chrono::microseconds(100));
+        }
+    });
+    CHECK_EQ(1024, pipeline.writeBlocking(in, 1024, 5000));
+    sink.join();
+    CHECK_EQ(1024, pipeline.framesRendered());
+}
+
+static void writeBlockingTimesOut() {
+    PcmPipeline pipeline(48000, 1, 256);
+    int16_t in[1024] = {0};
+    auto start = std::chrono::steady_clock::now();
+    CHECK_EQ(256, pipeline.writeBlocking(in, 1024, 20));
+    auto elapsed = std::chrono::steady_clock::now() - start;
+    CHECK(elapsed >= std::chrono::milliseconds(20));
+}
+
+static void renderAppliesTheDspChain() {
+    PcmPipeline pipeline(48000, 2, 1024);
+    std::vector<int16_t> in(2 * 600);
+    for (size_t i = 0; i < in.size(); i++) {
+        in[i] = static_cast<int16_t>((i % 2 == 0 ? 1 : -1) * 16000);
+    }
+    std::vector<int16_t> out(in.size());
+
+    // neutral parameters: the frames come out as they went in
+    pipeline.write(in.data(), 300);
+    pipeline.render(out.data(), 300);
+    CHECK(std::equal(in.begin(), in.begin() + 600, out.begin()));
+
+    // +12 dB would take 16000 to about 63700: the limiter holds it at -1 dBFS
+    DspParameters parameters = DspParameters::neutral();
+    parameters.gainDb = 12;
+    parameters.limiterThresholdDb = -1;
+    pipeline.dsp().setParameters(parameters);
+    pipeline.write(in.data(), 300);
+    pipeline.render(out.data(), 300);
+    CHECK(out[598] > 29000 && out[598] <= 29205);
+    CHECK(out[599] < -29000 && out[599] >= -29205);
+}
+
+static void crossfadeMixesTheTwoSlots() {
+    // 1 kHz mono: the crossfade takes 10 frames
+    PcmPipeline pipeline(1000, 1, 64);
+    std::vector<int16_t> outgoing(40, 10000);
+    std::vector<int16_t> incoming(40, 20000);
+    std::vector<int16_t> out(20);
+    pipeline.write(outgoing.data(), 40, 0);
+    pipeline.write(incoming.data(), 40, 1);
+    pipeline.render(out.data(), 5);
+    CHECK_EQ(10000, out[4]);
+    CHECK_EQ(0, pipeline.playingSlot());
+
+    pipeline.crossfade(CURVE_LINEAR, 10);
+    pipeline.render(out.data(), 20);
+    CHECK(pipeline.isCrossfading() == false);
+    CHECK_EQ(1, pipeline.playingSlot());
+    // linear: 10000 * (1 - t) + 20000 * t
+    CHECK_EQ(10000, out[0]);
+    CHECK_EQ(15000, out[5]);
+    CHECK_EQ(19000, out[9]);
+    CHECK_EQ(20000, out[10]);
+    CHECK_EQ(20000, out[19]);
+    // the rest of the outgoing song was dropped, 30 frames of the incoming one are left
+    CHECK_EQ(20, pipeline.bufferedFrames());
+    CHECK_EQ(10, pipeline.crossfadeFrames());
+    CHECK_EQ(0, pipeline.underruns());
+}
+
+static void crossfadeSpansRenders() {
+    PcmPipeline pipeline(1000, 2, 256);
+    std::vector<int16_t> outgoing(2 * 200, -8000);
+    std::vector<int16_t> incoming(2 * 200, 8000);
+    std::vector<int16_t> out(2 * 30);
+    pipeline.write(outgoing.data(), 200, 0);
+    pipeline.write(incoming.data(), 200, 1);
+    pipeline.crossfade(CURVE_EQUAL_POWER, 100);
+    for (int i = 0; i < 3; i++) {
+        pipeline.render(out.data(), 30);
+        CHECK(pipeline.isCrossfading());
+    }
+    pipeline.render(out.data(), 30);
+    CHECK(!pipeline.isCrossfading());
+    CHECK_EQ(1, pipeline.playingSlot());
+    CHECK_EQ(8000, out[2 * 29]);
+    CHECK_EQ(100, pipeline.crossfadeFrames());
+}
+
+static void crossfadeWithoutLengthSwitchesAtOnce() {
+    PcmPipeline pipeline(48000, 1, 16);
+    int16_t first[] = {1, 1, 1, 1};
+    int16_t second[] = {2, 2, 2, 2};
+    int16_t out[2];
+    pipeline.write(first, 4, 0);
+    pipeline.write(second, 4, 1);
+    pipeline.crossfade(CURVE_S, 0);
+    pipeline.render(out, 2);
+    CHECK_EQ(2, out[0]);
+    CHECK_EQ(1, pipeline.playingSlot());
+
+    // and back to the first slot for the song after
+    pipeline.write(first, 4, 0);
+    pipeline.crossfade(CURVE_S, 0);
+    pipeline.render(out, 2);
+    CHECK_EQ(1, out[0]);
+    CHECK_EQ(0, pipeline.playingSlot());
+}
+
+static void flushStopsTheCrossfade() {
+    PcmPipeline pipeline(1000, 1, 64);
+    std::vector<int16_t> frames(40, 5000);
+    std::vector<int16_t> out(10);
+    pipeline.write(frames.data(), 40, 0);
+    pipeline.write(frames.data(), 40, 1);
+    pipeline.crossfade(CURVE_LINEAR, 30);
+    pipeline.render(out.data(), 10);
+    CHECK(pipeline.isCrossfading());
+    pipeline.flush();
+    pipeline.render(out.data(), 10);
+    CHECK(!pipeline.isCrossfading());
+    CHECK_EQ(0, out[0]);
+}
+
+int main() {
+    RUN(renderPadsWithSilence);
+    RUN(flushDropsBufferedFramesOnNextRender);
+    RUN(bufferedTime);
+    RUN(writeBlockingWaitsForTheSink);
+    RUN(writeBlockingTimesOut);
+    RUN(renderAppliesTheDspChain);
+    RUN(crossfadeMixesTheTwoSlots);
+    RUN(crossfadeSpansRenders);
+    RUN(crossfadeWithoutLengthSwitchesAtOnce);
+    RUN(flushStopsTheCrossfade);
+    return 0;
+}
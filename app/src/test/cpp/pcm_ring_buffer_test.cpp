@@ -0,0 +1,131 @@
+#include <algorithm>
+#include <thread>
+
+#include "check.h"
+#include "pcm_ring_buffer.h"
+
+// Host tests of PcmRingBuffer.
+
+static void capacityIsRoundedUpToPowerOfTwo() {
+    CHECK_EQ(1024, PcmRingBuffer(1000, 2).capacity());
+    CHECK_EQ(256, PcmRingBuffer(256, 2).capacity());
+    CHECK_EQ(1, PcmRingBuffer(1, 1).capacity());
+}
+
+static void readsBackWhatWasWritten() {
+    PcmRingBuffer ring(8, 2);
+    int16_t in[] = {1, -1, 2, -2, 3, -3};
+    CHECK_EQ(3, ring.write(in, 3));
+    CHECK_EQ(3, ring.readable());
+    CHECK_EQ(5, ring.writable());
+
+    int16_t out[6] = {0};
+    CHECK_EQ(2, ring.read(out, 2));
+    CHECK_EQ(1, out[0]);
+    CHECK_EQ(-2, out[3]);
+    CHECK_EQ(1, ring.read(out, 4));
+    CHECK_EQ(3, out[0]);
+    CHECK_EQ(-3, out[1]);
+    CHECK_EQ(0, ring.read(out, 1));
+}
+
+static void writeStopsWhenFull() {
+    PcmRingBuffer ring(4, 1);
+    int16_t in[] = {1, 2, 3, 4, 5, 6};
+    CHECK_EQ(4, ring.write(in, 6));
+    CHECK_EQ(0, ring.write(in, 1));
+    CHECK_EQ(0, ring.writable());
+
+    int16_t out[4];
+    CHECK_EQ(1, ring.read(out, 1));
+    CHECK_EQ(1, ring.write(in + 4, 2));
+    CHECK_EQ(4, ring.read(out, 4));
+    CHECK_EQ(2, out[0]);
+    CHECK_EQ(5, out[3]);
+}
+
+static void framesWrapAroundTheEnd() {
+    PcmRingBuffer ring(8, 2);
+    int16_t in[10], out[12];
+    int16_t next = 0;
+    int16_t expected = 0;
+    // 5 frames at a time over a buffer of 8: every position of the wrap is crossed
+    for (int round = 0; round < 40; round++) {
+        for (int16_t &sample : in) {
+            sample = next++;
+        }
+        CHECK_EQ(5, ring.write(in, 5));
+        CHECK_EQ(5, ring.read(out, 6));
+        for (int i = 0; i < 10; i++) {
+            CHECK_EQ(expected++, out[i]);
+        }
+    }
+}
+
+static void clearDropsEverything() {
+    PcmRingBuffer ring(16, 1);
+    int16_t in[10] = {0};
+    ring.write(in, 10);
+    CHECK_EQ(10, ring.clear());
+    CHECK_EQ(0, ring.readable());
+    CHECK_EQ(16, ring.writable());
+    CHECK_EQ(16, ring.write(in, 10) + ring.write(in, 10));
+}
+
+// A producer and a consumer thread pass a counting sequence through a small buffer:
+// every frame arrives once, in order, whatever the interleaving.
+static void producerAndConsumerThreads() {
+    const int channels = 2;
+    const int64_t total = 2000000;
+    PcmRingBuffer ring(64, channels);
+
+    std::thread producer([&ring, total]() {
+        int16_t frames[37 * channels];
+        int64_t sent = 0;
+        while (sent < total) {
+            size_t count = static_cast<size_t>(std::min<int64_t>(37, total - sent));
+            for (size_t i = 0; i < count; i++) {
+                frames[i * channels] = static_cast<int16_t>(sent + i);
+                frames[i * channels + 1] = static_cast<int16_t>(~(sent + i));
+            }
+            size_t written = 0;
+            while (written < count) {
+                size_t accepted = ring.write(frames + written * channels, count - written);
+                if (accepted == 0) {
+                    std::this_thread::yield();
+                }
+                written += accepted;
+            }
+            sent += count;
+        }
+    });
+
+    int16_t frames[29 * channels];
+    int64_t received = 0;
+    bool ordered = true;
+    while (received < total) {
+        size_t read = ring.read(frames, 29);
+        if (read == 0) {
+            std::this_thread::yield();
+        }
+        for (size_t i = 0; i < read; i++) {
+            ordered &= frames[i * channels] == static_cast<int16_t>(received)
+                       && frames[i * channels + 1] == static_cast<int16_t>(~received);
+            received++;
+        }
+    }
+    producer.join();
+    CHECK(ordered);
+    CHECK_EQ(total, received);
+    CHECK_EQ(0, ring.readable());
+}
+
+int main() {
+    RUN(capacityIsRoundedUpToPowerOfTwo);
+    RUN(readsBackWhatWasWritten);
+    RUN(writeStopsWhenFull);
+    RUN(framesWrapAroundTheEnd);
+    RUN(clearDropsEverything);
+    RUN(producerAndConsumerThreads);
+    return 0;
+}
@@ -0,0 +1,66 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link AliasTable}, the samples are counted against the weights.
+ */
+public class AliasTableTest {
+
+    private static int[] count(AliasTable table, int samples, long seed) {
+        Random random = new Random(seed);
+        int[] counts = new int[table.size()];
+        for (int i = 0; i < samples; i++) {
+            counts[table.sample(random)]++;
+        }
+        return counts;
+    }
+
+    @Test
+    public void samples_followTheWeights() {
+        double[] weights = {1, 2, 3, 0, 4, 0.5};
+        AliasTable table = new AliasTable(weights);
+        int samples = 1000000;
+
+        int[] counts = count(table, samples, 1);
+
+        for (int i = 0; i < weights.length; i++) {
+            double expected = samples * weights[i] / 10.5;
+            assertEquals("index " + i, expected, counts[i], samples * 0.003);
+        }
+        assertEquals(0, counts[3]);
+    }
+
+    @Test
+    public void oneHeavyIndex_amongManyLightOnes() {
+        double[] weights = new double[1000];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1;
+        }
+        weights[500] = 999;
+        int samples = 1000000;
+
+        int[] counts = count(new AliasTable(weights), samples, 2);
+
+        assertEquals(samples / 2, counts[500], samples * 0.005);
+        assertEquals(samples / 2000, counts[499], 150);
+    }
+
+    @Test
+    public void zeroWeights_areAllAsLikely() {
+        int[] counts = count(new AliasTable(new double[4]), 40000, 3);
+
+        for (int count : counts) {
+            assertEquals(10000, count, 500);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeight_isRejected() {
+        new AliasTable(new double[] {1, -1});
+    }
+}
@@ -0,0 +1,151 @@
+package untitled.nativemediaplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic MP3 and ADTS files for the tests: valid frame headers with silent (zero) payloads, so the offset and
+ * time of every frame are known. Only the headers matter to the {@link FrameIndexer}.
+ */
+class AudioFixtures {
+
+    static final int[] MPEG1_BITRATES = {32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private long[] frameOffsets = new long[256];
+    private int frames = 0;
+
+    /**
+     * ID3v2 tag with a body of the given size.
+     */
+    AudioFixtures id3v2(int size) {
+        out.write('I');
+        out.write('D');
+        out.write('3');
+        out.write(4);
+        out.write(0);
+        out.write(0);
+        out.write((size >> 21) & 0x7F);
+        out.write((size >> 14) & 0x7F);
+        out.write((size >> 7) & 0x7F);
+        out.write(size & 0x7F);
+        out.write(new byte[size], 0, size);
+        return this;
+    }
+
+    /**
+     * MPEG 1 Layer III frame at 44.1 kHz, stereo, holding a Xing tag.
+     */
+    AudioFixtures xingFrame() {
+        byte[] frame = mp3Frame(3, 0, 128, false);
+        System.arraycopy("Xing".getBytes(), 0, frame, 4 + 32, 4);
+        out.write(frame, 0, frame.length);
+        return this;
+    }
+
+    /**
+     * MPEG 1 Layer III frames at 44.1 kHz with random bitrates.
+     */
+    AudioFixtures vbrFrames(int count, Random random) {
+        for (int i = 0; i < count; i++) {
+            mp3(3, 0, MPEG1_BITRATES[random.nextInt(MPEG1_BITRATES.length)], random.nextBoolean());
+        }
+        return this;
+    }
+
+    /**
+     * Layer III frame.
+     * @param version - 3 for MPEG 1, 2 for MPEG 2, 0 for MPEG 2.5.
+     * @param sampleRateIndex - 0 for 44.1 kHz (MPEG 1), 22.05 kHz (MPEG 2), 11.025 kHz (MPEG 2.5).
+     */
+    AudioFixtures mp3(int version, int sampleRateIndex, int bitrateKbps, boolean padding) {
+        frame(mp3Frame(version, sampleRateIndex, bitrateKbps, padding));
+        return this;
+    }
+
+    /**
+     * ADTS AAC frame at 44.1 kHz, stereo.
+     */
+    AudioFixtures adts(int length, int rawBlocks) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xF1;
+        //AAC LC, 44.1 kHz, 2 channels
+        frame[2] = (byte) (1 << 6 | 4 << 2);
+        frame[3] = (byte) (2 << 6 | (length >> 11) & 3);
+        frame[4] = (byte) (length >> 3);
+        frame[5] = (byte) ((length & 7) << 5 | 0x1F);
+        frame[6] = (byte) (0xFC | (rawBlocks - 1));
+        frame(frame);
+        return this;
+    }
+
+    /**
+     * Bytes that are not frames, without any 0xFF so they can't be taken for a header.
+     */
+    AudioFixtures garbage(int size, Random random) {
+        for (int i = 0; i < size; i++) {
+            out.write(random.nextInt(0xFF));
+        }
+        return this;
+    }
+
+    AudioFixtures id3v1() {
+        byte[] tag = new byte[128];
+        tag[0] = 'T';
+        tag[1] = 'A';
+        tag[2] = 'G';
+        out.write(tag, 0, tag.length);
+        return this;
+    }
+
+    /**
+     * The first part of a frame, as in a file cut while it was written.
+     */
+    AudioFixtures truncatedFrame() {
+        byte[] frame = mp3Frame(3, 0, 128, false);
+        out.write(frame, 0, frame.length / 2);
+        return this;
+    }
+
+    byte[] bytes() {
+        return out.toByteArray();
+    }
+
+    int getFrameCount() {
+        return frames;
+    }
+
+    long getFrameOffset(int frame) {
+        return frameOffsets[frame];
+    }
+
+    private void frame(byte[] frame) {
+        if (frames == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, frames * 2);
+        }
+        frameOffsets[frames++] = out.size();
+        out.write(frame, 0, frame.length);
+    }
+
+    static byte[] mp3Frame(int version, int sampleRateIndex, int bitrateKbps, boolean padding) {
+        boolean mpeg1 = version == 3;
+        int[] bitrates = mpeg1 ? new int[] {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+                : new int[] {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+        int bitrateIndex = -1;
+        for (int i = 0; i < bitrates.length; i++) {
+            if (bitrates[i] == bitrateKbps) {
+                bitrateIndex = i;
+            }
+        }
+        int sampleRate = new int[] {44100, 48000, 32000}[sampleRateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+        int length = (mpeg1 ? 144 : 72) * bitrateKbps * 1000 / sampleRate + (padding ? 1 : 0);
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xFF;
+        //sync, version, Layer III, no CRC
+        frame[1] = (byte) (0xE0 | version << 3 | 1 << 1 | 1);
+        frame[2] = (byte) (bitrateIndex << 4 | sampleRateIndex << 2 | (padding ? 2 : 0));
+        return frame;
+    }
+}
@@ -0,0 +1,139 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static untitled.nativemediaplayer.PlayerBackend.Kind.FFMPEG;
+import static untitled.nativemediaplayer.PlayerBackend.Kind.MEDIA_PLAYER;
+
+/**
+ * Local unit tests for the {@link BackendSelector}, with simulated prepare times and errors.
+ */
+public class BackendSelectorTest {
+
+    private static final long MS = 1000000;
+
+    private BackendSelector selector;
+
+    @Before
+    public void setUp() {
+        selector = new BackendSelector(MEDIA_PLAYER);
+    }
+
+    //Plays a song of the format with the backend chosen, the backends prepare in the given times (or fail if negative).
+    private PlayerBackend.Kind play(String format, long mediaPlayerMs, long ffmpegMs) {
+        PlayerBackend.Kind kind = selector.choose(format);
+        long ms = kind == MEDIA_PLAYER ? mediaPlayerMs : ffmpegMs;
+        if (ms < 0) {
+            selector.recordError(format, kind);
+        } else {
+            selector.recordPrepare(format, kind, ms * MS);
+        }
+        return kind;
+    }
+
+    @Test
+    public void triesPreferredBackendFirstThenTheOthers() {
+        for (int i = 0; i < BackendSelector.MIN_SAMPLES; i++) {
+            assertEquals(MEDIA_PLAYER, play("audio/mpeg", 50, 80));
+        }
+        for (int i = 0; i < BackendSelector.MIN_SAMPLES; i++) {
+            assertEquals(FFMPEG, play("audio/mpeg", 50, 80));
+        }
+        assertEquals(MEDIA_PLAYER, selector.best("audio/mpeg"));
+    }
+
+    @Test
+    public void picksFasterBackend() {
+        for (int i = 0; i < 2 * BackendSelector.MIN_SAMPLES; i++) {
+            play("audio/flac", 120, 40);
+        }
+        assertEquals(FFMPEG, selector.best("audio/flac"));
+        assertEquals(FFMPEG, selector.choose("audio/flac"));
+    }
+
+    @Test
+    public void errorsOutweighSpeed() {
+        //MediaPlayer is faster but fails one song in five
+        int played = 0;
+        for (int i = 0; i < 2 * BackendSelector.MIN_SAMPLES; i++) {
+            PlayerBackend.Kind kind = selector.choose("audio/x-ms-wma");
+            if (kind == MEDIA_PLAYER && played++ % 5 == 0) {
+                selector.recordError("audio/x-ms-wma", kind);
+            } else {
+                selector.recordPrepare("audio/x-ms-wma", kind, (kind == MEDIA_PLAYER ? 30 : 90) * MS);
+            }
+        }
+        assertEquals(FFMPEG, selector.best("audio/x-ms-wma"));
+    }
+
+    @Test
+    public void closeErrorRatesLeaveItToSpeed() {
+        for (int i = 0; i < 40; i++) {
+            selector.recordPrepare("audio/ogg", MEDIA_PLAYER, 30 * MS);
+            selector.recordPrepare("audio/ogg", FFMPEG, 90 * MS);
+        }
+        selector.recordError("audio/ogg", MEDIA_PLAYER);
+        assertEquals(MEDIA_PLAYER, selector.best("audio/ogg"));
+    }
+
+    @Test
+    public void stopsTryingBackendThatKeepsFailing() {
+        for (int i = 0; i < BackendSelector.MIN_SAMPLES; i++) {
+            play("audio/amr", -1, 60);
+        }
+        assertEquals(BackendSelector.MAX_TRIAL_ERRORS, selector.getStats("audio/amr", MEDIA_PLAYER).getErrors());
+        assertEquals(FFMPEG, selector.best("audio/amr"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(FFMPEG, play("audio/amr", -1, 60));
+        }
+    }
+
+    @Test
+    public void exploresOtherBackendNowAndThen() {
+        int others = 0;
+        for (int i = 0; i < 10 * BackendSelector.EXPLORE_EVERY; i++) {
+            if (play("audio/mpeg", 20, 60) == FFMPEG) {
+                others++;
+            }
+        }
+        //the trial, then one choice in EXPLORE_EVERY
+        assertEquals(BackendSelector.MIN_SAMPLES + 10, others);
+        assertEquals(MEDIA_PLAYER, selector.best("audio/mpeg"));
+    }
+
+    @Test
+    public void formatsAreIndependent() {
+        for (int i = 0; i < 2 * BackendSelector.MIN_SAMPLES; i++) {
+            play("audio/flac", 120, 40);
+            play("audio/mpeg", 20, 60);
+        }
+        assertEquals(FFMPEG, selector.best("audio/flac"));
+        assertEquals(MEDIA_PLAYER, selector.best("audio/mpeg"));
+        assertEquals(MEDIA_PLAYER, selector.choose("audio/unknown"));
+        assertEquals(MEDIA_PLAYER, selector.choose(null));
+    }
+
+    @Test
+    public void unavailableBackendIsNeverChosen() {
+        selector.setAvailable(FFMPEG, false);
+        for (int i = 0; i < 5 * BackendSelector.EXPLORE_EVERY; i++) {
+            assertEquals(MEDIA_PLAYER, play("audio/flac", 120, 40));
+        }
+        //the preferred backend can't be made unavailable
+        selector.setAvailable(MEDIA_PLAYER, false);
+        assertTrue(selector.isAvailable(MEDIA_PLAYER));
+    }
+
+    @Test
+    public void reportListsFormatsAndChoice() {
+        for (int i = 0; i < 2 * BackendSelector.MIN_SAMPLES; i++) {
+            play("audio/flac", 120, 40);
+        }
+        selector.recordSeek("audio/flac", FFMPEG, 15 * MS);
+        String report = selector.report();
+        assertTrue(report, report.startsWith("audio/flac -> FFMPEG\n"));
+        assertTrue(report, report.contains("FFMPEG: 5 plays, 0 errors"));
+    }
+}
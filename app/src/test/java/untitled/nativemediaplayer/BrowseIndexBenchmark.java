@@ -0,0 +1,82 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Browse lists of 200k songs: build time of the {@link BrowseIndex}, the time to merge in a sync of a few songs
+ * against building again, and the section lookups of a fast scroll.
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class BrowseIndexBenchmark {
+
+    private static final int SONGS = 200000;
+    private static final int ARTISTS = 12000;
+    private static final int ALBUMS_PER_ARTIST = 4;
+    private static final int CHANGED = 50;
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    private static void addSong(SongTable songs, Random random, int id) {
+        int artist = random.nextInt(ARTISTS);
+        int album = artist * ALBUMS_PER_ARTIST + random.nextInt(ALBUMS_PER_ARTIST);
+        songs.add(id, "Song " + id, Integer.toString(artist, 36) + " Band", 0, "Album " + Integer.toString(album, 36),
+                album, 1 + random.nextInt(15), 200000);
+    }
+
+    @Test
+    public void buildAndUpdate() {
+        Random random = new Random(1);
+        SongTable songs = new SongTable(SONGS);
+        for (int i = 0; i < SONGS; i++) {
+            addSong(songs, random, i);
+        }
+
+        BrowseIndex index = null;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            index = BrowseIndex.build(songs);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(SONGS + " songs: built in " + best / 1000000 + " ms, " + index);
+
+        //a sync: a few songs added, a few edited
+        int[] changed = new int[CHANGED];
+        for (int i = 0; i < CHANGED / 2; i++) {
+            changed[i] = random.nextInt(SONGS);
+            songs.set(changed[i], "Edited", "Artist " + random.nextInt(ARTISTS), 0, "Album", 1, 1, 200000);
+        }
+        for (int i = CHANGED / 2; i < CHANGED; i++) {
+            changed[i] = songs.size();
+            addSong(songs, random, songs.size());
+        }
+        //merging the same songs again leaves the lists as they are, so the merge is timed warm
+        best = Long.MAX_VALUE;
+        for (int i = 0; i < 50; i++) {
+            long start = System.nanoTime();
+            index.update(songs, changed);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long updateUs = best / 1000;
+        long start = System.nanoTime();
+        BrowseIndex.build(songs);
+        long rebuildUs = (System.nanoTime() - start) / 1000;
+        System.out.println("  " + CHANGED + " songs merged in " + updateUs + " us, built again in " + rebuildUs + " us");
+
+        start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < 1000000; i++) {
+            int artist = random.nextInt(index.getArtistCount());
+            sum += index.getPositionForSection(index.getSectionForPosition(artist));
+        }
+        System.out.println("  section lookups: " + (System.nanoTime() - start) / 1000000 + " ns per pair (checksum "
+                + sum + ")");
+    }
+}
@@ -0,0 +1,188 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link BrowseIndex}, the incremental updates are checked against a build of the same table.
+ */
+public class BrowseIndexTest {
+
+    private static final Collator COLLATOR = Collator.getInstance(Locale.ENGLISH);
+
+    private static BrowseIndex build(SongTable songs) {
+        return BrowseIndex.build(songs, COLLATOR);
+    }
+
+    //Artists, albums and rows of the index, e.g. "Abba[Gold(3,0)]".
+    private static String describe(BrowseIndex index) {
+        StringBuilder out = new StringBuilder();
+        for (int artist = 0; artist < index.getArtistCount(); artist++) {
+            out.append(index.getArtist(artist)).append('[');
+            for (int album = index.getFirstAlbum(artist); album < index.getFirstAlbum(artist + 1); album++) {
+                out.append(index.getAlbum(album)).append(Arrays.toString(index.getTracks(album)).replace('[', '(')
+                        .replace(']', ')').replace(" ", ""));
+            }
+            out.append(']');
+        }
+        return out.toString();
+    }
+
+    private static SongTable library() {
+        SongTable songs = new SongTable();
+        songs.add(0, "Waterloo", "ABBA", 0, "Gold", 1, 3, 1000);
+        songs.add(1, "Dancing Queen", "ABBA", 0, "Gold", 1, 1, 1000);
+        songs.add(2, "Heroes", "David Bowie", 0, "Heroes", 2, 3, 1000);
+        songs.add(3, "Changes", "David Bowie", 0, "Hunky Dory", 3, 1, 1000);
+        songs.add(4, "Intro", "Various", 0, "Hits", 4, 1, 1000);
+        songs.add(5, "Mamma Mia", "ABBA", 0, "Hits", 4, 2, 1000);
+        songs.add(6, "Untitled", null, 0, null, 0, 0, 1000);
+        songs.add(7, "Ça plane pour moi", "Plastic Bertrand", 0, "Ça plane", 5, 1002, 1000);
+        songs.add(8, "Tout petit la planète", "Plastic Bertrand", 0, "Ça plane", 5, 1001, 1000);
+        songs.add(9, "Life on Mars?", "david bowie", 0, "Hunky Dory", 3, 4, 1000);
+        return songs;
+    }
+
+    @Test
+    public void build_groupsArtistsAlbumsAndTracksInOrder() {
+        BrowseIndex index = build(library());
+
+        assertEquals("ABBA[Gold(1,0)Hits(5)]"
+                + "david bowie[Hunky Dory(9)]"
+                + "David Bowie[Heroes(2)Hunky Dory(3)]"
+                + "Plastic Bertrand[Ça plane(8,7)]"
+                + "Various[Hits(4)]"
+                + "null[null(6)]", describe(index));
+        assertEquals(6, index.getArtistCount());
+        assertEquals(8, index.getAlbumCount());
+        assertEquals(10, index.getTrackCount());
+        assertEquals(4, index.getAlbumID(index.getFirstAlbum(0) + 1));
+    }
+
+    @Test
+    public void sections_areFoundBothWays() {
+        SongTable songs = new SongTable();
+        String[] artists = {"Ólafur Arnalds", "Adele", "Beck", "Björk", "2Pac", "Blur", "ZZ Top", "Zaz", "!!!"};
+        for (int i = 0; i < artists.length; i++) {
+            songs.add(i, "Song", artists[i], 0, "Album", i + 1, 1, 0);
+        }
+        BrowseIndex index = build(songs);
+
+        //collation order: "!!!", "2Pac", "Adele", "Beck", "Björk", "Blur", "Ólafur Arnalds", "Zaz", "ZZ Top"
+        assertArrayEquals(new String[] {"#", "A", "B", "O", "Z"}, index.getSections());
+        assertEquals(0, index.getPositionForSection(0));
+        assertEquals(2, index.getPositionForSection(1));
+        assertEquals(3, index.getPositionForSection(2));
+        assertEquals(6, index.getPositionForSection(3));
+        assertEquals(7, index.getPositionForSection(4));
+        assertEquals(7, index.getPositionForSection(99));
+        for (int artist = 0; artist < index.getArtistCount(); artist++) {
+            int section = index.getSectionForPosition(artist);
+            assertEquals(index.getSections()[section], BrowseIndex.sectionOf(index.getArtist(artist)));
+            assertTrue(index.getPositionForSection(section) <= artist);
+        }
+    }
+
+    @Test
+    public void emptyTable_hasNoArtists() {
+        BrowseIndex index = build(new SongTable());
+
+        assertEquals(0, index.getArtistCount());
+        assertEquals(0, index.getSections().length);
+        assertEquals(0, index.getPositionForSection(3));
+        assertEquals(0, index.getSectionForPosition(3));
+    }
+
+    @Test
+    public void remap_movesRowsAndDropsEmptyAlbumsAndArtists() {
+        SongTable songs = library();
+        BrowseIndex index = build(songs);
+        BitSet removed = new BitSet();
+        removed.set(2);
+        removed.set(4);
+        removed.set(9);
+
+        index.remap(songs.removeRows(removed));
+
+        assertEquals(build(songs).toString(), index.toString());
+        assertEquals(describe(build(songs)), describe(index));
+        assertTrue(describe(index).startsWith("ABBA[Gold(1,0)Hits(3)]David Bowie[Hunky Dory(2)]Plastic"));
+    }
+
+    @Test
+    public void update_mergesAddedAndEditedRows() {
+        SongTable songs = library();
+        BrowseIndex index = build(songs);
+        songs.add(10, "SOS", "ABBA", 0, "Gold", 1, 2, 1000);
+        songs.add(11, "Ashes to Ashes", "David Bowie", 0, "Scary Monsters", 6, 4, 1000);
+        songs.add(12, "Aquarela", "Toquinho", 0, "Aquarela", 7, 1, 1000);
+        //Heroes moves to another album, Intro to another artist
+        songs.set(2, "Heroes", "David Bowie", 0, "Best of Bowie", 8, 1, 1000);
+        songs.set(4, "Intro", "ABBA", 0, "Hits", 4, 1, 1000);
+
+        index.update(songs, new int[] {10, 11, 12, 2, 4});
+
+        assertEquals("ABBA[Gold(1,10,0)Hits(4,5)]"
+                + "david bowie[Hunky Dory(9)]"
+                + "David Bowie[Best of Bowie(2)Hunky Dory(3)Scary Monsters(11)]"
+                + "Plastic Bertrand[Ça plane(8,7)]"
+                + "Toquinho[Aquarela(12)]"
+                + "null[null(6)]", describe(index));
+        assertEquals(describe(build(songs)), describe(index));
+        assertArrayEquals(new String[] {"A", "D", "P", "T", "#"}, index.getSections());
+    }
+
+    @Test
+    public void randomChanges_matchABuild() {
+        Random random = new Random(7);
+        SongTable songs = new SongTable();
+        int nextID = 0;
+        for (; nextID < 2000; nextID++) {
+            addRandom(songs, random, nextID);
+        }
+        BrowseIndex index = build(songs);
+        for (int round = 0; round < 20; round++) {
+            //remove some rows, then sort the rest like the list does
+            BitSet removed = new BitSet();
+            for (int i = 0; i < 50; i++) {
+                removed.set(random.nextInt(songs.size()));
+            }
+            index.remap(songs.removeRows(removed));
+            int[] order = new SongSorter(COLLATOR).sort(songs, SongSorter.Key.ARTIST, SongSorter.Key.TITLE);
+            int[] newRowOf = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                newRowOf[order[i]] = i;
+            }
+            index.remap(newRowOf);
+
+            int[] changed = new int[60];
+            for (int i = 0; i < 40; i++) {
+                changed[i] = random.nextInt(songs.size());
+                songs.set(changed[i], "Edited " + i, "Artist " + random.nextInt(60), 0, "Album " + random.nextInt(10),
+                        random.nextInt(100), 100000 + round * 100 + i, 0);
+            }
+            for (int i = 40; i < changed.length; i++) {
+                changed[i] = songs.size();
+                addRandom(songs, random, nextID++);
+            }
+            index.update(songs, changed);
+
+            assertEquals(describe(build(songs)), describe(index));
+            assertArrayEquals(build(songs).getSections(), index.getSections());
+        }
+    }
+
+    //Track numbers are unique, so equal numbers never have to keep an order.
+    private static void addRandom(SongTable songs, Random random, int id) {
+        int album = random.nextInt(10);
+        String artist = random.nextInt(20) == 0 ? null : "Artist " + random.nextInt(60);
+        songs.add(id, "Song " + id, artist, 0, random.nextInt(20) == 0 ? null : "Album " + album, album, id, 0);
+    }
+}
@@ -0,0 +1,82 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link CrossfadeRamp} and the {@link CrossfadeCurve}s.
+ */
+public class CrossfadeRampTest {
+
+    @Test
+    public void curves_startSilentAndEndAtFullVolume() {
+        for (CrossfadeCurve curve : CrossfadeCurve.values()) {
+            assertEquals(0, curve.fadeIn(0), 1e-6);
+            assertEquals(1, curve.fadeIn(1), 1e-6);
+            assertEquals(1, curve.fadeOut(0), 1e-6);
+            assertEquals(0, curve.fadeOut(1), 1e-6);
+            //out of range progress is clamped
+            assertEquals(1, curve.fadeIn(2), 1e-6);
+        }
+    }
+
+    @Test
+    public void linear_sumsToOne_equalPower_keepsThePower() {
+        for (float t = 0; t <= 1; t += 0.05f) {
+            assertEquals(1, CrossfadeCurve.LINEAR.fadeIn(t) + CrossfadeCurve.LINEAR.fadeOut(t), 1e-6);
+            float in = CrossfadeCurve.EQUAL_POWER.fadeIn(t);
+            float out = CrossfadeCurve.EQUAL_POWER.fadeOut(t);
+            assertEquals(1, in * in + out * out, 1e-5);
+        }
+        assertEquals(0.5, CrossfadeCurve.S.fadeIn(0.5f), 1e-6);
+    }
+
+    @Test
+    public void ramp_followsTheClock() {
+        CrossfadeRamp ramp = new CrossfadeRamp();
+        ramp.start(CrossfadeCurve.LINEAR, 4000, 1000);
+
+        assertTrue(ramp.isActive());
+        assertEquals(0, ramp.gainIn(1000), 1e-6);
+        assertEquals(0.25, ramp.gainIn(2000), 1e-6);
+        assertEquals(0.75, ramp.gainOut(2000), 1e-6);
+        assertEquals(3000, ramp.remaining(2000));
+        assertFalse(ramp.isDone(4999));
+        assertTrue(ramp.isDone(5000));
+        assertEquals(1, ramp.gainIn(9000), 1e-6);
+    }
+
+    @Test
+    public void paused_resumesWhereItWas() {
+        CrossfadeRamp ramp = new CrossfadeRamp();
+        ramp.start(CrossfadeCurve.LINEAR, 1000, 0);
+        ramp.pause(500);
+
+        assertEquals(0.5, ramp.progress(60000), 1e-6);
+        assertFalse(ramp.isDone(60000));
+        ramp.resume(60000);
+        assertEquals(0.75, ramp.progress(60250), 1e-6);
+        assertTrue(ramp.isDone(60500));
+    }
+
+    @Test
+    public void cancelled_isNotActive() {
+        CrossfadeRamp ramp = new CrossfadeRamp();
+        assertFalse(ramp.isActive());
+        ramp.start(CrossfadeCurve.S, 1000, 0);
+        ramp.cancel();
+
+        assertFalse(ramp.isActive());
+        assertFalse(ramp.isDone(5000));
+    }
+
+    @Test
+    public void emptyFade_isDoneAtOnce() {
+        CrossfadeRamp ramp = new CrossfadeRamp();
+        ramp.start(CrossfadeCurve.EQUAL_POWER, 0, 100);
+
+        assertTrue(ramp.isDone(100));
+        assertEquals(1, ramp.gainIn(100), 1e-6);
+    }
+}
@@ -0,0 +1,63 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link DspSettings} sent to native-lib.
+ */
+public class DspSettingsTest {
+
+    @Test
+    public void neutralByDefault() {
+        float[] packed = new DspSettings().pack();
+        assertArrayEquals(new float[]{0, 0, 100, 0}, packed, 0);
+    }
+
+    @Test
+    public void packsHeaderThenBands() {
+        DspSettings settings = new DspSettings()
+                .setReplayGain(-7.5f, 2)
+                .setLimiter(-1, 50)
+                .setBand(0, DspSettings.BandType.LOW_SHELF, 100, 0.707f, 4)
+                .setBand(2, DspSettings.BandType.PEAKING, 1000, 1, -3);
+        float[] packed = settings.pack();
+        assertEquals(DspSettings.HEADER + 3 * DspSettings.BAND_SIZE, packed.length);
+        assertEquals(-5.5f, packed[0], 0);
+        assertEquals(-1, packed[1], 0);
+        assertEquals(50, packed[2], 0);
+        assertEquals(3, packed[3], 0);
+        assertArrayEquals(new float[]{2, 100, 0.707f, 4}, slice(packed, 0), 0);
+        //band 1 was never set: off
+        assertArrayEquals(new float[]{0, 0, 0, 0}, slice(packed, 1), 0);
+        assertArrayEquals(new float[]{1, 1000, 1, -3}, slice(packed, 2), 0);
+    }
+
+    @Test
+    public void clearBands() {
+        DspSettings settings = new DspSettings().setBand(5, DspSettings.BandType.HIGH_SHELF, 8000, 0.707f, 2);
+        assertEquals(6, settings.getBandCount());
+        settings.clearBands();
+        assertEquals(0, settings.getBandCount());
+        assertEquals(DspSettings.HEADER, settings.pack().length);
+    }
+
+    @Test
+    public void limiterStaysUnderFullScale() {
+        float[] packed = new DspSettings().setLimiter(3, 0).pack();
+        assertEquals(0, packed[1], 0);
+        assertEquals(1, packed[2], 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsBandsPastTheLast() {
+        new DspSettings().setBand(DspSettings.MAX_BANDS, DspSettings.BandType.PEAKING, 1000, 1, 3);
+    }
+
+    private static float[] slice(float[] packed, int band) {
+        float[] values = new float[DspSettings.BAND_SIZE];
+        System.arraycopy(packed, DspSettings.HEADER + band * DspSettings.BAND_SIZE, values, 0, values.length);
+        return values;
+    }
+}
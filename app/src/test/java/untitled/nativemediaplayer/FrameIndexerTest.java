@@ -0,0 +1,129 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link FrameIndexer}, on generated files ({@link AudioFixtures}).
+ */
+public class FrameIndexerTest {
+
+    private static SeekTable index(byte[] file) throws IOException {
+        return FrameIndexer.index(new ByteArrayInputStream(file), file.length);
+    }
+
+    @Test
+    public void vbrMp3_everyEntryIsAtItsFrame() throws IOException {
+        //about 800 KB, more than the buffer of the indexer
+        AudioFixtures fixtures = new AudioFixtures().vbrFrames(2000, new Random(1));
+        SeekTable table = index(fixtures.bytes());
+
+        assertEquals(SeekTable.Format.MP3, table.getFormat());
+        assertEquals(44100, table.getSampleRate());
+        assertEquals(2000, table.getFrameCount());
+        assertEquals(250, table.getEntryCount());
+        for (int entry = 0; entry < table.getEntryCount(); entry++) {
+            assertEquals(fixtures.getFrameOffset(entry * SeekTable.FRAMES_PER_ENTRY), table.offsetOf(entry));
+        }
+        assertEquals(2000L * 1152 * 1000 / 44100, table.getDurationMs());
+    }
+
+    @Test
+    public void position_findsTheFrameAtOrBeforeIt() throws IOException {
+        AudioFixtures fixtures = new AudioFixtures().vbrFrames(2000, new Random(2));
+        SeekTable table = index(fixtures.bytes());
+
+        //frame 1000 starts at 26.122 s
+        int entry = table.entryAt(26200);
+        assertEquals(1000 / SeekTable.FRAMES_PER_ENTRY, entry);
+        assertEquals(fixtures.getFrameOffset(1000), table.offsetOf(entry));
+        assertEquals(1000L * 1152 * 1000 / 44100, table.timeOf(entry));
+        assertTrue(26200 - table.timeOf(entry) < SeekTable.FRAMES_PER_ENTRY * 1152 * 1000 / 44100);
+        //out of range positions
+        assertEquals(0, table.entryAt(-5));
+        assertEquals(table.getEntryCount() - 1, table.entryAt(Long.MAX_VALUE / 1000000));
+    }
+
+    @Test
+    public void id3AndXingFrame_areSkipped() throws IOException {
+        AudioFixtures fixtures = new AudioFixtures().id3v2(3000).xingFrame().vbrFrames(20, new Random(3));
+        SeekTable table = index(fixtures.bytes());
+
+        assertEquals(20, table.getFrameCount());
+        assertEquals(fixtures.getFrameOffset(0), table.offsetOf(0));
+        assertEquals(fixtures.getFrameOffset(8), table.offsetOf(1));
+    }
+
+    @Test
+    public void garbageBetweenFrames_isSkipped() throws IOException {
+        Random random = new Random(4);
+        AudioFixtures fixtures = new AudioFixtures().vbrFrames(12, random).garbage(700, random).vbrFrames(12, random);
+        SeekTable table = index(fixtures.bytes());
+
+        assertEquals(24, table.getFrameCount());
+        assertEquals(fixtures.getFrameOffset(16), table.offsetOf(2));
+    }
+
+    @Test
+    public void tagsAndTruncatedFrameAtTheEnd_areNotFrames() throws IOException {
+        AudioFixtures fixtures = new AudioFixtures().vbrFrames(10, new Random(5)).id3v1();
+        assertEquals(10, index(fixtures.bytes()).getFrameCount());
+
+        fixtures = new AudioFixtures().vbrFrames(10, new Random(5)).truncatedFrame();
+        assertEquals(10, index(fixtures.bytes()).getFrameCount());
+    }
+
+    @Test
+    public void mpeg2AndMpeg25_haveHalfTheSamplesAndRates() throws IOException {
+        AudioFixtures fixtures = new AudioFixtures();
+        for (int i = 0; i < 16; i++) {
+            fixtures.mp3(2, 0, i % 2 == 0 ? 64 : 32, false);
+        }
+        SeekTable table = index(fixtures.bytes());
+        assertEquals(22050, table.getSampleRate());
+        assertEquals(16L * 576 * 1000 / 22050, table.getDurationMs());
+
+        fixtures = new AudioFixtures();
+        for (int i = 0; i < 16; i++) {
+            fixtures.mp3(0, 0, 8, false);
+        }
+        assertEquals(11025, index(fixtures.bytes()).getSampleRate());
+    }
+
+    @Test
+    public void adts_isIndexed() throws IOException {
+        Random random = new Random(6);
+        AudioFixtures fixtures = new AudioFixtures().id3v2(100);
+        for (int i = 0; i < 100; i++) {
+            fixtures.adts(200 + random.nextInt(600), 1);
+        }
+        SeekTable table = index(fixtures.bytes());
+
+        assertEquals(SeekTable.Format.ADTS, table.getFormat());
+        assertEquals(100, table.getFrameCount());
+        assertEquals(fixtures.getFrameOffset(96), table.offsetOf(12));
+        assertEquals(100L * 1024 * 1000 / 44100, table.getDurationMs());
+    }
+
+    @Test
+    public void notAudio_hasNoTable() throws IOException {
+        byte[] noise = new byte[200000];
+        new Random(7).nextBytes(noise);
+        assertNull(index(noise));
+        assertNull(index(new byte[0]));
+        assertNull(index(new AudioFixtures().id3v2(500).bytes()));
+    }
+
+    @Test
+    public void frameOfAnotherKind_isTakenForGarbage() throws IOException {
+        AudioFixtures fixtures = new AudioFixtures().vbrFrames(8, new Random(8));
+        //a 22.05 kHz frame among 44.1 kHz ones
+        fixtures.mp3(2, 0, 64, false).vbrFrames(8, new Random(9));
+        assertEquals(16, index(fixtures.bytes()).getFrameCount());
+    }
+}
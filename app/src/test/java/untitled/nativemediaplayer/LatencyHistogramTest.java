@@ -0,0 +1,85 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueInOrder() {
+        int previous = -1;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(micros <= LatencyHistogram.upperBoundOf(bucket));
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bucketBounds_areWithinAnEighth() {
+        for (int bucket = 8; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            long lower = LatencyHistogram.upperBoundOf(bucket - 1) + 1;
+            assertTrue(upper - lower <= lower / 8);
+        }
+    }
+
+    @Test
+    public void percentiles_matchExactValuesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + random.nextInt(200000);
+            histogram.record(values[i] * 1000);
+        }
+        java.util.Arrays.sort(values);
+
+        for (int percentile : new int[]{50, 95, 99}) {
+            long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact, estimate >= exact && estimate <= exact * 9 / 8 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(10000, histogram.getCount());
+    }
+
+    @Test
+    public void emptyHistogram_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(5000000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    /**
+     * Recording stays on in release builds, it has to cost well under a microsecond.
+     */
+    @Test
+    public void record_costsWellUnderAMicrosecond() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int records = 2000000;
+        for (int i = 0; i < records; i++) {
+            histogram.record(i * 997L);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            histogram.record(i * 997L);
+        }
+        long perRecord = (System.nanoTime() - start) / records;
+
+        System.out.println("LatencyHistogram: " + perRecord + " ns per record");
+        assertTrue(perRecord + " ns", perRecord < 500);
+    }
+}
@@ -0,0 +1,81 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for applying a {@link LibraryDiff} to the song list.
+ */
+public class LibraryDiffTest {
+
+    private SongTable library() {
+        SongTable songs = new SongTable();
+        songs.add(30, "c", "x", 3);
+        songs.add(10, "a", "x", 1);
+        songs.add(20, "b", "y", 2);
+        songs.add(40, "d", "y", 4);
+        return songs;
+    }
+
+    @Test
+    public void applyTo_insertsUpdatesAndRemoves() {
+        SongTable songs = library();
+        SongTable changed = new SongTable();
+        changed.add(20, "b2", "y", 2);
+        changed.add(50, "e", "z", 5);
+        LibraryDiff diff = new LibraryDiff(changed, new long[] {10}, new LibraryFingerprint());
+
+        int[] newRowOf = diff.applyTo(songs);
+
+        assertArrayEquals(new int[] {0, -1, 1, 2}, newRowOf);
+        assertEquals(4, songs.size());
+        assertEquals(30, songs.getID(0));
+        assertEquals("b2", songs.getTitle(1));
+        assertEquals(40, songs.getID(2));
+        assertEquals(50, songs.getID(3));
+        assertFalse(diff.isUpdateOnly());
+        assertArrayEquals(new int[] {1}, diff.getUpdatedRows());
+        assertEquals("1 added, 1 edited, 1 removed", diff.toString());
+    }
+
+    @Test
+    public void applyTo_ignoresRowsThatDidNotChange() {
+        SongTable songs = library();
+        SongTable changed = new SongTable();
+        changed.add(40, "d", "y", 4);
+        LibraryDiff diff = new LibraryDiff(changed, new long[0], new LibraryFingerprint());
+
+        int[] newRowOf = diff.applyTo(songs);
+
+        assertArrayEquals(new int[] {0, 1, 2, 3}, newRowOf);
+        assertTrue(diff.isUpdateOnly());
+        assertEquals(0, diff.getUpdatedRows().length);
+    }
+
+    @Test
+    public void applyTo_skipsUnknownRemovedIDs() {
+        SongTable songs = library();
+        LibraryDiff diff = new LibraryDiff(new SongTable(), new long[] {99}, new LibraryFingerprint());
+
+        assertArrayEquals(new int[] {0, 1, 2, 3}, diff.applyTo(songs));
+        assertEquals(4, songs.size());
+    }
+
+    @Test
+    public void removeRows_compactsTable() {
+        SongTable songs = library();
+        BitSet removed = new BitSet();
+        removed.set(0);
+        removed.set(3);
+
+        int[] newRowOf = songs.removeRows(removed);
+
+        assertArrayEquals(new int[] {-1, 0, 1, -1}, newRowOf);
+        assertEquals(2, songs.size());
+        assertEquals(10, songs.getID(0));
+        assertEquals("y", songs.getArtist(1));
+    }
+}
@@ -0,0 +1,49 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Time to get a 60k song library into a SongTable from the snapshot file (the cold start path).
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class LibrarySnapshotBenchmark {
+
+    private static final int SONGS = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void readSnapshot() throws IOException {
+        SongTable songs = new SongTable(SONGS);
+        for (int i = 0; i < SONGS; i++) {
+            songs.add(i, "Song title number " + i, "Artist " + (i % 3000), i);
+        }
+        File file = new File(folder.getRoot(), "library.snapshot");
+
+        long start = System.nanoTime();
+        LibrarySnapshot.write(file, songs, new SongSorter.Key[] {SongSorter.Key.TITLE}, new LibraryFingerprint());
+        long writeMs = (System.nanoTime() - start) / 1000000;
+
+        long bestReadUs = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            start = System.nanoTime();
+            LibrarySnapshot.read(file);
+            bestReadUs = Math.min(bestReadUs, (System.nanoTime() - start) / 1000);
+        }
+        System.out.println(SONGS + " songs: snapshot " + file.length() / 1024 + " KB, write " + writeMs
+                + " ms, read " + bestReadUs / 1000.0 + " ms");
+    }
+}
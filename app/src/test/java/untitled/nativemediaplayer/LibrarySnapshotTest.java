@@ -0,0 +1,124 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link LibrarySnapshot} file format.
+ */
+public class LibrarySnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private SongTable songs;
+    private final SongSorter.Key[] order = {SongSorter.Key.ARTIST, SongSorter.Key.TITLE};
+    private final LibraryFingerprint fingerprint = new LibraryFingerprint(3, 60, 30, 1500000000L);
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "library.snapshot");
+        songs = new SongTable();
+        songs.add(10, "Title", "Artist", 100);
+        songs.add(20, "Caf\u00e9 \ud83c\udfb5", "Artist", 200, "Album", 7, 1002, 215000);
+        songs.add(30, null, "Other", 300);
+    }
+
+    @Test
+    public void writeThenRead_restoresLibrary() throws IOException {
+        LibrarySnapshot.write(file, songs, order, fingerprint);
+
+        LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+
+        SongTable read = snapshot.getSongs();
+        assertEquals(3, read.size());
+        for (int i = 0; i < songs.size(); i++) {
+            assertEquals(songs.getID(i), read.getID(i));
+            assertEquals(songs.getTitle(i), read.getTitle(i));
+            assertEquals(songs.getArtist(i), read.getArtist(i));
+            assertEquals(songs.getDateAdded(i), read.getDateAdded(i));
+            assertEquals(songs.getAlbum(i), read.getAlbum(i));
+            assertEquals(songs.getAlbumID(i), read.getAlbumID(i));
+            assertEquals(songs.getTrack(i), read.getTrack(i));
+            assertEquals(songs.getDuration(i), read.getDuration(i));
+        }
+        assertArrayEquals(order, snapshot.getSortOrder());
+        assertEquals(fingerprint, snapshot.getFingerprint());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void readTable_acceptsNewSongs() throws IOException {
+        LibrarySnapshot.write(file, songs, order, fingerprint);
+        SongTable read = LibrarySnapshot.read(file).getSongs();
+
+        read.add(40, "New", "Artist", 400);
+
+        assertEquals(4, read.size());
+        assertEquals(read.getArtistRef(0), read.getArtistRef(3));
+    }
+
+    @Test
+    public void emptyLibrary_roundTrips() throws IOException {
+        LibrarySnapshot.write(file, new SongTable(), order, new LibraryFingerprint());
+
+        assertEquals(0, LibrarySnapshot.read(file).getSongs().size());
+    }
+
+    @Test(expected = LibrarySnapshot.InvalidSnapshotException.class)
+    public void flippedByte_isDetected() throws IOException {
+        LibrarySnapshot.write(file, songs, order, fingerprint);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() / 2);
+        int value = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(value ^ 0x10);
+        raf.close();
+
+        LibrarySnapshot.read(file);
+    }
+
+    @Test(expected = LibrarySnapshot.InvalidSnapshotException.class)
+    public void truncatedFile_isDetected() throws IOException {
+        LibrarySnapshot.write(file, songs, order, fingerprint);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 9);
+        raf.close();
+
+        LibrarySnapshot.read(file);
+    }
+
+    @Test
+    public void otherVersion_isRejected() throws IOException {
+        LibrarySnapshot.write(file, songs, order, fingerprint);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(LibrarySnapshot.VERSION + 1);
+        raf.close();
+
+        try {
+            LibrarySnapshot.read(file);
+            fail("Expected the version check to fail");
+        } catch (LibrarySnapshot.InvalidSnapshotException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    @Test(expected = LibrarySnapshot.InvalidSnapshotException.class)
+    public void otherFile_isRejected() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[64]);
+        raf.close();
+
+        LibrarySnapshot.read(file);
+    }
+}
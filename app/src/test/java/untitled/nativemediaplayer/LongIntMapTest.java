@@ -0,0 +1,70 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link LongIntMap}, checked against a HashMap.
+ */
+public class LongIntMapTest {
+
+    @Test
+    public void putAndGet_includingTheZeroKey() {
+        LongIntMap map = new LongIntMap();
+        map.put(0, 5);
+        map.put(-1, 6);
+        map.put(Long.MAX_VALUE, 7);
+        map.put(-1, 8);
+
+        assertEquals(3, map.size());
+        assertEquals(5, map.get(0, -1));
+        assertEquals(8, map.get(-1, -1));
+        assertEquals(7, map.get(Long.MAX_VALUE, -1));
+        assertEquals(-1, map.get(42, -1));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(42));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+        assertEquals(-1, map.get(-1, -1));
+    }
+
+    @Test
+    public void add_countsFromZero() {
+        LongIntMap map = new LongIntMap(0);
+
+        assertEquals(1, map.add(3, 1));
+        assertEquals(3, map.add(3, 2));
+        assertEquals(-2, map.add(0, -2));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void randomKeys_matchHashMap() {
+        Random random = new Random(3);
+        LongIntMap map = new LongIntMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            //consecutive IDs and random ones
+            long key = random.nextBoolean() ? random.nextInt(5000) : random.nextLong();
+            int value = random.nextInt();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey(), -1));
+        }
+        for (int i = 0; i < 1000; i++) {
+            long key = 10000 + random.nextInt(100000);
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for the {@link PlayHistory}.
+ */
+public class PlayHistoryTest {
+
+    @Test
+    public void emptyHistory_hasNowhereToGo() {
+        PlayHistory history = new PlayHistory(4);
+        assertEquals(-1, history.current());
+        assertEquals(-1, history.back());
+        assertEquals(-1, history.forward());
+        assertFalse(history.canGoBack());
+        assertFalse(history.canGoForward());
+    }
+
+    @Test
+    public void backThenForward_walksTheHistory() {
+        PlayHistory history = new PlayHistory(4);
+        history.push(5);
+        history.push(300);
+        history.push(7);
+
+        assertEquals(300, history.back());
+        assertEquals(5, history.back());
+        assertEquals(-1, history.back());
+        assertEquals(300, history.forward());
+        assertEquals(7, history.forward());
+        assertFalse(history.canGoForward());
+    }
+
+    @Test
+    public void push_afterBack_dropsTheForwardSongs() {
+        PlayHistory history = new PlayHistory(4);
+        history.push(1);
+        history.push(2);
+        history.push(3);
+        history.back();
+        history.back();
+
+        history.push(9);
+
+        assertEquals(2, history.size());
+        assertFalse(history.canGoForward());
+        assertEquals(1, history.back());
+    }
+
+    @Test
+    public void sameSongTwice_isRecordedOnce() {
+        PlayHistory history = new PlayHistory(4);
+        history.push(1000);
+        history.push(1000);
+
+        assertEquals(1, history.size());
+    }
+
+    @Test
+    public void fullHistory_evictsTheOldestSong() {
+        PlayHistory history = new PlayHistory(3);
+        for (int song = 0; song < 10; song++) {
+            history.push(song);
+        }
+
+        assertEquals(3, history.size());
+        assertEquals(7, history.get(0));
+        assertEquals(9, history.current());
+        assertEquals(8, history.back());
+        assertEquals(7, history.back());
+        assertEquals(-1, history.back());
+    }
+
+    @Test
+    public void remap_movesRowsAndDropsRemovedSongs() {
+        PlayHistory history = new PlayHistory(3);
+        for (int song = 0; song < 5; song++) {
+            history.push(song);
+        }
+        history.back();
+
+        //rows 2, 3, 4 -> song 3 removed, the others reversed
+        history.remap(new int[]{3, 2, 1, -1, 0});
+
+        assertEquals(2, history.size());
+        assertEquals(1, history.get(0));
+        assertEquals(0, history.get(1));
+        assertEquals(1, history.current());
+        assertEquals(0, history.forward());
+    }
+
+    @Test
+    public void restore_skipsRemovedSongs() {
+        //songs 0, 2, 1 played then one back; song 0 was removed since
+        PlayHistory history = new PlayHistory(8);
+        history.restore(new int[] {-1, 2, 1}, 1);
+
+        assertEquals(2, history.size());
+        assertEquals(2, history.current());
+        assertEquals(1, history.forward());
+    }
+
+    @Test
+    public void restore_keepsTheNewestSongsWhenSmaller() {
+        int[] songs = new int[10];
+        for (int i = 0; i < songs.length; i++) {
+            songs[i] = i;
+        }
+        PlayHistory history = new PlayHistory(4);
+        history.restore(songs, 9);
+
+        assertEquals(4, history.size());
+        assertEquals(6, history.get(0));
+        assertEquals(9, history.current());
+    }
+
+    /**
+     * A day of skipping every two seconds through a shuffled library, going back now and then.
+     * Once warmed up, the history must not allocate at all.
+     */
+    @Test
+    public void dayOfSkips_keepsHeapFlat() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        int skips = 24 * 60 * 60 / 2;
+        PlayHistory history = new PlayHistory(1000);
+        ShuffleOrder shuffle = new ShuffleOrder(20000, new Random(1));
+        Random random = new Random(2);
+        skip(history, shuffle, random, skips);
+
+        long threadID = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadID);
+        int checksum = skip(history, shuffle, random, skips);
+        long allocated = threads.getThreadAllocatedBytes(threadID) - before;
+
+        System.out.println("PlayHistory: " + skips + " skips allocated " + allocated + " bytes (checksum " + checksum + ")");
+        assertEquals(1000, history.size());
+        //room for the measurement itself, a Deque<Integer> would box most of the 43200 rows (16 bytes each)
+        assertTrue("Allocated " + allocated + " bytes", allocated < 16 * 1024);
+    }
+
+    private static int skip(PlayHistory history, ShuffleOrder shuffle, Random random, int skips) {
+        int checksum = 0;
+        for (int i = 0; i < skips; i++) {
+            int song;
+            if (random.nextInt(10) == 0 && history.canGoBack()) {
+                song = history.back();
+            } else if (history.canGoForward()) {
+                song = history.forward();
+            } else {
+                song = shuffle.next();
+                history.push(song);
+            }
+            checksum += song;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,93 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The {@link PlayQueue} against an ArrayList<Integer> queue: bulk enqueue of 100k songs at the front of a large queue,
+ * then random inserts, drags, removals and lookups, at queue sizes from 10k to 1M songs.
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class PlayQueueBenchmark {
+
+    private static final int BULK = 100000;
+    private static final int EDITS = 20000;
+    private static final int[] SIZES = {10000, 100000, 1000000};
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    private static int[] songs(int count) {
+        int[] songs = new int[count];
+        for (int i = 0; i < count; i++) {
+            songs[i] = i;
+        }
+        return songs;
+    }
+
+    @Test
+    public void treapAgainstArrayList() {
+        //warm up both
+        run(new Random(1), 10000, false);
+        for (int size : SIZES) {
+            run(new Random(2), size, true);
+        }
+    }
+
+    private static void run(Random random, int size, boolean print) {
+        int[] initial = songs(size);
+        int[] bulk = songs(BULK);
+        //the same edits for both queues
+        int[] positions = new int[EDITS * 2];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = random.nextInt(size);
+        }
+        long checksum = 0;
+
+        PlayQueue queue = new PlayQueue(new Random(3));
+        queue.addAll(initial);
+        long start = System.nanoTime();
+        queue.insertAll(0, bulk);
+        long queueBulk = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) {
+            queue.insert(positions[i], i);
+            queue.move(positions[i], positions[EDITS + i]);
+            checksum += queue.get(positions[EDITS + i]);
+            checksum += queue.remove(positions[i]);
+        }
+        long queueEdits = System.nanoTime() - start;
+
+        ArrayList<Integer> list = new ArrayList<>(size);
+        for (int song : initial) {
+            list.add(song);
+        }
+        start = System.nanoTime();
+        ArrayList<Integer> added = new ArrayList<>(BULK);
+        for (int song : bulk) {
+            added.add(song);
+        }
+        list.addAll(0, added);
+        long listBulk = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) {
+            list.add(positions[i], i);
+            list.add(positions[EDITS + i], list.remove(positions[i]));
+            checksum -= list.get(positions[EDITS + i]);
+            checksum -= list.remove(positions[i]);
+        }
+        long listEdits = System.nanoTime() - start;
+
+        if (print) {
+            System.out.println(size + " queued: bulk enqueue of " + BULK + " PlayQueue " + queueBulk / 1000 + " us, ArrayList "
+                    + listBulk / 1000 + " us; insert+move+get+remove PlayQueue " + queueEdits / EDITS + " ns, ArrayList "
+                    + listEdits / EDITS + " ns (checksum " + checksum + ")");
+        }
+    }
+}
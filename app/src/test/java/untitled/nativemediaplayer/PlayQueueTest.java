@@ -0,0 +1,146 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link PlayQueue}, checked against an ArrayList doing the same edits.
+ */
+public class PlayQueueTest {
+
+    private static void assertSame(List<Integer> expected, PlayQueue queue) {
+        assertEquals(expected.size(), queue.size());
+        int[] rows = queue.toArray();
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals((int) expected.get(i), rows[i]);
+        }
+    }
+
+    @Test
+    public void insertRemoveAndMove_keepTheOrder() {
+        PlayQueue queue = new PlayQueue(new Random(1));
+        queue.add(10);
+        queue.add(20);
+        queue.insert(0, 5);
+        queue.insert(2, 15);
+
+        assertArrayEquals(new int[] {5, 10, 15, 20}, queue.toArray());
+        assertEquals(15, queue.get(2));
+
+        queue.move(0, 3);
+        assertArrayEquals(new int[] {10, 15, 20, 5}, queue.toArray());
+        queue.move(3, 1);
+        assertArrayEquals(new int[] {10, 5, 15, 20}, queue.toArray());
+
+        assertEquals(5, queue.remove(1));
+        assertEquals(20, queue.remove(2));
+        assertArrayEquals(new int[] {10, 15}, queue.toArray());
+        assertArrayEquals(new int[] {15}, queue.toArray(1, 5));
+        assertArrayEquals(new int[0], queue.toArray(2, 5));
+    }
+
+    @Test
+    public void entries_followTheirSongs() {
+        PlayQueue queue = new PlayQueue(new Random(2));
+        int[] entries = new int[100];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = queue.add(i);
+        }
+        queue.move(99, 0);
+        queue.remove(50);
+        queue.insertAll(10, new int[] {1000, 1001, 1002});
+
+        assertEquals(0, queue.positionOf(entries[99]));
+        assertEquals(1, queue.positionOf(entries[0]));
+        assertEquals(13, queue.positionOf(entries[9]));
+        //moved back by the first move, forward by the removal, back by the insertion
+        assertEquals(54, queue.positionOf(entries[51]));
+        for (int position = 0; position < queue.size(); position++) {
+            assertEquals(position, queue.positionOf(queue.entryAt(position)));
+        }
+    }
+
+    @Test
+    public void bulkInsert_ofManySongs() {
+        PlayQueue queue = new PlayQueue(new Random(3));
+        int[] songs = new int[100000];
+        for (int i = 0; i < songs.length; i++) {
+            songs[i] = i;
+        }
+        queue.add(-1);
+        queue.add(-2);
+
+        queue.insertAll(1, songs);
+
+        assertEquals(100002, queue.size());
+        assertEquals(-1, queue.get(0));
+        assertEquals(0, queue.get(1));
+        assertEquals(54321, queue.get(54322));
+        assertEquals(-2, queue.get(100001));
+    }
+
+    @Test
+    public void remap_dropsRemovedSongs() {
+        PlayQueue queue = new PlayQueue(new Random(4));
+        queue.addAll(new int[] {0, 2, 1, 2, 3});
+
+        queue.remap(new int[] {3, -1, 0, 1});
+
+        assertArrayEquals(new int[] {3, 0, 0, 1}, queue.toArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_rejectsPositionsPastTheEnd() {
+        PlayQueue queue = new PlayQueue();
+        queue.add(1);
+        queue.get(1);
+    }
+
+    @Test
+    public void randomEdits_matchArrayList() {
+        Random random = new Random(5);
+        PlayQueue queue = new PlayQueue(new Random(6));
+        List<Integer> expected = new ArrayList<>();
+        for (int step = 0; step < 20000; step++) {
+            int size = expected.size();
+            int action = random.nextInt(10);
+            if (action < 4 || size == 0) {
+                int position = random.nextInt(size + 1);
+                queue.insert(position, step);
+                expected.add(position, step);
+            } else if (action < 6) {
+                int position = random.nextInt(size);
+                assertEquals((int) expected.remove(position), queue.remove(position));
+            } else if (action < 8) {
+                int from = random.nextInt(size);
+                int to = random.nextInt(size);
+                queue.move(from, to);
+                expected.add(to, expected.remove(from));
+            } else if (action < 9) {
+                int position = random.nextInt(size + 1);
+                int[] songs = new int[random.nextInt(20)];
+                for (int i = 0; i < songs.length; i++) {
+                    songs[i] = -step * 100 - i;
+                    expected.add(position + i, songs[i]);
+                }
+                queue.insertAll(position, songs);
+            } else {
+                int position = random.nextInt(size);
+                assertEquals((int) expected.get(position), queue.get(position));
+            }
+            if (step % 1000 == 0) {
+                assertSame(expected, queue);
+            }
+        }
+        assertSame(expected, queue);
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        queue.add(7);
+        assertArrayEquals(new int[] {7}, queue.toArray());
+    }
+}
@@ -0,0 +1,143 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Top 50 most played of a 100k songs library with the {@link PlayStats} heap against sorting every row, and drawing
+ * weighted shuffle songs with the {@link AliasTable} against a binary search over the running total of the weights.
+ * Also the cost of recording an event on the calling thread.
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class PlayStatsBenchmark {
+
+    private static final int SONGS = 100000;
+    private static final int TOP = 50;
+    private static final int DRAWS = 1000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void queriesAndShuffle() {
+        SongTable songs = new SongTable(SONGS);
+        for (int i = 0; i < SONGS; i++) {
+            songs.add(i, "Title " + i, "Artist " + i / 20, i);
+        }
+        File table = new File(folder.getRoot(), "play_stats.bin");
+        File log = new File(folder.getRoot(), "play_stats.log");
+        final PlayStats stats = new PlayStats(table, log, direct);
+        stats.load();
+
+        //a skewed library: a few songs played a lot
+        Random random = new Random(1);
+        int events = 500000;
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            long id = (long) (SONGS * Math.pow(random.nextDouble(), 3));
+            if (random.nextInt(4) == 0) {
+                stats.recordSkip(id, i);
+            } else {
+                stats.recordPlay(id, i);
+            }
+        }
+        stats.flush();
+        long recordNanos = (System.nanoTime() - start) / events;
+        System.out.println(events + " events: " + recordNanos + " ns each (writes included), stats: " + stats
+                + ", " + table.length() / 1024 + " KB table");
+
+        int[] top = null;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            start = System.nanoTime();
+            top = stats.mostPlayed(songs, TOP);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long heapMicros = best / 1000;
+
+        final SongTable library = songs;
+        int[] sorted = null;
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            start = System.nanoTime();
+            sorted = new int[SONGS];
+            for (int i = 0; i < SONGS; i++) {
+                sorted[i] = i;
+            }
+            SongSorter.sortRows(sorted, new SongSorter.RowComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    int plays = stats.getPlays(library.getID(b)) - stats.getPlays(library.getID(a));
+                    return plays != 0 ? plays
+                            : Long.compare(stats.getLastPlayed(library.getID(b)), stats.getLastPlayed(library.getID(a)));
+                }
+            }, false);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long sortMicros = best / 1000;
+        for (int i = 0; i < TOP; i++) {
+            if (stats.getPlays(songs.getID(top[i])) != stats.getPlays(songs.getID(sorted[i]))) {
+                throw new AssertionError("Top " + TOP + " differs at " + i);
+            }
+        }
+        System.out.println("Top " + TOP + " of " + SONGS + " songs: heap " + heapMicros + " us, full sort "
+                + sortMicros + " us");
+
+        double[] weights = stats.shuffleWeights(songs);
+        start = System.nanoTime();
+        AliasTable alias = new AliasTable(weights);
+        long buildMicros = (System.nanoTime() - start) / 1000;
+        double[] totals = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            totals[i] = total;
+        }
+
+        long checksum = 0;
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            Random draws = new Random(2);
+            start = System.nanoTime();
+            for (int i = 0; i < DRAWS; i++) {
+                checksum += alias.sample(draws);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long aliasNanos = best / DRAWS;
+        best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            Random draws = new Random(2);
+            start = System.nanoTime();
+            for (int i = 0; i < DRAWS; i++) {
+                int index = Arrays.binarySearch(totals, draws.nextDouble() * total);
+                checksum += index < 0 ? -index - 1 : index;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long searchNanos = best / DRAWS;
+        System.out.println("Weighted shuffle over " + SONGS + " songs: alias table built in " + buildMicros
+                + " us, " + aliasNanos + " ns per draw; running total binary search " + searchNanos
+                + " ns per draw (checksum " + checksum + ")");
+    }
+}
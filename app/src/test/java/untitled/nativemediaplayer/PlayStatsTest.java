@@ -0,0 +1,249 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link PlayStats}, the writes run right away on the calling thread.
+ */
+public class PlayStatsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File table;
+    private File log;
+
+    @Before
+    public void setUp() throws IOException {
+        table = new File(folder.getRoot(), "play_stats.bin");
+        log = new File(folder.getRoot(), "play_stats.log");
+    }
+
+    private PlayStats open() {
+        PlayStats stats = new PlayStats(table, log, direct);
+        stats.load();
+        return stats;
+    }
+
+    //Songs with IDs 10, 20, ... added on days 1, 2, ...
+    private static SongTable songs(int count) {
+        SongTable songs = new SongTable();
+        for (int i = 1; i <= count; i++) {
+            songs.add(i * 10, "Song " + i, "Artist", i * 86400L);
+        }
+        return songs;
+    }
+
+    @Test
+    public void events_countPerSong() {
+        PlayStats stats = open();
+        stats.recordPlay(10, 1000);
+        stats.recordPlay(10, 5000);
+        stats.recordSkip(10, 9000);
+        stats.recordSkip(20, 2000);
+
+        assertEquals(2, stats.getPlays(10));
+        assertEquals(1, stats.getSkips(10));
+        assertEquals(5000, stats.getLastPlayed(10));
+        assertEquals(0, stats.getPlays(20));
+        assertEquals(1, stats.getSkips(20));
+        assertEquals(0, stats.getLastPlayed(20));
+        assertEquals(0, stats.getPlays(30));
+    }
+
+    @Test
+    public void queries_pickTheTopSongs() {
+        SongTable songs = songs(6);
+        PlayStats stats = open();
+        //song 20: 3 plays, songs 30 and 40: 2 plays each, 40 last; song 50 only skipped
+        for (int i = 0; i < 3; i++) {
+            stats.recordPlay(20, 1000000 + i);
+        }
+        stats.recordPlay(30, 2000000);
+        stats.recordPlay(30, 3000000);
+        stats.recordPlay(40, 4000000);
+        stats.recordPlay(40, 5000000);
+        stats.recordPlay(10, 6000000);
+        stats.recordSkip(50, 7000000);
+
+        assertArrayEquals(new int[] {1, 3, 2}, stats.mostPlayed(songs, 3));
+        assertArrayEquals(new int[] {1, 3, 2, 0}, stats.mostPlayed(songs, 10));
+        assertArrayEquals(new int[] {0, 3}, stats.recentlyPlayed(songs, 2));
+        //newest first
+        assertArrayEquals(new int[] {5, 4}, stats.neverPlayed(songs, 5));
+        assertArrayEquals(new int[0], stats.mostPlayed(songs, 0));
+    }
+
+    @Test
+    public void topN_matchesAFullSort() {
+        Random random = new Random(1);
+        int n = 10000;
+        long[] keys = new long[n];
+        PlayStats.TopN top = new PlayStats.TopN(50);
+        Integer[] rows = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt(500);
+            rows[i] = i;
+            top.offer(i, keys[i]);
+        }
+        final long[] sortKeys = keys;
+        Arrays.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(sortKeys[b], sortKeys[a]);
+            }
+        });
+
+        int[] picked = top.toRows();
+        assertEquals(50, picked.length);
+        for (int i = 0; i < picked.length; i++) {
+            assertEquals(keys[rows[i]], keys[picked[i]]);
+        }
+    }
+
+    @Test
+    public void shuffleWeights_favourPlaysOverSkips() {
+        SongTable songs = songs(3);
+        PlayStats stats = open();
+        stats.recordPlay(10, 1);
+        stats.recordPlay(10, 2);
+        stats.recordPlay(10, 3);
+        stats.recordSkip(20, 4);
+
+        double[] weights = stats.shuffleWeights(songs);
+
+        assertEquals(4, weights[0], 1e-9);
+        assertEquals(0.5, weights[1], 1e-9);
+        assertEquals(1, weights[2], 1e-9);
+    }
+
+    @Test
+    public void flushedEvents_areLoadedAgain() {
+        PlayStats stats = open();
+        stats.recordPlay(10, 1000);
+        stats.recordSkip(20, 2000);
+        //nothing written until the batch is due
+        assertFalse(log.exists());
+        stats.flushIfDue(1000 + PlayStats.FLUSH_DELAY_MS - 1);
+        assertFalse(log.exists());
+        stats.flushIfDue(1000 + PlayStats.FLUSH_DELAY_MS);
+        assertTrue(log.exists());
+
+        PlayStats loaded = open();
+        assertTrue(loaded.isLoaded());
+        assertEquals(1, loaded.getPlays(10));
+        assertEquals(1000, loaded.getLastPlayed(10));
+        assertEquals(1, loaded.getSkips(20));
+    }
+
+    @Test
+    public void longLog_isFoldedIntoTheTable_withoutCountingTwice() {
+        PlayStats stats = open();
+        int events = 0;
+        while (!table.exists()) {
+            stats.recordPlay(events % 100, events);
+            events++;
+        }
+        //a few more, after the table
+        for (int i = 0; i < 10; i++) {
+            stats.recordPlay(7, 1000000 + i);
+            events++;
+        }
+        stats.flush();
+        assertTrue(log.length() < PlayStats.LOG_BYTES);
+
+        PlayStats loaded = open();
+        int total = 0;
+        for (int id = 0; id < 100; id++) {
+            total += loaded.getPlays(id);
+            assertEquals(stats.getPlays(id), loaded.getPlays(id));
+        }
+        assertEquals(events, total);
+        assertEquals(1000009, loaded.getLastPlayed(7));
+    }
+
+    @Test
+    public void tornBatch_isDropped() throws IOException {
+        PlayStats stats = open();
+        stats.recordPlay(10, 1000);
+        stats.flush();
+        stats.recordPlay(20, 2000);
+        stats.recordPlay(30, 3000);
+        stats.flush();
+        //the second batch was cut short by a crash
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        try {
+            raf.setLength(raf.length() - 2);
+        } finally {
+            raf.close();
+        }
+
+        PlayStats loaded = open();
+        assertEquals(1, loaded.getPlays(10));
+        assertEquals(0, loaded.getPlays(20));
+        //the next batch replaces the torn one
+        loaded.recordPlay(40, 4000);
+        loaded.flush();
+        PlayStats again = open();
+        assertEquals(1, again.getPlays(10));
+        assertEquals(1, again.getPlays(40));
+    }
+
+    @Test
+    public void eventsBeforeTheLoad_areAdded() {
+        PlayStats first = open();
+        first.recordPlay(10, 1000);
+        first.flush();
+
+        PlayStats stats = new PlayStats(table, log, direct);
+        stats.recordPlay(10, 5000);
+        stats.recordSkip(20, 6000);
+        stats.load();
+
+        assertEquals(2, stats.getPlays(10));
+        assertEquals(5000, stats.getLastPlayed(10));
+        assertEquals(1, stats.getSkips(20));
+        stats.flush();
+        assertEquals(2, open().getPlays(10));
+    }
+
+    @Test
+    public void damagedTable_startsOver() throws IOException {
+        PlayStats stats = open();
+        while (!table.exists()) {
+            stats.recordPlay(1, 1);
+        }
+        RandomAccessFile raf = new RandomAccessFile(table, "rw");
+        try {
+            raf.seek(20);
+            raf.write(0x7F);
+        } finally {
+            raf.close();
+        }
+
+        PlayStats loaded = open();
+        assertTrue(loaded.isLoaded());
+        assertEquals(0, loaded.getPlays(1));
+        assertTrue(loaded.toString().contains("1 failed"));
+    }
+}
@@ -0,0 +1,73 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link PlaybackClock}.
+ */
+public class PlaybackClockTest {
+
+    @Test
+    public void running_advancesWithTheClock() {
+        PlaybackClock clock = new PlaybackClock(0);
+        clock.set(1000, 180000, true, 5000);
+
+        assertEquals(1000, clock.getPosition(5000));
+        assertEquals(3500, clock.getPosition(7500));
+    }
+
+    @Test
+    public void paused_staysPut() {
+        PlaybackClock clock = new PlaybackClock(0);
+        clock.set(1000, 180000, true, 0);
+        clock.pause(400);
+
+        assertEquals(1400, clock.getPosition(10000));
+        clock.resume(20000);
+        assertEquals(1500, clock.getPosition(20100));
+    }
+
+    @Test
+    public void position_stopsAtTheEnd() {
+        PlaybackClock clock = new PlaybackClock(0);
+        clock.set(179000, 180000, true, 0);
+
+        assertEquals(180000, clock.getPosition(5000));
+    }
+
+    @Test
+    public void seek_movesTheAnchor() {
+        PlaybackClock clock = new PlaybackClock(0);
+        clock.set(0, 180000, true, 0);
+        clock.seek(60000, 1000);
+
+        assertEquals(60500, clock.getPosition(1500));
+        clock.seek(999999, 2000);
+        assertEquals(180000, clock.getPosition(2000));
+    }
+
+    @Test
+    public void stop_clearsTheSong() {
+        PlaybackClock clock = new PlaybackClock(0);
+        clock.set(5000, 180000, true, 0);
+        clock.stop();
+
+        assertEquals(0, clock.getPosition(1000));
+        assertEquals(0, clock.getDuration());
+        assertFalse(clock.isRunning());
+    }
+
+    @Test
+    public void reads_areCounted() {
+        PlaybackClock clock = new PlaybackClock(0);
+        clock.set(0, 1000, true, 0);
+        for (int i = 0; i < 60; i++) {
+            clock.getPosition(i * 1000);
+        }
+
+        assertEquals(60, clock.getPositionReads());
+        assertEquals(1, clock.getUpdates());
+    }
+}
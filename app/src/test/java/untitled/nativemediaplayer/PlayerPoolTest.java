@@ -0,0 +1,195 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link PlayerPool}, with fake players and a cleanup executor run by hand.
+ */
+public class PlayerPoolTest {
+
+    private static class FakePlayer {
+        boolean dirty;
+        boolean destroyed;
+        boolean failReset;
+    }
+
+    private final List<Runnable> cleanups = new ArrayList<>();
+    private int created;
+    private PlayerPool<FakePlayer> pool;
+
+    @Before
+    public void setUp() {
+        pool = new PlayerPool<>(2, new PlayerPool.Factory<FakePlayer>() {
+            @Override
+            public FakePlayer create() {
+                created++;
+                return new FakePlayer();
+            }
+
+            @Override
+            public void recycle(FakePlayer player) throws Exception {
+                if (player.failReset) {
+                    throw new IllegalStateException();
+                }
+                player.dirty = false;
+            }
+
+            @Override
+            public void destroy(FakePlayer player) {
+                player.destroyed = true;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                cleanups.add(command);
+            }
+        });
+    }
+
+    private void runCleanups() {
+        for (Runnable cleanup : cleanups) {
+            cleanup.run();
+        }
+        cleanups.clear();
+    }
+
+    @Test
+    public void filledPool_givesWarmPlayers() {
+        pool.fill();
+        assertEquals(2, created);
+
+        pool.acquire();
+        pool.acquire();
+
+        assertEquals(2, created);
+        assertEquals(2, pool.getWarmAcquires());
+        assertEquals(0, pool.getColdAcquires());
+    }
+
+    @Test
+    public void emptyPool_createsAPlayer() {
+        assertNotNull(pool.acquire());
+        assertEquals(1, created);
+        assertEquals(1, pool.getColdAcquires());
+    }
+
+    @Test
+    public void release_cleansUpOnTheExecutor() {
+        FakePlayer player = pool.acquire();
+        player.dirty = true;
+
+        pool.release(player);
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(player.dirty);
+
+        runCleanups();
+        assertEquals(1, pool.getIdleCount());
+        assertFalse(player.dirty);
+        assertSame(player, pool.acquire());
+    }
+
+    @Test
+    public void fullPool_destroysExtraPlayers() {
+        pool.fill();
+        FakePlayer extra = new FakePlayer();
+
+        pool.release(extra);
+        runCleanups();
+
+        assertTrue(extra.destroyed);
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void failingPlayer_isRetired() {
+        FakePlayer player = pool.acquire();
+        pool.reportError(player);
+        pool.release(player);
+        runCleanups();
+        assertFalse(player.destroyed);
+
+        assertSame(player, pool.acquire());
+        for (int i = 1; i < PlayerPool.MAX_ERRORS; i++) {
+            pool.reportError(player);
+        }
+        pool.release(player);
+        runCleanups();
+
+        assertTrue(player.destroyed);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void failedReset_destroysThePlayer() {
+        FakePlayer player = pool.acquire();
+        player.failReset = true;
+
+        pool.release(player);
+        runCleanups();
+
+        assertTrue(player.destroyed);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void discard_destroysWithoutReuse() {
+        FakePlayer player = pool.acquire();
+
+        pool.discard(player);
+        runCleanups();
+
+        assertTrue(player.destroyed);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void replaceIdle_destroysIdleAndCleanedUpPlayers() {
+        pool.fill();
+        FakePlayer idle = pool.acquire();
+        FakePlayer beingCleaned = pool.acquire();
+        pool.release(idle);
+        runCleanups();
+        pool.release(beingCleaned);
+        int before = created;
+
+        //the media server died: the idle player and the one given back before are not reused
+        pool.replaceIdle();
+        runCleanups();
+
+        assertTrue(idle.destroyed);
+        assertTrue(beingCleaned.destroyed);
+        assertEquals(before + 1, created);
+        assertEquals(1, pool.getIdleCount());
+        FakePlayer fresh = pool.acquire();
+        assertNotSame(idle, fresh);
+        assertFalse(fresh.destroyed);
+        pool.release(fresh);
+        runCleanups();
+        assertSame(fresh, pool.acquire());
+    }
+
+    @Test
+    public void close_destroysIdleAndReturnedPlayers() {
+        pool.fill();
+        FakePlayer inUse = pool.acquire();
+        FakePlayer idle = pool.acquire();
+        pool.release(idle);
+        runCleanups();
+
+        pool.close();
+        pool.release(inUse);
+        runCleanups();
+
+        assertTrue(idle.destroyed);
+        assertTrue(inUse.destroyed);
+        pool.fill();
+        assertEquals(0, pool.getIdleCount());
+    }
+}
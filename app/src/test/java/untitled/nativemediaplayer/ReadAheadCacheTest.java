@@ -0,0 +1,213 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link ReadAheadCache}, the prefetches run right away on the calling thread
+ * unless the test holds them back.
+ */
+public class ReadAheadCacheTest {
+
+    private static final int HEAD = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File songs;
+    private int opened;
+
+    private final SongOpener opener = new SongOpener() {
+        @Override
+        public FileInputStream open(long id) throws IOException {
+            opened++;
+            return new FileInputStream(new File(songs, id + ".mp3"));
+        }
+    };
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        songs = folder.newFolder("songs");
+    }
+
+    private byte[] writeSong(long id, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        new Random(id).nextBytes(bytes);
+        FileOutputStream out = new FileOutputStream(new File(songs, id + ".mp3"));
+        out.write(bytes);
+        out.close();
+        return bytes;
+    }
+
+    //Reads the whole song through the source, in chunks of the given size.
+    private static byte[] readAll(ReadAheadCache.Source source, int chunk) throws IOException {
+        byte[] bytes = new byte[(int) source.getSize()];
+        int position = 0;
+        while (true) {
+            int read = source.readAt(position, bytes, position, Math.min(chunk, bytes.length - position));
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            if (position == bytes.length) {
+                assertEquals(-1, source.readAt(position, new byte[1], 0, 1));
+                break;
+            }
+        }
+        return bytes;
+    }
+
+    @Test
+    public void miss_whenNotPrefetched() throws IOException {
+        writeSong(1, 5000);
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 10 * HEAD);
+        assertNull(cache.open(1));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, opened);
+    }
+
+    @Test
+    public void hit_readsTheHeadFromMemoryAndTheRestFromTheFile() throws IOException {
+        byte[] song = writeSong(1, 5000);
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 10 * HEAD);
+        cache.prefetch(1);
+        assertEquals(1, opened);
+
+        ReadAheadCache.Source source = cache.open(1);
+        assertEquals(5000, source.getSize());
+        byte[] head = new byte[HEAD];
+        assertEquals(HEAD, source.readAt(0, head, 0, HEAD));
+        assertArrayEquals(Arrays.copyOf(song, HEAD), head);
+        assertEquals(1, opened);
+
+        assertArrayEquals(song, readAll(source, 700));
+        source.close();
+        assertEquals(2, opened);
+        assertEquals(1, cache.getHits());
+        assertEquals(HEAD, cache.getPrefetchedBytes());
+        assertEquals(HEAD, cache.getUsedBytes());
+        assertEquals(5000 - HEAD, cache.getReadThroughBytes());
+    }
+
+    @Test
+    public void shortSong_isReadWhole() throws IOException {
+        byte[] song = writeSong(1, 300);
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 10 * HEAD);
+        cache.prefetch(1);
+        ReadAheadCache.Source source = cache.open(1);
+        assertArrayEquals(song, readAll(source, 64));
+        source.close();
+        assertEquals(300, cache.getPrefetchedBytes());
+        assertEquals(1, opened);
+    }
+
+    @Test
+    public void usedBytes_countEachHeadByteOnce() throws IOException {
+        writeSong(1, 5000);
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 10 * HEAD);
+        cache.prefetch(1);
+        byte[] buffer = new byte[HEAD];
+        for (int i = 0; i < 2; i++) {
+            ReadAheadCache.Source source = cache.open(1);
+            source.readAt(0, buffer, 0, 400);
+            source.readAt(100, buffer, 0, 200);
+            source.close();
+        }
+        assertEquals(400, cache.getUsedBytes());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void prefetch_isSkippedWhenCachedOrPending() throws IOException {
+        writeSong(1, 5000);
+        final List<Runnable> held = new ArrayList<>();
+        ReadAheadCache cache = new ReadAheadCache(opener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                held.add(command);
+            }
+        }, HEAD, 10 * HEAD);
+        cache.prefetch(1);
+        cache.prefetch(1);
+        assertEquals(1, held.size());
+        assertNull(cache.open(1));
+        held.get(0).run();
+        cache.prefetch(1);
+        assertEquals(1, held.size());
+        assertNotNull(cache.open(1));
+    }
+
+    @Test
+    public void clear_dropsPrefetchesInProgress() throws IOException {
+        writeSong(1, 5000);
+        final List<Runnable> held = new ArrayList<>();
+        ReadAheadCache cache = new ReadAheadCache(opener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                held.add(command);
+            }
+        }, HEAD, 10 * HEAD);
+        cache.prefetch(1);
+        cache.clear();
+        held.get(0).run();
+        assertFalse(cache.contains(1));
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void capacity_evictsTheHeadsUsedLeastRecently() throws IOException {
+        for (long id = 1; id <= 4; id++) {
+            writeSong(id, 5000);
+        }
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 3 * HEAD);
+        cache.prefetch(1);
+        cache.prefetch(2);
+        cache.prefetch(3);
+        cache.open(1);
+        cache.prefetch(4);
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertTrue(cache.contains(4));
+        assertEquals(3 * HEAD, cache.getCachedBytes());
+    }
+
+    @Test
+    public void missingSong_isCountedAsFailed() {
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 10 * HEAD);
+        cache.prefetch(9);
+        assertFalse(cache.contains(9));
+        assertTrue(cache.toString().contains("1 failed"));
+    }
+
+    @Test(expected = IOException.class)
+    public void songChangedAfterPrefetch_failsPastTheHead() throws IOException {
+        writeSong(1, 5000);
+        ReadAheadCache cache = new ReadAheadCache(opener, direct, HEAD, 10 * HEAD);
+        cache.prefetch(1);
+        writeSong(1, 6000);
+        ReadAheadCache.Source source = cache.open(1);
+        source.readAt(HEAD, new byte[100], 0, 100);
+    }
+}
@@ -0,0 +1,127 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * As-you-type search over 200k songs: build time of the {@link SearchIndex}, and the time to answer every prefix
+ * of a few queries, as they are typed, against a scan of the normalized rows.
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class SearchIndexBenchmark {
+
+    private static final int SONGS = 200000;
+    private static final int ARTISTS = 12000;
+    private static final String[] QUERIES = {"love", "the night", "beyonce", "don't stop", "ight", "zzz", "a"};
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    //Made-up words of 2 to 9 letters, some with accents, picked with a skewed distribution like real titles.
+    private static String[] vocabulary(Random random, int size) {
+        String letters = "abcdefghijklmnopqrstuvwxyzéöü";
+        String[] words = new String[size];
+        for (int i = 0; i < size; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                word.append(letters.charAt(random.nextInt(j == 0 ? 26 : letters.length())));
+            }
+            words[i] = word.toString();
+        }
+        words[0] = "love";
+        words[1] = "the";
+        words[2] = "night";
+        words[3] = "Beyoncé";
+        words[4] = "Don't";
+        words[5] = "stop";
+        return words;
+    }
+
+    private static String phrase(String[] words, Random random, int count) {
+        StringBuilder phrase = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            //squared: the first words of the vocabulary are the most common
+            double r = random.nextDouble();
+            phrase.append(i == 0 ? "" : " ").append(words[(int) (r * r * words.length)]);
+        }
+        return phrase.toString();
+    }
+
+    @Test
+    public void typeQueries() {
+        Random random = new Random(1);
+        String[] words = vocabulary(random, 30000);
+        String[] artists = new String[ARTISTS];
+        for (int i = 0; i < ARTISTS; i++) {
+            artists[i] = phrase(words, random, 1 + random.nextInt(3));
+        }
+        SongTable songs = new SongTable(SONGS);
+        for (int i = 0; i < SONGS; i++) {
+            songs.add(i, phrase(words, random, 1 + random.nextInt(5)), artists[random.nextInt(ARTISTS)]);
+        }
+
+        long start = System.nanoTime();
+        SearchIndex index = SearchIndex.build(songs);
+        long buildMs = (System.nanoTime() - start) / 1000000;
+        System.out.println(SONGS + " songs: index built in " + buildMs + " ms, " + index);
+
+        String[] normalized = new String[SONGS];
+        for (int i = 0; i < SONGS; i++) {
+            normalized[i] = SearchIndex.normalize(songs.getTitle(i)) + " " + SearchIndex.normalize(songs.getArtist(i));
+        }
+
+        //warm up, then every keystroke of every query
+        for (int i = 0; i < 20; i++) {
+            for (String query : QUERIES) {
+                index.search(query);
+            }
+        }
+        long[] keystrokes = new long[200];
+        int count = 0;
+        for (String query : QUERIES) {
+            StringBuilder line = new StringBuilder("  \"" + query + "\":");
+            for (int length = 1; length <= query.length(); length++) {
+                String typed = query.substring(0, length);
+                long best = Long.MAX_VALUE;
+                int results = 0;
+                for (int i = 0; i < 5; i++) {
+                    start = System.nanoTime();
+                    results = index.search(typed).length;
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                keystrokes[count++] = best;
+                line.append(' ').append(best / 1000).append("us/").append(results);
+            }
+            start = System.nanoTime();
+            int scanned = scan(normalized, SearchIndex.normalize(query));
+            line.append(", scan of the rows ").append((System.nanoTime() - start) / 1000000).append(" ms/").append(scanned);
+            System.out.println(line);
+        }
+        Arrays.sort(keystrokes, 0, count);
+        System.out.println("  per keystroke: p50 " + keystrokes[count / 2] / 1000 + " us, max "
+                + keystrokes[count - 1] / 1000 + " us");
+    }
+
+    //Rows containing every term of the query anywhere, the search done without an index.
+    private static int scan(String[] normalized, String query) {
+        String[] terms = query.split(" ");
+        int found = 0;
+        for (String row : normalized) {
+            boolean all = true;
+            for (String term : terms) {
+                all &= row.contains(term);
+            }
+            if (all) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,164 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link SearchIndex}, checked against a plain scan of the normalized rows.
+ */
+public class SearchIndexTest {
+
+    private static SongTable table(String... titlesAndArtists) {
+        SongTable songs = new SongTable();
+        for (int i = 0; i < titlesAndArtists.length; i += 2) {
+            songs.add(i / 2, titlesAndArtists[i], titlesAndArtists[i + 1]);
+        }
+        return songs;
+    }
+
+    private static int[] sorted(int[] rows) {
+        int[] copy = rows.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void normalize_foldsCaseAccentsAndPunctuation() {
+        assertEquals("beyonce", SearchIndex.normalize("Beyoncé"));
+        assertEquals("motorhead ace of spades", SearchIndex.normalize("  Motörhead -- Ace of Spades!"));
+        assertEquals("dont stop me now", SearchIndex.normalize("Don't Stop Me Now"));
+        assertEquals("strasse", SearchIndex.normalize("Straße"));
+        assertEquals("sigur ros aegisborg", SearchIndex.normalize("Sigur Rós / Ægisborg"));
+        assertEquals("", SearchIndex.normalize("?!"));
+        assertEquals("", SearchIndex.normalize(null));
+    }
+
+    @Test
+    public void search_matchesTheStartOfWordsInTitleAndArtist() {
+        SearchIndex index = SearchIndex.build(table(
+                "Yellow Submarine", "The Beatles",
+                "Yesterday", "The Beatles",
+                "Mellow Yellow", "Donovan",
+                "Beat It", "Michael Jackson"));
+
+        assertArrayEquals(new int[] {0, 1}, sorted(index.search("beatl")));
+        assertArrayEquals(new int[] {0, 1, 2}, sorted(index.search("ye")));
+        assertArrayEquals(new int[] {1}, sorted(index.search("yes beat")));
+        assertArrayEquals(new int[] {0, 1, 3}, sorted(index.search("BEAT")));
+        assertEquals(0, index.search("zeppelin").length);
+        assertEquals(0, index.search("").length);
+        assertEquals(0, index.search(" - ").length);
+    }
+
+    @Test
+    public void search_findsAccentedSongsFromPlainQueriesAndBack() {
+        SearchIndex index = SearchIndex.build(table(
+                "Café del Mar", "Energy 52",
+                "Cafe Society", "Someone"));
+        assertArrayEquals(new int[] {0, 1}, sorted(index.search("café")));
+        assertArrayEquals(new int[] {0, 1}, sorted(index.search("CAFE")));
+    }
+
+    @Test
+    public void search_findsTermsInsideWordsThroughTrigrams() {
+        SearchIndex index = SearchIndex.build(table(
+                "Thunderstruck", "AC/DC",
+                "Understand", "Someone",
+                "Under Pressure", "Queen"));
+        //"under" is a word of 2, starts a word of 1 and is inside a word of 0
+        assertArrayEquals(new int[] {2, 1, 0}, index.search("under"));
+        assertArrayEquals(new int[] {0}, index.search("struck"));
+        //too short to be searched inside words
+        assertEquals(0, index.search("ck").length);
+    }
+
+    @Test
+    public void search_ranksWholeWordsThenPrefixesThenTitlesOverArtists() {
+        SearchIndex index = SearchIndex.build(table(
+                "Loveless", "Someone",
+                "Song", "Love",
+                "Love", "Someone",
+                "Glove", "Someone",
+                "Lovers", "Love"));
+        //exact title, prefix title (in list order), exact artist, infix title
+        assertArrayEquals(new int[] {2, 0, 4, 1, 3}, index.search("love"));
+    }
+
+    @Test
+    public void search_matchesEveryTermOnce() {
+        SearchIndex index = SearchIndex.build(table(
+                "La La Land", "Cast",
+                "La Bamba", "Ritchie Valens"));
+        assertArrayEquals(new int[] {0, 1}, index.search("la"));
+        assertArrayEquals(new int[] {0, 1}, index.search("la la"));
+        assertArrayEquals(new int[] {0}, index.search("la la la land"));
+    }
+
+    @Test
+    public void remap_followsMovedAndRemovedRows() {
+        SearchIndex index = SearchIndex.build(table(
+                "Alpha", "X",
+                "Beta", "X",
+                "Alphabet", "Y"));
+        //rows reversed, then Alpha removed
+        index.remap(new int[] {2, 1, 0});
+        assertArrayEquals(new int[] {2, 0}, index.search("alpha"));
+        index.remap(new int[] {0, 1, -1});
+        assertArrayEquals(new int[] {0}, index.search("alpha"));
+        assertArrayEquals(new int[] {1}, index.search("x"));
+    }
+
+    @Test
+    public void remap_pastTheRowsIndexed() {
+        SearchIndex index = SearchIndex.build(table(
+                "Alpha", "X",
+                "Beta", "X"));
+        //a song added by a sync sorts between them, Beta moves past the rows indexed
+        index.remap(new int[] {0, 2});
+        assertArrayEquals(new int[] {2}, index.search("beta"));
+        assertArrayEquals(new int[] {0, 2}, index.search("x"));
+        index.remap(new int[] {0, 2, 1});
+        assertArrayEquals(new int[] {1}, index.search("beta"));
+        index.remap(new int[] {0, 5, 1});
+        assertArrayEquals(new int[] {5}, index.search("beta"));
+    }
+
+    @Test
+    public void search_agreesWithAScanOfTheRows() {
+        String[] words = {"love", "lover", "night", "nights", "knight", "rain", "train", "again", "fire", "fireworks",
+                "über", "uber", "sun", "sunday", "day", "days"};
+        Random random = new Random(7);
+        SongTable songs = new SongTable();
+        for (int i = 0; i < 3000; i++) {
+            songs.add(i, words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+                    words[random.nextInt(words.length)]);
+        }
+        SearchIndex index = SearchIndex.build(songs);
+        String[] queries = {"l", "lo", "love", "ight", "rain", "ai", "sun day", "uber", "über fire", "days ni", "x"};
+        for (String query : queries) {
+            String[] terms = SearchIndex.normalize(query).split(" ");
+            int[] expected = new int[songs.size()];
+            int count = 0;
+            for (int row = 0; row < songs.size(); row++) {
+                String[] tokens = (SearchIndex.normalize(songs.getTitle(row)) + " "
+                        + SearchIndex.normalize(songs.getArtist(row))).split(" ");
+                boolean all = true;
+                for (String term : terms) {
+                    boolean any = false;
+                    for (String token : tokens) {
+                        any |= token.startsWith(term) || (term.length() >= 3 && token.contains(term));
+                    }
+                    all &= any;
+                }
+                if (all) {
+                    expected[count++] = row;
+                }
+            }
+            assertArrayEquals(query, Arrays.copyOf(expected, count), sorted(index.search(query)));
+        }
+    }
+}
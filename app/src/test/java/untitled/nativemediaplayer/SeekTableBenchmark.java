@@ -0,0 +1,122 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Seeking in a 2 hour VBR MP3 without Xing/TOC header: building its seek table, reading it back, and finding a
+ * position with it, against finding the same position by parsing the frames from the start of the file
+ * (the only exact way without a table).
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class SeekTableBenchmark {
+
+    private static final int HOURS = 2;
+    private static final int SEEKS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void seekInTwoHours() throws IOException {
+        int frames = (int) (HOURS * 3600L * 44100 / 1152);
+        File song = folder.newFile("long.mp3");
+        Random random = new Random(1);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(song), 1 << 16);
+        try {
+            for (int i = 0; i < frames; i++) {
+                //64 to 192 kbps
+                byte[] frame = AudioFixtures.mp3Frame(3, 0, AudioFixtures.MPEG1_BITRATES[4 + random.nextInt(8)], false);
+                out.write(frame);
+            }
+        } finally {
+            out.close();
+        }
+
+        long start = System.nanoTime();
+        SeekTable table = index(song);
+        long buildMs = (System.nanoTime() - start) / 1000000;
+        File file = new File(folder.getRoot(), "long.seek");
+        table.write(file);
+
+        long bestReadUs = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            start = System.nanoTime();
+            SeekTable.read(file);
+            bestReadUs = Math.min(bestReadUs, (System.nanoTime() - start) / 1000);
+        }
+
+        long[] positions = new long[SEEKS];
+        for (int i = 0; i < SEEKS; i++) {
+            positions[i] = (long) (random.nextDouble() * table.getDurationMs());
+        }
+        long sink = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < 10000; round++) {
+            for (long position : positions) {
+                sink += table.offsetOf(table.entryAt(position));
+            }
+        }
+        double lookupNs = (System.nanoTime() - start) / (10000.0 * SEEKS);
+
+        //without a table: the frames are parsed from the start up to the position
+        start = System.nanoTime();
+        for (long position : positions) {
+            sink += scanTo(song, position);
+        }
+        long scanMs = (System.nanoTime() - start) / 1000000 / SEEKS;
+
+        System.out.println(HOURS + " h VBR MP3 (" + song.length() / (1024 * 1024) + " MB, " + table.getFrameCount()
+                + " frames): table built in " + buildMs + " ms, " + file.length() / 1024 + " KB, read in "
+                + bestReadUs / 1000.0 + " ms; seek with the table " + String.format("%.0f", lookupNs)
+                + " ns + opening the file at the offset, scanning from the start " + scanMs + " ms per seek"
+                + (sink == 42 ? " " : ""));
+    }
+
+    private static SeekTable index(File song) throws IOException {
+        FileInputStream in = new FileInputStream(song);
+        try {
+            return FrameIndexer.index(in, song.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    //Offset of the frame at the position, by reading the headers from the start.
+    private static long scanTo(File song, long positionMs) throws IOException {
+        long frame = positionMs * 44100 / 1000 / 1152;
+        FileInputStream in = new FileInputStream(song);
+        try {
+            byte[] header = new byte[4];
+            long offset = 0;
+            for (long i = 0; i < frame; i++) {
+                if (in.read(header) != 4) {
+                    break;
+                }
+                int bitrate = AudioFixtures.MPEG1_BITRATES[((header[2] & 0xFF) >> 4) - 1] * 1000;
+                int length = 144 * bitrate / 44100 + ((header[2] >> 1) & 1);
+                in.skip(length - 4);
+                offset += length;
+            }
+            return offset;
+        } finally {
+            in.close();
+        }
+    }
+}
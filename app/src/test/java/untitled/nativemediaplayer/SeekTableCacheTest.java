@@ -0,0 +1,127 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link SeekTableCache}, the prefetches run right away on the calling thread.
+ */
+public class SeekTableCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File songs;
+    private File cacheDir;
+    private int opened;
+
+    private final SongOpener opener = new SongOpener() {
+        @Override
+        public FileInputStream open(long id) throws IOException {
+            opened++;
+            return new FileInputStream(new File(songs, id + ".mp3"));
+        }
+    };
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        songs = folder.newFolder("songs");
+        cacheDir = new File(folder.getRoot(), "seek_tables");
+    }
+
+    private void writeSong(long id, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(songs, id + ".mp3"));
+        out.write(bytes);
+        out.close();
+    }
+
+    @Test
+    public void prefetch_buildsTheTableOnce() throws IOException {
+        writeSong(7, new AudioFixtures().vbrFrames(400, new Random(1)).bytes());
+        SeekTableCache cache = new SeekTableCache(cacheDir, opener, direct);
+
+        assertNull(cache.get(7));
+        cache.prefetch(7);
+        assertEquals(400, cache.get(7).getFrameCount());
+        assertTrue(new File(cacheDir, "7.seek").exists());
+        cache.prefetch(7);
+        assertEquals(1, opened);
+        assertEquals(1, cache.getBuiltCount());
+    }
+
+    @Test
+    public void tableOnDisk_isReadInsteadOfBuilt() throws IOException {
+        writeSong(7, new AudioFixtures().vbrFrames(400, new Random(1)).bytes());
+        new SeekTableCache(cacheDir, opener, direct).prefetch(7);
+
+        SeekTableCache cache = new SeekTableCache(cacheDir, opener, direct);
+        cache.prefetch(7);
+        assertEquals(400, cache.get(7).getFrameCount());
+        assertEquals(0, cache.getBuiltCount());
+        assertEquals(1, cache.getReadCount());
+    }
+
+    @Test
+    public void songChanged_tableIsRebuilt() throws IOException {
+        writeSong(7, new AudioFixtures().vbrFrames(400, new Random(1)).bytes());
+        new SeekTableCache(cacheDir, opener, direct).prefetch(7);
+        writeSong(7, new AudioFixtures().vbrFrames(300, new Random(2)).bytes());
+
+        SeekTableCache cache = new SeekTableCache(cacheDir, opener, direct);
+        cache.prefetch(7);
+        assertEquals(300, cache.get(7).getFrameCount());
+        assertEquals(1, cache.getBuiltCount());
+    }
+
+    @Test
+    public void notAudio_isNotScannedAgain() throws IOException {
+        byte[] noise = new byte[10000];
+        new Random(3).nextBytes(noise);
+        writeSong(8, noise);
+        SeekTableCache cache = new SeekTableCache(cacheDir, opener, direct);
+
+        cache.prefetch(8);
+        cache.prefetch(8);
+        assertNull(cache.get(8));
+        assertEquals(1, opened);
+    }
+
+    @Test
+    public void missingSong_isTriedAgain() {
+        SeekTableCache cache = new SeekTableCache(cacheDir, opener, direct);
+        cache.prefetch(9);
+        cache.prefetch(9);
+        assertNull(cache.get(9));
+        assertEquals(2, opened);
+        assertEquals(2, cache.getFailedCount());
+    }
+
+    @Test
+    public void memory_keepsTheTablesUsedLast() throws IOException {
+        SeekTableCache cache = new SeekTableCache(cacheDir, opener, direct);
+        for (long id = 0; id <= SeekTableCache.MEMORY_TABLES; id++) {
+            writeSong(id, new AudioFixtures().vbrFrames(50, new Random(id)).bytes());
+            cache.prefetch(id);
+        }
+        assertNull(cache.get(0));
+        assertNotNull(cache.get(SeekTableCache.MEMORY_TABLES));
+    }
+}
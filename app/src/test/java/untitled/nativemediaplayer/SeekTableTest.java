@@ -0,0 +1,74 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link SeekTable} file.
+ */
+public class SeekTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SeekTable table() throws IOException {
+        byte[] file = new AudioFixtures().id3v2(1000).vbrFrames(3000, new Random(1)).bytes();
+        return FrameIndexer.index(new ByteArrayInputStream(file), file.length);
+    }
+
+    @Test
+    public void writeThenRead_givesTheSameTable() throws IOException {
+        SeekTable table = table();
+        File file = folder.newFile("1.seek");
+        table.write(file);
+        SeekTable read = SeekTable.read(file);
+
+        assertEquals(table.getFormat(), read.getFormat());
+        assertEquals(table.getFileLength(), read.getFileLength());
+        assertEquals(table.getFrameCount(), read.getFrameCount());
+        assertEquals(table.getDurationMs(), read.getDurationMs());
+        assertEquals(table.getEntryCount(), read.getEntryCount());
+        for (int entry = 0; entry < table.getEntryCount(); entry++) {
+            assertEquals(table.offsetOf(entry), read.offsetOf(entry));
+        }
+        //2 bytes per entry
+        assertTrue(file.length() < 100 + 2 * table.getEntryCount());
+    }
+
+    @Test(expected = SeekTable.InvalidSeekTableException.class)
+    public void damagedFile_isRejected() throws IOException {
+        File file = folder.newFile("1.seek");
+        table().write(file);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.seek(60);
+        out.write(0x55);
+        out.close();
+        SeekTable.read(file);
+    }
+
+    @Test(expected = SeekTable.InvalidSeekTableException.class)
+    public void otherFile_isRejected() throws IOException {
+        File file = folder.newFile("1.seek");
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.write(new byte[100]);
+        out.close();
+        SeekTable.read(file);
+    }
+
+    @Test
+    public void emptyTable_seeksToTheStart() {
+        SeekTable table = new SeekTable(SeekTable.Format.MP3, 100, 44100, 1152, 0, 10, new int[0]);
+        assertEquals(0, table.entryAt(5000));
+        assertEquals(10, table.offsetOf(0));
+        assertEquals(0, table.timeOf(0));
+    }
+}
@@ -0,0 +1,105 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovery time of the {@link SessionJournal} just before it is compacted: a snapshot with a full history and a short
+ * or a 100k songs queue, followed by records up to the compaction threshold. Also the cost of a record on the calling
+ * thread and the number of fsyncs the writer needs for a burst of records.
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class SessionJournalBenchmark {
+
+    private static final int HISTORY = 1000;
+    private static final int[] QUEUED = {50, 100000};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void recoverAndRecord() throws IOException, InterruptedException {
+        //warm up
+        run(QUEUED[0], false);
+        for (int queued : QUEUED) {
+            run(queued, true);
+        }
+    }
+
+    private void run(int queued, boolean print) throws IOException, InterruptedException {
+        File file = folder.newFile();
+        file.delete();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        SessionJournal journal = new SessionJournal(file, writer);
+        journal.recover(HISTORY);
+
+        Random random = new Random(1);
+        long[] history = new long[HISTORY];
+        for (int i = 0; i < HISTORY; i++) {
+            history[i] = random.nextInt(200000);
+        }
+        long[] queue = new long[queued];
+        for (int i = 0; i < queued; i++) {
+            queue[i] = random.nextInt(200000);
+        }
+        journal.compact(new SessionJournal.State(history, HISTORY - 1, queue, 0, true));
+
+        //a burst of records, as from a long session: position checkpoints, songs played, queue edits
+        int records = 0;
+        long start = System.nanoTime();
+        while (!journal.needsCompaction()) {
+            switch (records % 8) {
+                case 0:
+                case 1:
+                    journal.push(random.nextInt(200000));
+                    break;
+                case 2:
+                    journal.queueMove(random.nextInt(queued), random.nextInt(queued));
+                    break;
+                case 3:
+                    journal.queueInsert(random.nextInt(queued), new long[] {random.nextInt(200000)});
+                    journal.queueRemove(random.nextInt(queued));
+                    break;
+                default:
+                    journal.position(random.nextInt(300000));
+                    break;
+            }
+            records++;
+        }
+        long recordNanos = System.nanoTime() - start;
+        journal.close();
+        writer.shutdown();
+        writer.awaitTermination(1, TimeUnit.MINUTES);
+        if (print) {
+            System.out.println(queued + " queued: " + records + " records in " + recordNanos / records
+                    + " ns each, journal: " + journal);
+        }
+
+        long best = Long.MAX_VALUE;
+        SessionJournal.State state = null;
+        for (int i = 0; i < 20; i++) {
+            start = System.nanoTime();
+            state = new SessionJournal(file, writer).recover(HISTORY);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (print) {
+            System.out.println("  recovered " + file.length() / 1024 + " KB (" + state.getHistory().length + " played, "
+                    + state.getQueue().length + " queued) in " + best / 1000 + " us");
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link SessionJournal}, the writes run right away on the calling thread.
+ * A crash in the middle of a write is simulated by cutting the journal file short, or damaging its last bytes.
+ */
+public class SessionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int CAPACITY = 1000;
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "session.journal");
+    }
+
+    private SessionJournal open() throws IOException {
+        SessionJournal journal = new SessionJournal(file, direct);
+        journal.recover(CAPACITY);
+        return journal;
+    }
+
+    private SessionJournal.State recover() throws IOException {
+        return new SessionJournal(file, direct).recover(CAPACITY);
+    }
+
+    //A session: three songs played, one back, two songs queued and one moved, shuffle on, position checkpoint.
+    private static void record(SessionJournal journal) {
+        journal.push(100);
+        journal.push(200);
+        journal.push(300);
+        journal.back();
+        journal.queueInsert(0, new long[] {400, 500, 600});
+        journal.queueMove(2, 0);
+        journal.queueRemove(1);
+        journal.shuffle(true);
+        journal.position(61000);
+    }
+
+    private static void assertRecorded(SessionJournal.State state) {
+        assertArrayEquals(new long[] {100, 200, 300}, state.getHistory());
+        assertEquals(1, state.getCursor());
+        assertArrayEquals(new long[] {600, 500}, state.getQueue());
+        assertTrue(state.isShuffle());
+        assertEquals(61000, state.getPositionMs());
+    }
+
+    private void cut(int bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - bytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void recover_replaysTheRecords() throws IOException {
+        SessionJournal journal = open();
+        record(journal);
+        journal.close();
+
+        assertRecorded(recover());
+    }
+
+    @Test
+    public void recover_withoutJournal_isEmpty() throws IOException {
+        SessionJournal.State state = recover();
+
+        assertTrue(state.isEmpty());
+        assertEquals(-1, state.getCursor());
+        assertFalse(state.isShuffle());
+    }
+
+    @Test
+    public void tornWrite_dropsOnlyTheLastRecord() throws IOException {
+        SessionJournal journal = open();
+        record(journal);
+        journal.push(700);
+        long whole = file.length();
+        //the last record (the song 700 played) was cut short by the crash
+        cut(3);
+
+        assertRecorded(recover());
+        //the torn bytes are gone, so new records follow the last good one
+        assertEquals(whole - SessionJournal.RECORD_OVERHEAD - 8, file.length());
+    }
+
+    @Test
+    public void tornWrite_thenNewRecords_areReplayed() throws IOException {
+        SessionJournal journal = open();
+        record(journal);
+        journal.queueInsert(2, new long[] {800, 900, 1000, 1100});
+        cut(10);
+
+        journal = open();
+        journal.push(700);
+        journal.close();
+
+        SessionJournal.State state = recover();
+        assertArrayEquals(new long[] {100, 200, 700}, state.getHistory());
+        assertEquals(2, state.getCursor());
+        assertArrayEquals(new long[] {600, 500}, state.getQueue());
+        //a new song starts from its beginning
+        assertEquals(0, state.getPositionMs());
+    }
+
+    @Test
+    public void damagedRecord_endsTheJournal() throws IOException {
+        SessionJournal journal = open();
+        record(journal);
+        journal.position(90000);
+        //a bit flipped in the payload of the last record: its checksum fails
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 5);
+            int b = raf.read();
+            raf.seek(raf.length() - 5);
+            raf.write(b ^ 0x10);
+        } finally {
+            raf.close();
+        }
+
+        assertRecorded(recover());
+    }
+
+    @Test
+    public void tornHeader_startsANewJournal() throws IOException {
+        SessionJournal journal = open();
+        record(journal);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(5);
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(recover().isEmpty());
+        assertEquals(0, file.length());
+        journal = open();
+        journal.push(100);
+        assertArrayEquals(new long[] {100}, recover().getHistory());
+    }
+
+    @Test
+    public void compact_keepsTheSessionInOneRecord() throws IOException {
+        SessionJournal journal = open();
+        long[] queue = new long[1000];
+        for (int i = 0; i < 40000; i++) {
+            journal.position(i);
+        }
+        for (int i = 0; i < queue.length; i++) {
+            queue[i] = 5000 + i;
+            journal.queueInsert(i, new long[] {queue[i]});
+        }
+        journal.push(1);
+        journal.push(2);
+        assertTrue(journal.needsCompaction());
+
+        journal.compact(new SessionJournal.State(new long[] {1, 2}, 1, queue, 0, false));
+        long compacted = file.length();
+        assertFalse(journal.needsCompaction());
+        journal.queueRemove(0);
+        journal.position(1234);
+        journal.close();
+
+        assertTrue(compacted < 10000);
+        SessionJournal.State state = recover();
+        assertArrayEquals(new long[] {1, 2}, state.getHistory());
+        assertEquals(1, state.getCursor());
+        assertEquals(999, state.getQueue().length);
+        assertEquals(5001, state.getQueue()[0]);
+        assertEquals(1234, state.getPositionMs());
+    }
+
+    @Test
+    public void tornWrite_afterCompaction_keepsTheSnapshot() throws IOException {
+        SessionJournal journal = open();
+        record(journal);
+        journal.compact(new SessionJournal.State(new long[] {100, 200, 300}, 1, new long[] {600, 500}, 61000, true));
+        journal.push(999);
+        cut(1);
+
+        assertRecorded(recover());
+    }
+
+    @Test
+    public void history_keepsItsCapacityOnReplay() throws IOException {
+        SessionJournal journal = open();
+        for (int i = 1; i <= CAPACITY + 10; i++) {
+            journal.push(i);
+        }
+        journal.push(CAPACITY + 10);
+
+        SessionJournal.State state = recover();
+        assertEquals(CAPACITY, state.getHistory().length);
+        assertEquals(11, state.getHistory()[0]);
+        assertEquals(CAPACITY - 1, state.getCursor());
+    }
+}
@@ -0,0 +1,188 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link ShuffleOrder}.
+ */
+public class ShuffleOrderTest {
+
+    @Test
+    public void emptyList_returnsNoSong() {
+        ShuffleOrder shuffle = new ShuffleOrder(0, new Random(1));
+        assertEquals(-1, shuffle.next());
+        assertEquals(-1, shuffle.peek());
+    }
+
+    @Test
+    public void singleSong_isPlayedEveryTime() {
+        ShuffleOrder shuffle = new ShuffleOrder(1, new Random(1));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, shuffle.next());
+        }
+    }
+
+    @Test
+    public void twoSongs_alternateWithoutRepeating() {
+        ShuffleOrder shuffle = new ShuffleOrder(2, new Random(1));
+        int previous = shuffle.next();
+        for (int i = 0; i < 100; i++) {
+            int song = shuffle.next();
+            assertEquals(1 - previous, song);
+            previous = song;
+        }
+    }
+
+    @Test
+    public void millionSongs_playEverySongOncePerRound() {
+        int size = 1000000;
+        ShuffleOrder shuffle = new ShuffleOrder(size, new Random(1));
+        BitSet seen = new BitSet(size);
+        int last = -1;
+        for (int round = 0; round < 2; round++) {
+            seen.clear();
+            for (int i = 0; i < size; i++) {
+                int song = shuffle.next();
+                assertFalse("Repeated " + song, seen.get(song));
+                assertNotEquals(last, song);
+                seen.set(song);
+                last = song;
+            }
+            assertEquals(size, seen.cardinality());
+            assertEquals(0, shuffle.remaining());
+        }
+    }
+
+    @Test
+    public void peek_returnsTheNextSong() {
+        ShuffleOrder shuffle = new ShuffleOrder(50, new Random(3));
+        for (int i = 0; i < 120; i++) {
+            int peeked = shuffle.peek();
+            assertEquals(peeked, shuffle.peek());
+            assertEquals(peeked, shuffle.next());
+        }
+    }
+
+    @Test
+    public void peekAhead_returnsTheSongsNextWillReturn() {
+        ShuffleOrder shuffle = new ShuffleOrder(20, new Random(4));
+        for (int i = 0; i < 50; i++) {
+            int[] ahead = new int[3];
+            for (int k = 0; k < ahead.length; k++) {
+                ahead[k] = shuffle.peek(k);
+            }
+            int remaining = shuffle.remaining() == 0 ? 20 : shuffle.remaining();
+            for (int k = 0; k < ahead.length; k++) {
+                if (k < remaining) {
+                    assertNotEquals(-1, ahead[k]);
+                } else {
+                    assertEquals(-1, ahead[k]);
+                }
+            }
+            assertEquals(ahead[0], shuffle.next());
+            if (ahead[1] >= 0) {
+                assertEquals(ahead[1], shuffle.peek());
+            }
+        }
+    }
+
+    @Test
+    public void peekAhead_stopsAtTheEndOfTheRound() {
+        ShuffleOrder shuffle = new ShuffleOrder(4, new Random(6));
+        shuffle.next();
+        shuffle.next();
+        assertNotEquals(-1, shuffle.peek(1));
+        assertEquals(-1, shuffle.peek(2));
+        BitSet seen = new BitSet(4);
+        seen.set(shuffle.peek(0));
+        seen.set(shuffle.peek(1));
+        seen.set(shuffle.next());
+        seen.set(shuffle.next());
+        assertEquals(2, seen.cardinality());
+    }
+
+    @Test
+    public void markPlayed_skipsPickedSongForTheRound() {
+        ShuffleOrder shuffle = new ShuffleOrder(10, new Random(5));
+        shuffle.markPlayed(7);
+        for (int i = 0; i < 9; i++) {
+            assertNotEquals(7, shuffle.next());
+        }
+        assertEquals(0, shuffle.remaining());
+    }
+
+    @Test
+    public void reshuffle_startsRoundFromCurrentSong() {
+        ShuffleOrder shuffle = new ShuffleOrder(20, new Random(9));
+        for (int i = 0; i < 15; i++) {
+            shuffle.next();
+        }
+        shuffle.reshuffle(4);
+
+        assertEquals(19, shuffle.remaining());
+        BitSet seen = new BitSet();
+        for (int i = 0; i < 19; i++) {
+            seen.set(shuffle.next());
+        }
+        assertFalse(seen.get(4));
+        assertEquals(19, seen.cardinality());
+    }
+
+    /**
+     * Every song should be equally likely at every position of a round (chi-square over a 8x8 table).
+     */
+    @Test
+    public void rounds_areUniform() {
+        int size = 8;
+        int rounds = 80000;
+        long[][] counts = new long[size][size];
+        Random random = new Random(11);
+        for (int r = 0; r < rounds; r++) {
+            ShuffleOrder shuffle = new ShuffleOrder(size, random);
+            for (int position = 0; position < size; position++) {
+                counts[position][shuffle.next()]++;
+            }
+        }
+        double expected = (double) rounds / size;
+        double chiSquare = 0;
+        for (long[] row : counts) {
+            for (long count : row) {
+                chiSquare += (count - expected) * (count - expected) / expected;
+            }
+        }
+        // 49 degrees of freedom, p = 0.001 critical value is about 85.4
+        assertTrue("chi-square " + chiSquare, chiSquare < 85.4);
+    }
+
+    /**
+     * Rounds after the first keep the first song away from the previous one but are otherwise uniform.
+     */
+    @Test
+    public void laterRounds_firstSongIsUniformAmongTheOthers() {
+        int size = 5;
+        long[] counts = new long[size];
+        ShuffleOrder shuffle = new ShuffleOrder(size, new Random(13));
+        int samples = 0;
+        int last = -1;
+        for (int r = 0; r < 50000; r++) {
+            for (int i = 0; i < size; i++) {
+                int song = shuffle.next();
+                if (i == 0 && last >= 0) {
+                    assertNotEquals(last, song);
+                    counts[(song - last + size) % size]++;
+                    samples++;
+                }
+                last = song;
+            }
+        }
+        assertEquals(0, counts[0]);
+        for (int offset = 1; offset < size; offset++) {
+            assertEquals(0.25, (double) counts[offset] / samples, 0.01);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link SkipCoalescer}, on a simulated clock.
+ */
+public class SkipCoalescerTest {
+
+    private static final long WINDOW_MS = 150;
+    //Simulated time a prepare takes.
+    private static final long PREPARE_MS = 120;
+
+    /**
+     * Runs delayed tasks in time order as the simulated clock moves.
+     */
+    private static class FakeScheduler implements SkipCoalescer.Scheduler {
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> times = new ArrayList<>();
+        long now;
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            tasks.add(task);
+            times.add(now + delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if (tasks.get(i) == task) {
+                    tasks.remove(i);
+                    times.remove(i);
+                }
+            }
+        }
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        void advanceTo(long time) {
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (times.get(i) <= time && (next < 0 || times.get(i) < times.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                now = times.remove(next);
+                tasks.remove(next).run();
+            }
+            now = time;
+        }
+    }
+
+    private FakeScheduler scheduler;
+    private SkipCoalescer coalescer;
+    private final List<Integer> prepared = new ArrayList<>();
+    private final List<Integer> cancelled = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        coalescer = new SkipCoalescer(new SkipCoalescer.Target() {
+            @Override
+            public void prepare(final int generation) {
+                prepared.add(generation);
+                scheduler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled.contains(generation)) {
+                            coalescer.onPrepared(generation);
+                        }
+                    }
+                }, PREPARE_MS);
+            }
+
+            @Override
+            public void cancel(int generation) {
+                cancelled.add(generation);
+            }
+        }, scheduler, WINDOW_MS);
+    }
+
+    @Test
+    public void singleSkip_preparesRightAway() {
+        int generation = coalescer.skip();
+
+        assertEquals(1, prepared.size());
+        assertEquals(generation, (int) prepared.get(0));
+    }
+
+    @Test
+    public void burst_preparesOnlyTheLastSkipAfterTheWindow() {
+        coalescer.skip();
+        int last = 0;
+        for (int i = 0; i < 14; i++) {
+            scheduler.advanceTo(scheduler.now + 40);
+            last = coalescer.skip();
+        }
+        assertEquals(1, prepared.size());
+
+        scheduler.advanceTo(scheduler.now + WINDOW_MS);
+
+        assertEquals(2, prepared.size());
+        assertEquals(last, (int) prepared.get(1));
+        assertEquals(1, coalescer.getWastedCount());
+        scheduler.advanceTo(scheduler.now + PREPARE_MS);
+        assertEquals(1, coalescer.getCompletedCount());
+    }
+
+    @Test
+    public void stalePrepare_isNotTheCurrentOne() {
+        int first = coalescer.skip();
+        scheduler.advanceTo(10);
+        coalescer.skip();
+
+        assertEquals(Integer.valueOf(first), cancelled.get(0));
+        assertFalse(coalescer.onPrepared(first));
+    }
+
+    @Test
+    public void reset_dropsThePendingSkip() {
+        coalescer.skip();
+        scheduler.advanceTo(200);
+        coalescer.skip();
+        scheduler.advanceTo(210);
+        coalescer.skip();
+
+        coalescer.reset();
+        scheduler.advanceTo(1000);
+
+        assertEquals(2, prepared.size());
+    }
+
+    /**
+     * Thousands of skips in bursts of random length and pace, with pauses in between.
+     * Reports the prepares wasted against preparing on every skip, the way playNext() used to.
+     */
+    @Test
+    public void stress_thousandsOfSkips() {
+        Random random = new Random(7);
+        int bursts = 0;
+        while (coalescer.getSkipCount() < 5000) {
+            bursts++;
+            int length = 1 + random.nextInt(20);
+            for (int i = 0; i < length; i++) {
+                coalescer.skip();
+                scheduler.advanceTo(scheduler.now + 20 + random.nextInt(110));
+            }
+            scheduler.advanceTo(scheduler.now + WINDOW_MS + PREPARE_MS + random.nextInt(3000));
+        }
+
+        int skips = coalescer.getSkipCount();
+        System.out.println("SkipCoalescer: " + bursts + " bursts, " + coalescer + "; preparing on every skip would waste "
+                + (skips - bursts) + " prepares");
+        assertEquals(coalescer.getPrepareCount(), coalescer.getCompletedCount() + coalescer.getWastedCount());
+        //every burst ends with its target prepared; besides it, only the first skip of a burst prepares
+        assertTrue(coalescer.getCompletedCount() >= bursts);
+        assertTrue(coalescer.getPrepareCount() <= 2 * bursts);
+        assertTrue(coalescer.getWastedCount() <= bursts);
+    }
+}
@@ -0,0 +1,59 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Compares the {@link SongSorter} against the previous Comparator<Song> based sort.
+ * Only runs with ./gradlew test -Pbenchmark
+ */
+public class SongSorterBenchmark {
+
+    private static final int[] SIZES = {10000, 100000, 500000};
+
+    @Before
+    public void onlyWhenBenchmarking() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void sortLibraries() {
+        for (int size : SIZES) {
+            ArrayList<Song> songList = new ArrayList<>(size);
+            SongTable table = new SongTable(size);
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                String title = "Title " + Integer.toString(random.nextInt(), 36);
+                String artist = "Artist " + random.nextInt(size / 20);
+                songList.add(new Song(i, title, artist));
+                table.add(i, title, artist, random.nextInt(1000000));
+            }
+
+            long start = System.nanoTime();
+            Collections.sort(songList, new Comparator<Song>() {
+                public int compare(Song a, Song b) {
+                    return a.getTitle().compareTo(b.getTitle());
+                }
+            });
+            long comparatorMs = (System.nanoTime() - start) / 1000000;
+
+            SongSorter sorter = new SongSorter();
+            start = System.nanoTime();
+            sorter.sort(table, SongSorter.Key.TITLE);
+            long firstSortMs = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            sorter.sort(table, SongSorter.Key.ARTIST, SongSorter.Key.TITLE);
+            long resortMs = (System.nanoTime() - start) / 1000000;
+
+            System.out.println(size + " songs: Comparator<Song> " + comparatorMs + " ms, SongSorter first sort (keys + sort) "
+                    + firstSortMs + " ms, re-sort artist/title with cached keys " + resortMs + " ms");
+        }
+    }
+}
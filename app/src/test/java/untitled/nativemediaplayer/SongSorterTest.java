@@ -0,0 +1,144 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import java.text.Collator;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link SongSorter}.
+ */
+public class SongSorterTest {
+
+    private final SongSorter sorter = new SongSorter(Collator.getInstance(Locale.ENGLISH));
+
+    @Test
+    public void sortByTitle_isLocaleAwareAndStable() {
+        SongTable table = new SongTable();
+        table.add(1, "b", "1");
+        table.add(2, "\u00c9t\u00e9", "2");
+        table.add(3, "B", "3");
+        table.add(4, "a", "4");
+        table.add(5, null, "5");
+        table.add(6, "a", "6");
+
+        sorter.sort(table, SongSorter.Key.TITLE);
+
+        assertOrder(table, 5, 4, 6, 1, 3, 2);
+    }
+
+    @Test
+    public void sortByArtistThenTitle() {
+        SongTable table = new SongTable();
+        table.add(1, "Zebra", "Alpha");
+        table.add(2, "Apple", "beta");
+        table.add(3, "Apple", "Alpha");
+        table.add(4, "Mango", "Beta");
+
+        sorter.sort(table, SongSorter.Key.ARTIST, SongSorter.Key.TITLE);
+
+        assertOrder(table, 3, 1, 2, 4);
+    }
+
+    @Test
+    public void sortByDateAdded_putsNewestFirst() {
+        SongTable table = new SongTable();
+        table.add(1, "c", "x", 100);
+        table.add(2, "b", "x", 300);
+        table.add(3, "a", "x", 100);
+
+        sorter.sort(table, SongSorter.Key.DATE_ADDED, SongSorter.Key.TITLE);
+
+        assertOrder(table, 2, 3, 1);
+    }
+
+    @Test
+    public void sort_returnsAppliedOrder() {
+        SongTable table = new SongTable();
+        table.add(1, "c", "x");
+        table.add(2, "a", "x");
+        table.add(3, "b", "x");
+
+        int[] order = sorter.sort(table, SongSorter.Key.TITLE);
+
+        assertArrayEquals(new int[] {1, 2, 0}, order);
+    }
+
+    @Test
+    public void resort_reusesCachedKeys() {
+        SongTable table = new SongTable();
+        table.add(1, "b", "x");
+        table.add(2, "a", "y");
+        sorter.sort(table, SongSorter.Key.TITLE);
+        assertEquals(4, sorter.getKeysComputed());
+
+        sorter.sort(table, SongSorter.Key.ARTIST);
+        assertEquals(4, sorter.getKeysComputed());
+
+        table.add(3, "c", "x");
+        sorter.sort(table, SongSorter.Key.TITLE);
+        assertEquals(5, sorter.getKeysComputed());
+        assertOrder(table, 2, 1, 3);
+    }
+
+    @Test
+    public void sortingCopies_reusesTheSharedKeys() {
+        SongTable table = new SongTable();
+        table.add(1, "b", "x");
+        table.add(2, "a", "y");
+        sorter.sort(table.copy(), SongSorter.Key.TITLE);
+        assertEquals(4, sorter.getKeysComputed());
+
+        table.add(3, "c", "x");
+        assertArrayEquals(new int[] {1, 0, 2}, sorter.sortedOrder(table.copy(), SongSorter.Key.TITLE));
+        assertEquals(5, sorter.getKeysComputed());
+
+        //another list with the same strings, but other string objects
+        SongTable other = new SongTable();
+        other.add(1, new String("b"), new String("x"));
+        other.add(2, new String("a"), new String("y"));
+        sorter.sort(other, SongSorter.Key.TITLE);
+        assertEquals(9, sorter.getKeysComputed());
+        assertOrder(other, 2, 1);
+        assertArrayEquals(new int[] {1, 0, 2}, sorter.sortedOrder(table.copy(), SongSorter.Key.TITLE));
+    }
+
+    @Test
+    public void parallelSort_matchesSequentialSort() {
+        Random random = new Random(7);
+        int size = SongSorter.PARALLEL_THRESHOLD * 4 + 3;
+        final int[] values = new int[size];
+        int[] parallel = new int[size];
+        int[] sequential = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextInt(1000);
+            parallel[i] = i;
+            sequential[i] = i;
+        }
+        SongSorter.RowComparator comparator = new SongSorter.RowComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Integer.compare(values[a], values[b]);
+            }
+        };
+
+        SongSorter.sortRows(parallel, comparator, true);
+        SongSorter.sortRows(sequential, comparator, false);
+
+        assertArrayEquals(sequential, parallel);
+        for (int i = 1; i < size; i++) {
+            assertTrue(values[parallel[i - 1]] < values[parallel[i]]
+                    || (values[parallel[i - 1]] == values[parallel[i]] && parallel[i - 1] < parallel[i]));
+        }
+    }
+
+    private static void assertOrder(SongTable table, long... ids) {
+        assertEquals(ids.length, table.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("row " + i, ids[i], table.getID(i));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the columnar {@link SongTable}.
+ */
+public class SongTableTest {
+
+    private static final int ROWS = 100000;
+    private static final int ARTISTS = 2000;
+
+    @Test
+    public void add_storesRowsAndDeduplicatesStrings() {
+        SongTable table = new SongTable(2);
+        table.add(10, "Title", "Artist");
+        table.add(11, "Other", new String("Artist"));
+        table.add(12, null, "Artist");
+
+        assertEquals(3, table.size());
+        assertEquals(11, table.getID(1));
+        assertEquals("Other", table.getTitle(1));
+        assertNull(table.getTitle(2));
+        assertEquals(table.getArtistRef(0), table.getArtistRef(1));
+        assertEquals(table.getArtistRef(0), table.getArtistRef(2));
+        assertEquals(3, table.getStrings().size());
+        assertEquals("Title - Artist", table.getSongInfo(0));
+    }
+
+    @Test
+    public void addAll_appendsPage() {
+        SongTable table = new SongTable();
+        table.add(1, "A", "X");
+        SongTable page = new SongTable();
+        page.add(2, "B", "X");
+        page.add(3, "C", "Y");
+
+        table.addAll(page);
+
+        assertEquals(3, table.size());
+        assertEquals(3, table.getID(2));
+        assertEquals("Y", table.getArtist(2));
+        assertEquals(table.getArtistRef(0), table.getArtistRef(1));
+        assertEquals(2, table.indexOfID(3));
+        assertEquals(-1, table.indexOfID(4));
+    }
+
+    @Test
+    public void permute_movesEveryColumn() {
+        SongTable table = new SongTable();
+        table.add(1, "a", "x", 100);
+        table.add(2, "b", "y", 200);
+        table.add(3, "c", "z", 300);
+
+        table.permute(new int[] {2, 0, 1});
+
+        assertEquals(3, table.getID(0));
+        assertEquals("c", table.getTitle(0));
+        assertEquals("z", table.getArtist(0));
+        assertEquals(300, table.getDateAdded(0));
+        assertEquals(1, table.getID(1));
+        assertEquals(2, table.getID(2));
+    }
+
+    @Test
+    public void albumColumns_followTheRows() {
+        SongTable table = new SongTable();
+        table.add(1, "a", "x", 100, "Album", 9, 2, 180000);
+        table.add(2, "b", "y", 200);
+        table.add(3, "c", "z", 300, "Album", 9, 1, 240000);
+
+        table.set(0, "a2", "x", 100);
+        table.permute(new int[] {2, 0, 1});
+        SongTable copy = table.copy();
+
+        assertEquals("Album", copy.getAlbum(0));
+        assertEquals(1, copy.getTrack(0));
+        assertEquals(240000, copy.getDuration(0));
+        //set() without the album columns keeps them
+        assertEquals("a2", copy.getTitle(1));
+        assertEquals(9, copy.getAlbumID(1));
+        assertEquals(180000, copy.getDuration(1));
+        assertEquals(copy.getAlbumRef(0), copy.getAlbumRef(1));
+        assertNull(copy.getAlbum(2));
+        assertEquals(0, copy.getAlbumID(2));
+        assertEquals(0, copy.getTrack(2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getID_rejectsRowsPastSize() {
+        SongTable table = new SongTable(8);
+        table.add(1, "a", "b");
+        table.getID(1);
+    }
+
+    /**
+     * 100k rows, every one with its own String instances like the strings read from a Cursor. An ArrayList<Song> keeps
+     * a Song and two Strings per row; the table keeps one String per distinct value, in a fixed number of arrays.
+     */
+    @Test
+    public void manyRows_keepOneStringPerDistinctValue() {
+        SongTable table = new SongTable();
+        for (int i = 0; i < ROWS; i++) {
+            table.add(i, title(i), artist(i));
+        }
+        table.trimToSize();
+
+        assertEquals(ROWS, table.size());
+        //every title differs, the artists repeat
+        assertEquals(ROWS + ARTISTS, table.getStrings().size());
+        assertEquals(table.getArtistRef(7), table.getArtistRef(7 + 5 * ARTISTS));
+        assertSame(table.getArtist(7), table.getArtist(7 + 5 * ARTISTS));
+        assertEquals("Song title number 99999", table.getTitle(ROWS - 1));
+    }
+
+    private static String title(int i) {
+        return new String("Song title number " + i);
+    }
+
+    private static String artist(int i) {
+        return new String("Artist " + (i % ARTISTS));
+    }
+}
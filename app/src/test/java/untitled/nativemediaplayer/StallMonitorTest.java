@@ -0,0 +1,34 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link StallMonitor} statistics.
+ */
+public class StallMonitorTest {
+
+    @Test
+    public void onlyLongMessages_countAsStalls() {
+        StallMonitor monitor = new StallMonitor();
+        monitor.record(2);
+        monitor.record(StallMonitor.STALL_MS);
+        monitor.record(50);
+        monitor.record(120);
+
+        assertEquals(2, monitor.getStallCount());
+        assertEquals(170, monitor.getStalledMs());
+        assertEquals(120, monitor.getMaxMs());
+    }
+
+    @Test
+    public void reset_startsOver() {
+        StallMonitor monitor = new StallMonitor();
+        monitor.record(100);
+        monitor.reset();
+
+        assertEquals(0, monitor.getStallCount());
+        assertEquals(0, monitor.getMaxMs());
+    }
+}
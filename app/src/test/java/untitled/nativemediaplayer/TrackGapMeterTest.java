@@ -0,0 +1,65 @@
+package untitled.nativemediaplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link TrackGapMeter}.
+ */
+public class TrackGapMeterTest {
+
+    @Test
+    public void preparedAfterEnd_measuresTheGap() {
+        TrackGapMeter meter = new TrackGapMeter();
+        meter.trackEnded(1000);
+        meter.trackStarted(1180);
+
+        assertEquals(1, meter.getCount());
+        assertEquals(180, meter.getLastGap());
+    }
+
+    @Test
+    public void chainedStartBeforeEnd_isNoGap() {
+        TrackGapMeter meter = new TrackGapMeter();
+        meter.nextStarted(999);
+        meter.trackEnded(1000);
+
+        assertEquals(1, meter.getCount());
+        assertEquals(0, meter.getLastGap());
+    }
+
+    @Test
+    public void chainedStartAfterEnd_measuresTheGap() {
+        TrackGapMeter meter = new TrackGapMeter();
+        meter.trackEnded(1000);
+        meter.nextStarted(1004);
+
+        assertEquals(4, meter.getLastGap());
+    }
+
+    @Test
+    public void userPick_isNotATransition() {
+        TrackGapMeter meter = new TrackGapMeter();
+        meter.trackStarted(500);
+        meter.trackEnded(1000);
+        meter.cancel();
+        meter.trackStarted(3000);
+
+        assertEquals(0, meter.getCount());
+        assertEquals(-1, meter.getLastGap());
+    }
+
+    @Test
+    public void statistics_coverEveryTransition() {
+        TrackGapMeter meter = new TrackGapMeter();
+        meter.trackEnded(0);
+        meter.trackStarted(200);
+        meter.trackEnded(1000);
+        meter.nextStarted(1000);
+
+        assertEquals(2, meter.getCount());
+        assertEquals(100, meter.getAverageGap());
+        assertEquals(200, meter.getMaxGap());
+    }
+}